@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * A shared cache of primitive arrays, used by {@link DataBundle} to back its
+ * <code>allocate*Array</code> methods. Arrays are kept in size classes: each
+ * primitive type has one bucket for every power of two between
+ * {@link #MIN_LENGTH} and {@link #MAX_LENGTH}. An array acquired for
+ * <code>n</code> elements comes from the smallest class that fits, thus it can
+ * be longer than <code>n</code>.
+ *
+ * The recycler never locks. It holds at most {@link #getMaxBytes()} bytes of
+ * idle arrays: when a released array does not fit, the buckets that were used
+ * least recently are evicted first. Arrays shorter than {@link #MIN_LENGTH} or
+ * longer than {@link #MAX_LENGTH} are not recycled.
+ *
+ */
+public class ArrayRecycler {
+
+	/** The Constant DEBUG. */
+	private final static boolean DEBUG = false;
+
+	/** The Constant TAG. */
+	private final static String TAG = ArrayRecycler.class.getSimpleName();
+
+	/**
+	 * {@link android.content.SharedPreferences} key, in
+	 * {@link MoSTApplication#PREF_INPUT}, of the maximum number of bytes of
+	 * idle arrays.
+	 */
+	public static final String PREF_KEY_MAX_BYTES = "ArrayRecycler.MaxBytes";
+
+	/** Default maximum number of bytes of idle arrays. */
+	public static final long DEFAULT_MAX_BYTES = 4L * 1024L * 1024L;
+
+	private static final int MIN_SHIFT = 6;
+	private static final int MAX_SHIFT = 20;
+
+	/** Length of the smallest recycled arrays. */
+	public static final int MIN_LENGTH = 1 << MIN_SHIFT;
+
+	/** Length of the largest recycled arrays. */
+	public static final int MAX_LENGTH = 1 << MAX_SHIFT;
+
+	/**
+	 * Primitive array types handled by the recycler.
+	 */
+	public static enum ArrayType {
+		BYTE(1), SHORT(2), FLOAT(4), DOUBLE(8), LONG(8);
+
+		private final int _elementSize;
+
+		private ArrayType(int elementSize) {
+			_elementSize = elementSize;
+		}
+
+		Object newArray(int length) {
+			switch (this) {
+			case BYTE:
+				return new byte[length];
+			case SHORT:
+				return new short[length];
+			case FLOAT:
+				return new float[length];
+			case DOUBLE:
+				return new double[length];
+			default:
+				return new long[length];
+			}
+		}
+
+		/**
+		 * Gets the length of an array of this type.
+		 *
+		 * @param array
+		 *            The array.
+		 * @return The length of <code>array</code>, or -1 if it is not an
+		 *         array of this type.
+		 */
+		int lengthOf(Object array) {
+			switch (this) {
+			case BYTE:
+				return array instanceof byte[] ? ((byte[]) array).length : -1;
+			case SHORT:
+				return array instanceof short[] ? ((short[]) array).length : -1;
+			case FLOAT:
+				return array instanceof float[] ? ((float[]) array).length : -1;
+			case DOUBLE:
+				return array instanceof double[] ? ((double[]) array).length : -1;
+			default:
+				return array instanceof long[] ? ((long[]) array).length : -1;
+			}
+		}
+
+		static ArrayType of(Object array) {
+			if (array instanceof byte[]) {
+				return BYTE;
+			} else if (array instanceof short[]) {
+				return SHORT;
+			} else if (array instanceof float[]) {
+				return FLOAT;
+			} else if (array instanceof double[]) {
+				return DOUBLE;
+			} else if (array instanceof long[]) {
+				return LONG;
+			}
+			return null;
+		}
+	}
+
+	private final long _maxBytes;
+
+	/** Buckets, indexed by [type][shift - MIN_SHIFT]. */
+	private final Bucket[][] _buckets;
+
+	/** Logical clock used to find the least recently used bucket. */
+	private final AtomicLong _clock;
+
+	private final AtomicLong _idleBytes;
+	private final AtomicLong _recycledCount;
+	private final AtomicLong _freshCount;
+	private final AtomicLong _evictedCount;
+	private final AtomicLong _discardedCount;
+
+	/**
+	 * Instantiates a new ArrayRecycler.
+	 *
+	 * @param maxBytes
+	 *            The maximum number of bytes of idle arrays kept by the
+	 *            recycler.
+	 */
+	public ArrayRecycler(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException();
+		}
+		_maxBytes = maxBytes;
+		_buckets = new Bucket[ArrayType.values().length][MAX_SHIFT - MIN_SHIFT + 1];
+		for (ArrayType type : ArrayType.values()) {
+			for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+				_buckets[type.ordinal()][shift - MIN_SHIFT] = new Bucket((long) type._elementSize << shift);
+			}
+		}
+		_clock = new AtomicLong();
+		_idleBytes = new AtomicLong();
+		_recycledCount = new AtomicLong();
+		_freshCount = new AtomicLong();
+		_evictedCount = new AtomicLong();
+		_discardedCount = new AtomicLong();
+	}
+
+	/**
+	 * Gets an array of at least <code>minLength</code> elements. The array is
+	 * not zero-ed.
+	 *
+	 * @param type
+	 *            The type of the array.
+	 * @param minLength
+	 *            The minimum length of the array.
+	 * @return An array of type <code>type</code>.
+	 */
+	public Object acquire(ArrayType type, int minLength) {
+		if (minLength < MIN_LENGTH || minLength > MAX_LENGTH) {
+			_freshCount.incrementAndGet();
+			return type.newArray(minLength);
+		}
+		int shift = shiftFor(minLength);
+		Bucket bucket = _buckets[type.ordinal()][shift - MIN_SHIFT];
+		bucket._lastUse = _clock.incrementAndGet();
+		Object array = bucket._arrays.poll();
+		if (array != null) {
+			_idleBytes.addAndGet(-bucket._arrayBytes);
+			_recycledCount.incrementAndGet();
+			return array;
+		}
+		_freshCount.incrementAndGet();
+		return type.newArray(1 << shift);
+	}
+
+	/**
+	 * Gives an array back to the recycler. The caller must not use the array
+	 * anymore.
+	 *
+	 * @param array
+	 *            The array to recycle.
+	 */
+	public void release(Object array) {
+		ArrayType type = ArrayType.of(array);
+		if (type == null) {
+			return;
+		}
+		int length = type.lengthOf(array);
+		if (length < MIN_LENGTH || length > MAX_LENGTH || Integer.bitCount(length) != 1) {
+			return;
+		}
+		Bucket bucket = _buckets[type.ordinal()][Integer.numberOfTrailingZeros(length) - MIN_SHIFT];
+		if (_idleBytes.addAndGet(bucket._arrayBytes) > _maxBytes) {
+			_idleBytes.addAndGet(-bucket._arrayBytes);
+			if (!evict(bucket)) {
+				_discardedCount.incrementAndGet();
+				return;
+			}
+			_idleBytes.addAndGet(bucket._arrayBytes);
+		}
+		bucket._lastUse = _clock.incrementAndGet();
+		bucket._arrays.offer(array);
+	}
+
+	/**
+	 * Evicts idle arrays, least recently used buckets first, until an array of
+	 * <code>target</code> fits.
+	 *
+	 * @param target
+	 *            The bucket that needs room.
+	 * @return <code>true</code> if there is room for an array of
+	 *         <code>target</code>.
+	 */
+	private boolean evict(Bucket target) {
+		if (target._arrayBytes > _maxBytes) {
+			return false;
+		}
+		while (_idleBytes.get() + target._arrayBytes > _maxBytes) {
+			Bucket victim = null;
+			for (Bucket[] buckets : _buckets) {
+				for (Bucket bucket : buckets) {
+					if (bucket != target && !bucket._arrays.isEmpty()
+							&& (victim == null || bucket._lastUse < victim._lastUse)) {
+						victim = bucket;
+					}
+				}
+			}
+			if (victim == null || victim._lastUse > target._lastUse) {
+				return false;
+			}
+			if (victim._arrays.poll() != null) {
+				_idleBytes.addAndGet(-victim._arrayBytes);
+				_evictedCount.incrementAndGet();
+			}
+		}
+		if (DEBUG)
+			Log.d(TAG, "Evicted arrays, idle bytes: " + _idleBytes.get());
+		return true;
+	}
+
+	private static int shiftFor(int length) {
+		int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+		return shift < MIN_SHIFT ? MIN_SHIFT : shift;
+	}
+
+	/**
+	 * Gets the maximum number of bytes of idle arrays.
+	 *
+	 * @return The memory cap of this recycler.
+	 */
+	public long getMaxBytes() {
+		return _maxBytes;
+	}
+
+	/**
+	 * Gets the number of bytes of idle arrays currently kept.
+	 *
+	 * @return The number of idle bytes.
+	 */
+	public long getIdleBytes() {
+		return _idleBytes.get();
+	}
+
+	/**
+	 * Gets the number of acquisitions served with a recycled array.
+	 *
+	 * @return The number of recycled arrays.
+	 */
+	public long getRecycledCount() {
+		return _recycledCount.get();
+	}
+
+	/**
+	 * Gets the number of acquisitions that allocated a new array.
+	 *
+	 * @return The number of fresh arrays.
+	 */
+	public long getFreshCount() {
+		return _freshCount.get();
+	}
+
+	/**
+	 * Gets the number of idle arrays evicted to stay within
+	 * {@link #getMaxBytes()}.
+	 *
+	 * @return The number of evicted arrays.
+	 */
+	public long getEvictedCount() {
+		return _evictedCount.get();
+	}
+
+	/**
+	 * Gets the number of released arrays that were dropped because the
+	 * recycler was full.
+	 *
+	 * @return The number of discarded arrays.
+	 */
+	public long getDiscardedCount() {
+		return _discardedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ArrayRecycler [recycled=%d, fresh=%d, evicted=%d, discarded=%d, idle=%d/%d bytes]",
+				getRecycledCount(), getFreshCount(), getEvictedCount(), getDiscardedCount(), getIdleBytes(), _maxBytes);
+	}
+
+	/**
+	 * Idle arrays of a single type and size class.
+	 */
+	private static class Bucket {
+		private final long _arrayBytes;
+		private final ConcurrentLinkedQueue<Object> _arrays = new ConcurrentLinkedQueue<Object>();
+		private volatile long _lastUse = 0L;
+
+		Bucket(long arrayBytes) {
+			_arrayBytes = arrayBytes;
+		}
+	}
+}
@@ -15,9 +15,12 @@
  */
 package org.most;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.most.DataBundleSchema.FieldType;
 import org.most.input.Input;
 import org.most.pipeline.Pipeline;
 
@@ -37,6 +40,14 @@ import android.util.Log;
  * as {@link #release()} is called, all references to values bundled by the
  * DataBundle become invalid.
  * 
+ * DataBundles borrowed with {@link DataBundlePool#borrowBundle(Input.Type)} are
+ * bound to the {@link DataBundleSchema} of that type: the primitive fields it
+ * declares are stored in primitive arrays indexed by slot, without boxing. They
+ * can be accessed either with the slot-based methods (e.g.,
+ * {@link #putLong(int, long)}), or with the key-based methods, which resolve
+ * the key to its slot. Slot-based methods do not synchronize: the
+ * {@link Input} that fills the bundle must do so before posting it.
+ * 
  * @author gcardone
  * 
  */
@@ -48,14 +59,43 @@ public class DataBundle {
 	private Map<String, Object> _map = null;
 
 	/**
-	 * Reference counter for this DataBundle. When it is zero, the Bundle can be
-	 * returned to its {@link DataBundlePool} (see {@link #_databundlePool}.
+	 * Reference counter for this DataBundle. It is 1 when the bundle is
+	 * borrowed, and it is zero while the bundle is in its
+	 * {@link DataBundlePool} (see {@link #_databundlePool}).
+	 */
+	private final AtomicInteger _refCount = new AtomicInteger();
+
+	/**
+	 * Arrays taken from the {@link ArrayRecycler}, and the keys they were
+	 * allocated for.
 	 */
-	private int _refCount = 0;
+	private final ArrayList<Object> _recycledArrays = new ArrayList<Object>();
+	private final ArrayList<String> _recycledKeys = new ArrayList<String>();
+
+	/** Leak detector record, set only if this borrow is being tracked. */
+	private DataBundleLeakDetector.Record _leakRecord = null;
 
 	/** The {@link DataBundlePool} that owns this DataBundle. */
 	private DataBundlePool _databundlePool = null;
 
+	/**
+	 * The schema of the primitive slots, <code>null</code> if this DataBundle
+	 * only uses its map.
+	 */
+	private DataBundleSchema _schema = null;
+
+	/** Values of the primitive slots. */
+	private long[] _longs = new long[0];
+	private int[] _ints = new int[0];
+	private float[] _floats = new float[0];
+	private double[] _doubles = new double[0];
+
+	/** Bitmasks of the primitive slots that currently hold a value. */
+	private long _longsSet = 0L;
+	private long _intsSet = 0L;
+	private long _floatsSet = 0L;
+	private long _doublesSet = 0L;
+
 	/**
 	 * Instantiates a new data bundle.
 	 * 
@@ -64,65 +104,35 @@ public class DataBundle {
 	 */
 	public DataBundle(DataBundlePool dataBundlePoolManager) {
 		_map = new HashMap<String, Object>();
-		_refCount = 0;
 		_databundlePool = dataBundlePoolManager;
 	}
 
 	/**
-	 * Allocates a new byte array.
+	 * Allocates a new byte array in the DataBundle. See
+	 * {@link #allocateFloatArray(String, int)} for details.
 	 * 
 	 * @param key
 	 *            The key associated to the array.
 	 * @param size
-	 *            Size of the float array.
+	 *            Minimum size of the byte array.
 	 * @return The byte array.
 	 */
 	public synchronized byte[] allocateByteArray(String key, int size) {
-		Object o = _map.get(key);
-		boolean allocateNew = true;
-		/*
-		 * Allocate a new array if any of the following conditions is met: 1)
-		 * there's no array allocated with the key "key" 2) there's an object
-		 * associated to "key", but it is not a float[] 3) the object associated
-		 * to "key" is a float[] but has the wrong size.
-		 */
-		allocateNew = (o == null);
-		allocateNew = allocateNew || (!(o instanceof byte[]));
-		allocateNew = allocateNew || (o instanceof byte[] && ((byte[]) o).length != size);
-		if (allocateNew) {
-			_map.put(key, new byte[size]);
-		}
-		return (byte[]) _map.get(key);
+		return (byte[]) allocateArray(key, size, ArrayRecycler.ArrayType.BYTE);
 	}
 
 	/**
-	 * Allocates a new double array in the DataBundle. The returned array is
-	 * already owned by the DataBundle. This method tries to reuse already
-	 * allocated arrays, thus the returned array is not guaranteed to be
-	 * zero-ed.
+	 * Allocates a new double array in the DataBundle. See
+	 * {@link #allocateFloatArray(String, int)} for details.
 	 * 
 	 * @param key
 	 *            The key associated to the array.
 	 * @param size
-	 *            Size of the double array.
+	 *            Minimum size of the double array.
 	 * @return The double array.
 	 */
 	public synchronized double[] allocateDoubleArray(String key, int size) {
-		Object o = _map.get(key);
-		boolean allocateNew = true;
-		/*
-		 * Allocate a new array if any of the following conditions is met: 1)
-		 * there's no array allocated with the key "key" 2) there's an object
-		 * associated to "key", but it is not a float[] 3) the object associated
-		 * to "key" is a float[] but has the wrong size.
-		 */
-		allocateNew = (o == null);
-		allocateNew = allocateNew || (!(o instanceof double[]));
-		allocateNew = allocateNew || (o instanceof double[] && ((double[]) o).length != size);
-		if (allocateNew) {
-			_map.put(key, new double[size]);
-		}
-		return (double[]) _map.get(key);
+		return (double[]) allocateArray(key, size, ArrayRecycler.ArrayType.DOUBLE);
 	}
 
 	/**
@@ -131,55 +141,103 @@ public class DataBundle {
 	 * allocated arrays, thus the returned array is not guaranteed to be
 	 * zero-ed.
 	 * 
+	 * Arrays of at least {@link ArrayRecycler#MIN_LENGTH} elements are taken
+	 * from the {@link ArrayRecycler} of the pool, and go back to it when the
+	 * DataBundle is returned to its pool: such arrays can be longer than
+	 * <code>size</code>, and only their first <code>size</code> elements are
+	 * meaningful. Shorter arrays have exactly <code>size</code> elements.
+	 * 
 	 * @param key
 	 *            The key associated to the array.
 	 * @param size
-	 *            Size of the float array.
+	 *            Minimum size of the float array.
 	 * @return The float array.
 	 */
 	public synchronized float[] allocateFloatArray(String key, int size) {
-		Object o = _map.get(key);
-		boolean allocateNew = true;
-		/*
-		 * Allocate a new array if any of the following conditions is met: 1)
-		 * there's no array allocated with the key "key" 2) there's an object
-		 * associated to "key", but it is not a float[] 3) the object associated
-		 * to "key" is a float[] but has the wrong size.
-		 */
-		allocateNew = (o == null);
-		allocateNew = allocateNew || (!(o instanceof float[]));
-		allocateNew = allocateNew || (o instanceof float[] && ((float[]) o).length != size);
-		if (allocateNew) {
-			_map.put(key, new float[size]);
-		}
-		return (float[]) _map.get(key);
+		return (float[]) allocateArray(key, size, ArrayRecycler.ArrayType.FLOAT);
 	}
 
 	/**
-	 * Allocates a new short array.
+	 * Allocates a new long array in the DataBundle. See
+	 * {@link #allocateFloatArray(String, int)} for details.
 	 * 
 	 * @param key
 	 *            The key associated to the array.
 	 * @param size
-	 *            Size of the float array.
-	 * @return The byte array.
+	 *            Minimum size of the long array.
+	 * @return The long array.
+	 */
+	public synchronized long[] allocateLongArray(String key, int size) {
+		return (long[]) allocateArray(key, size, ArrayRecycler.ArrayType.LONG);
+	}
+
+	/**
+	 * Allocates a new short array in the DataBundle. See
+	 * {@link #allocateFloatArray(String, int)} for details.
+	 * 
+	 * @param key
+	 *            The key associated to the array.
+	 * @param size
+	 *            Minimum size of the short array.
+	 * @return The short array.
 	 */
 	public synchronized short[] allocateShortArray(String key, int size) {
+		return (short[]) allocateArray(key, size, ArrayRecycler.ArrayType.SHORT);
+	}
+
+	private Object allocateArray(String key, int size, ArrayRecycler.ArrayType type) {
 		Object o = _map.get(key);
-		boolean allocateNew = true;
-		/*
-		 * Allocate a new array if any of the following conditions is met: 1)
-		 * there's no array allocated with the key "key" 2) there's an object
-		 * associated to "key", but it is not a float[] 3) the object associated
-		 * to "key" is a float[] but has the wrong size.
-		 */
-		allocateNew = (o == null);
-		allocateNew = allocateNew || (!(o instanceof short[]));
-		allocateNew = allocateNew || (o instanceof short[] && ((short[]) o).length != size);
-		if (allocateNew) {
-			_map.put(key, new short[size]);
+		int length = o == null ? -1 : type.lengthOf(o);
+		if (size < ArrayRecycler.MIN_LENGTH) {
+			if (length != size) {
+				o = type.newArray(size);
+				_map.put(key, o);
+			}
+			return o;
+		}
+		if (length >= size) {
+			return o;
+		}
+		ArrayRecycler recycler = _databundlePool.getArrayRecycler();
+		int index = indexOfRecycled(o);
+		if (index >= 0) {
+			_recycledKeys.remove(index);
+			recycler.release(_recycledArrays.remove(index));
+		}
+		o = recycler.acquire(type, size);
+		_map.put(key, o);
+		_recycledKeys.add(key);
+		_recycledArrays.add(o);
+		return o;
+	}
+
+	private int indexOfRecycled(Object array) {
+		for (int i = 0; i < _recycledArrays.size(); i++) {
+			if (_recycledArrays.get(i) == array) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gives the arrays taken from the {@link ArrayRecycler} back to it. Called
+	 * by the pool when this DataBundle is returned.
+	 * 
+	 * @param recycler
+	 *            The recycler of the pool.
+	 */
+	synchronized void recycleArrays(ArrayRecycler recycler) {
+		for (int i = 0; i < _recycledArrays.size(); i++) {
+			Object array = _recycledArrays.get(i);
+			String key = _recycledKeys.get(i);
+			if (_map.get(key) == array) {
+				_map.remove(key);
+			}
+			recycler.release(array);
 		}
-		return (short[]) _map.get(key);
+		_recycledArrays.clear();
+		_recycledKeys.clear();
 	}
 
 	/**
@@ -258,6 +316,10 @@ public class DataBundle {
 	 * @return The stored double if found, otherwise the default value.
 	 */
 	public synchronized double getDouble(String key, double defaultValue) {
+		int slot = getSlot(key, FieldType.DOUBLE);
+		if (slot >= 0) {
+			return (_doublesSet & (1L << slot)) != 0 ? _doubles[slot] : defaultValue;
+		}
 		Object o = _map.get(key);
 		if (o == null) {
 			return defaultValue;
@@ -310,6 +372,10 @@ public class DataBundle {
 	 * @return The stored float if found, otherwise the default value.
 	 */
 	public synchronized float getFloat(String key, float defaultValue) {
+		int slot = getSlot(key, FieldType.FLOAT);
+		if (slot >= 0) {
+			return (_floatsSet & (1L << slot)) != 0 ? _floats[slot] : defaultValue;
+		}
 		Object o = _map.get(key);
 		if (o == null) {
 			return defaultValue;
@@ -362,6 +428,10 @@ public class DataBundle {
 	 * @return The stored integer if found, otherwise the default value.
 	 */
 	public synchronized int getInt(String key, int defaultValue) {
+		int slot = getSlot(key, FieldType.INT);
+		if (slot >= 0) {
+			return (_intsSet & (1L << slot)) != 0 ? _ints[slot] : defaultValue;
+		}
 		Object o = _map.get(key);
 		if (o == null) {
 			return defaultValue;
@@ -374,6 +444,23 @@ public class DataBundle {
 		}
 	}
 
+	/**
+	 * Gets a long array.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return The long array or <code>null</code> if not found.
+	 */
+	public synchronized long[] getLongArray(String key) {
+		Object o = _map.get(key);
+		try {
+			return (long[]) o;
+		} catch (ClassCastException e) {
+			Log.e(TAG, String.format("getLongArray, found type is %s", o.getClass().getCanonicalName()));
+			return null;
+		}
+	}
+
 	/**
 	 * Gets a long.
 	 * 
@@ -395,6 +482,10 @@ public class DataBundle {
 	 * @return the long
 	 */
 	public synchronized long getLong(String key, long defaultValue) {
+		int slot = getSlot(key, FieldType.LONG);
+		if (slot >= 0) {
+			return (_longsSet & (1L << slot)) != 0 ? _longs[slot] : defaultValue;
+		}
 		Object o = _map.get(key);
 		if (o == null) {
 			return defaultValue;
@@ -415,6 +506,10 @@ public class DataBundle {
 	 * @return The stored object, or <code>null</code> if not found.
 	 */
 	public synchronized Object getObject(String key) {
+		Object slotValue = getSlotValue(key);
+		if (slotValue != null) {
+			return slotValue;
+		}
 		return _map.get(key);
 	}
 
@@ -430,7 +525,7 @@ public class DataBundle {
 	 */
 	@SuppressWarnings("unchecked")
 	public synchronized <T> T getObject(String key, Class<T> clazz) {
-		Object o = _map.get(key);
+		Object o = getObject(key);
 		if (o == null) {
 			return null;
 		}
@@ -446,8 +541,8 @@ public class DataBundle {
 	 * 
 	 * @return The current value of the reference counter.
 	 */
-	public synchronized int getRefCount() {
-		return _refCount;
+	public int getRefCount() {
+		return _refCount.get();
 	}
 
 	/**
@@ -520,6 +615,11 @@ public class DataBundle {
 	 *            The value to store.
 	 */
 	public synchronized void putDouble(String key, double value) {
+		int slot = getSlot(key, FieldType.DOUBLE);
+		if (slot >= 0) {
+			putDouble(slot, value);
+			return;
+		}
 		_map.put(key, value);
 	}
 
@@ -546,6 +646,11 @@ public class DataBundle {
 	 *            The value to store.
 	 */
 	public synchronized void putFloat(String key, float value) {
+		int slot = getSlot(key, FieldType.FLOAT);
+		if (slot >= 0) {
+			putFloat(slot, value);
+			return;
+		}
 		_map.put(key, value);
 	}
 
@@ -572,6 +677,11 @@ public class DataBundle {
 	 *            The value.
 	 */
 	public synchronized void putInt(String key, int value) {
+		int slot = getSlot(key, FieldType.INT);
+		if (slot >= 0) {
+			putInt(slot, value);
+			return;
+		}
 		_map.put(key, value);
 	}
 
@@ -585,6 +695,25 @@ public class DataBundle {
 	 *            the value
 	 */
 	public synchronized void putLong(String key, long value) {
+		int slot = getSlot(key, FieldType.LONG);
+		if (slot >= 0) {
+			putLong(slot, value);
+			return;
+		}
+		_map.put(key, value);
+	}
+
+	/**
+	 * Puts a long array. The array is not cloned, hence the caller
+	 * <em>loses the ownership of the array</em>. {@link Input}s are encouraged
+	 * to prefer {@link #allocateLongArray(String, int)} to this method.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 */
+	public synchronized void putLongArray(String key, long[] value) {
 		_map.put(key, value);
 	}
 
@@ -627,14 +756,21 @@ public class DataBundle {
 
 	/**
 	 * Releases the DataBundle. This method <b>must<b/> called by every Pipeline
-	 * and any other object that receives a DataBundle.
-	 */
-	public synchronized void release() {
-		if (_refCount <= 1) {
-			_refCount = 0;
+	 * and any other object that receives a DataBundle. The last release returns
+	 * the bundle to its pool; releasing a bundle that is already in the pool is
+	 * logged and otherwise ignored.
+	 */
+	public void release() {
+		int count;
+		do {
+			count = _refCount.get();
+			if (count <= 0) {
+				Log.e(TAG, "DataBundle released more times than it was referenced", new IllegalStateException());
+				return;
+			}
+		} while (!_refCount.compareAndSet(count, count - 1));
+		if (count == 1) {
 			_databundlePool.returnBundle(this);
-		} else {
-			_refCount--;
 		}
 	}
 
@@ -646,6 +782,14 @@ public class DataBundle {
 	 * @return The object that was removed, or null if it was not found.
 	 */
 	public synchronized Object remove(String key) {
+		Object slotValue = getSlotValue(key);
+		if (slotValue != null) {
+			_longsSet &= ~slotMask(key, FieldType.LONG);
+			_intsSet &= ~slotMask(key, FieldType.INT);
+			_floatsSet &= ~slotMask(key, FieldType.FLOAT);
+			_doublesSet &= ~slotMask(key, FieldType.DOUBLE);
+			return slotValue;
+		}
 		return _map.remove(key);
 	}
 
@@ -656,7 +800,207 @@ public class DataBundle {
 	 * @param value
 	 *            The new value of the reference counter.
 	 */
-	public synchronized void setRefCount(int value) {
-		_refCount = value;
+	public void setRefCount(int value) {
+		_refCount.set(value);
+	}
+
+	DataBundleLeakDetector.Record getLeakRecord() {
+		return _leakRecord;
+	}
+
+	void setLeakRecord(DataBundleLeakDetector.Record record) {
+		_leakRecord = record;
+	}
+
+	/**
+	 * Gets the {@link DataBundleSchema} this DataBundle is bound to.
+	 * 
+	 * @return The schema, or <code>null</code> if this DataBundle is not bound
+	 *         to any schema.
+	 */
+	public DataBundleSchema getSchema() {
+		return _schema;
+	}
+
+	/**
+	 * Binds this DataBundle to a schema, clearing all primitive slots. Only
+	 * {@link DataBundlePool} calls this method.
+	 * 
+	 * @param schema
+	 *            The new schema, <code>null</code> to unbind the DataBundle.
+	 */
+	void setSchema(DataBundleSchema schema) {
+		_schema = schema;
+		_longsSet = 0L;
+		_intsSet = 0L;
+		_floatsSet = 0L;
+		_doublesSet = 0L;
+		if (schema != null) {
+			ensureCapacity(schema);
+		}
+	}
+
+	/**
+	 * Grows the slot arrays so that they fit a schema, without binding this
+	 * DataBundle to it. Only {@link DataBundlePool} calls this method, to size
+	 * the bundles it allocates in advance.
+	 * 
+	 * @param schema
+	 *            The schema.
+	 */
+	void ensureCapacity(DataBundleSchema schema) {
+		if (_longs.length < schema.getSlotCount(FieldType.LONG)) {
+			_longs = new long[schema.getSlotCount(FieldType.LONG)];
+		}
+		if (_ints.length < schema.getSlotCount(FieldType.INT)) {
+			_ints = new int[schema.getSlotCount(FieldType.INT)];
+		}
+		if (_floats.length < schema.getSlotCount(FieldType.FLOAT)) {
+			_floats = new float[schema.getSlotCount(FieldType.FLOAT)];
+		}
+		if (_doubles.length < schema.getSlotCount(FieldType.DOUBLE)) {
+			_doubles = new double[schema.getSlotCount(FieldType.DOUBLE)];
+		}
+	}
+
+	/**
+	 * Gets a double stored in a slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @return The stored double, or 0.0 if the slot is empty.
+	 */
+	public double getDouble(int slot) {
+		return (_doublesSet & (1L << slot)) != 0 ? _doubles[slot] : 0.0;
+	}
+
+	/**
+	 * Gets a float stored in a slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @return The stored float, or 0.0f if the slot is empty.
+	 */
+	public float getFloat(int slot) {
+		return (_floatsSet & (1L << slot)) != 0 ? _floats[slot] : 0.0f;
+	}
+
+	/**
+	 * Gets an integer stored in a slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @return The stored integer, or 0 if the slot is empty.
+	 */
+	public int getInt(int slot) {
+		return (_intsSet & (1L << slot)) != 0 ? _ints[slot] : 0;
+	}
+
+	/**
+	 * Gets a long stored in a slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @return The stored long, or 0L if the slot is empty.
+	 */
+	public long getLong(int slot) {
+		return (_longsSet & (1L << slot)) != 0 ? _longs[slot] : 0L;
+	}
+
+	/**
+	 * Puts a double in a slot. This DataBundle must be bound to a schema that
+	 * declares the slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @param value
+	 *            The value to store.
+	 */
+	public void putDouble(int slot, double value) {
+		_doubles[slot] = value;
+		_doublesSet |= 1L << slot;
+	}
+
+	/**
+	 * Puts a float in a slot. This DataBundle must be bound to a schema that
+	 * declares the slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @param value
+	 *            The value to store.
+	 */
+	public void putFloat(int slot, float value) {
+		_floats[slot] = value;
+		_floatsSet |= 1L << slot;
+	}
+
+	/**
+	 * Puts an integer in a slot. This DataBundle must be bound to a schema that
+	 * declares the slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @param value
+	 *            The value to store.
+	 */
+	public void putInt(int slot, int value) {
+		_ints[slot] = value;
+		_intsSet |= 1L << slot;
+	}
+
+	/**
+	 * Puts a long in a slot. This DataBundle must be bound to a schema that
+	 * declares the slot.
+	 * 
+	 * @param slot
+	 *            The slot, as declared in the {@link DataBundleSchema}.
+	 * @param value
+	 *            The value to store.
+	 */
+	public void putLong(int slot, long value) {
+		_longs[slot] = value;
+		_longsSet |= 1L << slot;
+	}
+
+	/**
+	 * Resolves a key to its slot in the current schema.
+	 * 
+	 * @return The slot, or -1 if this DataBundle has no schema or the schema
+	 *         does not declare the key with the given type.
+	 */
+	private int getSlot(String key, FieldType type) {
+		return _schema == null ? -1 : _schema.getSlot(key, type);
+	}
+
+	private long slotMask(String key, FieldType type) {
+		int slot = getSlot(key, type);
+		return slot < 0 ? 0L : 1L << slot;
+	}
+
+	/**
+	 * Returns the boxed value of the slot associated to a key, if any.
+	 */
+	private Object getSlotValue(String key) {
+		if (_schema == null) {
+			return null;
+		}
+		int slot = getSlot(key, FieldType.LONG);
+		if (slot >= 0 && (_longsSet & (1L << slot)) != 0) {
+			return _longs[slot];
+		}
+		slot = getSlot(key, FieldType.INT);
+		if (slot >= 0 && (_intsSet & (1L << slot)) != 0) {
+			return _ints[slot];
+		}
+		slot = getSlot(key, FieldType.FLOAT);
+		if (slot >= 0 && (_floatsSet & (1L << slot)) != 0) {
+			return _floats[slot];
+		}
+		slot = getSlot(key, FieldType.DOUBLE);
+		if (slot >= 0 && (_doublesSet & (1L << slot)) != 0) {
+			return _doubles[slot];
+		}
+		return null;
 	}
 }
@@ -15,13 +15,11 @@
  */
 package org.most;
 
-import org.apache.commons.pool.BasePoolableObjectFactory;
-
 /**
  * A factory for creating DataBundle objects.
  * 
  */
-public class DataBundleFactory extends BasePoolableObjectFactory<DataBundle> {
+public class DataBundleFactory {
 
 	/** The _data bundle pool. */
 	private DataBundlePool _dataBundlePool = null;
@@ -36,13 +34,12 @@ public class DataBundleFactory extends BasePoolableObjectFactory<DataBundle> {
 		_dataBundlePool = dataBundlePool;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Creates a new DataBundle owned by the pool of this factory.
 	 * 
-	 * @see org.apache.commons.pool.BasePoolableObjectFactory#makeObject()
+	 * @return The new DataBundle.
 	 */
-	@Override
-	public DataBundle makeObject() throws Exception {
+	public DataBundle makeObject() {
 		return new DataBundle(_dataBundlePool);
 	}
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Finds {@link DataBundle}s that are garbage collected without having been
+ * returned to their {@link DataBundlePool}, i.e. bundles whose owner forgot to
+ * call {@link DataBundle#release()}.
+ *
+ * Only one borrow every {@link #getSamplingInterval()} is tracked: for a
+ * tracked borrow the detector records the stack trace of the borrower and
+ * keeps a weak reference to the bundle. If the bundle is collected before
+ * being returned, the stack trace is logged on the next sampled borrow. Since
+ * untracked borrows only increment a counter, the detector can be left enabled
+ * with a large sampling interval.
+ *
+ */
+public class DataBundleLeakDetector {
+
+	private final static String TAG = DataBundleLeakDetector.class.getSimpleName();
+
+	private final int _samplingInterval;
+	private final AtomicLong _borrowCount;
+	private final AtomicLong _leakCount;
+	private final ReferenceQueue<DataBundle> _collected;
+
+	/** Records of the tracked bundles that have not been returned yet. */
+	private final Map<Record, Boolean> _live;
+
+	/**
+	 * Instantiates a new leak detector.
+	 *
+	 * @param samplingInterval
+	 *            Track one borrow every <code>samplingInterval</code>. If 0,
+	 *            the detector is disabled.
+	 */
+	public DataBundleLeakDetector(int samplingInterval) {
+		if (samplingInterval < 0) {
+			throw new IllegalArgumentException();
+		}
+		_samplingInterval = samplingInterval;
+		_borrowCount = new AtomicLong();
+		_leakCount = new AtomicLong();
+		_collected = new ReferenceQueue<DataBundle>();
+		_live = new ConcurrentHashMap<Record, Boolean>();
+	}
+
+	/**
+	 * Called by the pool when a bundle is borrowed.
+	 *
+	 * @param b
+	 *            The borrowed bundle.
+	 */
+	void onBorrow(DataBundle b) {
+		if (_samplingInterval == 0 || _borrowCount.incrementAndGet() % _samplingInterval != 0) {
+			return;
+		}
+		reportLeaks();
+		Record record = new Record(b, _collected);
+		_live.put(record, Boolean.TRUE);
+		b.setLeakRecord(record);
+	}
+
+	/**
+	 * Called by the pool when a bundle is returned.
+	 *
+	 * @param b
+	 *            The returned bundle.
+	 */
+	void onReturn(DataBundle b) {
+		Record record = b.getLeakRecord();
+		if (record != null) {
+			b.setLeakRecord(null);
+			_live.remove(record);
+			record.clear();
+		}
+	}
+
+	/**
+	 * Logs the borrow site of the tracked bundles that were collected since the
+	 * last report.
+	 */
+	public void reportLeaks() {
+		Record record;
+		while ((record = (Record) _collected.poll()) != null) {
+			if (_live.remove(record) != null) {
+				_leakCount.incrementAndGet();
+				Log.e(TAG, "DataBundle was garbage collected without being released. Borrowed "
+						+ (System.currentTimeMillis() - record._borrowTime) + "ms before the report at:",
+						record._borrowSite);
+			}
+		}
+	}
+
+	/**
+	 * Gets the sampling interval.
+	 *
+	 * @return One borrow every this many is tracked, 0 if the detector is
+	 *         disabled.
+	 */
+	public int getSamplingInterval() {
+		return _samplingInterval;
+	}
+
+	/**
+	 * Gets the number of leaks reported so far. Since only sampled borrows are
+	 * tracked, the actual number of leaks is roughly this value multiplied by
+	 * {@link #getSamplingInterval()}.
+	 *
+	 * @return The number of reported leaks.
+	 */
+	public long getLeakCount() {
+		return _leakCount.get();
+	}
+
+	/**
+	 * Gets the number of tracked bundles that are currently borrowed.
+	 *
+	 * @return The number of tracked bundles.
+	 */
+	public int getTrackedCount() {
+		return _live.size();
+	}
+
+	/**
+	 * Borrow site of a tracked bundle. It only references its bundle weakly, so
+	 * that leaked bundles can be collected.
+	 */
+	static class Record extends WeakReference<DataBundle> {
+		private final long _borrowTime;
+		private final Throwable _borrowSite;
+
+		Record(DataBundle b, ReferenceQueue<DataBundle> queue) {
+			super(b, queue);
+			_borrowTime = System.currentTimeMillis();
+			_borrowSite = new Throwable("DataBundle borrowed by thread " + Thread.currentThread().getName());
+		}
+	}
+}
@@ -15,14 +15,29 @@
  */
 package org.most;
 
-import org.apache.commons.pool.impl.StackObjectPool;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.most.input.Input;
 
 import android.util.Log;
 
 /**
  * This class represents a pool of {@link DataBundle}, that can be reused to
  * minimize the memory and CPU cost of the application.
- * 
+ *
+ * The pool never locks. Each thread keeps two magazines (small stacks of
+ * {@link DataBundle}s) that serve most borrows and returns without any
+ * synchronization. When both magazines of a thread are empty (or full), the
+ * thread exchanges a whole magazine with a shared, lock-free depot. Bundles are
+ * usually borrowed by Input threads and returned by Pipeline threads: full
+ * magazines flow from the latter to the former through the depot.
+ *
+ * The depot keeps at most {@link #getMaxIdle()} idle bundles, additional
+ * returned bundles are left to the garbage collector. Each thread additionally
+ * caches at most 2 * {@link #MAGAZINE_SIZE} bundles.
+ *
  */
 public class DataBundlePool {
 
@@ -32,53 +47,463 @@ public class DataBundlePool {
 	/** The Constant TAG. */
 	private final static String TAG = DataBundlePool.class.getCanonicalName();
 
-	/** The _pool. */
-	private StackObjectPool<DataBundle> _pool = null;
+	/**
+	 * {@link android.content.SharedPreferences} key, in
+	 * {@link MoSTApplication#PREF_INPUT}, of the maximum number of idle
+	 * bundles kept in the depot.
+	 */
+	public static final String PREF_KEY_MAX_IDLE = "DataBundlePool.MaxIdle";
 
 	/**
-	 * Instantiates a new DataBundlePool.
+	 * Prefix of the {@link android.content.SharedPreferences} keys, in
+	 * {@link MoSTApplication#PREF_INPUT}, of the number of bundles to pre-warm
+	 * when an Input is activated. The full key is the prefix followed by the
+	 * name of the {@link Input.Type}, e.g.
+	 * <code>DataBundlePool.Prewarm.ACCELEROMETER</code>.
+	 */
+	public static final String PREF_KEY_PREWARM_PREFIX = "DataBundlePool.Prewarm.";
+
+	/** Default maximum number of idle bundles in the depot. */
+	public static final int DEFAULT_MAX_IDLE = 1024;
+
+	/**
+	 * {@link android.content.SharedPreferences} key, in
+	 * {@link MoSTApplication#PREF_INPUT}, of the leak detector sampling
+	 * interval (see {@link DataBundleLeakDetector}). 0 disables the detector.
+	 */
+	public static final String PREF_KEY_LEAK_SAMPLING_INTERVAL = "DataBundlePool.LeakSamplingInterval";
+
+	/** Default leak detector sampling interval. */
+	public static final int DEFAULT_LEAK_SAMPLING_INTERVAL = 4096;
+
+	/** Number of bundles in a magazine. */
+	public static final int MAGAZINE_SIZE = 32;
+
+	/** Creates the DataBundles when the pool is empty. */
+	private final DataBundleFactory _factory;
+
+	/** Maximum number of bundles in the depot. */
+	private final int _maxIdle;
+
+	/** Full magazines, shared by all threads. */
+	private final ConcurrentLinkedQueue<Magazine> _fullMagazines;
+
+	/** Empty magazines, shared by all threads. */
+	private final ConcurrentLinkedQueue<Magazine> _emptyMagazines;
+
+	/** Number of bundles in {@link #_fullMagazines}. */
+	private final AtomicInteger _depotSize;
+
+	/** Magazines of each thread. */
+	private final ThreadLocal<ThreadCache> _threadCaches;
+
+	/** Tracks a sample of the borrowed bundles. */
+	private final DataBundleLeakDetector _leakDetector;
+
+	/** Backs the arrays allocated by the bundles of this pool. */
+	private final ArrayRecycler _arrayRecycler;
+
+	private final long _creationTime;
+	private final AtomicLong _borrowCount;
+	private final AtomicLong _returnCount;
+	private final AtomicLong _missCount;
+	private final AtomicLong _discardCount;
+	private final AtomicInteger _outstanding;
+	private final AtomicInteger _highWaterMark;
+
+	/**
+	 * Instantiates a new DataBundlePool that keeps up to
+	 * {@link #DEFAULT_MAX_IDLE} idle bundles.
 	 */
 	public DataBundlePool() {
-		_pool = new StackObjectPool<DataBundle>(new DataBundleFactory(this));
-		// this.setWhenExhaustedAction(WHEN_EXHAUSTED_GROW);
+		this(DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * Instantiates a new DataBundlePool, with the default leak detector
+	 * sampling interval.
+	 *
+	 * @param maxIdle
+	 *            The maximum number of idle bundles kept in the shared depot.
+	 */
+	public DataBundlePool(int maxIdle) {
+		this(maxIdle, DEFAULT_LEAK_SAMPLING_INTERVAL);
 	}
 
 	/**
-	 * Gets a new {@link DataBundle} from the pool.
-	 * 
+	 * Instantiates a new DataBundlePool.
+	 *
+	 * @param maxIdle
+	 *            The maximum number of idle bundles kept in the shared depot.
+	 * @param leakSamplingInterval
+	 *            The leak detector tracks one borrow every
+	 *            <code>leakSamplingInterval</code>, 0 disables it.
+	 */
+	public DataBundlePool(int maxIdle, int leakSamplingInterval) {
+		this(maxIdle, leakSamplingInterval, ArrayRecycler.DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Instantiates a new DataBundlePool.
+	 *
+	 * @param maxIdle
+	 *            The maximum number of idle bundles kept in the shared depot.
+	 * @param leakSamplingInterval
+	 *            The leak detector tracks one borrow every
+	 *            <code>leakSamplingInterval</code>, 0 disables it.
+	 * @param arrayRecyclerMaxBytes
+	 *            The maximum number of bytes of idle arrays kept by the
+	 *            {@link ArrayRecycler}.
+	 */
+	public DataBundlePool(int maxIdle, int leakSamplingInterval, long arrayRecyclerMaxBytes) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException();
+		}
+		_leakDetector = new DataBundleLeakDetector(leakSamplingInterval);
+		_arrayRecycler = new ArrayRecycler(arrayRecyclerMaxBytes);
+		_factory = new DataBundleFactory(this);
+		_maxIdle = maxIdle;
+		_fullMagazines = new ConcurrentLinkedQueue<Magazine>();
+		_emptyMagazines = new ConcurrentLinkedQueue<Magazine>();
+		_depotSize = new AtomicInteger();
+		_threadCaches = new ThreadLocal<ThreadCache>() {
+			@Override
+			protected ThreadCache initialValue() {
+				return new ThreadCache();
+			}
+		};
+		_creationTime = System.currentTimeMillis();
+		_borrowCount = new AtomicLong();
+		_returnCount = new AtomicLong();
+		_missCount = new AtomicLong();
+		_discardCount = new AtomicLong();
+		_outstanding = new AtomicInteger();
+		_highWaterMark = new AtomicInteger();
+	}
+
+	/**
+	 * Gets a new {@link DataBundle} from the pool. Its reference counter is 1:
+	 * the borrower either hands the bundle over to a bus, or calls
+	 * {@link DataBundle#release()}.
+	 *
 	 * @return a new {@link DataBundle}
 	 */
 	public DataBundle borrowBundle() {
+		DataBundle b = _threadCaches.get().pop();
+		if (b == null) {
+			b = _factory.makeObject();
+			_missCount.incrementAndGet();
+		}
+		b.setRefCount(1);
+		_leakDetector.onBorrow(b);
+		_borrowCount.incrementAndGet();
+		int outstanding = _outstanding.incrementAndGet();
+		int highWaterMark = _highWaterMark.get();
+		while (outstanding > highWaterMark && !_highWaterMark.compareAndSet(highWaterMark, outstanding)) {
+			highWaterMark = _highWaterMark.get();
+		}
 		if (DEBUG)
-			Log.d(TAG, "Borrowed DataBundle, active: "
-					+ (_pool.getNumActive() + 1));
-		try {
-			return _pool.borrowObject();
+			Log.d(TAG, "Borrowed DataBundle, active: " + outstanding);
+		return b;
+	}
 
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
-		}
+	/**
+	 * Gets a new {@link DataBundle} from the pool, bound to the
+	 * {@link DataBundleSchema} of an {@link Input.Type}.
+	 *
+	 * @param inputType
+	 *            The type of the Input that will fill the DataBundle.
+	 * @return a new {@link DataBundle}
+	 */
+	public DataBundle borrowBundle(Input.Type inputType) {
+		DataBundle b = borrowBundle();
+		b.setSchema(DataBundleSchema.forType(inputType));
+		return b;
 	}
 
 	/**
 	 * Returns a new {@link DataBundle} <em>to</em> to pool.
-	 * 
+	 *
 	 * @param b
 	 *            The DataBundle to return to the pool.
 	 */
 	public void returnBundle(DataBundle b) {
+		_leakDetector.onReturn(b);
+		b.recycleArrays(_arrayRecycler);
+		b.setRefCount(0);
+		b.setSchema(null);
+		_threadCaches.get().push(b);
+		_returnCount.incrementAndGet();
+		int outstanding = _outstanding.decrementAndGet();
+		if (DEBUG)
+			Log.d(TAG, "Returned DataBundle, active: " + outstanding);
+	}
 
-		try {
-			b.setRefCount(0);
-			_pool.returnObject(b);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	/**
+	 * Allocates bundles in advance for an {@link Input.Type}, so that the
+	 * first samples it posts do not pay for the allocation. The bundles are
+	 * sized for the {@link DataBundleSchema} of the type and are placed in the
+	 * shared depot, in magazines of up to {@link #MAGAZINE_SIZE} bundles, until
+	 * it holds {@link #getMaxIdle()} bundles.
+	 *
+	 * @param inputType
+	 *            The Input type the bundles are for.
+	 * @param count
+	 *            The number of bundles to allocate.
+	 */
+	public void prewarm(Input.Type inputType, int count) {
+		DataBundleSchema schema = DataBundleSchema.forType(inputType);
+		for (int left = count; left > 0;) {
+			int size = Math.min(Math.min(left, MAGAZINE_SIZE), _maxIdle - _depotSize.get());
+			if (size <= 0 || !reserveDepot(size)) {
+				break;
+			}
+			Magazine magazine = new Magazine();
+			for (int i = 0; i < size; i++) {
+				DataBundle b = _factory.makeObject();
+				b.ensureCapacity(schema);
+				magazine.push(b);
+			}
+			_fullMagazines.offer(magazine);
+			left -= size;
 		}
 		if (DEBUG)
-			Log.d(TAG, "Returned DataBundle, active: " + _pool.getNumActive());
+			Log.d(TAG, "Pre-warmed pool for " + inputType + ", idle: " + _depotSize.get());
+	}
+
+	/**
+	 * Makes room for a magazine in the depot. The check and the update are a
+	 * single compare-and-set, thus concurrent returns cannot push the depot
+	 * past {@link #_maxIdle}.
+	 *
+	 * @param bundles
+	 *            The number of bundles in the magazine.
+	 * @return <code>false</code> if the magazine does not fit.
+	 */
+	private boolean reserveDepot(int bundles) {
+		while (true) {
+			int size = _depotSize.get();
+			if (size + bundles > _maxIdle) {
+				return false;
+			}
+			if (_depotSize.compareAndSet(size, size + bundles)) {
+				return true;
+			}
+		}
 	}
 
+	/**
+	 * Gets the maximum number of idle bundles kept in the shared depot.
+	 *
+	 * @return The maximum number of idle bundles.
+	 */
+	public int getMaxIdle() {
+		return _maxIdle;
+	}
+
+	/**
+	 * Gets the array recycler shared by the bundles of this pool.
+	 *
+	 * @return The array recycler.
+	 */
+	public ArrayRecycler getArrayRecycler() {
+		return _arrayRecycler;
+	}
+
+	/**
+	 * Gets the leak detector of this pool.
+	 *
+	 * @return The leak detector.
+	 */
+	public DataBundleLeakDetector getLeakDetector() {
+		return _leakDetector;
+	}
+
+	/**
+	 * Gets a snapshot of the usage statistics of this pool.
+	 *
+	 * @return The current statistics.
+	 */
+	public Statistics getStatistics() {
+		return new Statistics(System.currentTimeMillis() - _creationTime, _borrowCount.get(), _returnCount.get(),
+				_missCount.get(), _discardCount.get(), _outstanding.get(), _highWaterMark.get(), _depotSize.get());
+	}
+
+	/**
+	 * A fixed-size stack of bundles.
+	 */
+	private static class Magazine {
+		private final DataBundle[] _bundles = new DataBundle[MAGAZINE_SIZE];
+		private int _count = 0;
+
+		boolean isEmpty() {
+			return _count == 0;
+		}
+
+		boolean isFull() {
+			return _count == MAGAZINE_SIZE;
+		}
+
+		int size() {
+			return _count;
+		}
+
+		void push(DataBundle b) {
+			_bundles[_count++] = b;
+		}
+
+		DataBundle pop() {
+			DataBundle b = _bundles[--_count];
+			_bundles[_count] = null;
+			return b;
+		}
+
+		void clear() {
+			while (_count > 0) {
+				_bundles[--_count] = null;
+			}
+		}
+	}
+
+	/**
+	 * The magazines of a single thread. The previous magazine is always either
+	 * full or empty. Magazines taken from the depot are full, except the last
+	 * one of each {@link DataBundlePool#prewarm(Input.Type, int)}.
+	 */
+	private class ThreadCache {
+		private Magazine _loaded = new Magazine();
+		private Magazine _previous = new Magazine();
+
+		DataBundle pop() {
+			if (_loaded.isEmpty()) {
+				if (_previous.isFull()) {
+					swap();
+				} else {
+					Magazine full = _fullMagazines.poll();
+					if (full == null) {
+						return null;
+					}
+					_depotSize.addAndGet(-full.size());
+					_emptyMagazines.offer(_previous);
+					_previous = _loaded;
+					_loaded = full;
+				}
+			}
+			return _loaded.pop();
+		}
+
+		void push(DataBundle b) {
+			if (_loaded.isFull()) {
+				if (_previous.isEmpty()) {
+					swap();
+				} else {
+					Magazine empty;
+					if (reserveDepot(MAGAZINE_SIZE)) {
+						_fullMagazines.offer(_previous);
+						empty = _emptyMagazines.poll();
+						if (empty == null) {
+							empty = new Magazine();
+						}
+					} else {
+						_previous.clear();
+						_discardCount.addAndGet(MAGAZINE_SIZE);
+						empty = _previous;
+					}
+					_previous = _loaded;
+					_loaded = empty;
+				}
+			}
+			_loaded.push(b);
+		}
+
+		private void swap() {
+			Magazine tmp = _loaded;
+			_loaded = _previous;
+			_previous = tmp;
+		}
+	}
+
+	/**
+	 * Snapshot of the usage statistics of a {@link DataBundlePool}.
+	 */
+	public static class Statistics {
+		private final long _elapsedMillis;
+		private final long _borrowCount;
+		private final long _returnCount;
+		private final long _missCount;
+		private final long _discardCount;
+		private final int _outstanding;
+		private final int _highWaterMark;
+		private final int _idle;
+
+		Statistics(long elapsedMillis, long borrowCount, long returnCount, long missCount, long discardCount,
+				int outstanding, int highWaterMark, int idle) {
+			_elapsedMillis = elapsedMillis;
+			_borrowCount = borrowCount;
+			_returnCount = returnCount;
+			_missCount = missCount;
+			_discardCount = discardCount;
+			_outstanding = outstanding;
+			_highWaterMark = highWaterMark;
+			_idle = idle;
+		}
+
+		/** @return The number of bundles borrowed since the pool was created. */
+		public long getBorrowCount() {
+			return _borrowCount;
+		}
+
+		/** @return The number of bundles returned since the pool was created. */
+		public long getReturnCount() {
+			return _returnCount;
+		}
+
+		/** @return The number of borrows that had to allocate a new bundle. */
+		public long getMissCount() {
+			return _missCount;
+		}
+
+		/** @return The number of returned bundles left to the garbage collector. */
+		public long getDiscardCount() {
+			return _discardCount;
+		}
+
+		/** @return The number of bundles currently borrowed. */
+		public int getOutstanding() {
+			return _outstanding;
+		}
+
+		/** @return The maximum number of bundles borrowed at the same time. */
+		public int getHighWaterMark() {
+			return _highWaterMark;
+		}
+
+		/** @return The number of idle bundles in the shared depot. */
+		public int getIdle() {
+			return _idle;
+		}
+
+		/** @return The average number of borrows per second. */
+		public double getBorrowRate() {
+			return _elapsedMillis == 0 ? 0.0 : _borrowCount * 1000.0 / _elapsedMillis;
+		}
+
+		/** @return The average number of returns per second. */
+		public double getReturnRate() {
+			return _elapsedMillis == 0 ? 0.0 : _returnCount * 1000.0 / _elapsedMillis;
+		}
+
+		/** @return The fraction of borrows served without allocating. */
+		public double getHitRatio() {
+			return _borrowCount == 0 ? 0.0 : (double) (_borrowCount - _missCount) / _borrowCount;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"borrowed: %d (%.1f/s), returned: %d (%.1f/s), hit ratio: %.3f, outstanding: %d, high-water mark: %d, idle: %d, discarded: %d",
+					_borrowCount, getBorrowRate(), _returnCount, getReturnRate(), getHitRatio(), _outstanding,
+					_highWaterMark, _idle, _discardCount);
+		}
+	}
 }
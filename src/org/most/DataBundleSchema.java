@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.most.input.Input;
+
+/**
+ * Describes the primitive fields that the {@link DataBundle}s posted by an
+ * {@link Input.Type} carry. Each field is declared once and receives an
+ * integer slot, which {@link DataBundle} uses to store the value in a
+ * primitive array instead of boxing it in its map.
+ *
+ * Every schema declares {@link Input#KEY_TIMESTAMP} in the long slot
+ * {@link #SLOT_TIMESTAMP}, {@link Input#KEY_TYPE} in the int slot
+ * {@link #SLOT_TYPE} and {@link Input#KEY_BATCH_SIZE} in the int slot
+ * {@link #SLOT_BATCH_SIZE}. Inputs usually declare their own fields in a static
+ * initializer, for example:
+ *
+ * <pre>
+ * {@code
+ * public static final int SLOT_LIGHT = DataBundleSchema.forType(Input.Type.LIGHT).declare(KEY_LIGHT,
+ * 		DataBundleSchema.FieldType.FLOAT);
+ * }
+ * </pre>
+ *
+ * Fields should be declared before the first bundle of the type is borrowed.
+ * Up to {@link #MAX_SLOTS} fields can be declared for each {@link FieldType}.
+ *
+ */
+public final class DataBundleSchema {
+
+	/**
+	 * Primitive types that can be stored in a slot.
+	 */
+	public static enum FieldType {
+		LONG, INT, FLOAT, DOUBLE
+	}
+
+	/** Maximum number of slots for each {@link FieldType}. */
+	public static final int MAX_SLOTS = 64;
+
+	/** Long slot of {@link Input#KEY_TIMESTAMP}. */
+	public static final int SLOT_TIMESTAMP = 0;
+
+	/** Int slot of {@link Input#KEY_TYPE}. */
+	public static final int SLOT_TYPE = 0;
+
+	/** Int slot of {@link Input#KEY_BATCH_SIZE}. */
+	public static final int SLOT_BATCH_SIZE = 1;
+
+	private static final AtomicReferenceArray<DataBundleSchema> _schemas = new AtomicReferenceArray<DataBundleSchema>(
+			Input.Type.values().length);
+
+	private final Input.Type _inputType;
+	/**
+	 * Slots of the declared fields, one map for each {@link FieldType}. Maps
+	 * are copied on every declaration, so that lookups do not need to lock.
+	 */
+	private volatile Map<String, Integer>[] _slots;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private DataBundleSchema(Input.Type inputType) {
+		_inputType = inputType;
+		_slots = new Map[FieldType.values().length];
+		for (int i = 0; i < _slots.length; i++) {
+			_slots[i] = new HashMap<String, Integer>();
+		}
+		declare(Input.KEY_TIMESTAMP, FieldType.LONG);
+		declare(Input.KEY_TYPE, FieldType.INT);
+		declare(Input.KEY_BATCH_SIZE, FieldType.INT);
+	}
+
+	/**
+	 * Gets the schema of an {@link Input.Type}, creating it if needed.
+	 *
+	 * @param inputType
+	 *            The input type.
+	 * @return The schema associated to <code>inputType</code>.
+	 */
+	public static DataBundleSchema forType(Input.Type inputType) {
+		DataBundleSchema schema = _schemas.get(inputType.ordinal());
+		if (schema == null) {
+			_schemas.compareAndSet(inputType.ordinal(), null, new DataBundleSchema(inputType));
+			schema = _schemas.get(inputType.ordinal());
+		}
+		return schema;
+	}
+
+	/**
+	 * Declares a field. Declaring the same field twice returns the same slot.
+	 *
+	 * @param key
+	 *            The key of the field.
+	 * @param type
+	 *            The primitive type of the field.
+	 * @return The slot assigned to the field.
+	 * @throws IllegalStateException
+	 *             if all {@link #MAX_SLOTS} slots of <code>type</code> are
+	 *             already used.
+	 */
+	public synchronized int declare(String key, FieldType type) {
+		Integer slot = _slots[type.ordinal()].get(key);
+		if (slot != null) {
+			return slot;
+		}
+		int result = _slots[type.ordinal()].size();
+		if (result == MAX_SLOTS) {
+			throw new IllegalStateException(String.format("Too many %s fields in schema %s", type, _inputType));
+		}
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Map<String, Integer>[] slots = new Map[_slots.length];
+		System.arraycopy(_slots, 0, slots, 0, slots.length);
+		slots[type.ordinal()] = new HashMap<String, Integer>(slots[type.ordinal()]);
+		slots[type.ordinal()].put(key, result);
+		_slots = slots;
+		return result;
+	}
+
+	/**
+	 * Gets the slot of a field.
+	 *
+	 * @param key
+	 *            The key of the field.
+	 * @param type
+	 *            The primitive type of the field.
+	 * @return The slot of the field, or -1 if the field is not declared.
+	 */
+	public int getSlot(String key, FieldType type) {
+		Integer slot = _slots[type.ordinal()].get(key);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Gets the number of slots declared for a {@link FieldType}.
+	 *
+	 * @param type
+	 *            The primitive type.
+	 * @return The number of declared slots.
+	 */
+	public int getSlotCount(FieldType type) {
+		return _slots[type.ordinal()].size();
+	}
+
+	/**
+	 * Gets the {@link Input.Type} this schema describes.
+	 *
+	 * @return The input type.
+	 */
+	public Input.Type getInputType() {
+		return _inputType;
+	}
+}
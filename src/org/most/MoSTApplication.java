@@ -19,9 +19,12 @@ import org.most.event.EventReceiversWrapper;
 import org.most.input.InputBus;
 import org.most.persistence.DBAdapter;
 import org.most.pipeline.PipelineBus;
+import org.most.pipeline.PipelineScheduler;
 import org.slf4j.LoggerFactory;
 
 import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
@@ -50,6 +53,7 @@ public class MoSTApplication extends Application {
 	private DataBundlePool _dataBundlePool;
 	private InputBus _inputBus;
 	private PipelineBus _pipelineBus;
+	private PipelineScheduler _pipelineScheduler;
 	private InputManager _inputManager;
 	private PipelineManager _pipelineManager;
 	private WakeLockHolder _wakeLockHolder;
@@ -59,9 +63,15 @@ public class MoSTApplication extends Application {
 	
 	@Override
 	public void onCreate() {
-		_dataBundlePool = new DataBundlePool();
+		SharedPreferences inputPrefs = getSharedPreferences(PREF_INPUT, Context.MODE_PRIVATE);
+		_dataBundlePool = new DataBundlePool(inputPrefs.getInt(DataBundlePool.PREF_KEY_MAX_IDLE,
+				DataBundlePool.DEFAULT_MAX_IDLE), inputPrefs.getInt(DataBundlePool.PREF_KEY_LEAK_SAMPLING_INTERVAL,
+				DataBundlePool.DEFAULT_LEAK_SAMPLING_INTERVAL), inputPrefs.getLong(ArrayRecycler.PREF_KEY_MAX_BYTES,
+				ArrayRecycler.DEFAULT_MAX_BYTES));
 		_inputBus = new InputBus();
 		_pipelineBus = new PipelineBus();
+		_pipelineScheduler = new PipelineScheduler(getSharedPreferences(PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				PipelineScheduler.PREF_KEY_WORKERS, PipelineScheduler.DEFAULT_WORKERS));
 		_wakeLockHolder = new WakeLockHolder(this);
 		_inputManager = new InputManager(this);
 		_pipelineManager = new PipelineManager(this);
@@ -97,6 +107,10 @@ public class MoSTApplication extends Application {
 		return _pipelineBus;
 	}
 	
+	public PipelineScheduler getPipelineScheduler() {
+		return _pipelineScheduler;
+	}
+	
 	public InputManager getInputManager() {
 		return _inputManager;
 	}
@@ -28,6 +28,7 @@ import org.most.pipeline.PipelineAccelerometerClassifier;
 import org.most.pipeline.PipelineActivityRecognitionCompare;
 import org.most.pipeline.PipelineAppOnScreen;
 import org.most.pipeline.PipelineAppsNetTraffic;
+import org.most.pipeline.PipelineAudioClassifier;
 import org.most.pipeline.PipelineAverageAccelerometer;
 import org.most.pipeline.PipelineBattery;
 import org.most.pipeline.PipelineBluetooth;
@@ -147,6 +148,9 @@ public class PipelineManager {
 		case ACTIVITY_RECOGNITION_COMPARE:
 			result = new PipelineActivityRecognitionCompare(_context);
 			break;
+		case AUDIO_CLASSIFIER:
+			result = new PipelineAudioClassifier(_context);
+			break;
 		default:
 			throw new IllegalArgumentException();
 		}
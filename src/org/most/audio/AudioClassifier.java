@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.most.weka.DecisionTreeModel;
+
+/**
+ * Classifies segments of audio as silence, speech, music or noise. The
+ * features of the frames computed by {@link AudioFeatureExtractor} are
+ * summarized over each segment:
+ * <ul>
+ * <li>{@link #SEGMENT_LEVEL}: the mean RMS energy of the frames, in dBFS;</li>
+ * <li>{@link #SEGMENT_LOW_ENERGY_RATIO}: the fraction of frames whose energy is
+ * below half the mean, high for speech because of its pauses;</li>
+ * <li>{@link #SEGMENT_HIGH_ZCR_RATIO}: the fraction of frames whose
+ * zero-crossing rate is above 1.5 times the mean, high for speech because of
+ * the alternation of voiced and unvoiced sounds;</li>
+ * <li>{@link #SEGMENT_ZCR}: the mean zero-crossing rate;</li>
+ * <li>{@link #SEGMENT_CENTROID}: the mean spectral centroid, in Hz;</li>
+ * <li>{@link #SEGMENT_FLUX}: the mean spectral flux;</li>
+ * <li>{@link #SEGMENT_ROLLOFF}: the mean spectral rolloff, in Hz.</li>
+ * </ul>
+ * and the summary is classified by a {@link DecisionTreeModel} with the
+ * classes {@link #CLASS_SILENCE}, {@link #CLASS_SPEECH}, {@link #CLASS_MUSIC}
+ * and {@link #CLASS_NOISE}. The default model, {@link #DEFAULT_MODEL}, is a
+ * hand-written tree on the classic level, low-energy and zero-crossing cues;
+ * trained models can replace it.
+ *
+ * Nothing is allocated after construction. An AudioClassifier is not thread
+ * safe.
+ *
+ */
+public class AudioClassifier {
+
+	public static final int CLASS_SILENCE = 0;
+	public static final int CLASS_SPEECH = 1;
+	public static final int CLASS_MUSIC = 2;
+	public static final int CLASS_NOISE = 3;
+
+	public static final int SEGMENT_LEVEL = 0;
+	public static final int SEGMENT_LOW_ENERGY_RATIO = 1;
+	public static final int SEGMENT_HIGH_ZCR_RATIO = 2;
+	public static final int SEGMENT_ZCR = 3;
+	public static final int SEGMENT_CENTROID = 4;
+	public static final int SEGMENT_FLUX = 5;
+	public static final int SEGMENT_ROLLOFF = 6;
+	public static final int SEGMENT_FEATURE_COUNT = 7;
+
+	/**
+	 * The default model, in the text format of {@link DecisionTreeModel}:
+	 * segments below -50 dBFS are silence; segments with few low-energy
+	 * frames are music if their spectrum is dark, noise otherwise; the others
+	 * are speech if the zero-crossing rate alternates, music otherwise.
+	 */
+	public static final String DEFAULT_MODEL = "classes 4 silence speech music noise\n"
+			+ "tree 9\n"
+			+ "0 -50 1 2 -1\n"
+			+ "-1 0 -1 -1 0\n"
+			+ "1 0.3 3 4 -1\n"
+			+ "4 3000 5 6 -1\n"
+			+ "2 0.1 7 8 -1\n"
+			+ "-1 0 -1 -1 2\n"
+			+ "-1 0 -1 -1 3\n"
+			+ "-1 0 -1 -1 2\n"
+			+ "-1 0 -1 -1 1\n";
+
+	/** Floor of the level, in dBFS. */
+	private static final double MIN_LEVEL = -120.0;
+
+	private static DecisionTreeModel _defaultModel;
+
+	private final DecisionTreeModel _model;
+	private final int _framesPerSegment;
+	private final double[] _rms;
+	private final double[] _zcr;
+	private final double[] _segment;
+	private final int[] _votes;
+	private int _frames;
+	private double _centroid;
+	private double _flux;
+	private double _rolloff;
+
+	/**
+	 * Instantiates a new AudioClassifier.
+	 *
+	 * @param model
+	 *            The model, reading at most {@link #SEGMENT_FEATURE_COUNT}
+	 *            features.
+	 * @param framesPerSegment
+	 *            The number of frames of a segment.
+	 */
+	public AudioClassifier(DecisionTreeModel model, int framesPerSegment) {
+		if (framesPerSegment < 1 || model.getFeatureCount() > SEGMENT_FEATURE_COUNT) {
+			throw new IllegalArgumentException();
+		}
+		_model = model;
+		_framesPerSegment = framesPerSegment;
+		_rms = new double[framesPerSegment];
+		_zcr = new double[framesPerSegment];
+		_segment = new double[SEGMENT_FEATURE_COUNT];
+		_votes = new int[model.getClassCount()];
+	}
+
+	/**
+	 * Gets the model parsed from {@link #DEFAULT_MODEL}.
+	 */
+	public static synchronized DecisionTreeModel getDefaultModel() {
+		if (_defaultModel == null) {
+			try {
+				_defaultModel = DecisionTreeModel.load(new ByteArrayInputStream(DEFAULT_MODEL.getBytes("UTF-8")));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return _defaultModel;
+	}
+
+	/**
+	 * Adds a frame to the current segment, classifying the segment if the
+	 * frame completes it.
+	 *
+	 * @param features
+	 *            The features of the frame, as computed by
+	 *            {@link AudioFeatureExtractor}.
+	 * @return The class of the segment, or -1 if the segment is not complete.
+	 */
+	public int addFrame(double[] features) {
+		_rms[_frames] = features[AudioFeatureExtractor.FEATURE_RMS];
+		_zcr[_frames] = features[AudioFeatureExtractor.FEATURE_ZCR];
+		_centroid += features[AudioFeatureExtractor.FEATURE_CENTROID];
+		_flux += features[AudioFeatureExtractor.FEATURE_FLUX];
+		_rolloff += features[AudioFeatureExtractor.FEATURE_ROLLOFF];
+		if (++_frames < _framesPerSegment) {
+			return -1;
+		}
+		summarize();
+		reset();
+		return _model.vote(_segment, _votes);
+	}
+
+	private void summarize() {
+		int n = _framesPerSegment;
+		double rms = 0.0;
+		double zcr = 0.0;
+		for (int i = 0; i < n; i++) {
+			rms += _rms[i];
+			zcr += _zcr[i];
+		}
+		rms /= n;
+		zcr /= n;
+		int lowEnergy = 0;
+		int highZcr = 0;
+		for (int i = 0; i < n; i++) {
+			if (_rms[i] < 0.5 * rms) {
+				lowEnergy++;
+			}
+			if (_zcr[i] > 1.5 * zcr) {
+				highZcr++;
+			}
+		}
+		_segment[SEGMENT_LEVEL] = rms > 0.0 ? Math.max(MIN_LEVEL, 20.0 * Math.log10(rms)) : MIN_LEVEL;
+		_segment[SEGMENT_LOW_ENERGY_RATIO] = (double) lowEnergy / n;
+		_segment[SEGMENT_HIGH_ZCR_RATIO] = (double) highZcr / n;
+		_segment[SEGMENT_ZCR] = zcr;
+		_segment[SEGMENT_CENTROID] = _centroid / n;
+		_segment[SEGMENT_FLUX] = _flux / n;
+		_segment[SEGMENT_ROLLOFF] = _rolloff / n;
+	}
+
+	/**
+	 * Discards the frames of the current segment.
+	 */
+	public void reset() {
+		_frames = 0;
+		_centroid = 0.0;
+		_flux = 0.0;
+		_rolloff = 0.0;
+	}
+
+	/**
+	 * Gets the features of the last classified segment. The array is reused
+	 * for the next segment.
+	 */
+	public double[] getSegmentFeatures() {
+		return _segment;
+	}
+
+	public String getClassName(int c) {
+		return _model.getClassName(c);
+	}
+}
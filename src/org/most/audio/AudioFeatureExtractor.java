@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+/**
+ * Splits a stream of 16-bit PCM samples in overlapping frames and computes
+ * the features of each frame:
+ * <ul>
+ * <li>{@link #FEATURE_RMS}: root mean square energy, with samples scaled to
+ * [-1, 1];</li>
+ * <li>{@link #FEATURE_ZCR}: zero-crossing rate, the fraction of consecutive
+ * samples with different sign;</li>
+ * <li>{@link #FEATURE_CENTROID}: spectral centroid, in Hz;</li>
+ * <li>{@link #FEATURE_FLUX}: spectral flux, the squared distance between the
+ * normalized magnitude spectra of this frame and of the previous one, from 0
+ * to 2;</li>
+ * <li>{@link #FEATURE_ROLLOFF}: spectral rolloff, the frequency below which
+ * lies {@link #ROLLOFF_FRACTION} of the magnitude spectrum, in Hz;</li>
+ * <li>{@link #FEATURE_MFCC}: the first {@link #MFCC_COUNT} mel-frequency
+ * cepstral coefficients, computed from {@link #MEL_BANDS} triangular filters
+ * spanning up to the Nyquist frequency.</li>
+ * </ul>
+ *
+ * Spectra are computed on Hann-windowed frames. All the buffers, the FFT
+ * tables, the mel filter bank and the DCT matrix are allocated by the
+ * constructor: processing a frame does not allocate.
+ *
+ * An AudioFeatureExtractor is not thread safe.
+ *
+ */
+public class AudioFeatureExtractor {
+
+	/**
+	 * Receives the features of each frame.
+	 */
+	public interface FrameListener {
+
+		/**
+		 * Called when a frame is complete. The array is reused for the next
+		 * frame.
+		 *
+		 * @param features
+		 *            The {@link #FEATURE_COUNT} features of the frame.
+		 */
+		void onFrame(double[] features);
+	}
+
+	public static final int FEATURE_RMS = 0;
+	public static final int FEATURE_ZCR = 1;
+	public static final int FEATURE_CENTROID = 2;
+	public static final int FEATURE_FLUX = 3;
+	public static final int FEATURE_ROLLOFF = 4;
+	/** Index of the first MFCC. */
+	public static final int FEATURE_MFCC = 5;
+
+	public static final int MEL_BANDS = 26;
+	public static final int MFCC_COUNT = 13;
+	public static final int FEATURE_COUNT = FEATURE_MFCC + MFCC_COUNT;
+
+	public static final double ROLLOFF_FRACTION = 0.85;
+
+	/** Floor of the mel band energies, to keep their logarithm finite. */
+	private static final double LOG_FLOOR = 1e-10;
+
+	private final int _sampleRate;
+	private final int _frameSize;
+	private final int _hopSize;
+	private final int _bins;
+	private final double _binHz;
+	private final FFT _fft;
+	private final double[] _window;
+	private final int[] _bandStart;
+	private final double[][] _bandWeights;
+	private final double[][] _dct;
+
+	private final double[] _frame;
+	private int _filled;
+	private final double[] _re;
+	private final double[] _im;
+	private final double[] _magnitude;
+	private final double[] _previous;
+	private final double[] _logEnergies;
+	private final double[] _features;
+
+	/**
+	 * Instantiates a new AudioFeatureExtractor.
+	 *
+	 * @param sampleRate
+	 *            The sample rate, in Hz.
+	 * @param frameSize
+	 *            The number of samples of a frame, a power of two.
+	 * @param hopSize
+	 *            The number of samples between the starts of two frames, from
+	 *            1 to <code>frameSize</code>.
+	 */
+	public AudioFeatureExtractor(int sampleRate, int frameSize, int hopSize) {
+		if (sampleRate <= 0 || hopSize < 1 || hopSize > frameSize) {
+			throw new IllegalArgumentException();
+		}
+		_sampleRate = sampleRate;
+		_frameSize = frameSize;
+		_hopSize = hopSize;
+		_fft = new FFT(frameSize);
+		_bins = frameSize / 2 + 1;
+		_binHz = (double) sampleRate / frameSize;
+
+		_window = new double[frameSize];
+		for (int i = 0; i < frameSize; i++) {
+			_window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / frameSize);
+		}
+
+		_bandStart = new int[MEL_BANDS];
+		_bandWeights = new double[MEL_BANDS][];
+		double melMax = toMel(sampleRate / 2.0);
+		double[] edges = new double[MEL_BANDS + 2];
+		for (int i = 0; i < edges.length; i++) {
+			edges[i] = fromMel(melMax * i / (MEL_BANDS + 1)) / _binHz;
+		}
+		for (int b = 0; b < MEL_BANDS; b++) {
+			int start = (int) Math.ceil(edges[b]);
+			int end = Math.min((int) Math.floor(edges[b + 2]), _bins - 1);
+			_bandStart[b] = start;
+			_bandWeights[b] = new double[Math.max(0, end - start + 1)];
+			for (int k = start; k <= end; k++) {
+				_bandWeights[b][k - start] = k <= edges[b + 1] ? (k - edges[b]) / (edges[b + 1] - edges[b])
+						: (edges[b + 2] - k) / (edges[b + 2] - edges[b + 1]);
+			}
+		}
+
+		_dct = new double[MFCC_COUNT][MEL_BANDS];
+		for (int c = 0; c < MFCC_COUNT; c++) {
+			for (int b = 0; b < MEL_BANDS; b++) {
+				_dct[c][b] = Math.cos(Math.PI * c * (b + 0.5) / MEL_BANDS);
+			}
+		}
+
+		_frame = new double[frameSize];
+		_re = new double[frameSize];
+		_im = new double[frameSize];
+		_magnitude = new double[_bins];
+		_previous = new double[_bins];
+		_logEnergies = new double[MEL_BANDS];
+		_features = new double[FEATURE_COUNT];
+	}
+
+	/**
+	 * Gets the frame size for a sample rate: the largest power of two not
+	 * longer than 25 ms, and at least 64 samples.
+	 */
+	public static int getDefaultFrameSize(int sampleRate) {
+		return Math.max(64, Integer.highestOneBit(sampleRate / 40));
+	}
+
+	private static double toMel(double hz) {
+		return 2595.0 * Math.log10(1.0 + hz / 700.0);
+	}
+
+	private static double fromMel(double mel) {
+		return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+	}
+
+	public int getSampleRate() {
+		return _sampleRate;
+	}
+
+	public int getFrameSize() {
+		return _frameSize;
+	}
+
+	public int getHopSize() {
+		return _hopSize;
+	}
+
+	/**
+	 * Adds samples to the stream, computing the features of every frame they
+	 * complete.
+	 *
+	 * @param pcm
+	 *            The samples.
+	 * @param offset
+	 *            The index of the first sample in <code>pcm</code>.
+	 * @param length
+	 *            The number of samples.
+	 * @param listener
+	 *            Receives the features of the completed frames.
+	 */
+	public void process(short[] pcm, int offset, int length, FrameListener listener) {
+		int end = offset + length;
+		while (offset < end) {
+			int count = Math.min(_frameSize - _filled, end - offset);
+			for (int i = 0; i < count; i++) {
+				_frame[_filled + i] = pcm[offset + i] / 32768.0;
+			}
+			_filled += count;
+			offset += count;
+			if (_filled == _frameSize) {
+				computeFeatures();
+				listener.onFrame(_features);
+				System.arraycopy(_frame, _hopSize, _frame, 0, _frameSize - _hopSize);
+				_filled = _frameSize - _hopSize;
+			}
+		}
+	}
+
+	/**
+	 * Discards the partial frame and the spectrum of the previous frame.
+	 */
+	public void reset() {
+		_filled = 0;
+		for (int k = 0; k < _bins; k++) {
+			_previous[k] = 0.0;
+		}
+	}
+
+	private void computeFeatures() {
+		double squares = 0.0;
+		int crossings = 0;
+		for (int i = 0; i < _frameSize; i++) {
+			double v = _frame[i];
+			squares += v * v;
+			if (i > 0 && (v >= 0) != (_frame[i - 1] >= 0)) {
+				crossings++;
+			}
+			_re[i] = v * _window[i];
+			_im[i] = 0.0;
+		}
+		_features[FEATURE_RMS] = Math.sqrt(squares / _frameSize);
+		_features[FEATURE_ZCR] = (double) crossings / (_frameSize - 1);
+
+		_fft.transform(_re, _im);
+
+		double sum = 0.0;
+		double weighted = 0.0;
+		double power = 0.0;
+		for (int k = 0; k < _bins; k++) {
+			double p = _re[k] * _re[k] + _im[k] * _im[k];
+			double m = Math.sqrt(p);
+			_magnitude[k] = m;
+			sum += m;
+			weighted += k * m;
+			power += p;
+		}
+		_features[FEATURE_CENTROID] = sum > 0.0 ? weighted / sum * _binHz : 0.0;
+
+		double threshold = ROLLOFF_FRACTION * sum;
+		double cumulative = 0.0;
+		int rolloff = 0;
+		while (rolloff < _bins - 1 && (cumulative += _magnitude[rolloff]) < threshold) {
+			rolloff++;
+		}
+		_features[FEATURE_ROLLOFF] = sum > 0.0 ? rolloff * _binHz : 0.0;
+
+		double norm = power > 0.0 ? 1.0 / Math.sqrt(power) : 0.0;
+		double flux = 0.0;
+		for (int k = 0; k < _bins; k++) {
+			double m = _magnitude[k] * norm;
+			double d = m - _previous[k];
+			flux += d * d;
+			_previous[k] = m;
+		}
+		_features[FEATURE_FLUX] = flux;
+
+		for (int b = 0; b < MEL_BANDS; b++) {
+			double[] weights = _bandWeights[b];
+			int start = _bandStart[b];
+			double energy = 0.0;
+			for (int i = 0; i < weights.length; i++) {
+				double m = _magnitude[start + i];
+				energy += weights[i] * m * m;
+			}
+			_logEnergies[b] = Math.log(energy + LOG_FLOOR);
+		}
+		for (int c = 0; c < MFCC_COUNT; c++) {
+			double[] row = _dct[c];
+			double coefficient = 0.0;
+			for (int b = 0; b < MEL_BANDS; b++) {
+				coefficient += row[b] * _logEnergies[b];
+			}
+			_features[FEATURE_MFCC + c] = coefficient;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+/**
+ * In-place iterative radix-2 fast Fourier transform of a fixed size. The
+ * twiddle factors and the bit-reversal permutation are computed once, so that
+ * {@link #transform(double[], double[])} does not allocate.
+ *
+ */
+public final class FFT {
+
+	private final int _size;
+	private final double[] _cos;
+	private final double[] _sin;
+	private final int[] _reversed;
+
+	/**
+	 * Instantiates a new FFT.
+	 *
+	 * @param size
+	 *            The number of points, a power of two greater than 1.
+	 */
+	public FFT(int size) {
+		if (size < 2 || (size & (size - 1)) != 0) {
+			throw new IllegalArgumentException("Size must be a power of two: " + size);
+		}
+		_size = size;
+		_cos = new double[size / 2];
+		_sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			_cos[k] = Math.cos(2 * Math.PI * k / size);
+			_sin[k] = Math.sin(2 * Math.PI * k / size);
+		}
+		_reversed = new int[size];
+		int bits = Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < size; i++) {
+			_reversed[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	public int getSize() {
+		return _size;
+	}
+
+	/**
+	 * Computes the forward transform, X[k] = sum x[n] e^(-2 pi i k n / N), in
+	 * place.
+	 *
+	 * @param re
+	 *            The real parts, at least {@link #getSize()} long.
+	 * @param im
+	 *            The imaginary parts, at least {@link #getSize()} long.
+	 */
+	public void transform(double[] re, double[] im) {
+		for (int i = 0; i < _size; i++) {
+			int j = _reversed[i];
+			if (j > i) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int length = 2; length <= _size; length <<= 1) {
+			int half = length >> 1;
+			int step = _size / length;
+			for (int start = 0; start < _size; start += length) {
+				for (int j = 0, k = 0; j < half; j++, k += step) {
+					int a = start + j;
+					int b = a + half;
+					double tre = re[b] * _cos[k] + im[b] * _sin[k];
+					double tim = im[b] * _cos[k] - re[b] * _sin[k];
+					re[b] = re[a] - tre;
+					im[b] = im[a] - tim;
+					re[a] += tre;
+					im[a] += tim;
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ import org.most.DataBundlePool;
 import org.most.MoSTApplication;
 import org.most.input.InputBus.SingleInputBus;
 
+import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
@@ -197,6 +198,12 @@ public abstract class Input {
 
 	public static final String KEY_TYPE = "sensor_type";
 
+	/**
+	 * Number of samples carried by a columnar batch {@link DataBundle} (see
+	 * {@link SensorBatcher}). It is not set in single-sample bundles.
+	 */
+	public static final String KEY_BATCH_SIZE = "batch_size";
+
 	private MoSTApplication _context;
 	private State _state;
 	protected SingleInputBus _bus;
@@ -292,10 +299,17 @@ public abstract class Input {
 	}
 
 	/**
-	 * Activation.
+	 * Activation. If {@link MoSTApplication#PREF_INPUT} sets a pre-warm count
+	 * for this input type (see {@link DataBundlePool#PREF_KEY_PREWARM_PREFIX}),
+	 * the {@link DataBundlePool} is pre-warmed before the input starts posting.
 	 */
 	public boolean onActivate() {
 		checkNewState(State.ACTIVATED);
+		int prewarm = _context.getSharedPreferences(MoSTApplication.PREF_INPUT, Context.MODE_PRIVATE).getInt(
+				DataBundlePool.PREF_KEY_PREWARM_PREFIX + getType().name(), 0);
+		if (prewarm > 0) {
+			_bundlePool.prewarm(getType(), prewarm);
+		}
 		_state = State.ACTIVATED;
 		Intent i = new Intent();
 		i.setAction(MoSTApplication.ACTION_INPUT);
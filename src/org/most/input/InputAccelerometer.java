@@ -16,6 +16,7 @@
 package org.most.input;
 
 import org.most.DataBundle;
+import org.most.DataBundleSchema;
 import org.most.MoSTApplication;
 
 import android.content.Context;
@@ -61,6 +62,10 @@ import android.util.Log;
  * }
  * </pre>
  * 
+ * Samples can be posted in columnar batches (see {@link SensorBatcher}) by
+ * setting {@link #PREF_KEY_BATCH_SIZE} to a value greater than 1. A batch is
+ * posted at the latest {@link #PREF_KEY_BATCH_LATENCY} milliseconds after its
+ * first sample. Batching is disabled by default.
  * 
  * @author gcardone
  * @author acirri
@@ -86,6 +91,15 @@ public class InputAccelerometer extends Input implements SensorEventListener {
 	public final static String PREF_KEY_ACCELEROMETER_RATE = "InputAccelerometer.Rate";
 	public final static int PREF_DEFAULT_ACCELEROMETER_RATE = SensorManager.SENSOR_DELAY_FASTEST;
 
+	public final static String PREF_KEY_BATCH_SIZE = "InputAccelerometer.BatchSize";
+	public final static int PREF_DEFAULT_BATCH_SIZE = 1;
+
+	public final static String PREF_KEY_BATCH_LATENCY = "InputAccelerometer.BatchLatency";
+	public final static int PREF_DEFAULT_BATCH_LATENCY = 200;
+
+	/** The batcher, or null if batching is disabled. */
+	private SensorBatcher _batcher = null;
+
 	/**
 	 * Return a new instance of AccelerometerInput.
 	 * 
@@ -125,8 +139,14 @@ public class InputAccelerometer extends Input implements SensorEventListener {
 		checkNewState(State.ACTIVATED);
 		if (DEBUG)
 			Log.d(TAG, "onActivate()");
-		_sensorRate = getContext().getSharedPreferences(MoSTApplication.PREF_INPUT, Context.MODE_PRIVATE).getInt(
-				PREF_KEY_ACCELEROMETER_RATE, PREF_DEFAULT_ACCELEROMETER_RATE);
+		SharedPreferences sp = getContext().getSharedPreferences(MoSTApplication.PREF_INPUT, Context.MODE_PRIVATE);
+		_sensorRate = sp.getInt(PREF_KEY_ACCELEROMETER_RATE, PREF_DEFAULT_ACCELEROMETER_RATE);
+		int batchSize = sp.getInt(PREF_KEY_BATCH_SIZE, PREF_DEFAULT_BATCH_SIZE);
+		if (batchSize > 1) {
+			_batcher = new SensorBatcher(this, batchSize, sp.getInt(PREF_KEY_BATCH_LATENCY, PREF_DEFAULT_BATCH_LATENCY));
+		} else {
+			_batcher = null;
+		}
 		boolean registrationSuccessful = _sensorManager.registerListener(this, _sensor, _sensorRate);
 		if (registrationSuccessful) {
 			return super.onActivate();
@@ -144,6 +164,9 @@ public class InputAccelerometer extends Input implements SensorEventListener {
 	public void onDeactivate() {
 		checkNewState(State.DEACTIVATED);
 		_sensorManager.unregisterListener(this, _sensor);
+		if (_batcher != null) {
+			_batcher.flush();
+		}
 
 		if (DEBUG)
 			Log.d(TAG, "onDeactivate()");
@@ -197,19 +220,40 @@ public class InputAccelerometer extends Input implements SensorEventListener {
 			return;
 		}
 
-		DataBundle b = _bundlePool.borrowBundle();
-		b.allocateFloatArray(KEY_ACCELERATIONS, 3);
-		float[] data = b.getFloatArray(KEY_ACCELERATIONS);
-		data[0] = event.values[0];
-		data[1] = event.values[1];
-		data[2] = event.values[2];
-
-		b.putLong(Input.KEY_TIMESTAMP, event.timestamp);
-		b.putInt(Input.KEY_TYPE, Input.Type.ACCELEROMETER.toInt());
+		if (_batcher != null) {
+			_batcher.add(event.timestamp, event.values[0], event.values[1], event.values[2]);
+			return;
+		}
 
+		DataBundle b = _bundlePool.borrowBundle(Input.Type.ACCELEROMETER);
+		fillSample(b, event.timestamp, event.values[0], event.values[1], event.values[2]);
 		post(b);
 	}
 
+	/**
+	 * Fills a single-sample DataBundle with an acceleration.
+	 * 
+	 * @param b
+	 *            The DataBundle to fill.
+	 * @param timestamp
+	 *            The timestamp of the sample, in nanoseconds.
+	 * @param x
+	 *            Acceleration over X.
+	 * @param y
+	 *            Acceleration over Y.
+	 * @param z
+	 *            Acceleration over Z.
+	 */
+	static void fillSample(DataBundle b, long timestamp, float x, float y, float z) {
+		float[] data = b.allocateFloatArray(KEY_ACCELERATIONS, 3);
+		data[0] = x;
+		data[1] = y;
+		data[2] = z;
+
+		b.putLong(DataBundleSchema.SLOT_TIMESTAMP, timestamp);
+		b.putInt(DataBundleSchema.SLOT_TYPE, Input.Type.ACCELEROMETER.toInt());
+	}
+
 	/**
 	 * Gets the sensor rate.
 	 * 
@@ -17,24 +17,27 @@ package org.most.input;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.most.DataBundle;
 
 /**
  * Bus that dispatches data from {@link Input} to Pipelines.
  * 
+ * Each {@link SingleInputBus} keeps its listeners in an immutable array that
+ * is replaced on every subscription change, so that {@link SingleInputBus#post}
+ * never locks and a slow listener never blocks other posters or subscribers.
+ * 
  */
 public class InputBus {
 
-	protected Map<Input.Type, SingleInputBus> _buses;
+	/** Single buses, indexed by {@link Input.Type#ordinal()}. */
+	protected final SingleInputBus[] _buses;
 
 	public InputBus() {
-		_buses = new HashMap<Input.Type, SingleInputBus>();
+		_buses = new SingleInputBus[Input.Type.values().length];
 		for (Input.Type type : Input.Type.values()) {
-			_buses.put(type, new SingleInputBus(type));
+			_buses[type.ordinal()] = new SingleInputBus(type);
 		}
 	}
 
@@ -47,7 +50,7 @@ public class InputBus {
 	 *            The listener to subscribe.
 	 */
 	public void addListener(Input.Type inputType, Listener listener) {
-		_buses.get(inputType).addListener(listener);
+		_buses[inputType.ordinal()].addListener(listener);
 	}
 
 	/**
@@ -59,7 +62,7 @@ public class InputBus {
 	 *            The listener to unsubscribe.
 	 */
 	public void removeListener(Input.Type inputType, Listener listener) {
-		_buses.get(inputType).removeListener(listener);
+		_buses[inputType.ordinal()].removeListener(listener);
 	}
 
 	/**
@@ -70,7 +73,7 @@ public class InputBus {
 	 * @return The {@link SingleInputBus} for the specified type.
 	 */
 	public SingleInputBus getBus(Input.Type inputType) {
-		return _buses.get(inputType);
+		return _buses[inputType.ordinal()];
 	}
 
 	/**
@@ -79,10 +82,9 @@ public class InputBus {
 	 * @return All instantiated single input buses.
 	 */
 	public Collection<SingleInputBus> getInputBuses() {
-		List<SingleInputBus> result = new ArrayList<InputBus.SingleInputBus>(
-				Input.Type.values().length);
-		for (Input.Type t : _buses.keySet()) {
-			result.add(_buses.get(t));
+		List<SingleInputBus> result = new ArrayList<InputBus.SingleInputBus>(_buses.length);
+		for (SingleInputBus bus : _buses) {
+			result.add(bus);
 		}
 		return result;
 	}
@@ -100,51 +102,98 @@ public class InputBus {
 
 	public static class SingleInputBus {
 
+		private static final Listener[] NO_LISTENERS = new Listener[0];
+
 		private final Input.Type _inputType;
-		private final Collection<Listener> _listeners;
-		private int _listenerCount;
+
+		/**
+		 * Snapshot of the listeners. It is never modified, only replaced
+		 * while holding the monitor of this bus.
+		 */
+		private volatile Listener[] _listeners;
 
 		public SingleInputBus(Input.Type inputType) {
 			_inputType = inputType;
-			_listeners = new ArrayList<InputBus.Listener>();
+			_listeners = NO_LISTENERS;
 		}
 
-		public synchronized int getListenerCount() {
-			return _listenerCount;
+		public int getListenerCount() {
+			return _listeners.length;
 		}
 
 		public synchronized void addListener(Listener listener) {
-			if (listener == null) {
+			if (listener == null || indexOf(_listeners, listener) >= 0) {
 				return;
 			}
-			if (!_listeners.contains(listener)) {
-				_listeners.add(listener);
-				_listenerCount++;
-			}
+			Listener[] listeners = new Listener[_listeners.length + 1];
+			System.arraycopy(_listeners, 0, listeners, 0, _listeners.length);
+			listeners[_listeners.length] = listener;
+			_listeners = listeners;
 		}
 
 		public synchronized void removeListener(Listener listener) {
-			if (_listeners.contains(listener)) {
-				_listeners.remove(listener);
-				_listenerCount--;
+			int index = indexOf(_listeners, listener);
+			if (index < 0) {
+				return;
 			}
+			if (_listeners.length == 1) {
+				_listeners = NO_LISTENERS;
+				return;
+			}
+			Listener[] listeners = new Listener[_listeners.length - 1];
+			System.arraycopy(_listeners, 0, listeners, 0, index);
+			System.arraycopy(_listeners, index + 1, listeners, index, listeners.length - index);
+			_listeners = listeners;
 		}
 
-		public synchronized void post(DataBundle b) {
-			b.setRefCount(_listenerCount);
-			if (_listenerCount == 0) {
+		/**
+		 * Dispatches a bundle to the active listeners. The reference counter
+		 * of the bundle is set to the number of active listeners, and the
+		 * references of listeners that become inactive during the dispatch are
+		 * released, so that the bundle always goes back to its pool.
+		 * 
+		 * @param b
+		 *            The bundle to dispatch.
+		 */
+		public void post(DataBundle b) {
+			Listener[] listeners = _listeners;
+			int active = 0;
+			for (Listener listener : listeners) {
+				if (listener.isActive()) {
+					active++;
+				}
+			}
+			if (active == 0) {
 				b.release();
 				return;
 			}
-			for (Listener listener : _listeners) {
+			b.setRefCount(active);
+			int delivered = 0;
+			for (Listener listener : listeners) {
+				if (delivered == active) {
+					break;
+				}
 				if (listener.isActive()) {
+					delivered++;
 					listener.onData(b);
 				}
 			}
+			for (; delivered < active; delivered++) {
+				b.release();
+			}
 		}
 
 		public Input.Type getType() {
 			return _inputType;
 		}
+
+		private static int indexOf(Listener[] listeners, Listener listener) {
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					return i;
+				}
+			}
+			return -1;
+		}
 	}
 }
@@ -16,9 +16,12 @@
 package org.most.input;
 
 import org.most.DataBundle;
+import org.most.DataBundleSchema;
+import org.most.DataBundleSchema.FieldType;
 import org.most.MoSTApplication;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -46,10 +49,26 @@ public class MagneticFieldInput extends Input implements SensorEventListener {
 	public final static String PREF_KEY_MAGNETICFIELD_SENSOR_RATE = "MagneticFieldInputSensorRate";
 	public final static int PREF_DEFAULT_MAGNETICFIELD_SENSOR_RATE = SensorManager.SENSOR_DELAY_NORMAL;
 
+	public final static String PREF_KEY_BATCH_SIZE = "MagneticFieldInputBatchSize";
+	public final static int PREF_DEFAULT_BATCH_SIZE = 1;
+
+	public final static String PREF_KEY_BATCH_LATENCY = "MagneticFieldInputBatchLatency";
+	public final static int PREF_DEFAULT_BATCH_LATENCY = 1000;
+
+	/** The batcher, or null if batching is disabled. */
+	private SensorBatcher _batcher = null;
+
 	public static final String KEY_MAGNETIC_FIELD_X = "MagneticFieldInput.value_x";
 	public static final String KEY_MAGNETIC_FIELD_Y = "MagneticFieldInput.value_y";
 	public static final String KEY_MAGNETIC_FIELD_Z = "MagneticFieldInput.value_z";
 
+	public static final int SLOT_MAGNETIC_FIELD_X = DataBundleSchema.forType(Input.Type.MAGNETICFIELD).declare(
+			KEY_MAGNETIC_FIELD_X, FieldType.FLOAT);
+	public static final int SLOT_MAGNETIC_FIELD_Y = DataBundleSchema.forType(Input.Type.MAGNETICFIELD).declare(
+			KEY_MAGNETIC_FIELD_Y, FieldType.FLOAT);
+	public static final int SLOT_MAGNETIC_FIELD_Z = DataBundleSchema.forType(Input.Type.MAGNETICFIELD).declare(
+			KEY_MAGNETIC_FIELD_Z, FieldType.FLOAT);
+
 	/**
 	 * Return a new instance of ProximityInput.
 	 * 
@@ -87,6 +106,13 @@ public class MagneticFieldInput extends Input implements SensorEventListener {
 		if (DEBUG)
 			Log.d(TAG, "onActivate()");
 		
+		SharedPreferences sp = getContext().getSharedPreferences(MoSTApplication.PREF_INPUT, Context.MODE_PRIVATE);
+		int batchSize = sp.getInt(PREF_KEY_BATCH_SIZE, PREF_DEFAULT_BATCH_SIZE);
+		if (batchSize > 1) {
+			_batcher = new SensorBatcher(this, batchSize, sp.getInt(PREF_KEY_BATCH_LATENCY, PREF_DEFAULT_BATCH_LATENCY));
+		} else {
+			_batcher = null;
+		}
 		boolean registrationSuccessful = _sensorManager.registerListener(this, _sensor, _sensorRate);
 		if (registrationSuccessful) {
 			return super.onActivate();
@@ -100,6 +126,9 @@ public class MagneticFieldInput extends Input implements SensorEventListener {
 	public void onDeactivate() {
 		checkNewState(State.DEACTIVATED);
 		_sensorManager.unregisterListener(this, _sensor);
+		if (_batcher != null) {
+			_batcher.flush();
+		}
 		if (DEBUG)
 			Log.d(TAG, "onDeactivate()");
 		
@@ -135,17 +164,38 @@ public class MagneticFieldInput extends Input implements SensorEventListener {
 			return;
 		}
 		
-		DataBundle b = _bundlePool.borrowBundle();
-		b.putFloat(KEY_MAGNETIC_FIELD_X, event.values[0]);
-		b.putFloat(KEY_MAGNETIC_FIELD_Y, event.values[1]);
-		b.putFloat(KEY_MAGNETIC_FIELD_Z, event.values[2]);
+		if (_batcher != null) {
+			_batcher.add(event.timestamp, event.values[0], event.values[1], event.values[2]);
+			return;
+		}
 
-		b.putLong(Input.KEY_TIMESTAMP, event.timestamp);
-		b.putInt(Input.KEY_TYPE, Input.Type.MAGNETICFIELD.toInt());
-		
+		DataBundle b = _bundlePool.borrowBundle(Input.Type.MAGNETICFIELD);
+		fillSample(b, event.timestamp, event.values[0], event.values[1], event.values[2]);
 		post(b);
 	}
 
+	/**
+	 * Fills a single-sample DataBundle with a magnetic field sample.
+	 * 
+	 * @param b
+	 *            The DataBundle to fill.
+	 * @param timestamp
+	 *            The timestamp of the sample, in nanoseconds.
+	 * @param x
+	 *            Value over X.
+	 * @param y
+	 *            Value over Y.
+	 * @param z
+	 *            Value over Z.
+	 */
+	static void fillSample(DataBundle b, long timestamp, float x, float y, float z) {
+		b.putFloat(SLOT_MAGNETIC_FIELD_X, x);
+		b.putFloat(SLOT_MAGNETIC_FIELD_Y, y);
+		b.putFloat(SLOT_MAGNETIC_FIELD_Z, z);
+		b.putLong(DataBundleSchema.SLOT_TIMESTAMP, timestamp);
+		b.putInt(DataBundleSchema.SLOT_TYPE, Input.Type.MAGNETICFIELD.toInt());
+	}
+
 	/**
 	 * Gets the sensor rate.
 	 * 
@@ -93,7 +93,7 @@ public class RecorderThread extends Thread {
 			DataBundle b = _input._bundlePool.borrowBundle();
 			int dataSize = _recorder.read(b.allocateShortArray(InputAudio.KEY_AUDIODATA, _bufferSize), 0, _bufferSize);
 
-			b.putLong(Input.KEY_TIMESTAMP, System.currentTimeMillis() * 100000L);
+			b.putLong(Input.KEY_TIMESTAMP, System.currentTimeMillis() * 1000000L);
 			b.putInt(InputAudio.KEY_AUDIODATA_LENGTH, dataSize);
 			b.putInt(Input.KEY_TYPE, Input.Type.AUDIO.toInt());
 			if (DEBUG)
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.input;
+
+import org.most.DataBundle;
+import org.most.DataBundlePool;
+import org.most.DataBundleSchema;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Packs the samples of a three-axis {@link Input} (accelerometer, gyroscope,
+ * magnetic field) in columnar batch {@link DataBundle}s. A batch is posted
+ * when it holds the configured number of samples, or when the configured
+ * latency has elapsed since its first sample was added, even if no other
+ * sample arrives. The latency is also checked against the sensor timestamps,
+ * for samples that are delivered late, in bursts. A batch bundle contains:
+ * <ul>
+ * <li>{@link Input#KEY_TYPE} (int): type of the sensor;</li>
+ * <li>{@link Input#KEY_BATCH_SIZE} (int): the number of samples N in the
+ * batch;</li>
+ * <li>{@link Input#KEY_TIMESTAMP} (long): the timestamp of the last sample;</li>
+ * <li>{@link #KEY_TIMESTAMPS} (long[]): the timestamps of the samples, in
+ * nanoseconds;</li>
+ * <li>{@link #KEY_X}, {@link #KEY_Y}, {@link #KEY_Z} (float[]): the values of
+ * the samples over each axis.</li>
+ * </ul>
+ * Only the first N elements of the arrays are valid.
+ *
+ * A SensorBatcher is not thread safe: it must be used on the main thread,
+ * where the Inputs receive the sensor events, since batches whose latency
+ * expires are posted by a {@link Handler} on the main {@link Looper}.
+ *
+ */
+public class SensorBatcher {
+
+	public static final String KEY_TIMESTAMPS = "SensorBatcher.Timestamps";
+	public static final String KEY_X = "SensorBatcher.X";
+	public static final String KEY_Y = "SensorBatcher.Y";
+	public static final String KEY_Z = "SensorBatcher.Z";
+
+	private final Input _input;
+	private final DataBundlePool _bundlePool;
+	private final int _capacity;
+	private final long _maxLatencyMillis;
+	private final long _maxLatencyNanos;
+	private final Handler _handler;
+	private final Runnable _latencyExpired = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	private DataBundle _batch;
+	private long[] _timestamps;
+	private float[] _x;
+	private float[] _y;
+	private float[] _z;
+	private int _count;
+
+	/**
+	 * Creates a new batcher.
+	 *
+	 * @param input
+	 *            The Input that posts the batches.
+	 * @param capacity
+	 *            The maximum number of samples in a batch.
+	 * @param maxLatencyMillis
+	 *            The maximum time span of the samples in a batch.
+	 */
+	public SensorBatcher(Input input, int capacity, long maxLatencyMillis) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		_input = input;
+		_bundlePool = input._bundlePool;
+		_capacity = capacity;
+		_maxLatencyMillis = maxLatencyMillis;
+		_maxLatencyNanos = maxLatencyMillis * 1000000L;
+		_handler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Adds a sample to the current batch, posting the batch if it is complete.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the sample, in nanoseconds.
+	 * @param x
+	 *            The value over the X axis.
+	 * @param y
+	 *            The value over the Y axis.
+	 * @param z
+	 *            The value over the Z axis.
+	 */
+	public void add(long timestamp, float x, float y, float z) {
+		if (_batch == null) {
+			_batch = _bundlePool.borrowBundle(_input.getType());
+			_timestamps = _batch.allocateLongArray(KEY_TIMESTAMPS, _capacity);
+			_x = _batch.allocateFloatArray(KEY_X, _capacity);
+			_y = _batch.allocateFloatArray(KEY_Y, _capacity);
+			_z = _batch.allocateFloatArray(KEY_Z, _capacity);
+			_count = 0;
+		}
+		_timestamps[_count] = timestamp;
+		_x[_count] = x;
+		_y[_count] = y;
+		_z[_count] = z;
+		_count++;
+		if (_count == _capacity || timestamp - _timestamps[0] >= _maxLatencyNanos) {
+			flush();
+		} else if (_count == 1) {
+			_handler.postDelayed(_latencyExpired, _maxLatencyMillis);
+		}
+	}
+
+	/**
+	 * Posts the current batch, if it contains any sample.
+	 */
+	public void flush() {
+		if (_batch == null) {
+			return;
+		}
+		_handler.removeCallbacks(_latencyExpired);
+		DataBundle b = _batch;
+		_batch = null;
+		b.putInt(DataBundleSchema.SLOT_BATCH_SIZE, _count);
+		b.putLong(DataBundleSchema.SLOT_TIMESTAMP, _timestamps[_count - 1]);
+		b.putInt(DataBundleSchema.SLOT_TYPE, _input.getType().toInt());
+		_input.post(b);
+	}
+
+	/**
+	 * Checks if a DataBundle is a columnar batch.
+	 *
+	 * @param b
+	 *            The DataBundle to check.
+	 * @return <code>true</code> if <code>b</code> carries a batch of samples.
+	 */
+	public static boolean isBatch(DataBundle b) {
+		return b.getInt(DataBundleSchema.SLOT_BATCH_SIZE) > 0;
+	}
+
+	/**
+	 * Gets the number of samples in a batch.
+	 *
+	 * @param b
+	 *            The batch.
+	 * @return The number of samples.
+	 */
+	public static int getBatchSize(DataBundle b) {
+		return b.getInt(DataBundleSchema.SLOT_BATCH_SIZE);
+	}
+
+	/**
+	 * Copies a sample of a batch in a new single-sample DataBundle, with the
+	 * same layout that the Input posts when batching is disabled. This allows
+	 * consumers that are not batch-aware to process batches.
+	 *
+	 * @param batch
+	 *            The batch.
+	 * @param index
+	 *            The index of the sample to extract.
+	 * @param pool
+	 *            The pool to borrow the new DataBundle from.
+	 * @return A new DataBundle, with a reference count of 1, or
+	 *         <code>null</code> if the input type does not support batches.
+	 */
+	public static DataBundle unbatch(DataBundle batch, int index, DataBundlePool pool) {
+		Input.Type type = Input.Type.fromInt(batch.getInt(DataBundleSchema.SLOT_TYPE));
+		long timestamp = batch.getLongArray(KEY_TIMESTAMPS)[index];
+		float x = batch.getFloatArray(KEY_X)[index];
+		float y = batch.getFloatArray(KEY_Y)[index];
+		float z = batch.getFloatArray(KEY_Z)[index];
+		DataBundle b = pool.borrowBundle(type);
+		switch (type) {
+		case ACCELEROMETER:
+			InputAccelerometer.fillSample(b, timestamp, x, y, z);
+			break;
+		case GYROSCOPE:
+			GyroscopeInput.fillSample(b, timestamp, x, y, z);
+			break;
+		case MAGNETICFIELD:
+			MagneticFieldInput.fillSample(b, timestamp, x, y, z);
+			break;
+		default:
+			b.release();
+			return null;
+		}
+		return b;
+	}
+}
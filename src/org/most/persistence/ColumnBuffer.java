@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.Arrays;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * A fixed-capacity cache of the rows of a single table, kept in primitive
+ * columns instead of {@link android.content.ContentValues}. Tables whose rows
+ * are only made of integer and real columns (e.g., inertial sensors) are
+ * stored with {@link #store(long[], double[])}, which neither allocates nor
+ * takes the lock of {@link DBAdapter}.
+ *
+ * The buffer is made of two halves: producers fill one half while the DB writer
+ * thread writes the other one. A flush is requested when the filling half is
+ * three quarters full; if it fills up before the writer takes it, new rows go
+ * to the {@link OverflowJournal}, or are dropped if there is none.
+ *
+ * Instances are obtained with
+ * {@link DBAdapter#getColumnBuffer(String, String[], String[], int)}.
+ *
+ */
+public class ColumnBuffer {
+
+	private static final String TAG = ColumnBuffer.class.getSimpleName();
+
+	private final String _table;
+	private final String[] _longColumns;
+	private final String[] _doubleColumns;
+	private final String[] _columns;
+	private final int _capacity;
+	private final DBWriter _writer;
+	private final OverflowJournal _journal;
+	private final long _latencyNanos;
+
+	/** The half being filled. */
+	private Columns _active;
+
+	/** The free half, or <code>null</code> while the writer owns it. */
+	private Columns _spare;
+
+	/** The half being written, or <code>null</code>. */
+	private Columns _writing;
+
+	private long _droppedCount;
+
+	ColumnBuffer(String table, String[] longColumns, String[] doubleColumns, int capacity, DBWriter writer,
+			long latencyNanos, OverflowJournal journal) {
+		_table = table;
+		_longColumns = longColumns.clone();
+		_doubleColumns = doubleColumns.clone();
+		_columns = new String[_longColumns.length + _doubleColumns.length];
+		System.arraycopy(_longColumns, 0, _columns, 0, _longColumns.length);
+		System.arraycopy(_doubleColumns, 0, _columns, _longColumns.length, _doubleColumns.length);
+		_capacity = capacity;
+		_writer = writer;
+		_journal = journal;
+		_latencyNanos = latencyNanos;
+		_active = new Columns(_longColumns.length, _doubleColumns.length, capacity);
+		_spare = new Columns(_longColumns.length, _doubleColumns.length, capacity);
+		_writing = null;
+		_droppedCount = 0L;
+	}
+
+	/**
+	 * Gets the number of bytes taken by a buffer.
+	 *
+	 * @param columnCount
+	 *            The number of columns.
+	 * @param capacity
+	 *            The capacity, in rows, of each half.
+	 * @return The memory size of the two halves.
+	 */
+	static long sizeOf(int columnCount, int capacity) {
+		return 2L * 8L * columnCount * capacity;
+	}
+
+	/**
+	 * Stores a row. The arrays are copied, thus callers can reuse them.
+	 *
+	 * @param longs
+	 *            The values of the integer columns, in the order they were
+	 *            declared.
+	 * @param doubles
+	 *            The values of the real columns, in the order they were
+	 *            declared.
+	 * @return <code>false</code> if the row was dropped because the buffer and
+	 *         the overflow journal are full.
+	 */
+	public synchronized boolean store(long[] longs, double[] doubles) {
+		Columns active = _active;
+		int row = active._size;
+		if (row == _capacity) {
+			if (_journal != null && _journal.append(_table, _longColumns, longs, _doubleColumns, doubles)) {
+				return true;
+			}
+			_droppedCount++;
+			// log only at powers of two, not to flood the log
+			if ((_droppedCount & (_droppedCount - 1)) == 0) {
+				Log.w(TAG, "Buffer of " + _table + " is full, " + _droppedCount + " rows dropped so far");
+			}
+			return false;
+		}
+		for (int i = 0; i < active._longs.length; i++) {
+			active._longs[i][row] = longs[i];
+		}
+		for (int i = 0; i < active._doubles.length; i++) {
+			active._doubles[i][row] = doubles[i];
+		}
+		active._size = row + 1;
+		if (active._size == _capacity - _capacity / 4) {
+			_writer.scheduleFlush(0L);
+		} else if (row == 0) {
+			_writer.scheduleFlush(_latencyNanos);
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the half to write. If the previous write failed, the same rows are
+	 * returned again.
+	 */
+	synchronized Columns beginWrite() {
+		if (_writing == null) {
+			_writing = _active;
+			_active = _spare;
+			_spare = null;
+		}
+		return _writing;
+	}
+
+	/**
+	 * Gives the written half back, if the transaction committed.
+	 */
+	synchronized void endWrite(boolean committed) {
+		if (committed && _writing != null) {
+			_writing._size = 0;
+			_spare = _writing;
+			_writing = null;
+		}
+	}
+
+	/**
+	 * Inserts the rows of a half taken with {@link #beginWrite()}. The caller
+	 * is in charge of the transaction.
+	 *
+	 * @return The number of inserted rows.
+	 */
+	int write(SQLiteDatabase db, InsertStatementCache inserts, Columns columns) {
+		if (columns._size == 0) {
+			return 0;
+		}
+		SQLiteStatement statement = inserts.getStatement(db, _table, _columns);
+		int inserted = 0;
+		for (int row = 0; row < columns._size; row++) {
+			int index = 1;
+			for (long[] column : columns._longs) {
+				statement.bindLong(index++, column[row]);
+			}
+			for (double[] column : columns._doubles) {
+				statement.bindDouble(index++, column[row]);
+			}
+			try {
+				if (statement.executeInsert() != -1) {
+					inserted++;
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "Error inserting a row into " + _table, e);
+			}
+		}
+		return inserted;
+	}
+
+	public String getTable() {
+		return _table;
+	}
+
+	/**
+	 * Gets the capacity of each half of the buffer.
+	 *
+	 * @return The number of rows that can be stored while the other half is
+	 *         written.
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Gets the number of rows dropped because the buffer and the overflow
+	 * journal were full.
+	 *
+	 * @return The number of dropped rows.
+	 */
+	public synchronized long getDroppedCount() {
+		return _droppedCount;
+	}
+
+	/**
+	 * Tells whether this buffer stores the given columns.
+	 */
+	boolean hasColumns(String[] longColumns, String[] doubleColumns) {
+		return Arrays.equals(_longColumns, longColumns) && Arrays.equals(_doubleColumns, doubleColumns);
+	}
+
+	/**
+	 * One half of the buffer.
+	 */
+	static class Columns {
+		private final long[][] _longs;
+		private final double[][] _doubles;
+		private int _size;
+
+		Columns(int longCount, int doubleCount, int capacity) {
+			_longs = new long[longCount][capacity];
+			_doubles = new double[doubleCount][capacity];
+			_size = 0;
+		}
+	}
+}
@@ -16,26 +16,36 @@
 package org.most.persistence;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.lang3.StringUtils;
+import org.most.MoSTApplication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.os.Build;
 import android.util.Log;
 
 /**
@@ -44,9 +54,37 @@ import android.util.Log;
  * accessing the private {@link SQLiteDatabase} variable) and <b>must</b> call
  * the {@link DBAdapter#close()} method when done.
  * 
+ * The database is opened once and kept open for the process lifetime:
+ * {@link #open()} and {@link #close()} only acquire and release the lock of the
+ * writer connection. Where available (API 11+), the database is in WAL journal
+ * mode and reads use a pool of read-only connections (see
+ * {@link #PREF_KEY_READ_CONNECTIONS}), thus they run concurrently with the
+ * flushes of sensor data.
+ * 
  * Data is stored in a cache before being written to the database: this allows
  * to quickly handle even large amounts of data (e.g., accelerometer) while reducing
  * the number of accesses to persistent storage, which in turn saves battery.
+ * Cached data is written by a single writer thread when the cache holds
+ * {@link #PREF_KEY_FLUSH_ROWS} rows or {@link #PREF_KEY_FLUSH_BYTES} bytes, or
+ * when its oldest row is {@link #PREF_KEY_FLUSH_LATENCY} milliseconds old.
+ * Forced flushes requested within {@link #PREF_KEY_COMMIT_WINDOW} milliseconds
+ * of each other are merged into one transaction.
+ * 
+ * High-rate tables made of numeric columns can be cached in a
+ * {@link ColumnBuffer} instead (see
+ * {@link #getColumnBuffer(String, String[], String[], int)}): the memory of all
+ * column buffers together is bounded by {@link #PREF_KEY_COLUMN_BUFFER_BYTES}.
+ * 
+ * Rows that do not fit in memory while the database is falling behind are
+ * appended to an {@link OverflowJournal} in the external files dir, and
+ * replayed by the writer thread after the cached data.
+ * 
+ * A flush that fails is retried after a delay that doubles at each failure.
+ * Meanwhile at most {@link #PREF_KEY_MAX_PENDING_ROWS} rows wait in memory:
+ * older ones are moved to the overflow journal.
+ * 
+ * Old rows are deleted or downsampled in the background by a
+ * {@link RetentionManager}.
  * 
  * @author gcardone
  * @author acirri
@@ -61,16 +99,126 @@ public class DBAdapter {
 
 	private final static ReentrantLock _dbLock = new ReentrantLock();
 
-	private static final String FLD_TABLE = "DBAdapter.TableName.skrtwrd";
-
 	private final static int DATA_TO_WRITE_DB = 1000;
 
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * number of cached rows that triggers a flush.
+	 */
+	public static final String PREF_KEY_FLUSH_ROWS = "DBAdapter.FlushRows";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * estimated size, in bytes, of the cached rows that triggers a flush.
+	 */
+	public static final String PREF_KEY_FLUSH_BYTES = "DBAdapter.FlushBytes";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * maximum time, in milliseconds, a row stays in the cache.
+	 */
+	public static final String PREF_KEY_FLUSH_LATENCY = "DBAdapter.FlushLatency";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * time, in milliseconds, a forced flush waits for other forced flushes to
+	 * share its transaction.
+	 */
+	public static final String PREF_KEY_COMMIT_WINDOW = "DBAdapter.CommitWindow";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * memory, in bytes, that all the {@link ColumnBuffer}s may take.
+	 */
+	public static final String PREF_KEY_COLUMN_BUFFER_BYTES = "DBAdapter.ColumnBufferBytes";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * size, in bytes, of the overflow journal. If 0, rows that do not fit in
+	 * memory are dropped.
+	 */
+	public static final String PREF_KEY_JOURNAL_BYTES = "DBAdapter.JournalBytes";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * number of read-only connections used when the database is in WAL mode.
+	 */
+	public static final String PREF_KEY_READ_CONNECTIONS = "DBAdapter.ReadConnections";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * number of rows that may wait in memory for a commit that keeps failing.
+	 * The oldest rows beyond it are moved to the overflow journal, or dropped
+	 * if the journal is full.
+	 */
+	public static final String PREF_KEY_MAX_PENDING_ROWS = "DBAdapter.MaxPendingRows";
+
+	public static final int DEFAULT_FLUSH_ROWS = DATA_TO_WRITE_DB;
+	public static final int DEFAULT_FLUSH_BYTES = 256 * 1024;
+	public static final int DEFAULT_FLUSH_LATENCY = 60000;
+	public static final int DEFAULT_COMMIT_WINDOW = 200;
+	public static final int DEFAULT_COLUMN_BUFFER_BYTES = 2 * 1024 * 1024;
+	public static final int DEFAULT_JOURNAL_BYTES = 8 * 1024 * 1024;
+	public static final int DEFAULT_READ_CONNECTIONS = 2;
+	public static final int DEFAULT_MAX_PENDING_ROWS = 8 * DATA_TO_WRITE_DB;
+
+	private static final String JOURNAL_FILE_NAME = "most_overflow.journal";
+
+	/** Maximum size of the journal records replayed by a single flush. */
+	private static final int MAX_REPLAY_BYTES = 256 * 1024;
+
+	/** Delay of the first retry after a failed flush, doubled at each failure. */
+	private static final long MIN_RETRY_MILLIS = 1000L;
+
+	/** Maximum delay between two retries of a failed flush. */
+	private static final long MAX_RETRY_MILLIS = 5 * 60 * 1000L;
+
+	/** Value of <code>PRAGMA auto_vacuum</code> for incremental mode. */
+	private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+	/**
+	 * Default number of rows read per page by
+	 * {@link #readTuples(String, long, int, RowCallback)}.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	/** Number of rows deleted while holding the DB lock once. */
+	public static final int DELETE_CHUNK_ROWS = 1000;
+
+	/**
+	 * Shortest run of consecutive IDs that {@link #deleteTuples(String, Collection)}
+	 * deletes as a range; shorter runs are deleted by value.
+	 */
+	private static final int MIN_DELETE_RANGE = 8;
+
+	/** Default capacity, in rows, of a {@link ColumnBuffer}. */
+	public static final int DEFAULT_COLUMN_BUFFER_ROWS = 2048;
+
 	private Context _context;
 	private DBHelper _dbHelper;
+	private File _dbFile;
 	private SQLiteDatabase _db;
-	private LinkedBlockingQueue<ContentValues> _cachedData;
-	private BlockingQueue<LinkedBlockingQueue<ContentValues>> _dataToDump;
-	private AtomicBoolean _runningDump = new AtomicBoolean(false);
+	private RowBuffer _cachedData;
+	private BlockingQueue<RowBuffer> _dataToDump;
+	private int _maxPendingRows;
+	private int _pendingRows;
+	private long _droppedRows;
+	private int _failedFlushes;
+	private long _retryNanos;
+	private InsertStatementCache _inserts;
+	private List<ColumnBuffer> _columnBuffers;
+	private Map<String, TimeSeriesStore> _timeSeriesStores;
+	private File _externalDir;
+	private long _columnBufferBytes;
+	private OverflowJournal _journal;
+	private RetentionManager _retention;
+	private int _readConnections;
+	private volatile ReadConnectionPool _readPool;
+	private DBWriter _writer;
+	private int _flushRows;
+	private long _flushBytes;
+	private long _flushLatencyNanos;
+	private long _commitWindowNanos;
 	private int _warningPrintCount;
 
 	private static DBAdapter sDBAdapterInstance;
@@ -88,9 +236,21 @@ public class DBAdapter {
 			throw new IllegalArgumentException();
 		}
 		_context = context;
-		_cachedData = new LinkedBlockingQueue<ContentValues>(
-				DATA_TO_WRITE_DB * 2);
-		_dataToDump = new LinkedBlockingQueue<LinkedBlockingQueue<ContentValues>>();
+		SharedPreferences prefs = _context.getSharedPreferences(MoSTApplication.PREF_DB, Context.MODE_PRIVATE);
+		_flushRows = prefs.getInt(PREF_KEY_FLUSH_ROWS, DEFAULT_FLUSH_ROWS);
+		_flushBytes = prefs.getInt(PREF_KEY_FLUSH_BYTES, DEFAULT_FLUSH_BYTES);
+		_flushLatencyNanos = TimeUnit.MILLISECONDS.toNanos(prefs.getInt(PREF_KEY_FLUSH_LATENCY,
+				DEFAULT_FLUSH_LATENCY));
+		_commitWindowNanos = TimeUnit.MILLISECONDS.toNanos(prefs.getInt(PREF_KEY_COMMIT_WINDOW,
+				DEFAULT_COMMIT_WINDOW));
+		_readConnections = prefs.getInt(PREF_KEY_READ_CONNECTIONS, DEFAULT_READ_CONNECTIONS);
+		_columnBufferBytes = prefs.getInt(PREF_KEY_COLUMN_BUFFER_BYTES, DEFAULT_COLUMN_BUFFER_BYTES);
+		_columnBuffers = new CopyOnWriteArrayList<ColumnBuffer>();
+		_timeSeriesStores = new HashMap<String, TimeSeriesStore>();
+		_cachedData = new RowBuffer(_flushRows * 2);
+		_dataToDump = new LinkedBlockingQueue<RowBuffer>();
+		_maxPendingRows = prefs.getInt(PREF_KEY_MAX_PENDING_ROWS, DEFAULT_MAX_PENDING_ROWS);
+		_inserts = new InsertStatementCache();
 		_warningPrintCount = 0;
 		File externalDir = _context.getExternalFilesDir(null);
 		if (externalDir == null) {
@@ -99,32 +259,198 @@ public class DBAdapter {
 			_dbLock.unlock();
 			throw new IllegalStateException();
 		}
+		_externalDir = externalDir;
 		_dbHelper = new DBHelper(_context, externalDir);
+		_dbFile = new File(DBHelper.getDBName(_context, externalDir));
+		int journalBytes = prefs.getInt(PREF_KEY_JOURNAL_BYTES, DEFAULT_JOURNAL_BYTES);
+		if (journalBytes > 0) {
+			try {
+				_journal = new OverflowJournal(new File(externalDir, JOURNAL_FILE_NAME), journalBytes);
+			} catch (IOException e) {
+				Log.e(TAG, "Unable to open the overflow journal", e);
+				logger.error("Unable to open the overflow journal", e);
+				_journal = null;
+			}
+		}
+		_writer = new DBWriter(new DBWriter.Flusher() {
+			public boolean writePending() {
+				return DBAdapter.this.writePending();
+			}
+		});
+		if (_journal != null && !_journal.isEmpty()) {
+			_writer.scheduleFlush(0L);
+		}
+		_retention = new RetentionManager(this, prefs);
 	}
 
+	/**
+	 * Locks the writer connection, opening the database the first time.
+	 * 
+	 * @return This adapter, or <code>null</code> if the database cannot be
+	 *         opened (in which case the lock is not held).
+	 */
 	public DBAdapter open() {
-		Log.i(TAG, "Opening DBAdapter");
 		_dbLock.lock();
-		Log.i(TAG, "DBAdapter successfully locked");
+		if (_db == null) {
+			Log.i(TAG, "Opening MoST db");
+			try {
+				if (!_dbFile.exists()) {
+					createIncrementalVacuumDatabase(_dbFile);
+				}
+				SQLiteDatabase db = _dbHelper.getWritableDatabase();
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && db.enableWriteAheadLogging()) {
+					_readPool = new ReadConnectionPool(db.getPath(), Math.max(1, _readConnections));
+					Log.i(TAG, "MoST db is in WAL mode");
+				}
+				_db = db;
+			} catch (SQLiteException e) {
+				_dbLock.unlock();
+				Log.e(TAG, "Unable to open MoST db", e);
+				logger.error("Unable to open MoST d", e);
+				return null;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Creates an empty database in <code>auto_vacuum = INCREMENTAL</code> mode,
+	 * so that {@link #incrementalVacuum(int)} can give free pages back to the
+	 * file system. The mode must be set before the first table is created, and
+	 * {@link DBHelper} creates <code>android_metadata</code> before
+	 * {@link DBHelper#onCreate(SQLiteDatabase)} runs: thus the file is created
+	 * here, without the metadata, before the helper opens it. Databases that
+	 * already exist are rebuilt later, by
+	 * {@link #rebuildWithIncrementalVacuum()}.
+	 */
+	private static void createIncrementalVacuumDatabase(File file) {
+		SQLiteDatabase db = null;
 		try {
-			_db = _dbHelper.getWritableDatabase();
-		} catch (SQLiteException e) {
-			_dbLock.unlock();
-			Log.e(TAG, "Unable to open MoST db", e);
-			logger.error("Unable to open MoST d", e);
+			db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.CREATE_IF_NECESSARY
+					| SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+			db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			// writes the header, with the mode, of the still empty file
+			db.execSQL("VACUUM");
+		} catch (SQLException e) {
+			// the database works anyway, it just does not shrink
+			Log.e(TAG, "Unable to enable incremental auto vacuum", e);
+			logger.error("Unable to enable incremental auto vacuum", e);
+		} finally {
+			if (db != null) {
+				db.close();
+			}
+		}
+	}
+
+	/**
+	 * Tells whether the database is in <code>auto_vacuum = INCREMENTAL</code>
+	 * mode.
+	 * 
+	 * @return <code>null</code> if the database cannot be opened.
+	 */
+	Boolean isIncrementalVacuum() {
+		if (open() == null) {
 			return null;
 		}
-		return this;
+		Cursor result = null;
+		try {
+			result = _db.rawQuery("PRAGMA auto_vacuum", null);
+			return result.moveToFirst() && result.getInt(0) == AUTO_VACUUM_INCREMENTAL;
+		} catch (SQLException e) {
+			Log.e(TAG, "Unable to read the auto vacuum mode", e);
+			logger.error("Unable to read the auto vacuum mode", e);
+			return null;
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			close();
+		}
 	}
 
-	public void close() {
-		Log.i(TAG, "Closing DBAdapter");
+	/**
+	 * Rebuilds the database with a full <code>VACUUM</code> in
+	 * <code>auto_vacuum = INCREMENTAL</code> mode. This holds the DB lock until
+	 * the whole file is copied, and needs as much free space as the file
+	 * takes: {@link RetentionManager} calls it once, for databases created
+	 * before the mode was set.
+	 * 
+	 * @return <code>true</code> if the database was rebuilt.
+	 */
+	boolean rebuildWithIncrementalVacuum() {
+		if (open() == null) {
+			Log.e(TAG, "Unable to lock database to vacuum");
+			logger.error("Unable to lock database to vacuum");
+			return false;
+		}
+		Log.i(TAG, "Rebuilding MoST db with incremental auto vacuum");
+		long start = System.currentTimeMillis();
 		try {
-			_dbHelper.close();
-			Log.i(TAG, "DBAdapter successfully closed");
+			_db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			_db.execSQL("VACUUM");
+			Log.i(TAG, "MoST db rebuilt in " + (System.currentTimeMillis() - start) + "ms");
+			return true;
+		} catch (SQLException e) {
+			Log.e(TAG, "Unable to enable incremental auto vacuum", e);
+			logger.error("Unable to enable incremental auto vacuum", e);
+			return false;
 		} finally {
-			_dbLock.unlock();
-			Log.i(TAG, "DBAdapter successfully unlocked");
+			close();
+		}
+	}
+
+	/**
+	 * Gets the file of the database.
+	 * 
+	 * @return The file; it may not exist yet.
+	 */
+	File getDatabaseFile() {
+		return _dbFile;
+	}
+
+	/**
+	 * Unlocks the writer connection. The database stays open.
+	 */
+	public void close() {
+		_dbLock.unlock();
+	}
+
+	/**
+	 * Gets a connection to read from. When the database is in WAL mode this is
+	 * a read-only connection from the pool and the writer lock is not taken;
+	 * otherwise it is the writer connection, locked as by {@link #open()}.
+	 * 
+	 * @return A connection, to be given back with
+	 *         {@link #releaseReader(SQLiteDatabase)}, or <code>null</code> if
+	 *         the database cannot be opened.
+	 */
+	SQLiteDatabase acquireReader() {
+		if (_readPool == null) {
+			// make sure the database is open, and in WAL mode if possible
+			if (open() == null) {
+				return null;
+			}
+			if (_readPool == null) {
+				return _db;
+			}
+			close();
+		}
+		try {
+			return _readPool.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (SQLiteException e) {
+			Log.e(TAG, "Unable to open a read connection to MoST db", e);
+			logger.error("Unable to open a read connection to MoST db", e);
+		}
+		return null;
+	}
+
+	void releaseReader(SQLiteDatabase db) {
+		if (_readPool == null) {
+			close();
+		} else {
+			_readPool.release(db);
 		}
 	}
 
@@ -150,105 +476,580 @@ public class DBAdapter {
 	 * @param forceFlush
 	 *            If <code>false</code>, the data is stored in a local buffer
 	 *            before being written on permanent storage to save battery. If
-	 *            <code>true</code>, all cached data is immediately written to
-	 *            the DB.
+	 *            <code>true</code>, all cached data is written to the DB within
+	 *            {@link #PREF_KEY_COMMIT_WINDOW} milliseconds, together with the
+	 *            data of other forced flushes.
 	 */
 	public synchronized void storeData(String table, ContentValues data,
 			boolean forceFlush) {
 		// Log.d(TAG, "Storing data to table " + table);
-		data.put(FLD_TABLE, table);
-		int dataSize = _cachedData.size();
-		synchronized (_cachedData) {
-			if (!_cachedData.offer(data)) {
-				Log.e(TAG,
-						"The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB");
-				logger.error("The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB.");
-			} else {
-				dataSize++;
+		int previousSize = _cachedData.size();
+		if (!_cachedData.add(table, data) && (_journal == null || !_journal.append(table, data))) {
+			Log.e(TAG,
+					"The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB");
+			logger.error("The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB.");
+		}
+		flushIfNeeded(previousSize, forceFlush);
+	}
+
+	/**
+	 * Stores several rows of a table in the cache to be written to the
+	 * database (without flushing). This is equivalent to calling
+	 * {@link #storeData(String, ContentValues)} for each row, but synchronizes
+	 * only once.
+	 * 
+	 * @param table
+	 *            Table to store data into.
+	 * @param data
+	 *            Rows to store.
+	 */
+	public synchronized void storeData(String table, List<ContentValues> data) {
+		if (data.isEmpty()) {
+			return;
+		}
+		int previousSize = _cachedData.size();
+		int dropped = 0;
+		for (int i = 0; i < data.size(); i++) {
+			if (!_cachedData.add(table, data.get(i)) && (_journal == null || !_journal.append(table, data.get(i)))) {
+				dropped++;
 			}
 		}
+		if (dropped > 0) {
+			Log.e(TAG, "The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB");
+			logger.error("The database buffer is overflowing, consider increasing DATA_TO_WRITE_DB.");
+		}
+		flushIfNeeded(previousSize, false);
+	}
 
-		if (forceFlush || dataSize >= DATA_TO_WRITE_DB) {
-			if (!_runningDump.getAndSet(true)) {
-				asyncFlushData();
-			} else {
-				if (dataSize >= DATA_TO_WRITE_DB + DATA_TO_WRITE_DB / 10) {
-					// print a warning every 100 overflowing pending
-					// ContentValues
-					_warningPrintCount = (_warningPrintCount + 1) % 100;
-					if (_warningPrintCount == 1) {
-						Log.w(TAG,
-								"The database is busy and the buffer is full. Consider increasing DATA_TO_WRITE_DB");
-						logger.warn("The database is busy and the buffer is full. Consider increasing DATA_TO_WRITE_DB.");
-					}
+	/**
+	 * Gets the column cache of a table whose rows are only made of integer
+	 * and real columns. The cache is created on first use, and its memory is
+	 * taken from the budget set by {@link #PREF_KEY_COLUMN_BUFFER_BYTES}.
+	 * 
+	 * @param table
+	 *            The table.
+	 * @param longColumns
+	 *            The integer columns.
+	 * @param doubleColumns
+	 *            The real columns.
+	 * @param capacity
+	 *            The requested number of rows of each half of the buffer. A
+	 *            smaller buffer is created if the budget is short.
+	 * @return The column buffer of the table, or <code>null</code> if the
+	 *         budget is exhausted or the table is already cached with
+	 *         different columns: the caller must then use
+	 *         {@link #storeData(String, ContentValues)}.
+	 */
+	public synchronized ColumnBuffer getColumnBuffer(String table, String[] longColumns, String[] doubleColumns,
+			int capacity) {
+		for (ColumnBuffer buffer : _columnBuffers) {
+			if (buffer.getTable().equals(table)) {
+				return buffer.hasColumns(longColumns, doubleColumns) ? buffer : null;
+			}
+		}
+		int columnCount = longColumns.length + doubleColumns.length;
+		long rowBytes = ColumnBuffer.sizeOf(columnCount, 1);
+		int rows = (int) Math.min(capacity, _columnBufferBytes / rowBytes);
+		if (rows < DEFAULT_COLUMN_BUFFER_ROWS / 16) {
+			Log.w(TAG, "No memory left to cache table " + table + " in columns");
+			logger.warn("No memory left to cache table {} in columns.", table);
+			return null;
+		}
+		_columnBufferBytes -= ColumnBuffer.sizeOf(columnCount, rows);
+		ColumnBuffer buffer = new ColumnBuffer(table, longColumns, doubleColumns, rows, _writer,
+				_flushLatencyNanos, _journal);
+		_columnBuffers.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Gets the compressed store of a time series, creating it on first use.
+	 * 
+	 * @param series
+	 *            The name of the series (e.g., the name of the table it
+	 *            replaces).
+	 * @param channels
+	 *            The number of float channels of each sample.
+	 * @return The store of the series.
+	 * @throws IllegalArgumentException
+	 *             If the series already exists with a different number of
+	 *             channels.
+	 */
+	public synchronized TimeSeriesStore getTimeSeriesStore(String series, int channels) {
+		TimeSeriesStore store = _timeSeriesStores.get(series);
+		if (store == null) {
+			store = new TimeSeriesStore(this, series, channels, _externalDir, TimeSeriesStore.DEFAULT_BLOCK_BYTES,
+					TimeSeriesStore.DEFAULT_SEGMENT_BYTES);
+			_timeSeriesStores.put(series, store);
+		} else if (store.getChannelCount() != channels) {
+			throw new IllegalArgumentException("Series " + series + " has " + store.getChannelCount() + " channels");
+		}
+		return store;
+	}
+
+	/**
+	 * Gets the time series stores created so far.
+	 * 
+	 * @return A copy of the list of the stores.
+	 */
+	synchronized List<TimeSeriesStore> getTimeSeriesStores() {
+		return new ArrayList<TimeSeriesStore>(_timeSeriesStores.values());
+	}
+
+	/**
+	 * Gets the manager that bounds the size of the tables.
+	 * 
+	 * @return The retention manager.
+	 */
+	public RetentionManager getRetentionManager() {
+		return _retention;
+	}
+
+	/**
+	 * Tells the writer when the cached data must be written. Called while
+	 * holding the monitor of this adapter.
+	 * 
+	 * @param previousSize
+	 *            The number of cached rows before the last store.
+	 * @param forceFlush
+	 *            Whether the caller asked for a flush.
+	 */
+	private void flushIfNeeded(int previousSize, boolean forceFlush) {
+		int dataSize = _cachedData.size();
+		if (dataSize >= _flushRows || _cachedData.getByteSize() >= _flushBytes) {
+			_writer.scheduleFlush(0L);
+			if (dataSize >= _flushRows + _flushRows / 10) {
+				// print a warning every 100 overflowing pending
+				// ContentValues
+				_warningPrintCount = (_warningPrintCount + 1) % 100;
+				if (_warningPrintCount == 1) {
+					Log.w(TAG,
+							"The database is busy and the buffer is full. Consider increasing DATA_TO_WRITE_DB");
+					logger.warn("The database is busy and the buffer is full. Consider increasing DATA_TO_WRITE_DB.");
 				}
 			}
+		} else if (forceFlush) {
+			_writer.scheduleFlush(_commitWindowNanos);
+		} else if (previousSize == 0 && dataSize > 0) {
+			// bound the time the oldest cached row waits
+			_writer.scheduleFlush(_flushLatencyNanos);
 		}
 		// Log.d(TAG, "Storing data completed");
 	}
 
-	private void updateList() {
-		synchronized (_cachedData) {
+	/**
+	 * Moves the cached rows to the queue of rows to write. Synchronized with
+	 * the <code>storeData</code> methods: a {@link RowBuffer} must not change
+	 * once it is queued.
+	 */
+	private synchronized void updateList() {
+		if (_cachedData.size() > 0) {
 			_dataToDump.add(_cachedData);
-			_cachedData = new LinkedBlockingQueue<ContentValues>();
+			_pendingRows += _cachedData.size();
+			_cachedData = new RowBuffer(_flushRows * 2);
+		}
+		_warningPrintCount = 0;
+	}
+
+	/**
+	 * Bounds the rows queued for writing while commits fail: the oldest
+	 * buffers beyond {@link #PREF_KEY_MAX_PENDING_ROWS} rows are appended to
+	 * the overflow journal, or dropped if it is full. Runs on the writer
+	 * thread, the only one that removes buffers from the queue.
+	 */
+	private void trimPending() {
+		while (_pendingRows > _maxPendingRows && !_dataToDump.isEmpty()) {
+			RowBuffer oldest = _dataToDump.poll();
+			_pendingRows -= oldest.size();
+			int dropped = 0;
+			for (String table : oldest.getTables()) {
+				for (ContentValues row : oldest.getRows(table)) {
+					if (_journal == null || !_journal.append(table, row)) {
+						dropped++;
+					}
+				}
+			}
+			if (dropped > 0) {
+				_droppedRows += dropped;
+				Log.e(TAG, "The database is not writable, " + _droppedRows + " rows lost so far");
+				logger.error("The database is not writable, {} rows lost so far.", _droppedRows);
+			}
 		}
 	}
 
 	/**
-	 * Flushes all currently buffered data to the database. This method
-	 * <em>does not</em> require to acquire the DB lock beforehand.
+	 * Counts a failed flush and schedules the next attempt, after a delay that
+	 * doubles at each consecutive failure.
+	 */
+	private void retryLater() {
+		_failedFlushes++;
+		long delay = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(_failedFlushes - 1, 16));
+		_retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+		Log.w(TAG, "Flush " + _failedFlushes + " failed, retrying in " + delay + "ms");
+		logger.warn("Flush {} failed, retrying in {}ms.", _failedFlushes, delay);
+		_writer.scheduleFlush(TimeUnit.MILLISECONDS.toNanos(delay));
+	}
+
+	/**
+	 * Writes all currently buffered data to the database, waiting until it is
+	 * committed. This method <em>does not</em> require to acquire the DB lock
+	 * beforehand.
 	 */
 	public void flushData() {
+		try {
+			requestFlush(0).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.e(TAG, "Unable to flush MoST db.", e);
+			logger.error("Unable to flush MoST db.", e);
+		}
+	}
+
+	/**
+	 * Asks the writer thread to write all currently buffered data to the
+	 * database as soon as possible.
+	 * 
+	 * @return A {@link Future} completed with <code>true</code> once the data
+	 *         is committed, or with <code>false</code> if the write failed.
+	 */
+	public Future<Boolean> asyncFlushData() {
+		return requestFlush(0);
+	}
+
+	/**
+	 * Asks the writer thread to write all currently buffered data to the
+	 * database within a delay. Requests made within the delay of each other are
+	 * served by a single transaction.
+	 * 
+	 * @param maxDelayMillis
+	 *            The maximum time, in milliseconds, before the data is written.
+	 * @return A {@link Future} completed with <code>true</code> once the data
+	 *         is committed, or with <code>false</code> if the write failed.
+	 */
+	public Future<Boolean> requestFlush(long maxDelayMillis) {
+		return _writer.requestFlush(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis));
+	}
+
+	/**
+	 * Writes the buffered data to the database in one transaction. Runs on the
+	 * writer thread.
+	 * 
+	 * @return <code>true</code> if the transaction committed.
+	 */
+	private boolean writePending() {
 		Log.d(TAG, "Flushing MoST db.");
 		logger.info("Flushing MoST db.");
-		_runningDump.set(true);
 		long start = System.currentTimeMillis();
+		updateList();
+		trimPending();
+		long wait = _retryNanos - System.nanoTime();
+		if (_failedFlushes > 0 && wait > 0) {
+			// back off: the rows wait in the queue, or in the journal
+			_writer.scheduleFlush(wait);
+			return false;
+		}
 		if (open() == null) {
 			Log.e(TAG, "Unable to write data to db.");
 			logger.error("Unable to write data to db.");
-			_runningDump.set(false);
-			return;
+			retryLater();
+			return false;
 		}
-		updateList();
 		int linesCount = 0;
-		_db.beginTransaction();
+		boolean committed = false;
+		int replayed = -1;
+		// buffers leave the queue only once their transaction has committed
+		List<RowBuffer> written = new ArrayList<RowBuffer>();
 		try {
-			LinkedBlockingQueue<ContentValues> list;
-			while ((list = _dataToDump.poll()) != null) {
-				for (ContentValues data : list) {
-					String tableName = data.getAsString(FLD_TABLE);
-					data.remove(FLD_TABLE);
-					_db.insert(tableName, null, data);
-					linesCount++;
+			boolean successful = false;
+			_db.beginTransaction();
+			try {
+				for (RowBuffer buffer : _dataToDump) {
+					for (String table : buffer.getTables()) {
+						linesCount += _inserts.insert(_db, table, buffer.getRows(table));
+					}
+					written.add(buffer);
 				}
+				for (ColumnBuffer columns : _columnBuffers) {
+					linesCount += columns.write(_db, _inserts, columns.beginWrite());
+				}
+				// the cached data is written: catch up with the overflow journal
+				if (_journal != null && !_journal.isEmpty()) {
+					_journal.force();
+					List<String> tables = new ArrayList<String>();
+					List<ContentValues> rows = new ArrayList<ContentValues>();
+					replayed = _journal.read(MAX_REPLAY_BYTES, tables, rows);
+					int first = 0;
+					for (int i = 1; i <= rows.size(); i++) {
+						if (i == rows.size() || !tables.get(i).equals(tables.get(first))) {
+							linesCount += _inserts.insert(_db, tables.get(first), rows.subList(first, i));
+							first = i;
+						}
+					}
+				}
+				// commit on successful write
+				_db.setTransactionSuccessful();
+				successful = true;
+			} catch (SQLException e) {
+				Log.e(TAG, "Unable to write data to db.", e);
+				logger.error("Unable to write data to db.", e);
+			} finally {
+				_db.endTransaction();
 			}
-			// commit on successful write
-			_db.setTransactionSuccessful();
-		} catch (SQLException e) {
-			e.printStackTrace();
+			committed = successful;
 		} finally {
-			_db.endTransaction();
 			close();
+			if (committed) {
+				// only this thread removes buffers: the written ones are the
+				// head of the queue
+				for (int i = 0; i < written.size(); i++) {
+					_pendingRows -= _dataToDump.poll().size();
+				}
+				_failedFlushes = 0;
+			} else {
+				retryLater();
+			}
+			for (ColumnBuffer columns : _columnBuffers) {
+				columns.endWrite(committed);
+			}
+			if (committed && replayed >= 0) {
+				_journal.markReplayed(replayed);
+				if (!_journal.isEmpty()) {
+					_writer.scheduleFlush(0L);
+				}
+			}
 			start = System.currentTimeMillis() - start;
 			Log.i(TAG, "DB write time: " + start + "ms for " + linesCount
 					+ " entries.");
-			_runningDump.set(false);
 		}
+		return committed;
 	}
 
-	public void asyncFlushData() {
+	/**
+	 * Receives the rows of a
+	 * {@link DBAdapter#readTuples(String, long, int, RowCallback)} scan.
+	 */
+	public interface RowCallback {
+
+		/**
+		 * Called for each row, in <code>_ID</code> order, while a connection
+		 * is held (the writer lock, if the database is not in WAL mode):
+		 * implementations should be quick.
+		 * 
+		 * @param row
+		 *            The current row. The view is reused for the next rows.
+		 * @return <code>false</code> to stop the scan.
+		 */
+		public boolean onRow(RowView row);
+	}
 
-		Runnable task = new Runnable() {
-			public void run() {
-				flushData();
+	/**
+	 * Streams the rows of a table whose <code>_ID</code> is greater than
+	 * <code>afterId</code>, in <code>_ID</code> order. Rows are read in pages
+	 * of at most <code>pageSize</code> rows (
+	 * <code>WHERE _ID > ? ORDER BY _ID LIMIT ?</code>), so that at most one
+	 * page is in memory. In WAL mode pages are read from a read-only
+	 * connection, concurrently with writes; otherwise the DB lock is only held
+	 * while a page is read, and writes go on between pages.
+	 * 
+	 * @param table
+	 *            The table to read.
+	 * @param afterId
+	 *            The <code>_ID</code> after which to start; use -1 to read
+	 *            from the first row.
+	 * @param pageSize
+	 *            The maximum number of rows per page.
+	 * @param callback
+	 *            Receives the rows.
+	 * @return The <code>_ID</code> of the last row passed to
+	 *         <code>callback</code>, or <code>afterId</code> if there were
+	 *         none.
+	 */
+	public long readTuples(String table, long afterId, int pageSize, RowCallback callback) {
+		return readTuples(table, null, null, afterId, pageSize, callback);
+	}
+
+	/**
+	 * Streams the rows of a table that match a selection, as
+	 * {@link #readTuples(String, long, int, RowCallback)} does.
+	 * 
+	 * @param table
+	 *            The table to read.
+	 * @param selection
+	 *            A <code>WHERE</code> clause, without the keyword, or
+	 *            <code>null</code> for all rows.
+	 * @param selectionArgs
+	 *            The arguments of <code>selection</code>, or <code>null</code>.
+	 * @param afterId
+	 *            The <code>_ID</code> after which to start; use -1 to read
+	 *            from the first row.
+	 * @param pageSize
+	 *            The maximum number of rows per page.
+	 * @param callback
+	 *            Receives the rows.
+	 * @return The <code>_ID</code> of the last row passed to
+	 *         <code>callback</code>, or <code>afterId</code> if there were
+	 *         none.
+	 */
+	public long readTuples(String table, String selection, String[] selectionArgs, long afterId, int pageSize,
+			RowCallback callback) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		String where = selection == null ? "_ID > ?" : "(" + selection + ") AND _ID > ?";
+		int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+		String[] args = new String[argCount + 1];
+		if (argCount > 0) {
+			System.arraycopy(selectionArgs, 0, args, 0, argCount);
+		}
+		RowView row = new RowView();
+		long lastId = afterId;
+		boolean more = true;
+		while (more) {
+			SQLiteDatabase db = acquireReader();
+			if (db == null) {
+				Log.e(TAG, "Unable to open DB for readTuples");
+				logger.error("Unable to open DB for readTuples");
+				break;
+			}
+			Cursor page = null;
+			try {
+				args[argCount] = Long.toString(lastId);
+				page = db.query(table, null, where, args, null, null, "_ID", Integer.toString(pageSize));
+				row.setCursor(page);
+				int count = 0;
+				while (more && page.moveToNext()) {
+					count++;
+					lastId = row.getId();
+					more = callback.onRow(row);
+				}
+				more = more && count == pageSize;
+			} catch (SQLException e) {
+				Log.e(TAG, "Exception in readTuples.", e);
+				logger.error("Exception in readTuples.", e);
+				more = false;
+			} finally {
+				row.setCursor(null);
+				if (page != null) {
+					page.close();
+				}
+				releaseReader(db);
+			}
+		}
+		return lastId;
+	}
+
+	/**
+	 * Queries the rows of a table whose timestamp is within a range, in
+	 * timestamp order. The query uses the index of the timestamp column (see
+	 * {@link DBHelper}): rows are fetched in pages of at most
+	 * {@link #DEFAULT_PAGE_SIZE} rows as the iterator advances, each page
+	 * starting after the last row of the previous one, thus no connection is
+	 * held while the caller goes through the rows.
+	 * 
+	 * @param table
+	 *            The table to read.
+	 * @param timestampColumn
+	 *            The timestamp column of the table.
+	 * @param from
+	 *            The first timestamp.
+	 * @param to
+	 *            The last timestamp.
+	 * @param projection
+	 *            The columns to read, or <code>null</code> for all of them. The
+	 *            <code>_ID</code> and timestamp columns are always read.
+	 * @param limit
+	 *            The maximum number of rows, or 0 for no limit.
+	 * @return The rows, as {@link DatabaseUtils#cursorRowToContentValues}
+	 *         copies them. The iterator ends early if a page cannot be read.
+	 */
+	public Iterator<ContentValues> queryRange(String table, String timestampColumn, long from, long to,
+			String[] projection, int limit) {
+		String[] columns = projection;
+		if (projection != null) {
+			List<String> list = new ArrayList<String>(Arrays.asList(projection));
+			if (!containsIgnoreCase(list, "_ID")) {
+				list.add("_ID");
+			}
+			if (!containsIgnoreCase(list, timestampColumn)) {
+				list.add(timestampColumn);
+			}
+			columns = list.toArray(new String[list.size()]);
+		}
+		return new RangeIterator(this, table, timestampColumn, columns, from, to, DEFAULT_PAGE_SIZE, limit);
+	}
+
+	private static boolean containsIgnoreCase(List<String> columns, String column) {
+		for (String c : columns) {
+			if (c.equalsIgnoreCase(column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads a page of a {@link RangeIterator}: the rows up to timestamp
+	 * <code>to</code> that follow, in timestamp and <code>_ID</code> order, the
+	 * last row read.
+	 * 
+	 * @param last
+	 *            The timestamp and the <code>_ID</code> of the last row read
+	 *            (-1 before the first page); updated with those of the last
+	 *            row of the page.
+	 * @param page
+	 *            Receives the rows.
+	 * @return <code>false</code> if the page could not be read.
+	 */
+	boolean readRangePage(String table, String timestampColumn, String[] columns, long[] last, long to, int limit,
+			List<ContentValues> page) {
+		SQLiteDatabase db = acquireReader();
+		if (db == null) {
+			Log.e(TAG, "Unable to open DB for queryRange");
+			logger.error("Unable to open DB for queryRange");
+			return false;
+		}
+		Cursor result = null;
+		try {
+			String after = Long.toString(last[0]);
+			result = db.query(table, columns,
+					String.format("%1$s >= ? AND %1$s <= ? AND (%1$s > ? OR _ID > ?)", timestampColumn), new String[] {
+							after, Long.toString(to), after, Long.toString(last[1]) }, null, null, timestampColumn
+							+ ", _ID", Integer.toString(limit));
+			int timestampIndex = result.getColumnIndexOrThrow(timestampColumn);
+			int idIndex = result.getColumnIndexOrThrow("_ID");
+			while (result.moveToNext()) {
+				ContentValues row = new ContentValues();
+				DatabaseUtils.cursorRowToContentValues(result, row);
+				page.add(row);
+				last[0] = result.getLong(timestampIndex);
+				last[1] = result.getLong(idIndex);
 			}
-		};
-		new Thread(task, "MoST DB flush").start();
+			return true;
+		} catch (SQLException e) {
+			Log.e(TAG, "Exception in queryRange.", e);
+			logger.error("Exception in queryRange.", e);
+			return false;
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			releaseReader(db);
+		}
 	}
 
+	/**
+	 * Reads the first rows of a table into memory.
+	 * 
+	 * @deprecated With <code>num &lt;= 0</code> this loads the whole table,
+	 *             which can exhaust the memory: use
+	 *             {@link #readTuples(String, long, int, RowCallback)} instead.
+	 */
+	@Deprecated
 	public List<ContentValues> getFIFOTuples(String table, int num) {
 		Log.d(TAG, "Trying to get tuples from table " + table);
-		if (open() == null) {
+		SQLiteDatabase db = acquireReader();
+		if (db == null) {
 			Log.e(TAG, "Unable to open DB for getFIFOTuples");
 			logger.error("Unable to open DB for getFIFOTuples");
 			return new ArrayList<ContentValues>();
@@ -257,11 +1058,11 @@ public class DBAdapter {
 		try {
 			List<ContentValues> retVal = null;
 			if (num <= 0) {
-				result = _db.query(table, null, null, null, null, null, "_ID",
+				result = db.query(table, null, null, null, null, null, "_ID",
 						null);
 				retVal = new LinkedList<ContentValues>();
 			} else {
-				result = _db.query(table, null, null, null, null, null, "_ID",
+				result = db.query(table, null, null, null, null, null, "_ID",
 						num + "");
 				retVal = new ArrayList<ContentValues>(num);
 			}
@@ -286,30 +1087,265 @@ public class DBAdapter {
 				Log.e(TAG, "Exception closing cursor.", e);
 				logger.error("Exception closing cursor.", e);
 			}
-			close();
+			releaseReader(db);
 		}
 	}
 
+	/**
+	 * Deletes the given rows of a table. Runs of at least
+	 * {@link #MIN_DELETE_RANGE} contiguous IDs are deleted as ranges, with
+	 * {@link #acknowledgeRange(String, long, long, int)}; the other IDs are
+	 * deleted by value, up to {@link #DELETE_CHUNK_ROWS} per statement.
+	 * 
+	 * @param table
+	 *            The table.
+	 * @param ids
+	 *            The <code>_ID</code>s of the rows to delete.
+	 * @return The number of deleted rows, or -1 if the database could not be
+	 *         opened.
+	 */
 	public int deleteTuples(String table, Collection<Long> ids) {
 		Log.d(TAG, "Trying to delete tuples from table " + table);
 		logger.info("Trying to delete tuples from table {}.", table);
+		long[] sorted = new long[ids.size()];
+		int i = 0;
+		for (Long id : ids) {
+			sorted[i++] = id;
+		}
+		Arrays.sort(sorted);
+		long[] chunk = new long[Math.min(sorted.length, DELETE_CHUNK_ROWS)];
+		int chunkSize = 0;
+		int deleted = 0;
+		int statements = 0;
+		for (int first = 0; first < sorted.length;) {
+			int last = first;
+			while (last + 1 < sorted.length && sorted[last + 1] <= sorted[last] + 1) {
+				last++;
+			}
+			int count = 0;
+			if (last - first + 1 >= MIN_DELETE_RANGE) {
+				count = acknowledgeRange(table, sorted[first], sorted[last], 0);
+				statements++;
+			} else {
+				for (int j = first; j <= last; j++) {
+					// duplicates are adjacent once sorted
+					if (chunkSize == 0 || chunk[chunkSize - 1] != sorted[j]) {
+						chunk[chunkSize++] = sorted[j];
+					}
+					if (chunkSize == chunk.length) {
+						int chunkCount = deleteIds(table, chunk, chunkSize);
+						if (chunkCount < 0) {
+							return -1;
+						}
+						count += chunkCount;
+						chunkSize = 0;
+						statements++;
+					}
+				}
+			}
+			if (count < 0) {
+				return -1;
+			}
+			deleted += count;
+			first = last + 1;
+		}
+		if (chunkSize > 0) {
+			int count = deleteIds(table, chunk, chunkSize);
+			if (count < 0) {
+				return -1;
+			}
+			deleted += count;
+			statements++;
+		}
+		Log.i(TAG, String.format("IDs to delete: %d in %d statements - IDS deleted: %d", ids.size(), statements,
+				deleted));
+		logger.info("Successfully deleted {} tuples from table {}.", deleted, table);
+		return deleted;
+	}
+
+	/**
+	 * Deletes rows of a table by <code>_ID</code> in one statement, holding the
+	 * DB lock.
+	 * 
+	 * @param ids
+	 *            The <code>_ID</code>s; only the first <code>count</code> are
+	 *            used.
+	 * @return The number of deleted rows, or -1 if the database could not be
+	 *         opened.
+	 */
+	private int deleteIds(String table, long[] ids, int count) {
+		StringBuilder where = new StringBuilder(count * 8 + 10).append("_ID IN (");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				where.append(',');
+			}
+			where.append(ids[i]);
+		}
+		where.append(')');
 		if (open() == null) {
 			Log.e(TAG, "Unable to lock database to delete tuples");
 			logger.error("Unable to lock database to delete tuples");
 			return -1;
 		}
 		try {
-			String args = StringUtils.join(ids, ",");
-			int deleted = _db.delete(table, "_ID IN (" + args + ")", null);
-			Log.i(TAG,
-					String.format("IDs to delete: %d - IDS deleted: %d",
-							ids.size(), deleted));
-			logger.info("Successfully deleted {} tuples from table {}.",
-					deleted, table);
-			return deleted;
+			return _db.delete(table, where.toString(), null);
+		} catch (SQLException e) {
+			Log.e(TAG, "Exception deleting tuples from " + table, e);
+			logger.error("Exception deleting tuples from " + table, e);
+			return 0;
 		} finally {
 			close();
 		}
 	}
 
+	/**
+	 * Deletes all the rows of a table up to a watermark. Since rows are
+	 * consumed in <code>_ID</code> order, this acknowledges everything read
+	 * up to <code>maxId</code>.
+	 * 
+	 * @param table
+	 *            The table.
+	 * @param maxId
+	 *            The greatest <code>_ID</code> to delete.
+	 * @param vacuumPages
+	 *            If greater than 0, the number of free pages to give back to
+	 *            the file system afterwards (see {@link #incrementalVacuum(int)}).
+	 * @return The number of deleted rows, or -1 if the database could not be
+	 *         opened.
+	 */
+	public int acknowledgeUpTo(String table, long maxId, int vacuumPages) {
+		return acknowledgeRange(table, Long.MIN_VALUE, maxId, vacuumPages);
+	}
+
+	/**
+	 * Deletes the rows of a table whose <code>_ID</code> is between two
+	 * bounds. Rows are deleted in chunks of {@link #DELETE_CHUNK_ROWS} rows,
+	 * each holding the DB lock on its own, so that a large purge does not stop
+	 * the writer thread.
+	 * 
+	 * @param table
+	 *            The table.
+	 * @param fromId
+	 *            The smallest <code>_ID</code> to delete.
+	 * @param toId
+	 *            The greatest <code>_ID</code> to delete.
+	 * @param vacuumPages
+	 *            If greater than 0, the number of free pages to give back to
+	 *            the file system afterwards (see {@link #incrementalVacuum(int)}).
+	 * @return The number of deleted rows, or -1 if the database could not be
+	 *         opened.
+	 */
+	public int acknowledgeRange(String table, long fromId, long toId, int vacuumPages) {
+		int deleted = deleteInChunks(table, String.format("_ID BETWEEN %d AND %d", fromId, toId), "_ID");
+		if (vacuumPages > 0 && deleted > 0) {
+			incrementalVacuum(vacuumPages);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Deletes the rows of a table that match a selection, in chunks of
+	 * {@link #DELETE_CHUNK_ROWS} rows, each holding the DB lock on its own.
+	 * 
+	 * @param table
+	 *            The table.
+	 * @param selection
+	 *            The rows to delete, with literal values.
+	 * @param orderBy
+	 *            The order in which rows are deleted; an indexed column lets
+	 *            each chunk find its rows quickly.
+	 * @return The number of deleted rows, or -1 if the database could not be
+	 *         opened.
+	 */
+	int deleteInChunks(String table, String selection, String orderBy) {
+		String where = String.format("_ID IN (SELECT _ID FROM %s WHERE %s ORDER BY %s LIMIT %d)", table, selection,
+				orderBy, DELETE_CHUNK_ROWS);
+		int deleted = 0;
+		int chunk;
+		do {
+			if (open() == null) {
+				Log.e(TAG, "Unable to lock database to delete tuples");
+				logger.error("Unable to lock database to delete tuples");
+				return deleted > 0 ? deleted : -1;
+			}
+			try {
+				chunk = _db.delete(table, where, null);
+			} catch (SQLException e) {
+				Log.e(TAG, "Exception deleting tuples from " + table, e);
+				logger.error("Exception deleting tuples from " + table, e);
+				chunk = 0;
+			} finally {
+				close();
+			}
+			deleted += chunk;
+		} while (chunk == DELETE_CHUNK_ROWS);
+		return deleted;
+	}
+
+	/**
+	 * Executes statements in one transaction, holding the DB lock.
+	 * 
+	 * @param statements
+	 *            The SQL statements.
+	 * @return <code>true</code> if the transaction committed.
+	 */
+	boolean execInTransaction(String... statements) {
+		if (open() == null) {
+			Log.e(TAG, "Unable to lock database to execute statements");
+			logger.error("Unable to lock database to execute statements");
+			return false;
+		}
+		try {
+			_db.beginTransaction();
+			try {
+				for (String sql : statements) {
+					_db.execSQL(sql);
+				}
+				_db.setTransactionSuccessful();
+				return true;
+			} finally {
+				_db.endTransaction();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "Exception executing statements", e);
+			logger.error("Exception executing statements", e);
+			return false;
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Gives free pages back to the file system. New databases are created in
+	 * <code>auto_vacuum = INCREMENTAL</code> mode, and older ones are rebuilt
+	 * in that mode by {@link RetentionManager}; until then, this has no
+	 * effect.
+	 * 
+	 * @param pages
+	 *            The maximum number of pages to free.
+	 */
+	public void incrementalVacuum(int pages) {
+		if (open() == null) {
+			Log.e(TAG, "Unable to lock database to vacuum");
+			logger.error("Unable to lock database to vacuum");
+			return;
+		}
+		Cursor result = null;
+		try {
+			// the pragma runs while its statement is stepped
+			result = _db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+			while (result.moveToNext()) {
+				// nothing to read
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "Exception in incremental vacuum.", e);
+			logger.error("Exception in incremental vacuum.", e);
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			close();
+		}
+	}
+
 }
@@ -23,6 +23,7 @@ import org.most.pipeline.PipelineAccelerometerClassifier;
 import org.most.pipeline.PipelineActivityRecognitionCompare;
 import org.most.pipeline.PipelineAppOnScreen;
 import org.most.pipeline.PipelineAppsNetTraffic;
+import org.most.pipeline.PipelineAudioClassifier;
 import org.most.pipeline.PipelineBattery;
 import org.most.pipeline.PipelineBluetooth;
 import org.most.pipeline.PipelineCell;
@@ -48,7 +49,7 @@ public class DBHelper extends SQLiteOpenHelper {
 
 	private static final String TAG = DBHelper.class.getSimpleName();
 
-	private static final int DB_VERSION = 4;
+	private static final int DB_VERSION = 7;
 
 	public DBHelper(Context context) {
 		super(context.getApplicationContext(), context.getSharedPreferences(MoSTApplication.PREF_DB, Context.MODE_PRIVATE).getString(
@@ -69,6 +70,9 @@ public class DBHelper extends SQLiteOpenHelper {
 		case 1:
 		case 2:
 		case 3:
+		case 4:
+		case 5:
+		case 6:
 			onCreate(db);
 			break;
 
@@ -79,30 +83,51 @@ public class DBHelper extends SQLiteOpenHelper {
 
 	@Override
 	public void onCreate(SQLiteDatabase db) {
-		createTable(db, PipelineAppOnScreen.TBL_APP_ON_SCREEN, PipelineAppOnScreen.CREATE_APP_ON_SCREEN_TABLE);
-		createTable(db, PipelineBattery.TBL_BATTERY, PipelineBattery.CREATE_BATTERY_TABLE);
-		createTable(db, PipelineAccelerometer.TBL_ACCELEROMETER, PipelineAccelerometer.CREATE_ACCELEROMETER_TABLE);
-		createTable(db, PipelineBluetooth.TBL_BLUETOOH, PipelineBluetooth.CREATE_BLUETOOTH_TABLE);
-		createTable(db, PipelineGyroscope.TBL_GYROSCOPE, PipelineGyroscope.CREATE_GYROSCOPE_TABLE);
-		createTable(db, PipelineInstalledApps.TBL_INSTALLED_APPS, PipelineInstalledApps.CREATE_INSTALLED_APPS_TABLE);
-		createTable(db, PipelineLight.TBL_LIGHT, PipelineLight.CREATE_LIGHT_TABLE);
-		createTable(db, PipelineLocation.TBL_LOCATION, PipelineLocation.CREATE_LOCATION_TABLE);
-		createTable(db, PipelineMagneticField.TBL_MAGNETIC_FIELD, PipelineMagneticField.CREATE_MAGNETIC_FIELD_TABLE);
-		createTable(db, PipelinePhoneCallDuration.TBL_PHONE_CALL_DURATION, PipelinePhoneCallDuration.CREATE_PHONE_CALL_DURATION_TABLE);
-		createTable(db, PipelinePhoneCallEvent.TBL_PHONE_CALL_EVENT, PipelinePhoneCallEvent.CREATE_PHONE_CALL_EVENT_TABLE);
-		createTable(db, PipelineSystemStats.TBL_SYSTEM_STATS, PipelineSystemStats.CREATE_SYSTEM_STATS_TABLE);
-		createTable(db, PipelineAccelerometerClassifier.TBL_ACCELEROMETER_CLASSIFIER, PipelineAccelerometerClassifier.CREATE_ACCELEROMETER_CLASSIFIER_TABLE);
-		createTable(db, PipelineWifiScan.TBL_WIFI_SCAN, PipelineWifiScan.CREATE_WIFI_SCAN_TABLE);
-		createTable(db, PipelineCell.TBL_CELL, PipelineCell.CREATE_CELL_TABLE);
-		createTable(db, PipelineDeviceNetTraffic.TBL_NET_TRAFFIC_DEVICE, PipelineDeviceNetTraffic.CREATE_DEVICE_NET_TRAFFIC_TABLE);
-		createTable(db, PipelineAppsNetTraffic.TBL_NET_TRAFFIC_APPS, PipelineAppsNetTraffic.CREATE_APPS_NET_TRAFFIC_TABLE);
-		createTable(db, PipelineConnectionType.TBL_CONNECTION_TYPE, PipelineConnectionType.CREATE_CONNECTION_TYPE_TABLE);
-		createTable(db, PipelineGoogleActivityRecognition.TBL_GOOGLE_ACTIVITY_RECOGNITION, PipelineGoogleActivityRecognition.CREATE_GOOGLE_ACTIVITY_RECOGNITION_TABLE);
-		createTable(db, PipelineActivityRecognitionCompare.TBL_ACTIVITY_RECOGNITION_COMPARE, PipelineActivityRecognitionCompare.CREATE_ACTIVITY_RECOGNITION_COMPARE_TABLE);
+		createTable(db, PipelineAppOnScreen.TBL_APP_ON_SCREEN, PipelineAppOnScreen.CREATE_APP_ON_SCREEN_TABLE, PipelineAppOnScreen.INDEX_APP_ON_SCREEN_TABLE);
+		createTable(db, PipelineBattery.TBL_BATTERY, PipelineBattery.CREATE_BATTERY_TABLE, PipelineBattery.INDEX_BATTERY_TABLE);
+		createTable(db, PipelineAccelerometer.TBL_ACCELEROMETER, PipelineAccelerometer.CREATE_ACCELEROMETER_TABLE, PipelineAccelerometer.INDEX_ACCELEROMETER_TABLE);
+		createTable(db, PipelineBluetooth.TBL_BLUETOOH, PipelineBluetooth.CREATE_BLUETOOTH_TABLE, PipelineBluetooth.INDEX_BLUETOOTH_TABLE);
+		createTable(db, PipelineGyroscope.TBL_GYROSCOPE, PipelineGyroscope.CREATE_GYROSCOPE_TABLE, PipelineGyroscope.INDEX_GYROSCOPE_TABLE);
+		createTable(db, PipelineInstalledApps.TBL_INSTALLED_APPS, PipelineInstalledApps.CREATE_INSTALLED_APPS_TABLE, PipelineInstalledApps.INDEX_INSTALLED_APPS_TABLE);
+		createTable(db, PipelineLight.TBL_LIGHT, PipelineLight.CREATE_LIGHT_TABLE, PipelineLight.INDEX_LIGHT_TABLE);
+		createTable(db, PipelineLocation.TBL_LOCATION, PipelineLocation.CREATE_LOCATION_TABLE, PipelineLocation.INDEX_LOCATION_TABLE);
+		createTable(db, PipelineMagneticField.TBL_MAGNETIC_FIELD, PipelineMagneticField.CREATE_MAGNETIC_FIELD_TABLE, PipelineMagneticField.INDEX_MAGNETIC_FIELD_TABLE);
+		createTable(db, PipelinePhoneCallDuration.TBL_PHONE_CALL_DURATION, PipelinePhoneCallDuration.CREATE_PHONE_CALL_DURATION_TABLE, PipelinePhoneCallDuration.INDEX_PHONE_CALL_DURATION_TABLE);
+		createTable(db, PipelinePhoneCallEvent.TBL_PHONE_CALL_EVENT, PipelinePhoneCallEvent.CREATE_PHONE_CALL_EVENT_TABLE, PipelinePhoneCallEvent.INDEX_PHONE_CALL_EVENT_TABLE);
+		createTable(db, PipelineSystemStats.TBL_SYSTEM_STATS, PipelineSystemStats.CREATE_SYSTEM_STATS_TABLE, PipelineSystemStats.INDEX_SYSTEM_STATS_TABLE);
+		createTable(db, PipelineAccelerometerClassifier.TBL_ACCELEROMETER_CLASSIFIER, PipelineAccelerometerClassifier.CREATE_ACCELEROMETER_CLASSIFIER_TABLE, PipelineAccelerometerClassifier.INDEX_ACCELEROMETER_CLASSIFIER_TABLE);
+		createTable(db, PipelineWifiScan.TBL_WIFI_SCAN, PipelineWifiScan.CREATE_WIFI_SCAN_TABLE, PipelineWifiScan.INDEX_WIFI_SCAN_TABLE);
+		createTable(db, PipelineCell.TBL_CELL, PipelineCell.CREATE_CELL_TABLE, PipelineCell.INDEX_CELL_TABLE);
+		createTable(db, PipelineDeviceNetTraffic.TBL_NET_TRAFFIC_DEVICE, PipelineDeviceNetTraffic.CREATE_DEVICE_NET_TRAFFIC_TABLE, PipelineDeviceNetTraffic.INDEX_DEVICE_NET_TRAFFIC_TABLE);
+		createTable(db, PipelineAppsNetTraffic.TBL_NET_TRAFFIC_APPS, PipelineAppsNetTraffic.CREATE_APPS_NET_TRAFFIC_TABLE, PipelineAppsNetTraffic.INDEX_APPS_NET_TRAFFIC_TABLE);
+		createTable(db, PipelineConnectionType.TBL_CONNECTION_TYPE, PipelineConnectionType.CREATE_CONNECTION_TYPE_TABLE, PipelineConnectionType.INDEX_CONNECTION_TYPE_TABLE);
+		createTable(db, PipelineGoogleActivityRecognition.TBL_GOOGLE_ACTIVITY_RECOGNITION, PipelineGoogleActivityRecognition.CREATE_GOOGLE_ACTIVITY_RECOGNITION_TABLE, PipelineGoogleActivityRecognition.INDEX_GOOGLE_ACTIVITY_RECOGNITION_TABLE);
+		createTable(db, PipelineActivityRecognitionCompare.TBL_ACTIVITY_RECOGNITION_COMPARE, PipelineActivityRecognitionCompare.CREATE_ACTIVITY_RECOGNITION_COMPARE_TABLE, PipelineActivityRecognitionCompare.INDEX_ACTIVITY_RECOGNITION_COMPARE_TABLE);
+		createTable(db, PipelineAudioClassifier.TBL_AUDIO_CLASSIFIER, PipelineAudioClassifier.CREATE_AUDIO_CLASSIFIER_TABLE, PipelineAudioClassifier.INDEX_AUDIO_CLASSIFIER_TABLE);
+		createTable(db, TimeSeriesStore.TBL_TS_BLOCKS, TimeSeriesStore.CREATE_TS_BLOCKS_TABLE, TimeSeriesStore.INDEX_TS_BLOCKS_TABLE);
 	}
 
-	private void createTable(SQLiteDatabase db, String tableName, String createString) {
+	/**
+	 * Creates a table and its indexes, if they do not exist.
+	 * 
+	 * @param tableName
+	 *            The name of the table.
+	 * @param createString
+	 *            The columns of the table.
+	 * @param indexes
+	 *            The columns of each index, e.g. <code>"timestamp"</code> or
+	 *            <code>"series, timestamp"</code>.
+	 */
+	private void createTable(SQLiteDatabase db, String tableName, String createString, String... indexes) {
 		db.execSQL(String.format("CREATE TABLE IF NOT EXISTS %s (%s)", tableName, createString));
+		for (String columns : indexes) {
+			db.execSQL(String.format("CREATE INDEX IF NOT EXISTS %s ON %s (%s)", getIndexName(tableName, columns),
+					tableName, columns));
+		}
+	}
+
+	private static String getIndexName(String tableName, String columns) {
+		return String.format("%s_%s_IDX", tableName, columns.replaceAll("\\W+", "_"));
 	}
 
 	public static String getDBName(Context context, File path) {
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+/**
+ * The thread that writes the rows buffered by {@link DBAdapter} to the
+ * database, with group commit: flush requests only set a deadline, and
+ * everything stored by the time the deadline expires is written in one
+ * transaction. Thus several requests issued within a short window cost a
+ * single transaction.
+ *
+ * Flushes are numbered by epoch. A request made during epoch <i>n</i> is
+ * satisfied once the flush of epoch <i>n</i> commits, and the returned
+ * {@link Future} is completed at that point.
+ *
+ */
+class DBWriter implements Runnable {
+
+	private static final String TAG = DBWriter.class.getSimpleName();
+
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/**
+	 * Writes the rows stored so far, in one transaction.
+	 */
+	interface Flusher {
+		/**
+		 * @return <code>true</code> if the transaction committed.
+		 */
+		boolean writePending();
+	}
+
+	private final Flusher _flusher;
+	private final ReentrantLock _lock;
+	private final Condition _wake;
+	private final List<FlushFuture> _waiters;
+	private final Thread _thread;
+
+	/** Epoch of the rows currently being stored. */
+	private long _openEpoch;
+
+	/** Time (as per {@link System#nanoTime()}) of the next flush. */
+	private long _deadline;
+
+	DBWriter(Flusher flusher) {
+		_flusher = flusher;
+		_lock = new ReentrantLock();
+		_wake = _lock.newCondition();
+		_waiters = new ArrayList<FlushFuture>();
+		_openEpoch = 0L;
+		_deadline = NO_DEADLINE;
+		_thread = new Thread(this, "MoST DB writer");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Requests that the rows stored so far are written within a delay. The
+	 * request merges with the pending ones: the earliest deadline wins.
+	 *
+	 * @param delayNanos
+	 *            The maximum delay, in nanoseconds.
+	 * @return A future completed with <code>true</code> when the rows are
+	 *         durable, or with <code>false</code> if the write failed.
+	 */
+	Future<Boolean> requestFlush(long delayNanos) {
+		_lock.lock();
+		try {
+			FlushFuture future = new FlushFuture(_openEpoch);
+			_waiters.add(future);
+			schedule(delayNanos);
+			return future;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes sure a flush happens within a delay, without waiting for it.
+	 *
+	 * @param delayNanos
+	 *            The maximum delay, in nanoseconds.
+	 */
+	void scheduleFlush(long delayNanos) {
+		_lock.lock();
+		try {
+			schedule(delayNanos);
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private void schedule(long delayNanos) {
+		long deadline = System.nanoTime() + Math.max(0L, delayNanos);
+		if (_deadline == NO_DEADLINE || deadline - _deadline < 0) {
+			_deadline = deadline;
+			_wake.signal();
+		}
+	}
+
+	public void run() {
+		while (true) {
+			long epoch;
+			_lock.lock();
+			try {
+				long now = System.nanoTime();
+				while (_deadline == NO_DEADLINE || _deadline - now > 0) {
+					if (_deadline == NO_DEADLINE) {
+						_wake.awaitUninterruptibly();
+					} else {
+						try {
+							_wake.awaitNanos(_deadline - now);
+						} catch (InterruptedException e) {
+							// keep writing: the DB writer lives as long as the
+							// application
+						}
+					}
+					now = System.nanoTime();
+				}
+				_deadline = NO_DEADLINE;
+				// rows stored from now on belong to the next flush
+				epoch = _openEpoch++;
+			} finally {
+				_lock.unlock();
+			}
+
+			boolean committed = false;
+			try {
+				committed = _flusher.writePending();
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Unable to write data to db.", e);
+			}
+
+			_lock.lock();
+			try {
+				Iterator<FlushFuture> it = _waiters.iterator();
+				while (it.hasNext()) {
+					FlushFuture future = it.next();
+					if (future._epoch <= epoch) {
+						future.complete(committed);
+						it.remove();
+					}
+				}
+			} finally {
+				_lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Completion of a flush request.
+	 */
+	private static class FlushFuture implements Future<Boolean> {
+		private final long _epoch;
+		private final CountDownLatch _done;
+		private volatile boolean _committed;
+
+		FlushFuture(long epoch) {
+			_epoch = epoch;
+			_done = new CountDownLatch(1);
+		}
+
+		void complete(boolean committed) {
+			_committed = committed;
+			_done.countDown();
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean isDone() {
+			return _done.getCount() == 0;
+		}
+
+		public Boolean get() throws InterruptedException, ExecutionException {
+			_done.await();
+			return _committed;
+		}
+
+		public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!_done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return _committed;
+		}
+	}
+}
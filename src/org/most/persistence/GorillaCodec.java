@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.Arrays;
+
+/**
+ * Compression of blocks of time series samples, each made of a timestamp and
+ * a fixed number of float channels, after Facebook's Gorilla.
+ *
+ * Timestamps are stored as delta-of-deltas: the first timestamp is stored
+ * verbatim, then each sample stores the difference between its delta and the
+ * previous one, in a variable number of bits. Since sensor timestamps are in
+ * nanoseconds, the buckets are wider than Gorilla's:
+ * <ul>
+ * <li><code>0</code>: same delta as before;</li>
+ * <li><code>10</code> + 16 bits;</li>
+ * <li><code>110</code> + 24 bits;</li>
+ * <li><code>1110</code> + 32 bits;</li>
+ * <li><code>1111</code> + 64 bits.</li>
+ * </ul>
+ *
+ * Each channel stores the XOR of the bits of the value with the bits of the
+ * previous value of the channel: <code>0</code> if they are equal, otherwise
+ * <code>1</code> followed by either <code>0</code> and the meaningful bits, if
+ * they fit in the window of the previous XOR, or <code>1</code>, 5 bits of
+ * leading zeros, 5 bits of length minus one and the meaningful bits.
+ *
+ */
+class GorillaCodec {
+
+	private GorillaCodec() {
+	}
+
+	/**
+	 * Encodes samples into a block of fixed size.
+	 */
+	static class Encoder {
+		private final byte[] _buffer;
+		private final int _channels;
+		private final int _worstCaseBits;
+		private final int[] _previousBits;
+		private final int[] _previousLeading;
+		private final int[] _previousTrailing;
+		private int _bitPosition;
+		private int _count;
+		private long _firstTimestamp;
+		private long _previousTimestamp;
+		private long _previousDelta;
+
+		/**
+		 * Instantiates a new Encoder.
+		 *
+		 * @param blockBytes
+		 *            The size of a block.
+		 * @param channels
+		 *            The number of channels of each sample.
+		 */
+		Encoder(int blockBytes, int channels) {
+			_buffer = new byte[blockBytes];
+			_channels = channels;
+			_worstCaseBits = 4 + 64 + channels * (2 + 5 + 5 + 32);
+			_previousBits = new int[channels];
+			_previousLeading = new int[channels];
+			_previousTrailing = new int[channels];
+			reset();
+		}
+
+		/**
+		 * Empties the block.
+		 */
+		void reset() {
+			Arrays.fill(_buffer, (byte) 0);
+			_bitPosition = 0;
+			_count = 0;
+		}
+
+		/**
+		 * Appends a sample, if the block has room for it.
+		 *
+		 * @param timestamp
+		 *            The timestamp of the sample.
+		 * @param values
+		 *            The values of the channels.
+		 * @return <code>false</code> if the block is full: the sample was not
+		 *         appended.
+		 */
+		boolean append(long timestamp, float[] values) {
+			if (_buffer.length * 8 - _bitPosition < _worstCaseBits) {
+				return false;
+			}
+			if (_count == 0) {
+				write(timestamp, 64);
+				for (int i = 0; i < _channels; i++) {
+					int bits = Float.floatToRawIntBits(values[i]);
+					write(bits, 32);
+					_previousBits[i] = bits;
+					_previousLeading[i] = -1;
+				}
+				_firstTimestamp = timestamp;
+				_previousDelta = 0L;
+			} else {
+				long delta = timestamp - _previousTimestamp;
+				writeDeltaOfDelta(delta - _previousDelta);
+				_previousDelta = delta;
+				for (int i = 0; i < _channels; i++) {
+					writeValue(i, Float.floatToRawIntBits(values[i]));
+				}
+			}
+			_previousTimestamp = timestamp;
+			_count++;
+			return true;
+		}
+
+		private void writeDeltaOfDelta(long dod) {
+			if (dod == 0L) {
+				write(0, 1);
+			} else if (fits(dod, 16)) {
+				write(0x2, 2);
+				write(dod, 16);
+			} else if (fits(dod, 24)) {
+				write(0x6, 3);
+				write(dod, 24);
+			} else if (fits(dod, 32)) {
+				write(0xe, 4);
+				write(dod, 32);
+			} else {
+				write(0xf, 4);
+				write(dod, 64);
+			}
+		}
+
+		private void writeValue(int channel, int bits) {
+			int xor = bits ^ _previousBits[channel];
+			_previousBits[channel] = bits;
+			if (xor == 0) {
+				write(0, 1);
+				return;
+			}
+			int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+			int trailing = Integer.numberOfTrailingZeros(xor);
+			if (_previousLeading[channel] >= 0 && leading >= _previousLeading[channel]
+					&& trailing >= _previousTrailing[channel]) {
+				write(0x2, 2);
+				int length = 32 - _previousLeading[channel] - _previousTrailing[channel];
+				write(xor >>> _previousTrailing[channel], length);
+			} else {
+				int length = 32 - leading - trailing;
+				write(0x3, 2);
+				write(leading, 5);
+				write(length - 1, 5);
+				write(xor >>> trailing, length);
+				_previousLeading[channel] = leading;
+				_previousTrailing[channel] = trailing;
+			}
+		}
+
+		private static boolean fits(long value, int bits) {
+			long bound = 1L << (bits - 1);
+			return value >= -bound && value < bound;
+		}
+
+		/**
+		 * Writes the <code>n</code> least significant bits of a value.
+		 */
+		private void write(long value, int n) {
+			while (n > 0) {
+				int free = 8 - (_bitPosition & 7);
+				int take = Math.min(free, n);
+				int bits = (int) ((value >>> (n - take)) & ((1 << take) - 1));
+				_buffer[_bitPosition >>> 3] |= bits << (free - take);
+				_bitPosition += take;
+				n -= take;
+			}
+		}
+
+		int getCount() {
+			return _count;
+		}
+
+		long getFirstTimestamp() {
+			return _firstTimestamp;
+		}
+
+		long getLastTimestamp() {
+			return _previousTimestamp;
+		}
+
+		/**
+		 * Gets the number of bytes used so far.
+		 */
+		int getLength() {
+			return (_bitPosition + 7) >>> 3;
+		}
+
+		/**
+		 * Copies the encoded bytes.
+		 */
+		byte[] toByteArray() {
+			byte[] bytes = new byte[getLength()];
+			System.arraycopy(_buffer, 0, bytes, 0, bytes.length);
+			return bytes;
+		}
+	}
+
+	/**
+	 * Decodes a block.
+	 *
+	 * @param block
+	 *            The encoded bytes.
+	 * @param count
+	 *            The number of samples in the block.
+	 * @param channels
+	 *            The number of channels of each sample.
+	 * @param from
+	 *            The first timestamp to report.
+	 * @param to
+	 *            The last timestamp to report.
+	 * @param callback
+	 *            Receives the samples whose timestamp is between
+	 *            <code>from</code> and <code>to</code>.
+	 * @return <code>false</code> if <code>callback</code> stopped the
+	 *         decoding.
+	 */
+	static boolean decode(byte[] block, int count, int channels, long from, long to,
+			TimeSeriesStore.SampleCallback callback) {
+		Reader in = new Reader(block);
+		float[] values = new float[channels];
+		int[] bits = new int[channels];
+		int[] leading = new int[channels];
+		int[] trailing = new int[channels];
+		long timestamp = 0L;
+		long delta = 0L;
+		for (int n = 0; n < count; n++) {
+			if (n == 0) {
+				timestamp = in.read(64);
+				for (int i = 0; i < channels; i++) {
+					bits[i] = (int) in.read(32);
+				}
+			} else {
+				delta += readDeltaOfDelta(in);
+				timestamp += delta;
+				for (int i = 0; i < channels; i++) {
+					if (in.read(1) == 0) {
+						continue;
+					}
+					if (in.read(1) == 1) {
+						leading[i] = (int) in.read(5);
+						trailing[i] = 32 - leading[i] - ((int) in.read(5) + 1);
+					}
+					int length = 32 - leading[i] - trailing[i];
+					bits[i] ^= (int) in.read(length) << trailing[i];
+				}
+			}
+			if (timestamp > to) {
+				return true;
+			}
+			if (timestamp >= from) {
+				for (int i = 0; i < channels; i++) {
+					values[i] = Float.intBitsToFloat(bits[i]);
+				}
+				if (!callback.onSample(timestamp, values)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static long readDeltaOfDelta(Reader in) {
+		if (in.read(1) == 0) {
+			return 0L;
+		}
+		if (in.read(1) == 0) {
+			return signExtend(in.read(16), 16);
+		}
+		if (in.read(1) == 0) {
+			return signExtend(in.read(24), 24);
+		}
+		if (in.read(1) == 0) {
+			return signExtend(in.read(32), 32);
+		}
+		return in.read(64);
+	}
+
+	private static long signExtend(long value, int bits) {
+		return (value << (64 - bits)) >> (64 - bits);
+	}
+
+	/**
+	 * Reads bits from a block.
+	 */
+	private static class Reader {
+		private final byte[] _buffer;
+		private int _bitPosition;
+
+		Reader(byte[] buffer) {
+			_buffer = buffer;
+			_bitPosition = 0;
+		}
+
+		long read(int n) {
+			long value = 0L;
+			while (n > 0) {
+				int available = 8 - (_bitPosition & 7);
+				int take = Math.min(available, n);
+				int bits = (_buffer[_bitPosition >>> 3] >>> (available - take)) & ((1 << take) - 1);
+				value = (value << take) | bits;
+				_bitPosition += take;
+				n -= take;
+			}
+			return value;
+		}
+	}
+}
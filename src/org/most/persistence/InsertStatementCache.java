@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Inserts rows with compiled <code>INSERT</code> statements instead of
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)}, which compiles
+ * a new statement for every row. One statement is compiled for each table and
+ * set of columns, and values are bound directly according to their type.
+ *
+ * Statements belong to the database connection they were compiled on:
+ * {@link #close()} must be called before the database is closed.
+ *
+ */
+class InsertStatementCache {
+
+	private static final String TAG = InsertStatementCache.class.getSimpleName();
+
+	private final Map<String, Insert> _inserts;
+
+	InsertStatementCache() {
+		_inserts = new HashMap<String, Insert>();
+	}
+
+	/**
+	 * Inserts rows into a table. The caller is in charge of the transaction.
+	 * Rows that cannot be inserted, including rows whose statement does not
+	 * compile because the table or a column does not exist, are logged and
+	 * skipped, as {@link SQLiteDatabase#insert(String, String, ContentValues)}
+	 * does. Empty rows are inserted with <code>DEFAULT VALUES</code>.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param table
+	 *            The table.
+	 * @param rows
+	 *            The rows to insert.
+	 * @return The number of inserted rows.
+	 */
+	int insert(SQLiteDatabase db, String table, List<ContentValues> rows) {
+		int inserted = 0;
+		Insert insert = null;
+		Set<String> failedColumns = null;
+		for (int i = 0; i < rows.size(); i++) {
+			ContentValues row = rows.get(i);
+			if (insert == null || !insert.matches(row)) {
+				if (failedColumns != null && hasColumns(row, failedColumns)) {
+					continue;
+				}
+				try {
+					insert = getInsert(db, table, row);
+				} catch (SQLException e) {
+					// unknown table or column: skip the rows with these columns
+					failedColumns = new HashSet<String>(Arrays.asList(getColumns(row)));
+					Log.e(TAG, "Unable to insert " + failedColumns + " into " + table, e);
+					insert = null;
+					continue;
+				}
+			}
+			try {
+				if (insert.execute(row) != -1) {
+					inserted++;
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "Error inserting " + row + " into " + table, e);
+			}
+		}
+		return inserted;
+	}
+
+	/**
+	 * Gets the compiled statement inserting into the given columns. The
+	 * statement has one parameter per column, in the given order.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param table
+	 *            The table.
+	 * @param columns
+	 *            The columns.
+	 * @return The compiled statement, owned by this cache.
+	 */
+	SQLiteStatement getStatement(SQLiteDatabase db, String table, String[] columns) {
+		return getInsert(db, table, columns)._statement;
+	}
+
+	private Insert getInsert(SQLiteDatabase db, String table, ContentValues row) {
+		String[] columns = getColumns(row);
+		Arrays.sort(columns);
+		return getInsert(db, table, columns);
+	}
+
+	/**
+	 * Gets the columns of a row. {@link ContentValues#keySet()} is API 11.
+	 */
+	private static String[] getColumns(ContentValues row) {
+		String[] columns = new String[row.size()];
+		int i = 0;
+		for (Entry<String, Object> column : row.valueSet()) {
+			columns[i++] = column.getKey();
+		}
+		return columns;
+	}
+
+	private static boolean hasColumns(ContentValues row, Set<String> columns) {
+		if (row.size() != columns.size()) {
+			return false;
+		}
+		for (Entry<String, Object> column : row.valueSet()) {
+			if (!columns.contains(column.getKey())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Insert getInsert(SQLiteDatabase db, String table, String[] columns) {
+		StringBuilder key = new StringBuilder(table);
+		for (String column : columns) {
+			key.append(',').append(column);
+		}
+		Insert insert = _inserts.get(key.toString());
+		if (insert == null) {
+			insert = new Insert(db, table, columns);
+			_inserts.put(key.toString(), insert);
+		}
+		return insert;
+	}
+
+	/**
+	 * Releases all compiled statements.
+	 */
+	void close() {
+		for (Insert insert : _inserts.values()) {
+			insert._statement.close();
+		}
+		_inserts.clear();
+	}
+
+	/**
+	 * A compiled statement for a table and a set of columns.
+	 */
+	private static class Insert {
+		private final String[] _columns;
+		private final SQLiteStatement _statement;
+
+		Insert(SQLiteDatabase db, String table, String[] columns) {
+			_columns = columns;
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(table);
+			if (columns.length == 0) {
+				sql.append(" DEFAULT VALUES");
+			} else {
+				sql.append(" (");
+				for (int i = 0; i < columns.length; i++) {
+					sql.append(i == 0 ? "" : ",").append(columns[i]);
+				}
+				sql.append(") VALUES (");
+				for (int i = 0; i < columns.length; i++) {
+					sql.append(i == 0 ? "?" : ",?");
+				}
+				sql.append(')');
+			}
+			_statement = db.compileStatement(sql.toString());
+		}
+
+		boolean matches(ContentValues row) {
+			if (row.size() != _columns.length) {
+				return false;
+			}
+			for (String column : _columns) {
+				if (!row.containsKey(column)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long execute(ContentValues row) {
+			for (int i = 0; i < _columns.length; i++) {
+				bind(i + 1, row.get(_columns[i]));
+			}
+			return _statement.executeInsert();
+		}
+
+		private void bind(int index, Object value) {
+			if (value == null) {
+				_statement.bindNull(index);
+			} else if (value instanceof Double || value instanceof Float) {
+				_statement.bindDouble(index, ((Number) value).doubleValue());
+			} else if (value instanceof Number) {
+				_statement.bindLong(index, ((Number) value).longValue());
+			} else if (value instanceof Boolean) {
+				_statement.bindLong(index, ((Boolean) value) ? 1L : 0L);
+			} else if (value instanceof byte[]) {
+				_statement.bindBlob(index, (byte[]) value);
+			} else {
+				_statement.bindString(index, value.toString());
+			}
+		}
+	}
+}
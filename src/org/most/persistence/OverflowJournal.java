@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+/**
+ * An append-only journal, memory mapped in a file of fixed size, that keeps the
+ * rows {@link DBAdapter} cannot cache in memory while the database is falling
+ * behind. The DB writer replays the journal into the database when it has
+ * written the cached data, and then rewinds it.
+ *
+ * The file starts with a header holding a magic number, a generation and the
+ * offset of the first record not replayed yet. Each record holds its length,
+ * the generation of the journal when it was written, a CRC32 of its payload,
+ * and the payload (the table name and the columns of the row). When the
+ * journal is rewound its generation is incremented, thus records left over
+ * from previous generations are never mistaken for new ones. After a crash, the
+ * journal is scanned up to the first record that is incomplete, corrupted or
+ * stale, and the valid records are replayed. A crash between the commit of a
+ * replay and the update of the header can replay the same rows twice.
+ *
+ */
+class OverflowJournal {
+
+	private static final String TAG = OverflowJournal.class.getSimpleName();
+
+	private static final int MAGIC = 0x4d6f5354;
+
+	private static final int HEADER_SIZE = 24;
+	private static final int GENERATION_OFFSET = 4;
+	private static final int REPLAYED_OFFSET = 12;
+
+	/** Length, generation and CRC32 of a record. */
+	private static final int RECORD_HEADER_SIZE = 16;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_LONG = 1;
+	private static final byte TYPE_DOUBLE = 2;
+	private static final byte TYPE_STRING = 3;
+	private static final byte TYPE_BLOB = 4;
+
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _buffer;
+	private final CRC32 _crc;
+
+	private long _generation;
+
+	/** Offset of the first record not replayed yet. */
+	private int _replayed;
+
+	/** Offset of the next record. */
+	private int _end;
+
+	/** Serialization buffer of a single record. */
+	private ByteBuffer _scratch;
+
+	private long _droppedCount;
+
+	/**
+	 * Opens the journal, creating it if needed, and recovers its valid
+	 * records.
+	 *
+	 * @param file
+	 *            The journal file.
+	 * @param size
+	 *            The size, in bytes, of the journal.
+	 * @throws IOException
+	 *             If the journal cannot be mapped.
+	 */
+	OverflowJournal(File file, int size) throws IOException {
+		_file = new RandomAccessFile(file, "rw");
+		int length = (int) Math.max(size, Math.min(_file.length(), Integer.MAX_VALUE));
+		_buffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		_crc = new CRC32();
+		_scratch = ByteBuffer.allocate(256);
+		_droppedCount = 0L;
+		if (_buffer.getInt(0) != MAGIC) {
+			_generation = 0L;
+			rewind();
+		} else {
+			_generation = _buffer.getLong(GENERATION_OFFSET);
+			_replayed = (int) _buffer.getLong(REPLAYED_OFFSET);
+			if (_replayed < HEADER_SIZE || _replayed > length) {
+				_replayed = HEADER_SIZE;
+			}
+			_end = scan(_replayed);
+			if (_end > _replayed) {
+				Log.i(TAG, "Recovered " + (_end - _replayed) + " bytes of rows to replay");
+			}
+		}
+	}
+
+	/**
+	 * Finds the end of the valid records.
+	 */
+	private int scan(int offset) {
+		while (readRecord(offset, null) > 0) {
+			offset += RECORD_HEADER_SIZE + _buffer.getInt(offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * Validates the record at <code>offset</code>.
+	 *
+	 * @param payload
+	 *            If not <code>null</code>, receives a copy of the payload.
+	 * @return The length of the payload, or -1 if there is no valid record.
+	 */
+	private int readRecord(int offset, byte[] payload) {
+		if (offset + RECORD_HEADER_SIZE > _buffer.capacity()) {
+			return -1;
+		}
+		int length = _buffer.getInt(offset);
+		if (length <= 0 || offset + RECORD_HEADER_SIZE + length > _buffer.capacity()
+				|| _buffer.getLong(offset + 4) != _generation) {
+			return -1;
+		}
+		byte[] bytes = payload != null && payload.length >= length ? payload : new byte[length];
+		ByteBuffer source = _buffer.duplicate();
+		source.position(offset + RECORD_HEADER_SIZE);
+		source.get(bytes, 0, length);
+		_crc.reset();
+		_crc.update(bytes, 0, length);
+		if ((int) _crc.getValue() != _buffer.getInt(offset + 12)) {
+			return -1;
+		}
+		return length;
+	}
+
+	/**
+	 * Appends a row.
+	 *
+	 * @param table
+	 *            The table of the row.
+	 * @param row
+	 *            The row.
+	 * @return <code>false</code> if the journal is full.
+	 */
+	synchronized boolean append(String table, ContentValues row) {
+		ByteBuffer out = begin(table, row.size());
+		for (Entry<String, Object> column : row.valueSet()) {
+			out = putString(out, column.getKey());
+			Object value = column.getValue();
+			if (value == null) {
+				out = ensure(out, 1).put(TYPE_NULL);
+			} else if (value instanceof Double || value instanceof Float) {
+				out = ensure(out, 9).put(TYPE_DOUBLE);
+				out.putDouble(((Number) value).doubleValue());
+			} else if (value instanceof Number) {
+				out = ensure(out, 9).put(TYPE_LONG);
+				out.putLong(((Number) value).longValue());
+			} else if (value instanceof Boolean) {
+				out = ensure(out, 9).put(TYPE_LONG);
+				out.putLong(((Boolean) value) ? 1L : 0L);
+			} else if (value instanceof byte[]) {
+				byte[] blob = (byte[]) value;
+				out = ensure(out, 5 + blob.length).put(TYPE_BLOB);
+				out.putInt(blob.length);
+				out.put(blob);
+			} else {
+				out = ensure(out, 1).put(TYPE_STRING);
+				out = putString(out, value.toString());
+			}
+		}
+		return commit(out);
+	}
+
+	/**
+	 * Appends a row made of numeric columns.
+	 *
+	 * @param table
+	 *            The table of the row.
+	 * @param longColumns
+	 *            The integer columns.
+	 * @param longs
+	 *            The values of the integer columns.
+	 * @param doubleColumns
+	 *            The real columns.
+	 * @param doubles
+	 *            The values of the real columns.
+	 * @return <code>false</code> if the journal is full.
+	 */
+	synchronized boolean append(String table, String[] longColumns, long[] longs, String[] doubleColumns,
+			double[] doubles) {
+		ByteBuffer out = begin(table, longColumns.length + doubleColumns.length);
+		for (int i = 0; i < longColumns.length; i++) {
+			out = putString(out, longColumns[i]);
+			out = ensure(out, 9).put(TYPE_LONG);
+			out.putLong(longs[i]);
+		}
+		for (int i = 0; i < doubleColumns.length; i++) {
+			out = putString(out, doubleColumns[i]);
+			out = ensure(out, 9).put(TYPE_DOUBLE);
+			out.putDouble(doubles[i]);
+		}
+		return commit(out);
+	}
+
+	private ByteBuffer begin(String table, int columnCount) {
+		_scratch.clear();
+		ByteBuffer out = putString(_scratch, table);
+		return ensure(out, 4).putInt(columnCount);
+	}
+
+	private boolean commit(ByteBuffer out) {
+		_scratch = out;
+		int length = out.position();
+		if (_end + RECORD_HEADER_SIZE + length > _buffer.capacity()) {
+			_droppedCount++;
+			// log only at powers of two, not to flood the log
+			if ((_droppedCount & (_droppedCount - 1)) == 0) {
+				Log.e(TAG, "The overflow journal is full, " + _droppedCount + " rows lost so far");
+			}
+			return false;
+		}
+		_crc.reset();
+		_crc.update(out.array(), 0, length);
+		// write the payload first: the record becomes valid only once its
+		// length is written
+		ByteBuffer target = _buffer.duplicate();
+		target.position(_end + RECORD_HEADER_SIZE);
+		target.put(out.array(), 0, length);
+		_buffer.putLong(_end + 4, _generation);
+		_buffer.putInt(_end + 12, (int) _crc.getValue());
+		_buffer.putInt(_end, length);
+		_end += RECORD_HEADER_SIZE + length;
+		return true;
+	}
+
+	private static ByteBuffer putString(ByteBuffer out, String value) {
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		out = ensure(out, 4 + bytes.length);
+		out.putInt(bytes.length);
+		out.put(bytes);
+		return out;
+	}
+
+	private static ByteBuffer ensure(ByteBuffer out, int bytes) {
+		if (out.remaining() >= bytes) {
+			return out;
+		}
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+		out.flip();
+		bigger.put(out);
+		return bigger;
+	}
+
+	/**
+	 * Tells whether there are rows to replay.
+	 *
+	 * @return <code>true</code> if the journal holds rows not replayed yet.
+	 */
+	synchronized boolean isEmpty() {
+		return _end == _replayed;
+	}
+
+	/**
+	 * Reads rows not replayed yet.
+	 *
+	 * @param maxBytes
+	 *            The maximum size of the records to read; at least one record
+	 *            is read.
+	 * @param tables
+	 *            Receives the table of each row.
+	 * @param rows
+	 *            Receives the rows.
+	 * @return The offset to pass to {@link #markReplayed(int)} once the rows
+	 *         are committed.
+	 */
+	synchronized int read(int maxBytes, List<String> tables, List<ContentValues> rows) {
+		int offset = _replayed;
+		byte[] payload = new byte[256];
+		while (offset < _end && (offset == _replayed || offset - _replayed < maxBytes)) {
+			int length = _buffer.getInt(offset);
+			if (length > payload.length && length <= _buffer.capacity()) {
+				payload = new byte[length];
+			}
+			length = readRecord(offset, payload);
+			if (length < 0) {
+				// cannot happen unless the file is modified behind our back
+				Log.e(TAG, "Corrupted record in the overflow journal, skipping the rest");
+				_end = offset;
+				break;
+			}
+			try {
+				decode(ByteBuffer.wrap(payload, 0, length), tables, rows);
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Unable to decode a record of the overflow journal", e);
+			}
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		return offset;
+	}
+
+	private static void decode(ByteBuffer in, List<String> tables, List<ContentValues> rows) {
+		String table = getString(in);
+		int columnCount = in.getInt();
+		ContentValues row = new ContentValues(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			String column = getString(in);
+			switch (in.get()) {
+			case TYPE_NULL:
+				row.putNull(column);
+				break;
+			case TYPE_LONG:
+				row.put(column, in.getLong());
+				break;
+			case TYPE_DOUBLE:
+				row.put(column, in.getDouble());
+				break;
+			case TYPE_STRING:
+				row.put(column, getString(in));
+				break;
+			case TYPE_BLOB:
+				byte[] blob = new byte[in.getInt()];
+				in.get(blob);
+				row.put(column, blob);
+				break;
+			default:
+				throw new IllegalStateException("Unknown column type");
+			}
+		}
+		tables.add(table);
+		rows.add(row);
+	}
+
+	private static String getString(ByteBuffer in) {
+		int length = in.getInt();
+		String value;
+		try {
+			value = new String(in.array(), in.arrayOffset() + in.position(), length, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * Marks the rows read by {@link #read(int, List, List)} as replayed, and
+	 * rewinds the journal if nothing is left.
+	 *
+	 * @param offset
+	 *            The offset returned by {@link #read(int, List, List)}.
+	 */
+	synchronized void markReplayed(int offset) {
+		_replayed = offset;
+		if (_replayed >= _end) {
+			rewind();
+		} else {
+			_buffer.putLong(REPLAYED_OFFSET, _replayed);
+			_buffer.force();
+		}
+	}
+
+	private void rewind() {
+		_generation++;
+		_replayed = HEADER_SIZE;
+		_end = HEADER_SIZE;
+		_buffer.putLong(GENERATION_OFFSET, _generation);
+		_buffer.putLong(REPLAYED_OFFSET, _replayed);
+		_buffer.putInt(0, MAGIC);
+		_buffer.force();
+	}
+
+	/**
+	 * Writes the appended records to the file.
+	 */
+	synchronized void force() {
+		_buffer.force();
+	}
+
+	/**
+	 * Gets the number of rows lost because the journal was full.
+	 *
+	 * @return The number of dropped rows.
+	 */
+	synchronized long getDroppedCount() {
+		return _droppedCount;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import android.content.ContentValues;
+
+/**
+ * Iterates over the rows returned by
+ * {@link DBAdapter#queryRange(String, String, long, long, String[], int)}.
+ * Rows are fetched one page at a time, in timestamp and <code>_ID</code>
+ * order; the next page starts after the last row of the previous one, so that
+ * the timestamp index is used for every page. No connection is held between
+ * pages.
+ *
+ */
+class RangeIterator implements Iterator<ContentValues> {
+
+	private final DBAdapter _dbAdapter;
+	private final String _table;
+	private final String _timestampColumn;
+	private final String[] _columns;
+	private final long _to;
+	private final int _pageSize;
+	private final List<ContentValues> _page;
+	/** Timestamp and <code>_ID</code> of the last row read. */
+	private final long[] _last;
+	private int _remaining;
+	private int _next;
+	private boolean _more;
+
+	RangeIterator(DBAdapter dbAdapter, String table, String timestampColumn, String[] columns, long from, long to,
+			int pageSize, int limit) {
+		_dbAdapter = dbAdapter;
+		_table = table;
+		_timestampColumn = timestampColumn;
+		_columns = columns;
+		_to = to;
+		_pageSize = pageSize;
+		_page = new ArrayList<ContentValues>(pageSize);
+		_last = new long[] { from, -1L };
+		_remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+		_next = 0;
+		_more = from <= to;
+	}
+
+	public boolean hasNext() {
+		if (_next < _page.size()) {
+			return true;
+		}
+		if (!_more || _remaining == 0) {
+			return false;
+		}
+		_page.clear();
+		_next = 0;
+		int size = Math.min(_pageSize, _remaining);
+		_more = _dbAdapter.readRangePage(_table, _timestampColumn, _columns, _last, _to, size, _page)
+				&& _page.size() == size;
+		if (_page.isEmpty()) {
+			_more = false;
+			return false;
+		}
+		_remaining -= _page.size();
+		return true;
+	}
+
+	public ContentValues next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return _page.get(_next++);
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
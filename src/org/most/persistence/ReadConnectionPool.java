@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * A small pool of read-only connections to the MoST database. With the
+ * database in WAL journal mode, readers see the last committed transaction and
+ * neither block nor are blocked by the writer connection of {@link DBAdapter}.
+ * Connections are opened on first use and kept open for the process lifetime.
+ *
+ */
+class ReadConnectionPool {
+
+	private static final String TAG = ReadConnectionPool.class.getSimpleName();
+
+	private final String _path;
+	private final int _size;
+	private final BlockingQueue<SQLiteDatabase> _idle;
+	private final AtomicInteger _opened;
+
+	/**
+	 * Instantiates a new ReadConnectionPool.
+	 *
+	 * @param path
+	 *            The path of the database file.
+	 * @param size
+	 *            The maximum number of connections.
+	 */
+	ReadConnectionPool(String path, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException();
+		}
+		_path = path;
+		_size = size;
+		_idle = new ArrayBlockingQueue<SQLiteDatabase>(size);
+		_opened = new AtomicInteger();
+	}
+
+	/**
+	 * Gets a connection, opening a new one if all are busy and the pool is not
+	 * full, or else waiting for one to be released.
+	 *
+	 * @return A read-only connection, to be given back with
+	 *         {@link #release(SQLiteDatabase)}.
+	 * @throws SQLiteException
+	 *             If a new connection cannot be opened.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for a connection.
+	 */
+	SQLiteDatabase acquire() throws InterruptedException {
+		SQLiteDatabase db = _idle.poll();
+		if (db != null) {
+			return db;
+		}
+		int opened = _opened.get();
+		while (opened < _size) {
+			if (_opened.compareAndSet(opened, opened + 1)) {
+				try {
+					db = SQLiteDatabase.openDatabase(_path, null, SQLiteDatabase.OPEN_READONLY
+							| SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+					Log.i(TAG, "Opened read connection #" + (opened + 1));
+					return db;
+				} catch (SQLiteException e) {
+					_opened.decrementAndGet();
+					throw e;
+				}
+			}
+			opened = _opened.get();
+		}
+		return _idle.take();
+	}
+
+	/**
+	 * Gives a connection back to the pool.
+	 *
+	 * @param db
+	 *            A connection obtained with {@link #acquire()}.
+	 */
+	void release(SQLiteDatabase db) {
+		_idle.offer(db);
+	}
+}
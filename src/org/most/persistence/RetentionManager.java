@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.most.MoSTApplication;
+import org.most.pipeline.PipelineAccelerometer;
+import org.most.pipeline.PipelineGyroscope;
+import org.most.pipeline.PipelineMagneticField;
+
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.StatFs;
+import android.util.Log;
+
+/**
+ * Bounds the size of the MoST database: a background thread periodically
+ * applies a {@link RetentionPolicy} to each table, deleting the rows that are
+ * too old or exceed the row and size limits, and moving old rows to the
+ * downsampling tiers. All the work is done in small transactions of at most
+ * {@link DBAdapter#DELETE_CHUNK_ROWS} rows, with a pause in between, thus the
+ * DB writer thread is never kept waiting for long.
+ *
+ * The inertial sensor tables have a default policy, configured in
+ * {@link MoSTApplication#PREF_DB} with the keys
+ * <code>RetentionManager.&lt;TABLE&gt;.MaxAge</code> (milliseconds),
+ * <code>.MaxRows</code>, <code>.MaxBytes</code> and <code>.Downsample</code>
+ * (1 second averages after an hour, 1 minute averages after a day). Other
+ * policies can be set with {@link #setPolicy(RetentionPolicy)}.
+ *
+ * The blocks of each {@link TimeSeriesStore} are bounded too, with the keys
+ * <code>RetentionManager.TS_BLOCKS.&lt;series&gt;.MaxAge</code>
+ * (milliseconds) and <code>.MaxBytes</code>: the index rows of the old blocks
+ * are deleted first, then the segment files no row points to anymore. Files
+ * are deleted a whole segment at a time, thus a series takes up to
+ * {@link TimeSeriesStore#DEFAULT_SEGMENT_BYTES} more than its limit.
+ *
+ * Databases created before incremental auto vacuum was enabled are rebuilt
+ * once in that mode, at the first run that finds twice their size free on the
+ * file system (see {@link DBAdapter#rebuildWithIncrementalVacuum()}).
+ *
+ */
+public class RetentionManager implements Runnable {
+
+	private static final String TAG = RetentionManager.class.getSimpleName();
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, of the
+	 * time, in milliseconds, between two runs. If 0, the manager does not run.
+	 */
+	public static final String PREF_KEY_PERIOD = "RetentionManager.Period";
+
+	/**
+	 * {@link SharedPreferences} key, in {@link MoSTApplication#PREF_DB}, set
+	 * once the database has been rebuilt, or its rebuild has been attempted,
+	 * in incremental auto vacuum mode.
+	 */
+	public static final String PREF_KEY_VACUUM_REBUILT = "RetentionManager.VacuumRebuilt";
+
+	public static final String PREF_KEY_PREFIX = "RetentionManager.";
+	public static final String PREF_KEY_MAX_AGE_SUFFIX = ".MaxAge";
+	public static final String PREF_KEY_MAX_ROWS_SUFFIX = ".MaxRows";
+	public static final String PREF_KEY_MAX_BYTES_SUFFIX = ".MaxBytes";
+	public static final String PREF_KEY_DOWNSAMPLE_SUFFIX = ".Downsample";
+
+	public static final int DEFAULT_PERIOD = 15 * 60 * 1000;
+	public static final int DEFAULT_INERTIAL_MAX_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_TIME_SERIES_MAX_BYTES = 64 * 1024 * 1024;
+
+	private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+	private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+	/** Pause between two transactions. */
+	private static final long CHUNK_PAUSE_MILLIS = 50L;
+
+	/** Pages freed by each incremental vacuum step. */
+	private static final int VACUUM_PAGES = 256;
+
+	/** Rows sampled to estimate the size of a row. */
+	private static final int SIZE_SAMPLE_ROWS = 100;
+
+	/** Estimated bytes per row besides the values: header, rowid, index. */
+	private static final int ROW_OVERHEAD_BYTES = 24;
+
+	private final DBAdapter _dbAdapter;
+	private final SharedPreferences _prefs;
+	private final Map<String, RetentionPolicy> _policies;
+	private final long _periodMillis;
+	private boolean _runRequested;
+
+	RetentionManager(DBAdapter dbAdapter, SharedPreferences prefs) {
+		_dbAdapter = dbAdapter;
+		_prefs = prefs;
+		_policies = new LinkedHashMap<String, RetentionPolicy>();
+		_periodMillis = prefs.getInt(PREF_KEY_PERIOD, DEFAULT_PERIOD);
+		setPolicy(createInertialPolicy(prefs, PipelineAccelerometer.TBL_ACCELEROMETER,
+				PipelineAccelerometer.FLD_TIMESTAMP, PipelineAccelerometer.FLD_X, PipelineAccelerometer.FLD_Y,
+				PipelineAccelerometer.FLD_Z));
+		setPolicy(createInertialPolicy(prefs, PipelineGyroscope.TBL_GYROSCOPE, PipelineGyroscope.FLD_TIMESTAMP,
+				PipelineGyroscope.FLD_ROTATION_X, PipelineGyroscope.FLD_ROTATION_Y, PipelineGyroscope.FLD_ROTATION_Z));
+		setPolicy(createInertialPolicy(prefs, PipelineMagneticField.TBL_MAGNETIC_FIELD,
+				PipelineMagneticField.FLD_TIMESTAMP, PipelineMagneticField.FLD_MAGNETIC_FIELD_X,
+				PipelineMagneticField.FLD_MAGNETIC_FIELD_Y, PipelineMagneticField.FLD_MAGNETIC_FIELD_Z));
+		if (_periodMillis > 0) {
+			Thread thread = new Thread(this, "MoST DB retention");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+
+	private static RetentionPolicy createInertialPolicy(SharedPreferences prefs, String table,
+			String timestampColumn, String... valueColumns) {
+		String prefix = PREF_KEY_PREFIX + table;
+		RetentionPolicy policy = new RetentionPolicy(table, timestampColumn,
+				RetentionPolicy.Timebase.ELAPSED_REALTIME_NANOS);
+		policy.setValueColumns(valueColumns);
+		policy.setMaxAgeMillis(prefs.getLong(prefix + PREF_KEY_MAX_AGE_SUFFIX, 0L));
+		policy.setMaxRows(prefs.getLong(prefix + PREF_KEY_MAX_ROWS_SUFFIX, 0L));
+		policy.setMaxBytes(prefs.getLong(prefix + PREF_KEY_MAX_BYTES_SUFFIX, DEFAULT_INERTIAL_MAX_BYTES));
+		if (prefs.getBoolean(prefix + PREF_KEY_DOWNSAMPLE_SUFFIX, false)) {
+			policy.addTier(new RetentionPolicy.Tier("1S", HOUR_MILLIS, 1000L, 7 * DAY_MILLIS));
+			policy.addTier(new RetentionPolicy.Tier("1M", DAY_MILLIS, 60000L, 0L));
+		}
+		return policy;
+	}
+
+	/**
+	 * Sets the policy of a table, replacing the previous one.
+	 *
+	 * @param policy
+	 *            The policy.
+	 */
+	public synchronized void setPolicy(RetentionPolicy policy) {
+		_policies.put(policy.getTable(), policy);
+	}
+
+	/**
+	 * Removes the policy of a table: its rows are kept forever.
+	 *
+	 * @param table
+	 *            The table.
+	 */
+	public synchronized void removePolicy(String table) {
+		_policies.remove(table);
+	}
+
+	/**
+	 * Makes the manager run as soon as possible.
+	 */
+	public synchronized void runNow() {
+		_runRequested = true;
+		notify();
+	}
+
+	public void run() {
+		while (true) {
+			List<RetentionPolicy> policies;
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + _periodMillis;
+				long remaining = _periodMillis;
+				while (!_runRequested && remaining > 0) {
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						return;
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+				_runRequested = false;
+				policies = new ArrayList<RetentionPolicy>(_policies.values());
+			}
+			if (!_prefs.getBoolean(PREF_KEY_VACUUM_REBUILT, false)) {
+				rebuildWithIncrementalVacuum();
+			}
+			long start = System.currentTimeMillis();
+			int deleted = 0;
+			for (RetentionPolicy policy : policies) {
+				try {
+					deleted += enforce(policy);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Unable to enforce the retention policy of " + policy.getTable(), e);
+				}
+			}
+			for (TimeSeriesStore store : _dbAdapter.getTimeSeriesStores()) {
+				try {
+					deleted += enforce(store);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Unable to enforce the retention of the series " + store.getSeries(), e);
+				}
+			}
+			if (deleted > 0) {
+				vacuum();
+			}
+			Log.i(TAG, "Removed " + deleted + " rows in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Applies a policy.
+	 *
+	 * @return The number of rows removed from the table and its tiers.
+	 */
+	private int enforce(RetentionPolicy policy) {
+		String table = policy.getTable();
+		String timestamp = policy.getTimestampColumn();
+		RetentionPolicy.Timebase timebase = policy.getTimebase();
+		int deleted = 0;
+		String source = table;
+		String weight = "1";
+		for (RetentionPolicy.Tier tier : policy.getTiers()) {
+			String target = table + "_" + tier.getSuffix();
+			if (!createTierTable(target, policy)) {
+				break;
+			}
+			deleted += downsample(source, weight, target, policy, tier);
+			if (tier.getMaxAgeMillis() > 0) {
+				deleted += deleteOlderThan(target, timestamp, timebase.now()
+						- timebase.fromMillis(tier.getMaxAgeMillis()));
+			}
+			source = target;
+			weight = RetentionPolicy.FLD_SAMPLES;
+		}
+		if (policy.getMaxAgeMillis() > 0) {
+			deleted += deleteOlderThan(table, timestamp,
+					timebase.now() - timebase.fromMillis(policy.getMaxAgeMillis()));
+		}
+		long maxRows = policy.getMaxRows() > 0 ? policy.getMaxRows() : Long.MAX_VALUE;
+		if (policy.getMaxBytes() > 0) {
+			Long rowBytes = estimateRowBytes(table);
+			if (rowBytes != null) {
+				maxRows = Math.min(maxRows, policy.getMaxBytes() / rowBytes);
+			}
+		}
+		if (maxRows < Long.MAX_VALUE) {
+			// the _ID of the newest row to delete
+			Long id = queryLong(String.format("SELECT _ID FROM %s ORDER BY _ID DESC LIMIT 1 OFFSET %d", table,
+					maxRows));
+			if (id != null) {
+				deleted += Math.max(0, _dbAdapter.deleteInChunks(table, "_ID <= " + id, "_ID"));
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Drops the old blocks of a time series: their index rows, and then the
+	 * segment files that contain no indexed block.
+	 *
+	 * @return The number of index rows removed.
+	 */
+	private int enforce(TimeSeriesStore store) {
+		String prefix = PREF_KEY_PREFIX + TimeSeriesStore.TBL_TS_BLOCKS + "." + store.getSeries();
+		long maxAge = _prefs.getLong(prefix + PREF_KEY_MAX_AGE_SUFFIX, 0L);
+		long maxBytes = _prefs.getLong(prefix + PREF_KEY_MAX_BYTES_SUFFIX, DEFAULT_TIME_SERIES_MAX_BYTES);
+		String table = TimeSeriesStore.TBL_TS_BLOCKS;
+		String series = String.format("%s = %s", TimeSeriesStore.FLD_SERIES,
+				DatabaseUtils.sqlEscapeString(store.getSeries()));
+		int deleted = 0;
+		if (maxAge > 0) {
+			RetentionPolicy.Timebase timebase = RetentionPolicy.Timebase.ELAPSED_REALTIME_NANOS;
+			deleted += Math.max(0, _dbAdapter.deleteInChunks(table, String.format("%s AND %s < %d", series,
+					TimeSeriesStore.FLD_END_TIMESTAMP, timebase.now() - timebase.fromMillis(maxAge)),
+					TimeSeriesStore.FLD_END_TIMESTAMP));
+		}
+		if (maxBytes > 0) {
+			Long end = queryLong(String.format("SELECT max(%s + %s) FROM %s WHERE %s", TimeSeriesStore.FLD_OFFSET,
+					TimeSeriesStore.FLD_LENGTH, table, series));
+			if (end != null && end > maxBytes) {
+				deleted += Math.max(0, _dbAdapter.deleteInChunks(table, String.format("%s AND %s < %d", series,
+						TimeSeriesStore.FLD_OFFSET, end - maxBytes), TimeSeriesStore.FLD_END_TIMESTAMP));
+			}
+		}
+		// blocks whose index row is still queued are newer than this one
+		Long first = queryLong(String.format("SELECT min(%s) FROM %s WHERE %s", TimeSeriesStore.FLD_OFFSET, table,
+				series));
+		if (first != null) {
+			int files = store.deleteSegmentsBefore(first);
+			if (files > 0) {
+				Log.i(TAG, "Deleted " + files + " segments of " + store.getSeries());
+			}
+		}
+		return deleted;
+	}
+
+	private int deleteOlderThan(String table, String timestampColumn, long cutoff) {
+		return Math.max(0, _dbAdapter.deleteInChunks(table, String.format("%s < %d", timestampColumn, cutoff),
+				timestampColumn));
+	}
+
+	private boolean createTierTable(String target, RetentionPolicy policy) {
+		StringBuilder columns = new StringBuilder();
+		columns.append("_ID INTEGER PRIMARY KEY, ").append(policy.getTimestampColumn()).append(" INT NOT NULL");
+		for (String column : policy.getValueColumns()) {
+			columns.append(", ").append(column).append(" REAL");
+		}
+		columns.append(", ").append(RetentionPolicy.FLD_SAMPLES).append(" INT NOT NULL");
+		return _dbAdapter.execInTransaction(
+				String.format("CREATE TABLE IF NOT EXISTS %s (%s)", target, columns),
+				String.format("CREATE INDEX IF NOT EXISTS %1$s_%2$s_IDX ON %1$s (%2$s)", target,
+						policy.getTimestampColumn()));
+	}
+
+	/**
+	 * Moves the rows of <code>source</code> older than the age of a tier to
+	 * the tier table, a chunk of whole buckets per transaction.
+	 *
+	 * @param weight
+	 *            The number of raw samples of each source row: 1, or the
+	 *            samples column of the previous tier.
+	 * @return The number of source rows removed.
+	 */
+	private int downsample(String source, String weight, String target, RetentionPolicy policy,
+			RetentionPolicy.Tier tier) {
+		String timestamp = policy.getTimestampColumn();
+		RetentionPolicy.Timebase timebase = policy.getTimebase();
+		long bucket = timebase.fromMillis(tier.getBucketMillis());
+		// only whole buckets are aggregated
+		long limit = (timebase.now() - timebase.fromMillis(tier.getAfterMillis())) / bucket * bucket;
+		StringBuilder select = new StringBuilder();
+		StringBuilder insert = new StringBuilder(timestamp);
+		select.append(String.format("(%s / %d) * %d", timestamp, bucket, bucket));
+		for (String column : policy.getValueColumns()) {
+			insert.append(", ").append(column);
+			select.append(String.format(", total(%s * %s) / total(%s)", column, weight, weight));
+		}
+		insert.append(", ").append(RetentionPolicy.FLD_SAMPLES);
+		select.append(String.format(", sum(%s)", weight));
+		int moved = 0;
+		while (true) {
+			Long first = queryLong(String.format("SELECT min(%s) FROM %s", timestamp, source));
+			if (first == null || first >= limit) {
+				break;
+			}
+			long firstBucket = first / bucket * bucket;
+			// the chunk ends at the bucket of its last row
+			Long last = queryLong(String.format(
+					"SELECT %1$s FROM %2$s WHERE %1$s >= %3$d ORDER BY %1$s LIMIT 1 OFFSET %4$d", timestamp, source,
+					first, DBAdapter.DELETE_CHUNK_ROWS));
+			long upper = last == null ? limit : Math.min(limit, last / bucket * bucket);
+			if (upper <= firstBucket) {
+				upper = Math.min(limit, firstBucket + bucket);
+			}
+			String range = String.format("%1$s >= %2$d AND %1$s < %3$d", timestamp, first, upper);
+			Long count = queryLong(String.format("SELECT count(*) FROM %s WHERE %s", source, range));
+			if (!_dbAdapter.execInTransaction(
+					String.format("INSERT INTO %s (%s) SELECT %s FROM %s WHERE %s GROUP BY %s / %d", target, insert,
+							select, source, range, timestamp, bucket),
+					String.format("DELETE FROM %s WHERE %s", source, range))) {
+				break;
+			}
+			moved += count == null ? 0 : count.intValue();
+			if (!pause()) {
+				break;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Estimates the size of a row of a table from its most recent rows.
+	 *
+	 * @return The estimated size, or <code>null</code> if the table is empty.
+	 */
+	private Long estimateRowBytes(String table) {
+		String[] columns = null;
+		SQLiteDatabase db = _dbAdapter.acquireReader();
+		if (db == null) {
+			return null;
+		}
+		Cursor result = null;
+		try {
+			result = db.rawQuery(String.format("SELECT * FROM %s LIMIT 0", table), null);
+			columns = result.getColumnNames();
+		} catch (SQLException e) {
+			Log.e(TAG, "Unable to read the columns of " + table, e);
+			return null;
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			_dbAdapter.releaseReader(db);
+		}
+		StringBuilder size = new StringBuilder();
+		for (String column : columns) {
+			if (size.length() > 0) {
+				size.append(" + ");
+			}
+			size.append(String.format(
+					"CASE typeof(%1$s) WHEN 'integer' THEN 8 WHEN 'real' THEN 8 WHEN 'null' THEN 1 "
+							+ "ELSE length(CAST(%1$s AS BLOB)) END", column));
+		}
+		Long bytes = queryLong(String.format(
+				"SELECT CAST(avg(%s) AS INTEGER) FROM (SELECT * FROM %s ORDER BY _ID DESC LIMIT %d)", size, table,
+				SIZE_SAMPLE_ROWS));
+		return bytes == null ? null : bytes + columns.length + ROW_OVERHEAD_BYTES;
+	}
+
+	/**
+	 * Rebuilds a database that is not in incremental auto vacuum mode, if there
+	 * is room for the copy. The attempt is recorded before it starts, thus a
+	 * rebuild that fails, or kills the process, is not tried again.
+	 */
+	private void rebuildWithIncrementalVacuum() {
+		Boolean incremental = _dbAdapter.isIncrementalVacuum();
+		if (incremental == null) {
+			return;
+		}
+		if (!incremental) {
+			File file = _dbAdapter.getDatabaseFile();
+			long available;
+			try {
+				StatFs stat = new StatFs(file.getParent());
+				available = (long) stat.getAvailableBlocks() * stat.getBlockSize();
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "Unable to read the free space of " + file.getParent(), e);
+				return;
+			}
+			// the copy and the journal of the VACUUM
+			if (available < 2 * file.length()) {
+				Log.w(TAG, "Not enough free space to rebuild the database, " + available + " bytes available");
+				return;
+			}
+		}
+		_prefs.edit().putBoolean(PREF_KEY_VACUUM_REBUILT, true).commit();
+		if (!incremental) {
+			_dbAdapter.rebuildWithIncrementalVacuum();
+		}
+	}
+
+	/**
+	 * Gives the pages freed by the deletes back to the file system, a few at a
+	 * time.
+	 */
+	private void vacuum() {
+		Long free = queryLong("PRAGMA freelist_count");
+		while (free != null && free > 0) {
+			_dbAdapter.incrementalVacuum(VACUUM_PAGES);
+			free -= VACUUM_PAGES;
+			if (!pause()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads a single integer.
+	 *
+	 * @return The value, or <code>null</code> if there is no row or the value
+	 *         is <code>NULL</code>.
+	 */
+	private Long queryLong(String sql) {
+		SQLiteDatabase db = _dbAdapter.acquireReader();
+		if (db == null) {
+			return null;
+		}
+		Cursor result = null;
+		try {
+			result = db.rawQuery(sql, null);
+			if (!result.moveToFirst() || result.isNull(0)) {
+				return null;
+			}
+			return result.getLong(0);
+		} catch (SQLException e) {
+			Log.e(TAG, "Exception in " + sql, e);
+			return null;
+		} finally {
+			if (result != null) {
+				result.close();
+			}
+			_dbAdapter.releaseReader(db);
+		}
+	}
+
+	/**
+	 * Lets the DB writer run between two transactions.
+	 *
+	 * @return <code>false</code> if interrupted.
+	 */
+	private boolean pause() {
+		try {
+			Thread.sleep(CHUNK_PAUSE_MILLIS);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.SystemClock;
+
+/**
+ * How long the rows of a table are kept, as enforced by
+ * {@link RetentionManager}. A limit of 0 means no limit.
+ *
+ * A policy may also define downsampling tiers: rows older than the age of the
+ * first tier are replaced by their averages over buckets of the tier
+ * duration, stored in the table <code>&lt;table&gt;_&lt;suffix&gt;</code>;
+ * the rows of that table are in turn aggregated into the next tier, and so
+ * on. Tier tables hold the timestamp of the bucket start, the average of each
+ * value column and the number of raw samples in the bucket (
+ * {@link #FLD_SAMPLES}).
+ *
+ */
+public class RetentionPolicy {
+
+	/** Column of the tier tables holding the number of raw samples. */
+	public static final String FLD_SAMPLES = "SAMPLES";
+
+	/**
+	 * The clock of the timestamps of a table.
+	 */
+	public enum Timebase {
+		/** Milliseconds, as per {@link System#currentTimeMillis()}. */
+		WALL_CLOCK_MILLIS {
+			@Override
+			long now() {
+				return System.currentTimeMillis();
+			}
+
+			@Override
+			long fromMillis(long millis) {
+				return millis;
+			}
+		},
+
+		/**
+		 * Nanoseconds since boot, as sensor event timestamps. Ages are
+		 * measured against the current boot: rows from previous boots are
+		 * only bounded by the row and size limits.
+		 */
+		ELAPSED_REALTIME_NANOS {
+			@Override
+			long now() {
+				return SystemClock.elapsedRealtime() * 1000000L;
+			}
+
+			@Override
+			long fromMillis(long millis) {
+				return millis * 1000000L;
+			}
+		};
+
+		abstract long now();
+
+		abstract long fromMillis(long millis);
+	}
+
+	/**
+	 * A downsampling tier.
+	 */
+	public static class Tier {
+		private final String _suffix;
+		private final long _afterMillis;
+		private final long _bucketMillis;
+		private final long _maxAgeMillis;
+
+		/**
+		 * Instantiates a new Tier.
+		 *
+		 * @param suffix
+		 *            The suffix of the tier table.
+		 * @param afterMillis
+		 *            The age after which rows of the previous tier are
+		 *            aggregated into this one.
+		 * @param bucketMillis
+		 *            The duration of the buckets.
+		 * @param maxAgeMillis
+		 *            The age after which rows of this tier are deleted, or 0.
+		 */
+		public Tier(String suffix, long afterMillis, long bucketMillis, long maxAgeMillis) {
+			if (bucketMillis <= 0) {
+				throw new IllegalArgumentException();
+			}
+			_suffix = suffix;
+			_afterMillis = afterMillis;
+			_bucketMillis = bucketMillis;
+			_maxAgeMillis = maxAgeMillis;
+		}
+
+		public String getSuffix() {
+			return _suffix;
+		}
+
+		public long getAfterMillis() {
+			return _afterMillis;
+		}
+
+		public long getBucketMillis() {
+			return _bucketMillis;
+		}
+
+		public long getMaxAgeMillis() {
+			return _maxAgeMillis;
+		}
+	}
+
+	private final String _table;
+	private final String _timestampColumn;
+	private final Timebase _timebase;
+	private final List<Tier> _tiers;
+	private String[] _valueColumns;
+	private long _maxAgeMillis;
+	private long _maxRows;
+	private long _maxBytes;
+
+	/**
+	 * Instantiates a new RetentionPolicy, with no limits.
+	 *
+	 * @param table
+	 *            The table.
+	 * @param timestampColumn
+	 *            The indexed timestamp column of the table.
+	 * @param timebase
+	 *            The clock of the timestamps.
+	 */
+	public RetentionPolicy(String table, String timestampColumn, Timebase timebase) {
+		_table = table;
+		_timestampColumn = timestampColumn;
+		_timebase = timebase;
+		_tiers = new ArrayList<Tier>();
+		_valueColumns = new String[0];
+	}
+
+	public String getTable() {
+		return _table;
+	}
+
+	public String getTimestampColumn() {
+		return _timestampColumn;
+	}
+
+	public Timebase getTimebase() {
+		return _timebase;
+	}
+
+	public long getMaxAgeMillis() {
+		return _maxAgeMillis;
+	}
+
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		_maxAgeMillis = maxAgeMillis;
+	}
+
+	public long getMaxRows() {
+		return _maxRows;
+	}
+
+	public void setMaxRows(long maxRows) {
+		_maxRows = maxRows;
+	}
+
+	/**
+	 * Gets the maximum size of the table, in bytes. The size is estimated from
+	 * the number of rows and the size of the most recent ones.
+	 */
+	public long getMaxBytes() {
+		return _maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		_maxBytes = maxBytes;
+	}
+
+	public String[] getValueColumns() {
+		return _valueColumns;
+	}
+
+	/**
+	 * Sets the numeric columns averaged by the downsampling tiers.
+	 *
+	 * @param valueColumns
+	 *            The columns.
+	 */
+	public void setValueColumns(String... valueColumns) {
+		_valueColumns = valueColumns;
+	}
+
+	public List<Tier> getTiers() {
+		return Collections.unmodifiableList(_tiers);
+	}
+
+	/**
+	 * Adds a downsampling tier after the existing ones.
+	 *
+	 * @param tier
+	 *            The tier.
+	 */
+	public void addTier(Tier tier) {
+		_tiers.add(tier);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import android.content.ContentValues;
+
+/**
+ * Rows waiting to be written to the database, grouped by table in the order
+ * tables are first seen. Grouping happens when the rows are stored, so the
+ * rows do not need to carry their table name and the writer can insert all the
+ * rows of a table with the same statement.
+ *
+ * This class is not thread safe: {@link DBAdapter} only uses it while holding
+ * its own monitor, or once it is queued for writing.
+ *
+ */
+class RowBuffer {
+
+	private final int _capacity;
+	private final Map<String, List<ContentValues>> _tables;
+	private int _size;
+	private long _bytes;
+
+	/**
+	 * Instantiates a new RowBuffer.
+	 *
+	 * @param capacity
+	 *            The maximum number of rows in the buffer.
+	 */
+	RowBuffer(int capacity) {
+		_capacity = capacity;
+		_tables = new LinkedHashMap<String, List<ContentValues>>();
+		_size = 0;
+		_bytes = 0L;
+	}
+
+	/**
+	 * Adds a row to the buffer.
+	 *
+	 * @param table
+	 *            The table of the row.
+	 * @param row
+	 *            The row.
+	 * @return <code>false</code> if the buffer is full.
+	 */
+	boolean add(String table, ContentValues row) {
+		if (_size >= _capacity) {
+			return false;
+		}
+		List<ContentValues> rows = _tables.get(table);
+		if (rows == null) {
+			rows = new ArrayList<ContentValues>();
+			_tables.put(table, rows);
+		}
+		rows.add(row);
+		_size++;
+		_bytes += estimateBytes(row);
+		return true;
+	}
+
+	/**
+	 * Roughly estimates the size of a row once stored: 8 bytes for each
+	 * number, the length of strings and blobs.
+	 */
+	private static long estimateBytes(ContentValues row) {
+		long bytes = 0L;
+		for (Entry<String, Object> column : row.valueSet()) {
+			Object value = column.getValue();
+			if (value instanceof String) {
+				bytes += ((String) value).length();
+			} else if (value instanceof byte[]) {
+				bytes += ((byte[]) value).length;
+			} else {
+				bytes += 8L;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the tables that have rows in this buffer.
+	 *
+	 * @return The table names, in the order they were first stored.
+	 */
+	Collection<String> getTables() {
+		return _tables.keySet();
+	}
+
+	/**
+	 * Gets the rows of a table.
+	 *
+	 * @param table
+	 *            The table.
+	 * @return The rows, in the order they were stored.
+	 */
+	List<ContentValues> getRows(String table) {
+		return _tables.get(table);
+	}
+
+	/**
+	 * Gets the number of rows in the buffer.
+	 *
+	 * @return The number of rows, all tables included.
+	 */
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * Gets an estimate of the size of the rows in the buffer.
+	 *
+	 * @return The estimated size, in bytes.
+	 */
+	long getByteSize() {
+		return _bytes;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+/**
+ * Read-only view of the current row of a
+ * {@link DBAdapter#readTuples(String, long, int, DBAdapter.RowCallback)} scan.
+ * The same instance is reused for every row, thus it must not be kept after
+ * {@link DBAdapter.RowCallback#onRow(RowView)} returns: copy the values needed
+ * instead.
+ *
+ */
+public class RowView {
+
+	private Cursor _cursor;
+	private int _idIndex;
+
+	RowView() {
+	}
+
+	void setCursor(Cursor cursor) {
+		_cursor = cursor;
+		_idIndex = cursor == null ? -1 : cursor.getColumnIndexOrThrow("_ID");
+	}
+
+	/**
+	 * Gets the <code>_ID</code> of the row.
+	 *
+	 * @return The row id.
+	 */
+	public long getId() {
+		return _cursor.getLong(_idIndex);
+	}
+
+	public int getColumnCount() {
+		return _cursor.getColumnCount();
+	}
+
+	public String getColumnName(int column) {
+		return _cursor.getColumnName(column);
+	}
+
+	/**
+	 * Gets the index of a column, to be used with the getters. Indexes do not
+	 * change during a scan.
+	 *
+	 * @param name
+	 *            The column name.
+	 * @return The index of the column, or -1 if there is no such column.
+	 */
+	public int getColumnIndex(String name) {
+		return _cursor.getColumnIndex(name);
+	}
+
+	public boolean isNull(int column) {
+		return _cursor.isNull(column);
+	}
+
+	public long getLong(int column) {
+		return _cursor.getLong(column);
+	}
+
+	public int getInt(int column) {
+		return _cursor.getInt(column);
+	}
+
+	public double getDouble(int column) {
+		return _cursor.getDouble(column);
+	}
+
+	public float getFloat(int column) {
+		return _cursor.getFloat(column);
+	}
+
+	public String getString(int column) {
+		return _cursor.getString(column);
+	}
+
+	public byte[] getBlob(int column) {
+		return _cursor.getBlob(column);
+	}
+
+	/**
+	 * Copies the row into a {@link ContentValues}.
+	 *
+	 * @param values
+	 *            The map to fill.
+	 * @return <code>values</code>.
+	 */
+	public ContentValues toContentValues(ContentValues values) {
+		DatabaseUtils.cursorRowToContentValues(_cursor, values);
+		return values;
+	}
+}
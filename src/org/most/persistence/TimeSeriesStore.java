@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+/**
+ * A compressed, append-only store of a time series whose samples are made of a
+ * timestamp and a fixed number of float channels (e.g., the X, Y and Z axes of
+ * an inertial sensor). Samples are compressed with {@link GorillaCodec} into
+ * blocks of fixed size; sealed blocks are appended to segment files in the
+ * external files dir, and indexed in the {@link #TBL_TS_BLOCKS} table with
+ * their time range and their offset.
+ *
+ * Offsets are logical: the block at offset <i>o</i> is in the segment file
+ * number <i>o</i> / {@link #DEFAULT_SEGMENT_BYTES}, named
+ * <code>&lt;series&gt;.&lt;number&gt;.tsdb</code>, at position <i>o</i> %
+ * {@link #DEFAULT_SEGMENT_BYTES}. A block never spans two segments: when it
+ * does not fit, the next segment is started. Old blocks are dropped by
+ * deleting their index rows first, and then the segments that no row points
+ * to (see {@link #deleteSegmentsBefore(long)} and {@link RetentionManager}).
+ *
+ * Stores are obtained with {@link DBAdapter#getTimeSeriesStore(String, int)}.
+ *
+ */
+public class TimeSeriesStore {
+
+	private static final String TAG = TimeSeriesStore.class.getSimpleName();
+
+	public static final String TBL_TS_BLOCKS = "TS_BLOCKS";
+	public static final String FLD_SERIES = "series";
+	public static final String FLD_START_TIMESTAMP = "start_timestamp";
+	public static final String FLD_END_TIMESTAMP = "end_timestamp";
+	public static final String FLD_COUNT = "count";
+	public static final String FLD_OFFSET = "file_offset";
+	public static final String FLD_LENGTH = "length";
+	public static final String CREATE_TS_BLOCKS_TABLE = String.format(
+			"_ID INTEGER PRIMARY KEY, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, "
+					+ "%s INT NOT NULL, %s INT NOT NULL", FLD_SERIES, FLD_START_TIMESTAMP, FLD_END_TIMESTAMP,
+			FLD_COUNT, FLD_OFFSET, FLD_LENGTH);
+	public static final String[] INDEX_TS_BLOCKS_TABLE = { FLD_SERIES + ", " + FLD_END_TIMESTAMP };
+
+	/** Extension of the block files. */
+	public static final String FILE_EXTENSION = ".tsdb";
+
+	/** Default size of a block. */
+	public static final int DEFAULT_BLOCK_BYTES = 4096;
+
+	/** Maximum size of a segment file, at least the size of a block. */
+	public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+	/**
+	 * Receives the samples read from a store.
+	 */
+	public interface SampleCallback {
+
+		/**
+		 * Called for each sample, in timestamp order.
+		 *
+		 * @param timestamp
+		 *            The timestamp of the sample.
+		 * @param values
+		 *            The values of the channels. The array is reused for the
+		 *            next samples.
+		 * @return <code>false</code> to stop reading.
+		 */
+		public boolean onSample(long timestamp, float[] values);
+	}
+
+	private final DBAdapter _dbAdapter;
+	private final String _series;
+	private final int _channels;
+	private final File _dir;
+	private final long _segmentBytes;
+	private final GorillaCodec.Encoder _encoder;
+	private RandomAccessFile _output;
+	/** The segment of {@link #_output}, or -1 if it is not open. */
+	private long _segment = -1L;
+	private long _sealedSamples;
+	private long _sealedBytes;
+	private long _lostSamples;
+
+	TimeSeriesStore(DBAdapter dbAdapter, String series, int channels, File dir, int blockBytes, long segmentBytes) {
+		if (segmentBytes < blockBytes) {
+			throw new IllegalArgumentException("Segments are smaller than blocks");
+		}
+		_dbAdapter = dbAdapter;
+		_series = series;
+		_channels = channels;
+		_dir = dir;
+		_segmentBytes = segmentBytes;
+		_encoder = new GorillaCodec.Encoder(blockBytes, channels);
+	}
+
+	/**
+	 * Appends a sample. Timestamps are expected to be increasing.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the sample.
+	 * @param values
+	 *            The values of the channels; the array is not kept.
+	 */
+	public synchronized void append(long timestamp, float[] values) {
+		if (!_encoder.append(timestamp, values)) {
+			seal();
+			_encoder.append(timestamp, values);
+		}
+	}
+
+	/**
+	 * Seals the current block, if it is not empty, so that it is written to
+	 * the file. Pipelines call this when they are deactivated.
+	 */
+	public synchronized void flush() {
+		if (_encoder.getCount() > 0) {
+			seal();
+		}
+	}
+
+	private void seal() {
+		int count = _encoder.getCount();
+		byte[] block = _encoder.toByteArray();
+		try {
+			if (_output == null) {
+				openSegment(Math.max(0L, getLastSegment()));
+			}
+			long position = _output.length();
+			if (position > 0 && position + block.length > _segmentBytes) {
+				openSegment(_segment + 1);
+				position = 0;
+			}
+			long offset = _segment * _segmentBytes + position;
+			_output.seek(position);
+			_output.write(block);
+			// the block must be on disk before the index row points to it
+			_output.getFD().sync();
+			ContentValues cv = new ContentValues();
+			cv.put(FLD_SERIES, _series);
+			cv.put(FLD_START_TIMESTAMP, _encoder.getFirstTimestamp());
+			cv.put(FLD_END_TIMESTAMP, _encoder.getLastTimestamp());
+			cv.put(FLD_COUNT, count);
+			cv.put(FLD_OFFSET, offset);
+			cv.put(FLD_LENGTH, block.length);
+			_dbAdapter.storeData(TBL_TS_BLOCKS, cv, true);
+			_sealedSamples += count;
+			_sealedBytes += block.length;
+		} catch (IOException e) {
+			_lostSamples += count;
+			Log.e(TAG, "Unable to write a block of " + _series + ", " + _lostSamples + " samples lost so far", e);
+		} finally {
+			_encoder.reset();
+		}
+	}
+
+	private void openSegment(long segment) throws IOException {
+		if (_output != null) {
+			_output.close();
+			_output = null;
+		}
+		_output = new RandomAccessFile(getSegmentFile(segment), "rw");
+		_segment = segment;
+	}
+
+	private File getSegmentFile(long segment) {
+		return new File(_dir, _series + "." + segment + FILE_EXTENSION);
+	}
+
+	/**
+	 * Lists the segment files of the series.
+	 *
+	 * @return The numbers of the segments, unsorted.
+	 */
+	private long[] listSegments() {
+		String prefix = _series + ".";
+		String[] names = _dir.list();
+		if (names == null) {
+			return new long[0];
+		}
+		long[] segments = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith(prefix) && name.endsWith(FILE_EXTENSION)) {
+				try {
+					segments[count] = Long.parseLong(name.substring(prefix.length(),
+							name.length() - FILE_EXTENSION.length()));
+					count++;
+				} catch (NumberFormatException e) {
+					// another series whose name starts with this one
+				}
+			}
+		}
+		long[] result = new long[count];
+		System.arraycopy(segments, 0, result, 0, count);
+		return result;
+	}
+
+	private long getLastSegment() {
+		long last = -1L;
+		for (long segment : listSegments()) {
+			last = Math.max(last, segment);
+		}
+		return last;
+	}
+
+	/**
+	 * Deletes the segment files whose blocks are all before an offset. The
+	 * index rows of those blocks must have been deleted already. The segment
+	 * being written is never deleted.
+	 *
+	 * @param offset
+	 *            The offset of the oldest block to keep.
+	 * @return The number of deleted files.
+	 */
+	synchronized int deleteSegmentsBefore(long offset) {
+		long last = _output != null ? _segment : getLastSegment();
+		long first = Math.min(offset / _segmentBytes, last);
+		int deleted = 0;
+		for (long segment : listSegments()) {
+			if (segment < first) {
+				if (getSegmentFile(segment).delete()) {
+					deleted++;
+				} else {
+					Log.e(TAG, "Unable to delete segment " + segment + " of " + _series);
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Reads the samples whose timestamp is within a range, in timestamp
+	 * order. Sealed blocks are visible once their index row is committed (see
+	 * {@link DBAdapter#PREF_KEY_COMMIT_WINDOW}); the samples of the current
+	 * block are always visible.
+	 *
+	 * @param from
+	 *            The first timestamp.
+	 * @param to
+	 *            The last timestamp.
+	 * @param callback
+	 *            Receives the samples.
+	 */
+	public void read(final long from, final long to, final SampleCallback callback) {
+		final boolean[] stopped = new boolean[] { false };
+		// the segment being read, opened when the first of its blocks is read
+		final RandomAccessFile[] input = new RandomAccessFile[1];
+		final long[] inputSegment = new long[] { -1L };
+		try {
+			_dbAdapter.readTuples(TBL_TS_BLOCKS, String.format("%s = ? AND %s >= ? AND %s <= ?", FLD_SERIES,
+					FLD_END_TIMESTAMP, FLD_START_TIMESTAMP), new String[] { _series, Long.toString(from),
+					Long.toString(to) }, -1L, DBAdapter.DEFAULT_PAGE_SIZE, new DBAdapter.RowCallback() {
+				public boolean onRow(RowView row) {
+					long offset = row.getLong(row.getColumnIndex(FLD_OFFSET));
+					byte[] block = new byte[row.getInt(row.getColumnIndex(FLD_LENGTH))];
+					try {
+						if (inputSegment[0] != offset / _segmentBytes) {
+							if (input[0] != null) {
+								input[0].close();
+								input[0] = null;
+								inputSegment[0] = -1L;
+							}
+							input[0] = new RandomAccessFile(getSegmentFile(offset / _segmentBytes), "r");
+							inputSegment[0] = offset / _segmentBytes;
+						}
+						input[0].seek(offset % _segmentBytes);
+						input[0].readFully(block);
+					} catch (IOException e) {
+						// the segment may have been deleted by the retention
+						Log.e(TAG, "Unable to read a block of " + _series, e);
+						return true;
+					}
+					stopped[0] = !GorillaCodec.decode(block, row.getInt(row.getColumnIndex(FLD_COUNT)), _channels,
+							from, to, callback);
+					return !stopped[0];
+				}
+			});
+		} finally {
+			if (input[0] != null) {
+				try {
+					input[0].close();
+				} catch (IOException e) {
+					Log.e(TAG, "Unable to close the blocks of " + _series, e);
+				}
+			}
+		}
+		if (stopped[0]) {
+			return;
+		}
+		byte[] current;
+		int count;
+		synchronized (this) {
+			current = _encoder.toByteArray();
+			count = _encoder.getCount();
+		}
+		if (count > 0) {
+			GorillaCodec.decode(current, count, _channels, from, to, callback);
+		}
+	}
+
+	public String getSeries() {
+		return _series;
+	}
+
+	public int getChannelCount() {
+		return _channels;
+	}
+
+	/**
+	 * Gets the average size of a sample in the sealed blocks.
+	 *
+	 * @return The number of bytes per sample, or 0 if no block was sealed.
+	 */
+	public synchronized double getBytesPerSample() {
+		return _sealedSamples == 0 ? 0.0 : (double) _sealedBytes / _sealedSamples;
+	}
+
+	/**
+	 * Gets the number of samples lost because their block could not be
+	 * written.
+	 *
+	 * @return The number of lost samples.
+	 */
+	public synchronized long getLostSampleCount() {
+		return _lostSamples;
+	}
+}
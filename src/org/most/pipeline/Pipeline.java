@@ -15,17 +15,21 @@
  */
 package org.most.pipeline;
 
+import java.util.List;
 import java.util.Set;
 
 import org.most.DataBundle;
+import org.most.DataBundlePool;
 import org.most.MoSTApplication;
 import org.most.input.Input;
 import org.most.input.InputBus;
+import org.most.input.SensorBatcher;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.util.Log;
 
 /**
@@ -205,6 +209,23 @@ public abstract class Pipeline implements InputBus.Listener {
 
 	public static final String KEY_TYPE = "sensor_type";
 
+	public static final String PREF_KEY_DEDICATED_THREAD_SUFFIX = ".DedicatedThread";
+
+	public static final String PREF_KEY_BATCH_SIZE_SUFFIX = ".BatchSize";
+	public static final int DEFAULT_BATCH_SIZE = 1;
+	public static final String PREF_KEY_BATCH_LINGER_SUFFIX = ".BatchLinger";
+	public static final int DEFAULT_BATCH_LINGER = 0;
+
+	public static final String PREF_KEY_SCHEDULING_QUOTA_SUFFIX = ".SchedulingQuota";
+	public static final int DEFAULT_SCHEDULING_QUOTA = 32;
+
+	/**
+	 * Suffix of the boolean preference that makes an inertial pipeline dump its
+	 * samples in a compressed {@link org.most.persistence.TimeSeriesStore}
+	 * instead of its table.
+	 */
+	public static final String PREF_KEY_TIME_SERIES_SUFFIX = ".TimeSeriesStore";
+
 	private static final Boolean DEBUG = true;
 
 	private static final String TAG = Pipeline.class.getSimpleName();
@@ -233,6 +254,23 @@ public abstract class Pipeline implements InputBus.Listener {
 		_pipelineQueue = new PipelineQueue(this, bufferCapacity);
 	}
 
+	/**
+	 * Constructs a pipeline that is not part of a {@link MoSTApplication}, for
+	 * the tests of this package. It cannot be activated.
+	 * 
+	 * @param bus
+	 *            The bus of the pipeline.
+	 * @param bufferCapacity
+	 *            The capacity of its {@link PipelineQueue}.
+	 */
+	Pipeline(PipelineBus.SinglePipelineBus bus, int bufferCapacity) {
+		_context = null;
+		_state = State.INVALID;
+		_active = false;
+		_bus = bus;
+		_pipelineQueue = new PipelineQueue(this, bufferCapacity);
+	}
+
 	/**
 	 * Checks that newState is a valid state to transition to, given the current
 	 * state.
@@ -342,9 +380,24 @@ public abstract class Pipeline implements InputBus.Listener {
 		IntentFilter intentFilter = new IntentFilter();
 		intentFilter.addAction(MoSTApplication.ACTION_INPUT);
 		getContext().registerReceiver(_inputStateChangeReceiver, intentFilter);
-		_thread = new Thread(_pipelineQueue);
-		_thread.setName("PipelineQueue of " + getClass().getSimpleName());
-		_thread.start();
+		configureOverflowPolicy();
+		_pipelineQueue.setBatching(getBatchSize(), getBatchLinger());
+		if (needsDedicatedThread()) {
+			String waitStrategy = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES,
+					Context.MODE_PRIVATE).getString(getType().name() + PipelineQueue.PREF_KEY_WAIT_STRATEGY_SUFFIX,
+					PipelineQueue.DEFAULT_WAIT_STRATEGY.name());
+			try {
+				_pipelineQueue.configure(getInputs().size() > 1, PipelineQueue.WaitStrategy.valueOf(waitStrategy));
+			} catch (IllegalArgumentException e) {
+				Log.w(TAG, "Unknown wait strategy " + waitStrategy + " for pipeline " + getType());
+				_pipelineQueue.configure(getInputs().size() > 1, PipelineQueue.DEFAULT_WAIT_STRATEGY);
+			}
+			_thread = new Thread(_pipelineQueue);
+			_thread.setName("PipelineQueue of " + getClass().getSimpleName());
+			_thread.start();
+		} else {
+			_pipelineQueue.attach(getContext().getPipelineScheduler(), getSchedulingQuota(), getInputs().size() > 1);
+		}
 		_active = true;
 		if (DEBUG) {
 			Log.d(TAG, "Pipeline " + getType() + " activated");
@@ -373,15 +426,20 @@ public abstract class Pipeline implements InputBus.Listener {
 		_inputStateChangeReceiver = null;
 
 		// Stop the queue of incoming data.
-		try {
-			_thread.interrupt();
-			_thread.join();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		if (_thread != null) {
+			try {
+				_thread.interrupt();
+				_thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			_thread = null;
+		} else {
+			_pipelineQueue.detach();
 		}
 		_active = false;
 		_state = State.DEACTIVATED;
-		getContext().getDbAdapter().flushData();
+		getContext().getDbAdapter().asyncFlushData();
 		Intent i = new Intent();
 		i.setAction(MoSTApplication.ACTION_PIPELINE);
 		i.putExtra(EVENT_TYPE, EventType.DEACTIVATED);
@@ -429,6 +487,75 @@ public abstract class Pipeline implements InputBus.Listener {
 		return _active;
 	}
 
+	private void configureOverflowPolicy() {
+		SharedPreferences sp = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES,
+				Context.MODE_PRIVATE);
+		String policy = sp.getString(getType().name() + PipelineQueue.PREF_KEY_OVERFLOW_POLICY_SUFFIX,
+				PipelineQueue.DEFAULT_OVERFLOW_POLICY.name());
+		PipelineQueue.OverflowPolicy overflowPolicy;
+		try {
+			overflowPolicy = PipelineQueue.OverflowPolicy.valueOf(policy);
+		} catch (IllegalArgumentException e) {
+			Log.w(TAG, "Unknown overflow policy " + policy + " for pipeline " + getType());
+			overflowPolicy = PipelineQueue.DEFAULT_OVERFLOW_POLICY;
+		}
+		_pipelineQueue.setOverflowPolicy(overflowPolicy,
+				sp.getInt(getType().name() + PipelineQueue.PREF_KEY_DECIMATION_FACTOR_SUFFIX,
+						PipelineQueue.DEFAULT_DECIMATION_FACTOR),
+				sp.getInt(getType().name() + PipelineQueue.PREF_KEY_BLOCK_TIMEOUT_SUFFIX,
+						PipelineQueue.DEFAULT_BLOCK_TIMEOUT));
+	}
+
+	/**
+	 * Gets the number of bundles this pipeline dropped because it was not able
+	 * to process them in real time (see {@link PipelineQueue.OverflowPolicy}).
+	 * 
+	 * @return The number of dropped bundles.
+	 */
+	public long getDroppedCount() {
+		return _pipelineQueue.getDroppedCount();
+	}
+
+	/**
+	 * Gets the number of bundles this pipeline skipped because a more recent
+	 * one arrived (see {@link PipelineQueue.OverflowPolicy#KEEP_LATEST}).
+	 * 
+	 * @return The number of coalesced bundles.
+	 */
+	public long getCoalescedCount() {
+		return _pipelineQueue.getCoalescedCount();
+	}
+
+	/**
+	 * Checks if this pipeline runs its {@link PipelineQueue} on a dedicated
+	 * thread rather than on the shared {@link PipelineScheduler}. The default
+	 * implementation reads the {@link MoSTApplication#PREF_PIPELINES} key
+	 * <code>&lt;Pipeline.Type&gt;.DedicatedThread</code> (see
+	 * {@link #PREF_KEY_DEDICATED_THREAD_SUFFIX}), <code>false</code> by
+	 * default. Pipelines that block or need isolation should override it.
+	 * 
+	 * @return <code>true</code> if this pipeline needs its own thread.
+	 */
+	protected boolean needsDedicatedThread() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getBoolean(
+				getType().name() + PREF_KEY_DEDICATED_THREAD_SUFFIX, false);
+	}
+
+	/**
+	 * Gets the maximum number of bundles this pipeline processes each time it
+	 * is run by the {@link PipelineScheduler}. The default implementation
+	 * reads the {@link MoSTApplication#PREF_PIPELINES} key
+	 * <code>&lt;Pipeline.Type&gt;.SchedulingQuota</code> (see
+	 * {@link #PREF_KEY_SCHEDULING_QUOTA_SUFFIX}), {@link #DEFAULT_SCHEDULING_QUOTA}
+	 * by default.
+	 * 
+	 * @return The scheduling quota.
+	 */
+	protected int getSchedulingQuota() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				getType().name() + PREF_KEY_SCHEDULING_QUOTA_SUFFIX, DEFAULT_SCHEDULING_QUOTA);
+	}
+
 	/**
 	 * Gets the {@link Input.Type}s that this pipeline needs to run.
 	 * 
@@ -436,6 +563,102 @@ public abstract class Pipeline implements InputBus.Listener {
 	 */
 	public abstract Set<Input.Type> getInputs();
 
+	/**
+	 * Called when an Input posts a columnar batch of samples (see
+	 * {@link SensorBatcher}). The default implementation splits the batch in
+	 * single-sample {@link DataBundle}s, passes each of them to
+	 * {@link #onData(DataBundle)} and releases the batch. Pipelines that can
+	 * process a whole batch at once should override this method, and must
+	 * release the batch when done.
+	 * 
+	 * @param batch
+	 *            The batch.
+	 */
+	protected void onSampleBatch(DataBundle batch) {
+		DataBundlePool pool = _context.getDataBundlePool();
+		int size = SensorBatcher.getBatchSize(batch);
+		for (int i = 0; i < size; i++) {
+			DataBundle b = SensorBatcher.unbatch(batch, i, pool);
+			if (b != null) {
+				onData(b);
+			}
+		}
+		batch.release();
+	}
+
+	/**
+	 * Called with several bundles taken from the {@link PipelineQueue} at once,
+	 * when {@link #getBatchSize()} is greater than 1. The bundles are in
+	 * arrival order and, as in {@link #onData(DataBundle)}, each of them must
+	 * be released. The list itself belongs to the queue and must not be kept
+	 * after the call. The default implementation delivers the bundles one by
+	 * one; sinks with a high per-call cost, such as database writes, should
+	 * override it.
+	 * 
+	 * @param batch
+	 *            The bundles.
+	 */
+	protected void onDataBatch(List<DataBundle> batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			dispatch(batch.get(i));
+		}
+	}
+
+	/**
+	 * Gets the maximum number of bundles delivered with a single
+	 * {@link #onDataBatch(List)} call. The default implementation reads the
+	 * {@link MoSTApplication#PREF_PIPELINES} key
+	 * <code>&lt;Pipeline.Type&gt;.BatchSize</code> (see
+	 * {@link #PREF_KEY_BATCH_SIZE_SUFFIX}), {@link #DEFAULT_BATCH_SIZE} (no
+	 * batching) by default.
+	 * 
+	 * @return The batch size.
+	 */
+	protected int getBatchSize() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				getType().name() + PREF_KEY_BATCH_SIZE_SUFFIX, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Gets how long, in milliseconds, the {@link PipelineQueue} waits for a
+	 * batch to fill up before delivering it. The default implementation reads
+	 * the {@link MoSTApplication#PREF_PIPELINES} key
+	 * <code>&lt;Pipeline.Type&gt;.BatchLinger</code> (see
+	 * {@link #PREF_KEY_BATCH_LINGER_SUFFIX}), {@link #DEFAULT_BATCH_LINGER} by
+	 * default, i.e. the bundles already queued are delivered without waiting.
+	 * 
+	 * @return The linger time.
+	 */
+	protected int getBatchLinger() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				getType().name() + PREF_KEY_BATCH_LINGER_SUFFIX, DEFAULT_BATCH_LINGER);
+	}
+
+	/**
+	 * Delivers a batch taken from the {@link PipelineQueue}.
+	 * 
+	 * @param batch
+	 *            The bundles to deliver.
+	 */
+	void dispatchBatch(List<DataBundle> batch) {
+		onDataBatch(batch);
+	}
+
+	/**
+	 * Delivers a bundle taken from the {@link PipelineQueue}, routing batches
+	 * to {@link #onSampleBatch(DataBundle)}.
+	 * 
+	 * @param b
+	 *            The bundle to deliver.
+	 */
+	void dispatch(DataBundle b) {
+		if (SensorBatcher.isBatch(b)) {
+			onSampleBatch(b);
+		} else {
+			onData(b);
+		}
+	}
+
 	/**
 	 * Posts a bundle on the bus associated to this Pipeline.
 	 * 
@@ -15,16 +15,23 @@
  */
 package org.most.pipeline;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.most.DataBundle;
+import org.most.DataBundleSchema;
 import org.most.MoSTApplication;
 import org.most.input.Input;
 import org.most.input.InputAccelerometer;
+import org.most.input.SensorBatcher;
+import org.most.persistence.ColumnBuffer;
 import org.most.persistence.DBAdapter;
+import org.most.persistence.TimeSeriesStore;
 
 import android.content.ContentValues;
+import android.content.Context;
 
 public class PipelineAccelerometer extends Pipeline {
 
@@ -34,17 +41,28 @@ public class PipelineAccelerometer extends Pipeline {
 	public final static String FLD_Z = "Z";
 	public final static String FLD_TIMESTAMP = "TIMESTAMP";
 
+	/** Default batch size of the database writes. */
+	public static final int DEFAULT_DB_BATCH_SIZE = 64;
+
 	// Any Pipeline that wants to dump data must define 2 String:
 	// 1)a String that includes the table structure. The String must use this
 	// pattern: "FieldName Type [opt] [,]". For example
 	// "ID INTEGER PRIMARY KEY, XVALUES REAL NOT NULL, DAYOFWEEK TEXT" ecc...
 	// 2)a String that define the table name.
+	// It may also define a String[] of the columns to index (e.g., the
+	// timestamp), one index per element, passed to DBHelper#createTable.
 	public static final String CREATE_ACCELEROMETER_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s REAL NOT NULL, %s REAL NOT NULL, %s REAL NOT NULL, %s INT NOT NULL", FLD_X,
 			FLD_Y, FLD_Z, FLD_TIMESTAMP);
+	public static final String[] INDEX_ACCELEROMETER_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _dump;
 	private DBAdapter _dbAdapter;
+	private ColumnBuffer _columns;
+	private final long[] _longs = new long[1];
+	private final double[] _doubles = new double[3];
+	private TimeSeriesStore _timeSeries;
+	private final float[] _floats = new float[3];
 
 	public PipelineAccelerometer(MoSTApplication context) {
 		this(context, false);
@@ -58,21 +76,114 @@ public class PipelineAccelerometer extends Pipeline {
 		_dbAdapter = context.getDbAdapter();
 	}
 
+	@Override
+	public boolean onActivate() {
+		checkNewState(State.ACTIVATED);
+		if (_dump) {
+			if (getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getBoolean(
+					getType().name() + PREF_KEY_TIME_SERIES_SUFFIX, false)) {
+				_timeSeries = _dbAdapter.getTimeSeriesStore(TBL_ACCELEROMETER, 3);
+			} else {
+				_columns = _dbAdapter.getColumnBuffer(TBL_ACCELEROMETER, new String[] { FLD_TIMESTAMP }, new String[] {
+						FLD_X, FLD_Y, FLD_Z }, DBAdapter.DEFAULT_COLUMN_BUFFER_ROWS);
+			}
+		}
+		return super.onActivate();
+	}
+
 	public void onData(DataBundle b) {
 		if (_dump) {
-			float[] data = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
-			long timestamp = b.getLong(InputAccelerometer.KEY_TIMESTAMP);
-			ContentValues map = new ContentValues();
-			map.put(FLD_X, data[0]);
-			map.put(FLD_Y, data[1]);
-			map.put(FLD_Z, data[2]);
-			map.put(FLD_TIMESTAMP, timestamp);
-
-			_dbAdapter.storeData(TBL_ACCELEROMETER, map);
+			List<ContentValues> rows = _columns == null && _timeSeries == null ? new ArrayList<ContentValues>(1) : null;
+			addRows(b, rows);
+			if (rows != null) {
+				_dbAdapter.storeData(TBL_ACCELEROMETER, rows.get(0));
+			}
 		}
 		b.release();
 	}
 
+	@Override
+	protected void onSampleBatch(DataBundle batch) {
+		if (_dump) {
+			List<ContentValues> rows = _columns == null && _timeSeries == null ? new ArrayList<ContentValues>(
+					SensorBatcher.getBatchSize(batch)) : null;
+			addRows(batch, rows);
+			if (rows != null) {
+				_dbAdapter.storeData(TBL_ACCELEROMETER, rows);
+			}
+		}
+		batch.release();
+	}
+
+	@Override
+	protected void onDataBatch(List<DataBundle> batch) {
+		List<ContentValues> rows = _dump && _columns == null && _timeSeries == null ? new ArrayList<ContentValues>(
+				batch.size()) : null;
+		for (int i = 0; i < batch.size(); i++) {
+			DataBundle b = batch.get(i);
+			if (_dump) {
+				addRows(b, rows);
+			}
+			b.release();
+		}
+		if (rows != null) {
+			_dbAdapter.storeData(TBL_ACCELEROMETER, rows);
+		}
+	}
+
+	@Override
+	protected int getBatchSize() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				getType().name() + PREF_KEY_BATCH_SIZE_SUFFIX, DEFAULT_DB_BATCH_SIZE);
+	}
+
+	/**
+	 * Stores the rows of a single-sample bundle or of a columnar batch in the
+	 * time series store or in the column buffer of the table or, if there is
+	 * none, adds them to <code>rows</code>.
+	 */
+	private void addRows(DataBundle b, List<ContentValues> rows) {
+		if (SensorBatcher.isBatch(b)) {
+			int size = SensorBatcher.getBatchSize(b);
+			long[] timestamps = b.getLongArray(SensorBatcher.KEY_TIMESTAMPS);
+			float[] x = b.getFloatArray(SensorBatcher.KEY_X);
+			float[] y = b.getFloatArray(SensorBatcher.KEY_Y);
+			float[] z = b.getFloatArray(SensorBatcher.KEY_Z);
+			for (int i = 0; i < size; i++) {
+				addRow(timestamps[i], x[i], y[i], z[i], rows);
+			}
+		} else {
+			float[] data = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
+			addRow(b.getLong(DataBundleSchema.SLOT_TIMESTAMP), data[0], data[1], data[2], rows);
+		}
+	}
+
+	private void addRow(long timestamp, float x, float y, float z, List<ContentValues> rows) {
+		if (_timeSeries != null) {
+			_floats[0] = x;
+			_floats[1] = y;
+			_floats[2] = z;
+			_timeSeries.append(timestamp, _floats);
+		} else if (_columns != null) {
+			_longs[0] = timestamp;
+			_doubles[0] = x;
+			_doubles[1] = y;
+			_doubles[2] = z;
+			_columns.store(_longs, _doubles);
+		} else {
+			rows.add(toRow(timestamp, x, y, z));
+		}
+	}
+
+	private static ContentValues toRow(long timestamp, float x, float y, float z) {
+		ContentValues map = new ContentValues();
+		map.put(FLD_X, x);
+		map.put(FLD_Y, y);
+		map.put(FLD_Z, z);
+		map.put(FLD_TIMESTAMP, timestamp);
+		return map;
+	}
+
 	@Override
 	public Set<Input.Type> getInputs() {
 		Set<Input.Type> result = new HashSet<Input.Type>();
@@ -80,6 +191,16 @@ public class PipelineAccelerometer extends Pipeline {
 		return result;
 	}
 
+	@Override
+	public void onDeactivate() {
+		super.onDeactivate();
+		// seals the last block, so that it is indexed
+		if (_timeSeries != null) {
+			_timeSeries.flush();
+			_timeSeries = null;
+		}
+	}
+
 	@Override
 	public Type getType() {
 		return Type.ACCELEROMETER;
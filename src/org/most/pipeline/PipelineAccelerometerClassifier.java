@@ -15,7 +15,7 @@
  */
 package org.most.pipeline;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -23,7 +23,9 @@ import org.most.DataBundle;
 import org.most.MoSTApplication;
 import org.most.input.Input;
 import org.most.input.InputAccelerometer;
-import org.most.weka.Features;
+import org.most.input.SensorBatcher;
+import org.most.weka.DecisionTreeModel;
+import org.most.weka.FeatureExtractor;
 import org.most.weka.WekaClassifier;
 
 import android.content.ContentValues;
@@ -31,15 +33,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-public class PipelineAccelerometerClassifier extends Pipeline {
+public class PipelineAccelerometerClassifier extends Pipeline implements SampleWindow.Listener {
 	
 	private static final String TAG = PipelineAccelerometerClassifier.class.getSimpleName();
 
-	private ArrayList<Float> x;
-	private ArrayList<Float> y;
-	private ArrayList<Float> z;
-	private Features f;
-	private long startTime;
+	private SampleWindow _window;
+	private final double[] features = new double[FeatureExtractor.FEATURE_COUNT];
+	private DecisionTreeModel _model;
+	private int[] _votes;
 	
 	public static final String KEY_ACTION = "PipelineAccelerometerClassifier";
 	public static final String KEY_VALUE = "PipelineAccelerometerClassifier.value";
@@ -49,6 +50,13 @@ public class PipelineAccelerometerClassifier extends Pipeline {
 	public static final boolean PREF_DEFAULT_DUMP_TO_DB = true;
 	public static final String PREF_KEY_SEND_INTENT = "PipelineAccelerometerClassifier.SendIntent";
 	public static final boolean PREF_DEFAULT_SEND_INTENT = false;
+	/**
+	 * The {@link DecisionTreeModel} used to classify the windows: an absolute
+	 * file path, or the name of an asset. If empty, or if the model cannot be
+	 * loaded, {@link WekaClassifier#MODEL} is used.
+	 */
+	public static final String PREF_KEY_MODEL_PATH = "PipelineAccelerometerClassifier.ModelPath";
+	public static final String PREF_DEFAULT_MODEL_PATH = "";
 	
 	public static final String TBL_ACCELEROMETER_CLASSIFIER = "ACCELEROMETER_CLASSIFIER";
 	public static final String FLD_TIMESTAMP = "timestamp";
@@ -56,8 +64,14 @@ public class PipelineAccelerometerClassifier extends Pipeline {
 
 	public static final String CREATE_ACCELEROMETER_CLASSIFIER_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NULL", FLD_TIMESTAMP, FLD_VALUE);
+	public static final String[] INDEX_ACCELEROMETER_CLASSIFIER_TABLE = { FLD_TIMESTAMP };
 
 	private static final int LIMIT_OUTPUT = 16; // 2 per min
+
+	/** Length of the classified windows, in nanoseconds of sensor time. */
+	private static final long WINDOW_NANOS = 2000000000L;
+	/** Initial capacity of the window, grown as needed. */
+	private static final int INITIAL_WINDOW_SIZE = 128;
 	
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -73,10 +87,7 @@ public class PipelineAccelerometerClassifier extends Pipeline {
 	
 	@Override
 	public void onInit() {
-		x = new ArrayList<Float>();
-		y = new ArrayList<Float>();
-		z = new ArrayList<Float>();
-		f = new Features();
+		_window = SampleWindow.timeBased(3, WINDOW_NANOS, WINDOW_NANOS, INITIAL_WINDOW_SIZE, this);
 		super.onInit();
 	}	
 	
@@ -87,67 +98,73 @@ public class PipelineAccelerometerClassifier extends Pipeline {
 				PREF_KEY_DUMP_TO_DB, PREF_DEFAULT_DUMP_TO_DB);
 		_isSend = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getBoolean(
 				PREF_KEY_SEND_INTENT, PREF_DEFAULT_SEND_INTENT);
+		_model = loadModel(getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE)
+				.getString(PREF_KEY_MODEL_PATH, PREF_DEFAULT_MODEL_PATH));
+		_votes = new int[_model.getClassCount()];
+		_window.clear();
 		return super.onActivate();
 	}
 
+	private DecisionTreeModel loadModel(String path) {
+		if (path.length() == 0) {
+			return WekaClassifier.MODEL;
+		}
+		try {
+			DecisionTreeModel model = DecisionTreeModel.load(getContext(), path);
+			if (model.getFeatureCount() > FeatureExtractor.FEATURE_COUNT) {
+				throw new IOException("The model reads " + model.getFeatureCount() + " features");
+			}
+			Log.i(TAG, "Loaded model " + path + " with " + model.getTreeCount() + " trees");
+			return model;
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to load model " + path + ", using the default one", e);
+			return WekaClassifier.MODEL;
+		}
+	}
+
 	public void onData(DataBundle b) {
-		
 		float[] values = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
-        long currentTime = System.currentTimeMillis();
+		_window.add(b.getLong(Input.KEY_TIMESTAMP), values[0], values[1], values[2]);
 		b.release();
-		String accClass = "";
+	}
 
-		if((x.size()==0)&&(y.size()==0)&&(z.size()==0)){
-			startTime=currentTime;
-		}
-		if(currentTime<startTime+2000)
-		{
-			x.add(values[0]);
-			y.add(values[1]);
-			z.add(values[2]);
+	@Override
+	protected void onSampleBatch(DataBundle batch) {
+		int size = SensorBatcher.getBatchSize(batch);
+		long[] timestamps = batch.getLongArray(SensorBatcher.KEY_TIMESTAMPS);
+		float[] bx = batch.getFloatArray(SensorBatcher.KEY_X);
+		float[] by = batch.getFloatArray(SensorBatcher.KEY_Y);
+		float[] bz = batch.getFloatArray(SensorBatcher.KEY_Z);
+		for (int i = 0; i < size; i++) {
+			_window.add(timestamps[i], bx[i], by[i], bz[i]);
 		}
-		else
-		{
-            f.calcolaX(x);
-            f.calcolaY(y);
-            f.calcolaZ(z);
-            try {
-				int result = (int) WekaClassifier.classify(f.getFeatures());
-				if(result == 0f)
-				   accClass = "staticoSulTavolo";
-				else if(result == 1)
-				   accClass="staticoInTasca";
-				else if(result == 2)
-				   accClass="camminando";
-				else if(result == 3)
-				   accClass = "correndo";
-				x.removeAll(x);
-				y.removeAll(y);
-				z.removeAll(z);
-			} catch (Exception e) {
+		batch.release();
+	}
+
+	public void onWindow(SampleWindow.View window) {
+		FeatureExtractor.extract(window.getChannel(0), window.getChannel(1), window.getChannel(2),
+				window.getOffset(), window.getLength(), features);
+		String accClass = _model.getClassName(_model.vote(features, _votes));
+
+		if ((++count % LIMIT_OUTPUT) == 0) {
+
+			if (_isDump) {
+				ContentValues cv = new ContentValues();
+				cv.put(FLD_TIMESTAMP, System.currentTimeMillis());
+				cv.put(FLD_VALUE, accClass);
+				getContext().getDbAdapter().storeData(TBL_ACCELEROMETER_CLASSIFIER, cv, true);
 			}
-            
-            
-            if((++count % LIMIT_OUTPUT) == 0){
-            	
-	        	if (_isDump) {
-					ContentValues cv = new ContentValues();
-					cv.put(FLD_TIMESTAMP, System.currentTimeMillis());
-					cv.put(FLD_VALUE, accClass);
-					getContext().getDbAdapter().storeData(TBL_ACCELEROMETER_CLASSIFIER, cv, true);
-				}
-	
-	        	if (_isSend) {
-	            Intent i = new Intent();
-	            i.setAction(KEY_ACTION);
-	            i.putExtra(KEY_VALUE, accClass);
-	            getContext().sendBroadcast(i);
-	        	}
-	        
-	            Log.i(TAG, "Result " + accClass);
-	            
-	            count = 1;
-            }
+
+			if (_isSend) {
+				Intent i = new Intent();
+				i.setAction(KEY_ACTION);
+				i.putExtra(KEY_VALUE, accClass);
+				getContext().sendBroadcast(i);
+			}
+
+			Log.i(TAG, "Result " + accClass);
+
+			count = 1;
 		}
 	}
 
@@ -15,7 +15,6 @@
  */
 package org.most.pipeline;
 
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -25,7 +24,7 @@ import org.most.input.GoogleActivityRecognitionInput;
 import org.most.input.Input;
 import org.most.input.InputAccelerometer;
 import org.most.persistence.DBAdapter;
-import org.most.weka.Features;
+import org.most.weka.FeatureExtractor;
 import org.most.weka.WekaClassifier;
 
 import android.content.ContentValues;
@@ -33,7 +32,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-public class PipelineActivityRecognitionCompare extends Pipeline {
+public class PipelineActivityRecognitionCompare extends Pipeline implements SampleWindow.Listener {
 
 	public static final String PREF_KEY_DUMP_TO_DB = "PipelineActivityRecognitionCompare.DumpToDB";
 	public static final boolean PREF_DEFAULT_DUMP_TO_DB = true;
@@ -73,17 +72,20 @@ public class PipelineActivityRecognitionCompare extends Pipeline {
 			.format("_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s TEXT NOT NULL",
 					FLD_TIMESTAMP, FLD_USER_ACTIVITY, FLD_G_TIMESTAMP, FLD_G_RECOGNIZED_ACTIVITY, FLD_G_CONFIDENCE, FLD_D_TIMESTAMP,
 					FLD_D_VALUE);
+	public static final String[] INDEX_ACTIVITY_RECOGNITION_COMPARE_TABLE = { FLD_TIMESTAMP };
+
+	/** Length of the classified windows, in nanoseconds of sensor time. */
+	private static final long WINDOW_NANOS = 2000000000L;
+	/** Initial capacity of the window, grown as needed. */
+	private static final int INITIAL_WINDOW_SIZE = 128;
 
 	private boolean _isDump;
 	private boolean _isSend;
 	private String _userActivity;
 	private DBAdapter _dbAdapter;
 
-	private ArrayList<Float> x;
-	private ArrayList<Float> y;
-	private ArrayList<Float> z;
-	private Features f;
-	private long startTime;
+	private SampleWindow _window;
+	private final double[] features = new double[FeatureExtractor.FEATURE_COUNT];
 	private long lastGTimestamp;
 	private long lastDTimestamp;
 
@@ -100,10 +102,7 @@ public class PipelineActivityRecognitionCompare extends Pipeline {
 
 	@Override
 	public void onInit() {
-		x = new ArrayList<Float>();
-		y = new ArrayList<Float>();
-		z = new ArrayList<Float>();
-		f = new Features();
+		_window = SampleWindow.timeBased(3, WINDOW_NANOS, WINDOW_NANOS, INITIAL_WINDOW_SIZE, this);
 		super.onInit();
 	}
 
@@ -116,6 +115,7 @@ public class PipelineActivityRecognitionCompare extends Pipeline {
 		_userActivity = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES,
 				Context.MODE_PRIVATE).getString(PREF_KEY_USER_ACTIVITY, PREF_DEFAULT_USER_ACTIVITY);
 		_dbAdapter = getContext().getDbAdapter();
+		_window.clear();
 		Log.e(PipelineActivityRecognitionCompare.class.getSimpleName(), "Activated with " + _userActivity);
 		return super.onActivate();
 	}
@@ -132,36 +132,7 @@ public class PipelineActivityRecognitionCompare extends Pipeline {
 
 			if (b.getInt(KEY_TYPE) == Input.Type.ACCELEROMETER.toInt()) {
 				float[] values = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
-				long currentTime = System.currentTimeMillis();
-
-				if ((x.size() == 0) && (y.size() == 0) && (z.size() == 0)) {
-					startTime = currentTime;
-				}
-				if (currentTime < startTime + 2000) {
-					x.add(values[0]);
-					y.add(values[1]);
-					z.add(values[2]);
-				} else {
-					f.calcolaX(x);
-					f.calcolaY(y);
-					f.calcolaZ(z);
-					try {
-						int result = (int) WekaClassifier.classify(f.getFeatures());
-						if (result == 0f)
-							dActivityRecognition = "staticoSulTavolo";
-						else if (result == 1)
-							dActivityRecognition = "staticoInTasca";
-						else if (result == 2)
-							dActivityRecognition = "camminando";
-						else if (result == 3)
-							dActivityRecognition = "correndo";
-						x.removeAll(x);
-						y.removeAll(y);
-						z.removeAll(z);
-						dTimestamp = System.currentTimeMillis();
-					} catch (Exception e) {
-					}
-				}
+				_window.add(b.getLong(Input.KEY_TIMESTAMP), values[0], values[1], values[2]);
 			}
 
 			if (dTimestamp != 0 && gTimestamp != 0) {
@@ -209,6 +180,13 @@ public class PipelineActivityRecognitionCompare extends Pipeline {
 		}
 	}
 
+	public void onWindow(SampleWindow.View window) {
+		FeatureExtractor.extract(window.getChannel(0), window.getChannel(1), window.getChannel(2),
+				window.getOffset(), window.getLength(), features);
+		dActivityRecognition = WekaClassifier.MODEL.getClassName(WekaClassifier.MODEL.classify(features));
+		dTimestamp = System.currentTimeMillis();
+	}
+
 	@Override
 	public Type getType() {
 		return Type.ACTIVITY_RECOGNITION_COMPARE;
@@ -79,6 +79,7 @@ public class PipelineAppOnScreen extends Pipeline {
 	public static final String CREATE_APP_ON_SCREEN_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s INT NOT NULL, %s TEXT NOT NULL", FLD_STARTTIME, FLD_ENDTIME,
 			FLD_APPNAME);
+	public static final String[] INDEX_APP_ON_SCREEN_TABLE = { FLD_STARTTIME };
 
 	public static final String KEY_ACTION = "PipelineAppOnScreen";
 	public static final String KEY_APPNAME = "PipelineAppOnScreen.AppName";
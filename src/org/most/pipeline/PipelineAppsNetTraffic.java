@@ -53,6 +53,7 @@ public class PipelineAppsNetTraffic extends Pipeline {
 	public static final String CREATE_APPS_NET_TRAFFIC_TABLE = String
 			.format("_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 					FLD_TIMESTAMP, FLD_APP_NAME, FLD_TX_BYTES, FLD_RX_BYTES);
+	public static final String[] INDEX_APPS_NET_TRAFFIC_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _isDump;
 	private boolean _isSend;
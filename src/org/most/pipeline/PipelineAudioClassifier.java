@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.most.DataBundle;
+import org.most.MoSTApplication;
+import org.most.audio.AudioClassifier;
+import org.most.audio.AudioFeatureExtractor;
+import org.most.input.Input;
+import org.most.input.InputAudio;
+import org.most.weka.DecisionTreeModel;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Classifies the microphone audio as silence, speech, music or noise. The 16
+ * bit PCM buffers of {@link InputAudio} are split in half-overlapping frames
+ * of about 25 ms (see {@link AudioFeatureExtractor}), and the frames of each
+ * segment of {@link #PREF_KEY_SEGMENT_MILLIS} milliseconds are classified by
+ * an {@link AudioClassifier}. When the class changes, it is stored in
+ * {@link #TBL_AUDIO_CLASSIFIER} and sent in an Intent with action
+ * {@link #KEY_ACTION}, as configured.
+ *
+ */
+public class PipelineAudioClassifier extends Pipeline implements AudioFeatureExtractor.FrameListener {
+
+	private static final String TAG = PipelineAudioClassifier.class.getSimpleName();
+
+	public static final String KEY_ACTION = "PipelineAudioClassifier";
+	public static final String KEY_VALUE = "PipelineAudioClassifier.value";
+
+	public static final String PREF_KEY_DUMP_TO_DB = "PipelineAudioClassifier.DumpToDB";
+	public static final boolean PREF_DEFAULT_DUMP_TO_DB = true;
+	public static final String PREF_KEY_SEND_INTENT = "PipelineAudioClassifier.SendIntent";
+	public static final boolean PREF_DEFAULT_SEND_INTENT = false;
+	public static final String PREF_KEY_SEGMENT_MILLIS = "PipelineAudioClassifier.SegmentMillis";
+	public static final int PREF_DEFAULT_SEGMENT_MILLIS = 1000;
+	/**
+	 * The {@link DecisionTreeModel} used to classify the segments: an absolute
+	 * file path, or the name of an asset. If empty, or if the model cannot be
+	 * loaded, {@link AudioClassifier#getDefaultModel()} is used.
+	 */
+	public static final String PREF_KEY_MODEL_PATH = "PipelineAudioClassifier.ModelPath";
+	public static final String PREF_DEFAULT_MODEL_PATH = "";
+
+	public static final String TBL_AUDIO_CLASSIFIER = "AUDIO_CLASSIFIER";
+	public static final String FLD_TIMESTAMP = "timestamp";
+	public static final String FLD_VALUE = "value";
+
+	public static final String CREATE_AUDIO_CLASSIFIER_TABLE = String.format(
+			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NULL", FLD_TIMESTAMP, FLD_VALUE);
+	public static final String[] INDEX_AUDIO_CLASSIFIER_TABLE = { FLD_TIMESTAMP };
+
+	private boolean _isDump;
+	private boolean _isSend;
+	private AudioFeatureExtractor _extractor;
+	private AudioClassifier _classifier;
+	private int _lastClass;
+
+	public PipelineAudioClassifier(MoSTApplication context) {
+		super(context);
+	}
+
+	@Override
+	public boolean onActivate() {
+		checkNewState(State.ACTIVATED);
+		SharedPreferences sp = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE);
+		_isDump = sp.getBoolean(PREF_KEY_DUMP_TO_DB, PREF_DEFAULT_DUMP_TO_DB);
+		_isSend = sp.getBoolean(PREF_KEY_SEND_INTENT, PREF_DEFAULT_SEND_INTENT);
+		int segmentMillis = Math.max(1, sp.getInt(PREF_KEY_SEGMENT_MILLIS, PREF_DEFAULT_SEGMENT_MILLIS));
+		int sampleRate = getContext().getSharedPreferences(MoSTApplication.PREF_INPUT, Context.MODE_PRIVATE).getInt(
+				InputAudio.PREF_KEY_SAMPLE_RATE, InputAudio.PREF_DEFAULT_SAMPLE_RATE);
+
+		if (_extractor == null || _extractor.getSampleRate() != sampleRate) {
+			int frameSize = AudioFeatureExtractor.getDefaultFrameSize(sampleRate);
+			_extractor = new AudioFeatureExtractor(sampleRate, frameSize, frameSize / 2);
+		} else {
+			_extractor.reset();
+		}
+		int frames = (int) Math.max(1, (long) sampleRate * segmentMillis / 1000 / _extractor.getHopSize());
+		_classifier = new AudioClassifier(loadModel(sp.getString(PREF_KEY_MODEL_PATH, PREF_DEFAULT_MODEL_PATH)),
+				frames);
+		_lastClass = -1;
+		return super.onActivate();
+	}
+
+	private DecisionTreeModel loadModel(String path) {
+		if (path.length() == 0) {
+			return AudioClassifier.getDefaultModel();
+		}
+		try {
+			DecisionTreeModel model = DecisionTreeModel.load(getContext(), path);
+			if (model.getFeatureCount() > AudioClassifier.SEGMENT_FEATURE_COUNT) {
+				throw new IOException("The model reads " + model.getFeatureCount() + " features");
+			}
+			Log.i(TAG, "Loaded model " + path + " with " + model.getTreeCount() + " trees");
+			return model;
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to load model " + path + ", using the default one", e);
+			return AudioClassifier.getDefaultModel();
+		}
+	}
+
+	public void onData(DataBundle b) {
+		try {
+			int size = b.getInt(InputAudio.KEY_AUDIODATA_LENGTH);
+			if (size > 0) {
+				_extractor.process(b.getShortArray(InputAudio.KEY_AUDIODATA), 0, size, this);
+			}
+		} finally {
+			b.release();
+		}
+	}
+
+	public void onFrame(double[] features) {
+		int result = _classifier.addFrame(features);
+		if (result < 0 || result == _lastClass) {
+			return;
+		}
+		_lastClass = result;
+		String audioClass = _classifier.getClassName(result);
+
+		if (_isDump) {
+			ContentValues cv = new ContentValues();
+			cv.put(FLD_TIMESTAMP, System.currentTimeMillis());
+			cv.put(FLD_VALUE, audioClass);
+			getContext().getDbAdapter().storeData(TBL_AUDIO_CLASSIFIER, cv, true);
+		}
+
+		if (_isSend) {
+			Intent i = new Intent();
+			i.setAction(KEY_ACTION);
+			i.putExtra(KEY_VALUE, audioClass);
+			getContext().sendBroadcast(i);
+		}
+
+		Log.i(TAG, "Result " + audioClass);
+	}
+
+	@Override
+	public Set<Input.Type> getInputs() {
+		Set<Input.Type> result = new HashSet<Input.Type>();
+		result.add(Input.Type.AUDIO);
+		return result;
+	}
+
+	@Override
+	public Type getType() {
+		return Type.AUDIO_CLASSIFIER;
+	}
+}
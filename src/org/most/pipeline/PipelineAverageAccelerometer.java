@@ -22,65 +22,117 @@ import org.most.DataBundle;
 import org.most.MoSTApplication;
 import org.most.input.Input;
 import org.most.input.InputAccelerometer;
-import org.most.utils.LimitedLinkedList;
+import org.most.input.SensorBatcher;
 
-import android.util.Log;
+import android.content.Context;
+import android.content.SharedPreferences;
 
+/**
+ * Computes mean, variance, minimum and maximum of the accelerations over a
+ * sliding window of {@link #PREF_KEY_WINDOW_SIZE} samples, and posts them on
+ * the {@link PipelineBus} every {@link #PREF_KEY_WINDOW_SLIDE} samples. Before
+ * the window is full, the statistics cover the samples received so far. The
+ * posted {@link DataBundle}s contain:
+ * <ul>
+ * <li>{@link Pipeline#KEY_TIMESTAMP} (long): the timestamp of the newest
+ * sample, in nanoseconds;</li>
+ * <li>{@link #KEY_SAMPLES} (int): the number of samples in the window;</li>
+ * <li>{@link #KEY_MEAN}, {@link #KEY_VARIANCE}, {@link #KEY_MIN},
+ * {@link #KEY_MAX} (double[3]): the statistics over X, Y and Z.</li>
+ * </ul>
+ *
+ * Statistics are updated incrementally as samples arrive (see
+ * {@link SlidingStatistics}), thus each sample costs constant time regardless
+ * of the window size.
+ *
+ */
 public class PipelineAverageAccelerometer extends Pipeline {
 
-	private LimitedLinkedList<Float> _x;
-	private LimitedLinkedList<Float> _y;
-	private LimitedLinkedList<Float> _z;
-	private static final int WINDOW_SIZE = 200;
-	private static final int WINDOW_SLIDE = 100;
-	private int counter;
-	
+	public static final String KEY_SAMPLES = "PipelineAverageAccelerometer.Samples";
+	public static final String KEY_MEAN = "PipelineAverageAccelerometer.Mean";
+	public static final String KEY_VARIANCE = "PipelineAverageAccelerometer.Variance";
+	public static final String KEY_MIN = "PipelineAverageAccelerometer.Min";
+	public static final String KEY_MAX = "PipelineAverageAccelerometer.Max";
+
+	public static final String PREF_KEY_WINDOW_SIZE = "PipelineAverageAccelerometer.WindowSize";
+	public static final int PREF_DEFAULT_WINDOW_SIZE = 200;
+	public static final String PREF_KEY_WINDOW_SLIDE = "PipelineAverageAccelerometer.WindowSlide";
+	public static final int PREF_DEFAULT_WINDOW_SLIDE = 100;
+
+	private SlidingStatistics _statistics;
+	private int _slide;
+	private int _counter;
+
 	public PipelineAverageAccelerometer(MoSTApplication context) {
 		super(context);
 	}
-	
+
 	@Override
 	public boolean onActivate() {
-		_x = new LimitedLinkedList<Float>(WINDOW_SIZE);
-		_y = new LimitedLinkedList<Float>(WINDOW_SIZE);
-		_z = new LimitedLinkedList<Float>(WINDOW_SIZE);
-		counter = WINDOW_SLIDE;
+		SharedPreferences sp = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE);
+		int size = Math.max(1, sp.getInt(PREF_KEY_WINDOW_SIZE, PREF_DEFAULT_WINDOW_SIZE));
+		_slide = Math.max(1, sp.getInt(PREF_KEY_WINDOW_SLIDE, PREF_DEFAULT_WINDOW_SLIDE));
+		if (_statistics == null || _statistics.getSize() != size) {
+			_statistics = new SlidingStatistics(3, size);
+		}
+		_counter = _slide;
 		return super.onActivate();
 	}
-	
+
 	@Override
 	public void onDeactivate() {
 		super.onDeactivate();
-		_x.clear();
-		_y.clear();
-		_z.clear();
+		_statistics.clear();
 	}
 
 	public void onData(DataBundle b) {
 		float[] data = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
-		_x.add(data[0]);
-		_y.add(data[1]);
-		_z.add(data[2]);
-		counter--;
-		if (counter == 0) {
-			counter = WINDOW_SLIDE;
-			int listSize = _x.size();
-			float avgx = 0;
-			float avgy = 0;
-			float avgz = 0;
-			for (int i = 0; i < listSize; i++) {
-				avgx += _x.get(i);
-				avgy += _y.get(i);
-				avgz += _z.get(i);
-			}
-			avgx = avgx / listSize;
-			avgy = avgy / listSize;
-			avgz = avgz / listSize;
-			Log.d("AvgAccel", String.format("x = %f ; y = %f; z = %f", avgx, avgy, avgz));
-		}
+		addSample(b.getLong(Input.KEY_TIMESTAMP), data[0], data[1], data[2]);
 		b.release();
 	}
-	
+
+	@Override
+	protected void onSampleBatch(DataBundle batch) {
+		int size = SensorBatcher.getBatchSize(batch);
+		long[] timestamps = batch.getLongArray(SensorBatcher.KEY_TIMESTAMPS);
+		float[] bx = batch.getFloatArray(SensorBatcher.KEY_X);
+		float[] by = batch.getFloatArray(SensorBatcher.KEY_Y);
+		float[] bz = batch.getFloatArray(SensorBatcher.KEY_Z);
+		for (int i = 0; i < size; i++) {
+			addSample(timestamps[i], bx[i], by[i], bz[i]);
+		}
+		batch.release();
+	}
+
+	private void addSample(long timestamp, float x, float y, float z) {
+		_statistics.add(x, y, z);
+		_counter--;
+		if (_counter == 0) {
+			_counter = _slide;
+			publish(timestamp);
+		}
+	}
+
+	private void publish(long timestamp) {
+		if (getContext().getPipelineBus().getBus(getType()).getListenerCount() == 0) {
+			return;
+		}
+		DataBundle b = getContext().getDataBundlePool().borrowBundle();
+		b.putLong(KEY_TIMESTAMP, timestamp);
+		b.putInt(KEY_SAMPLES, _statistics.getCount());
+		double[] mean = b.allocateDoubleArray(KEY_MEAN, 3);
+		double[] variance = b.allocateDoubleArray(KEY_VARIANCE, 3);
+		double[] min = b.allocateDoubleArray(KEY_MIN, 3);
+		double[] max = b.allocateDoubleArray(KEY_MAX, 3);
+		for (int c = 0; c < 3; c++) {
+			mean[c] = _statistics.getMean(c);
+			variance[c] = _statistics.getVariance(c);
+			min[c] = _statistics.getMin(c);
+			max[c] = _statistics.getMax(c);
+		}
+		post(b);
+	}
+
 	@Override
 	public Pipeline.Type getType() {
 		return Type.AVERAGE_ACCELEROMETER;
@@ -94,6 +94,7 @@ public class PipelineBattery extends Pipeline {
 			.format("_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 					FLD_TIMESTAMP, FLD_BATTERY_LEVEL, FLD_BATTERY_SCALE, FLD_BATTERY_TEMPERATURE, FLD_BATTERY_VOLTAGE,
 					FLD_BATTERY_PLUGGED, FLD_BATTERY_STATUS, FLD_BATTERY_HEALTH);
+	public static final String[] INDEX_BATTERY_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -65,6 +65,7 @@ public class PipelineBluetooth extends Pipeline {
 	public final static String CREATE_BLUETOOTH_TABLE = String
 			.format("_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 					FLD_TIMESTAMP, FLD_MAC, FLD_NAME, FLD_DEVICECLASS, FLD_DEVICEMAJORCLASS);
+	public final static String[] INDEX_BLUETOOTH_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
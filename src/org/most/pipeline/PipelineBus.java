@@ -15,38 +15,38 @@
  */
 package org.most.pipeline;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
 import org.most.DataBundle;
 
 /**
  * Bus that dispatches data from {@link Pipeline} to users.
  * 
+ * As in {@link org.most.input.InputBus}, listeners are kept in an immutable
+ * array that is replaced on every subscription change, so that dispatching
+ * never locks.
+ * 
  */
 public class PipelineBus {
 
-	protected Map<Pipeline.Type, SinglePipelineBus> _buses;
+	/** Single buses, indexed by {@link Pipeline.Type#ordinal()}. */
+	protected final SinglePipelineBus[] _buses;
 
 	public PipelineBus() {
-		_buses = new HashMap<Pipeline.Type, SinglePipelineBus>();
+		_buses = new SinglePipelineBus[Pipeline.Type.values().length];
 		for (Pipeline.Type type : Pipeline.Type.values()) {
-			_buses.put(type, new SinglePipelineBus());
+			_buses[type.ordinal()] = new SinglePipelineBus();
 		}
 	}
 
 	public void addListener(Pipeline.Type inputType, Listener listener) {
-		_buses.get(inputType).addListener(listener);
+		_buses[inputType.ordinal()].addListener(listener);
 	}
 
 	public void removeListener(Pipeline.Type inputType, Listener listener) {
-		_buses.get(inputType).removeListener(listener);
+		_buses[inputType.ordinal()].removeListener(listener);
 	}
 
 	public SinglePipelineBus getBus(Pipeline.Type inputType) {
-		return _buses.get(inputType);
+		return _buses[inputType.ordinal()];
 	}
 
 	public interface Listener {
@@ -56,32 +56,66 @@ public class PipelineBus {
 
 	public static class SinglePipelineBus {
 
-		private Collection<Listener> _listeners;
-		private int _listenerCount;
+		private static final Listener[] NO_LISTENERS = new Listener[0];
+
+		/**
+		 * Snapshot of the listeners. It is never modified, only replaced
+		 * while holding the monitor of this bus.
+		 */
+		private volatile Listener[] _listeners;
 
 		public SinglePipelineBus() {
-			_listeners = new ArrayList<PipelineBus.Listener>();
+			_listeners = NO_LISTENERS;
+		}
+
+		public int getListenerCount() {
+			return _listeners.length;
 		}
 
 		public synchronized void addListener(Listener listener) {
-			if (!_listeners.contains(listener)) {
-				_listeners.add(listener);
-				_listenerCount++;
+			if (listener == null || indexOf(_listeners, listener) >= 0) {
+				return;
 			}
+			Listener[] listeners = new Listener[_listeners.length + 1];
+			System.arraycopy(_listeners, 0, listeners, 0, _listeners.length);
+			listeners[_listeners.length] = listener;
+			_listeners = listeners;
 		}
 
 		public synchronized void removeListener(Listener listener) {
-			if (_listeners.contains(listener)) {
-				_listeners.add(listener);
-				_listenerCount--;
+			int index = indexOf(_listeners, listener);
+			if (index < 0) {
+				return;
 			}
+			if (_listeners.length == 1) {
+				_listeners = NO_LISTENERS;
+				return;
+			}
+			Listener[] listeners = new Listener[_listeners.length - 1];
+			System.arraycopy(_listeners, 0, listeners, 0, index);
+			System.arraycopy(_listeners, index + 1, listeners, index, listeners.length - index);
+			_listeners = listeners;
 		}
 
-		public synchronized void post(DataBundle b) {
-			b.setRefCount(_listenerCount);
-			for (Listener listener : _listeners) {
+		public void post(DataBundle b) {
+			Listener[] listeners = _listeners;
+			if (listeners.length == 0) {
+				b.release();
+				return;
+			}
+			b.setRefCount(listeners.length);
+			for (Listener listener : listeners) {
 				listener.onData(b);
 			}
 		}
+
+		private static int indexOf(Listener[] listeners, Listener listener) {
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					return i;
+				}
+			}
+			return -1;
+		}
 	}
 }
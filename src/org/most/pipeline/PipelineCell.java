@@ -61,6 +61,7 @@ public class PipelineCell extends Pipeline {
 	public static final String CREATE_CELL_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 			FLD_TIMESTAMP, FLD_PHONE_TYPE, FLD_GSM_CELL_ID, FLD_GSM_LAC, FLD_BASE_STATION_ID, FLD_BASE_STATION_LATITUDE, FLD_BASE_STATION_LONGITUDE, FLD_BASE_NETWORK_ID, FLD_BASE_SYSTEM_ID);
+	public static final String[] INDEX_CELL_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -49,6 +49,7 @@ public class PipelineConnectionType extends Pipeline {
 	public static final String CREATE_CONNECTION_TYPE_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s TEXT NOT NULL",
 			FLD_TIMESTAMP, FLD_TYPE, FLD_MOBILE_NETWORK_TYPE);
+	public static final String[] INDEX_CONNECTION_TYPE_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _isDump;
 	private boolean _isSend;
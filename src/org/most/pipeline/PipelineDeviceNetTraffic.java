@@ -49,6 +49,7 @@ public class PipelineDeviceNetTraffic extends Pipeline {
 	public static final String CREATE_DEVICE_NET_TRAFFIC_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 			FLD_TIMESTAMP, FLD_TX_BYTES, FLD_RX_BYTES);
+	public static final String[] INDEX_DEVICE_NET_TRAFFIC_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _isDump;
 	private boolean _isSend;
@@ -49,6 +49,7 @@ public class PipelineGoogleActivityRecognition extends Pipeline {
 	public static final String CREATE_GOOGLE_ACTIVITY_RECOGNITION_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL",
 			FLD_TIMESTAMP, FLD_RECOGNIZED_ACTIVITY, FLD_CONFIDENCE);
+	public static final String[] INDEX_GOOGLE_ACTIVITY_RECOGNITION_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _isDump;
 	private boolean _isSend;
@@ -15,13 +15,20 @@
  */
 package org.most.pipeline;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.most.DataBundle;
+import org.most.DataBundleSchema;
 import org.most.MoSTApplication;
 import org.most.input.GyroscopeInput;
 import org.most.input.Input;
+import org.most.input.SensorBatcher;
+import org.most.persistence.ColumnBuffer;
+import org.most.persistence.DBAdapter;
+import org.most.persistence.TimeSeriesStore;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -39,6 +46,8 @@ public class PipelineGyroscope extends Pipeline {
 	public static final boolean PREF_DEFAULT_DUMP_TO_DB = true;
 	public static final String PREF_KEY_SEND_INTENT = "PipelineGyroscope.SendIntent";
 	public static final boolean PREF_DEFAULT_SEND_INTENT = false;
+	/** Default batch size of the database writes. */
+	public static final int DEFAULT_DB_BATCH_SIZE = 64;
 
 	public static final String KEY_ACTION = "PipelineGyroscope";
 	
@@ -54,9 +63,15 @@ public class PipelineGyroscope extends Pipeline {
 	public static final String CREATE_GYROSCOPE_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s REAL NOT NULL, %s REAL NOT NULL, %s INT NOT NULL",
 			FLD_TIMESTAMP, FLD_ROTATION_X, FLD_ROTATION_Y, FLD_ROTATION_Z);
+	public static final String[] INDEX_GYROSCOPE_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
+	private ColumnBuffer _columns;
+	private final long[] _longs = new long[1];
+	private final double[] _doubles = new double[3];
+	private TimeSeriesStore _timeSeries;
+	private final float[] _floats = new float[3];
 
 	public PipelineGyroscope(MoSTApplication context) {
 		super(context);
@@ -69,32 +84,115 @@ public class PipelineGyroscope extends Pipeline {
 				PREF_KEY_DUMP_TO_DB, PREF_DEFAULT_DUMP_TO_DB);
 		_isSend = getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getBoolean(
 				PREF_KEY_SEND_INTENT, PREF_DEFAULT_SEND_INTENT);
+		if (_isDump) {
+			if (getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getBoolean(
+					getType().name() + PREF_KEY_TIME_SERIES_SUFFIX, false)) {
+				_timeSeries = getContext().getDbAdapter().getTimeSeriesStore(TBL_GYROSCOPE, 3);
+			} else {
+				_columns = getContext().getDbAdapter().getColumnBuffer(TBL_GYROSCOPE, new String[] { FLD_TIMESTAMP },
+						new String[] { FLD_ROTATION_X, FLD_ROTATION_Y, FLD_ROTATION_Z }, DBAdapter.DEFAULT_COLUMN_BUFFER_ROWS);
+			}
+		}
 		return super.onActivate();
 	}
 
 	public void onData(DataBundle b) {
 		try {
-			if (_isDump) {
-				ContentValues cv = new ContentValues();
-				cv.put(FLD_TIMESTAMP, b.getLong(Input.KEY_TIMESTAMP));
-				cv.put(FLD_ROTATION_X, b.getFloat(GyroscopeInput.KEY_ROTATION_X));
-				cv.put(FLD_ROTATION_Y, b.getFloat(GyroscopeInput.KEY_ROTATION_Y));
-				cv.put(FLD_ROTATION_Z, b.getFloat(GyroscopeInput.KEY_ROTATION_Z));
-				getContext().getDbAdapter().storeData(TBL_GYROSCOPE, cv);
-			}
-			if (_isSend) {
-				Intent i = new Intent(KEY_ACTION);
-				i.putExtra(KEY_TIMESTAMP, b.getLong(Input.KEY_TIMESTAMP));
-				i.putExtra(KEY_ROTATION_X, b.getFloat(GyroscopeInput.KEY_ROTATION_X));
-				i.putExtra(KEY_ROTATION_Y, b.getFloat(GyroscopeInput.KEY_ROTATION_Y));
-				i.putExtra(KEY_ROTATION_Z, b.getFloat(GyroscopeInput.KEY_ROTATION_Z));
-				getContext().sendBroadcast(i);
-			}
+			process(b.getLong(DataBundleSchema.SLOT_TIMESTAMP), b.getFloat(GyroscopeInput.SLOT_ROTATION_X),
+					b.getFloat(GyroscopeInput.SLOT_ROTATION_Y), b.getFloat(GyroscopeInput.SLOT_ROTATION_Z), null);
 		} finally {
 			b.release();
 		}
 	}
 
+	@Override
+	protected void onDataBatch(List<DataBundle> batch) {
+		List<ContentValues> rows = _isDump && _columns == null && _timeSeries == null ? new ArrayList<ContentValues>(
+				batch.size()) : null;
+		for (int i = 0; i < batch.size(); i++) {
+			DataBundle b = batch.get(i);
+			try {
+				if (SensorBatcher.isBatch(b)) {
+					int size = SensorBatcher.getBatchSize(b);
+					long[] timestamps = b.getLongArray(SensorBatcher.KEY_TIMESTAMPS);
+					float[] x = b.getFloatArray(SensorBatcher.KEY_X);
+					float[] y = b.getFloatArray(SensorBatcher.KEY_Y);
+					float[] z = b.getFloatArray(SensorBatcher.KEY_Z);
+					for (int j = 0; j < size; j++) {
+						process(timestamps[j], x[j], y[j], z[j], rows);
+					}
+				} else {
+					process(b.getLong(DataBundleSchema.SLOT_TIMESTAMP), b.getFloat(GyroscopeInput.SLOT_ROTATION_X),
+							b.getFloat(GyroscopeInput.SLOT_ROTATION_Y), b.getFloat(GyroscopeInput.SLOT_ROTATION_Z), rows);
+				}
+			} finally {
+				b.release();
+			}
+		}
+		if (rows != null && !rows.isEmpty()) {
+			getContext().getDbAdapter().storeData(TBL_GYROSCOPE, rows);
+		}
+	}
+
+	@Override
+	protected int getBatchSize() {
+		return getContext().getSharedPreferences(MoSTApplication.PREF_PIPELINES, Context.MODE_PRIVATE).getInt(
+				getType().name() + PREF_KEY_BATCH_SIZE_SUFFIX, DEFAULT_DB_BATCH_SIZE);
+	}
+
+	/**
+	 * Dumps and/or broadcasts a sample.
+	 * 
+	 * @param rows
+	 *            If not <code>null</code>, the row to dump is added to this
+	 *            list instead of being stored right away. Ignored when the
+	 *            samples go to a {@link TimeSeriesStore} or the table is
+	 *            cached in a {@link ColumnBuffer}.
+	 */
+	private void process(long timestamp, float x, float y, float z, List<ContentValues> rows) {
+		if (_isDump && _timeSeries != null) {
+			_floats[0] = x;
+			_floats[1] = y;
+			_floats[2] = z;
+			_timeSeries.append(timestamp, _floats);
+		} else if (_isDump && _columns != null) {
+			_longs[0] = timestamp;
+			_doubles[0] = x;
+			_doubles[1] = y;
+			_doubles[2] = z;
+			_columns.store(_longs, _doubles);
+		} else if (_isDump) {
+			ContentValues cv = new ContentValues();
+			cv.put(FLD_TIMESTAMP, timestamp);
+			cv.put(FLD_ROTATION_X, x);
+			cv.put(FLD_ROTATION_Y, y);
+			cv.put(FLD_ROTATION_Z, z);
+			if (rows != null) {
+				rows.add(cv);
+			} else {
+				getContext().getDbAdapter().storeData(TBL_GYROSCOPE, cv);
+			}
+		}
+		if (_isSend) {
+			Intent i = new Intent(KEY_ACTION);
+			i.putExtra(KEY_TIMESTAMP, timestamp);
+			i.putExtra(KEY_ROTATION_X, x);
+			i.putExtra(KEY_ROTATION_Y, y);
+			i.putExtra(KEY_ROTATION_Z, z);
+			getContext().sendBroadcast(i);
+		}
+	}
+
+	@Override
+	public void onDeactivate() {
+		super.onDeactivate();
+		// seals the last block, so that it is indexed
+		if (_timeSeries != null) {
+			_timeSeries.flush();
+			_timeSeries = null;
+		}
+	}
+
 	@Override
 	public Type getType() {
 		return Type.GYROSCOPE;
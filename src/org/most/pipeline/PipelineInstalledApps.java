@@ -52,6 +52,7 @@ public class PipelineInstalledApps extends Pipeline {
 	public static final String CREATE_INSTALLED_APPS_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s INT, %s TEXT, %s TEXT", FLD_TIMESTAMP,
 			FLD_PACKAGE_NAME, FLD_VERSION_CODE, FLD_VERSION_NAME, FLD_REQ_PERMISSIONS);
+	public static final String[] INDEX_INSTALLED_APPS_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
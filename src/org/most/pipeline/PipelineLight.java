@@ -44,6 +44,7 @@ public class PipelineLight extends Pipeline {
 
 	public static final String CREATE_LIGHT_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s REAL NOT NULL", FLD_TIMESTAMP, FLD_VALUE);
+	public static final String[] INDEX_LIGHT_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -51,6 +51,7 @@ public class PipelineLocation extends Pipeline {
 	public static final String CREATE_LOCATION_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s REAL NOT NULL, %s REAL NOT NULL, %s REAL, %s TEXT",
 			FLD_TIMESTAMP, FLD_LATITUDE, FLD_LONGITUDE, FLD_ACCURACY, FLD_PROVIDER);
+	public static final String[] INDEX_LOCATION_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
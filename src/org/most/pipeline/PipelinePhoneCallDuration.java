@@ -50,6 +50,7 @@ public class PipelinePhoneCallDuration extends Pipeline {
 	public static final String CREATE_PHONE_CALL_DURATION_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s INT NOT NULL, %s INT NOT NULL, %s BOOLEAN NOT NULL, %s TEXT",
 			FLD_TIMESTAMP, FLD_CALL_START, FLD_CALL_END, FLD_IS_INCOMING, FLD_PHONE_NUMBER);
+	public static final String[] INDEX_PHONE_CALL_DURATION_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -48,6 +48,7 @@ public class PipelinePhoneCallEvent extends Pipeline {
 	public static final String CREATE_PHONE_CALL_EVENT_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s BOOLEAN NOT NULL, %s BOOLEAN NOT NULL, %s TEXT",
 			FLD_TIMESTAMP, FLD_IS_START, FLD_IS_INCOMING, FLD_PHONE_NUMBER);
+	public static final String[] INDEX_PHONE_CALL_EVENT_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
@@ -15,9 +15,16 @@
  */
 package org.most.pipeline;
 
-import java.util.Iterator;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.most.DataBundle;
 import org.most.input.InputBus.Listener;
@@ -25,61 +32,484 @@ import org.most.input.InputBus.Listener;
 import android.util.Log;
 
 /**
- * An optionally bounded buffering queue associated to a {@link Pipeline}. It
- * receives data with the {@link #onData(DataBundle)} method and forwards by
- * calling {@link Pipeline#onData(DataBundle)}. The {@link #onData(DataBundle)}
- * method never blocks. If the queue is bounded and full, incoming
- * {@link DataBundle} will be dropped.
- * 
+ * A bounded buffering queue associated to a {@link Pipeline}. It receives data
+ * with the {@link #onData(DataBundle)} method and forwards by calling
+ * {@link Pipeline#onData(DataBundle)}. What happens when the queue is full
+ * depends on its {@link OverflowPolicy}: by default the incoming
+ * {@link DataBundle} is dropped, and {@link #onData(DataBundle)} blocks only
+ * under {@link OverflowPolicy#BLOCK}. Drops are counted (see
+ * {@link #getDroppedCount()}) rather than logged one by one.
+ *
+ * The queue is a preallocated ring buffer: each slot carries a sequence number
+ * that tells producers and the consumer whether the slot is free or full, so
+ * that no node is allocated and no lock is taken on the data path. Unless the
+ * pipeline subscribes to more than one Input, the ring has a single producer;
+ * with several producers the write position is claimed with a compare-and-set.
+ * The read position is always claimed with a compare-and-set, since producers
+ * also read from the ring when the overflow policy discards queued bundles.
+ *
+ * The consumer is either a {@link PipelineScheduler} worker (see
+ * {@link #attach(PipelineScheduler, int, boolean)}) or, for pipelines that need a
+ * dedicated thread, a thread running this queue. In the latter case, how the
+ * thread waits for data is selected with {@link WaitStrategy}, via the
+ * {@link android.content.SharedPreferences}
+ * {@link org.most.MoSTApplication#PREF_PIPELINES} key
+ * <code>&lt;Pipeline.Type&gt;.WaitStrategy</code> (see
+ * {@link #PREF_KEY_WAIT_STRATEGY_SUFFIX}).
+ *
  * @author acirri
  * @author gcardone
- * 
+ *
  */
 public class PipelineQueue implements Runnable, Listener {
 
 	private static final String TAG = PipelineQueue.class.getSimpleName();
 
 	/**
-	 * Buffer queue.
+	 * Ways the pipeline thread can wait for data.
 	 */
-	private LinkedBlockingQueue<DataBundle> _queue;
+	public static enum WaitStrategy {
+		/**
+		 * Sleep on a condition, signalled by producers. Lowest CPU usage, the
+		 * default.
+		 */
+		BLOCKING,
+		/**
+		 * Spin briefly, then park for increasing intervals up to
+		 * {@link PipelineQueue#MAX_PARK_NANOS}. Producers never signal.
+		 */
+		PARK_BACKOFF,
+		/**
+		 * Spin briefly, then yield the CPU. Lowest latency, highest CPU usage.
+		 */
+		YIELDING
+	}
+
+	/**
+	 * What to do with incoming bundles when the consumer falls behind.
+	 */
+	public static enum OverflowPolicy {
+		/** When the queue is full, discard the incoming bundle. The default. */
+		DROP_NEWEST,
+		/** When the queue is full, discard the oldest queued bundle. */
+		DROP_OLDEST,
+		/**
+		 * Keep only the most recent bundle: queued bundles that have not been
+		 * delivered yet are replaced by the incoming one.
+		 */
+		KEEP_LATEST,
+		/**
+		 * When the queue is at least half full, accept only one incoming
+		 * bundle every <code>DecimationFactor</code>.
+		 */
+		DECIMATE,
+		/**
+		 * When the queue is full, make the posting Input wait up to
+		 * <code>BlockTimeout</code> milliseconds for room, then discard the
+		 * incoming bundle.
+		 */
+		BLOCK
+	}
+
+	/**
+	 * Suffixes of the {@link android.content.SharedPreferences} keys of the
+	 * {@link OverflowPolicy} and of its parameters. The full key is the name of
+	 * the {@link Pipeline.Type} followed by the suffix, e.g.
+	 * <code>ACCELEROMETER.OverflowPolicy</code>. The value of the policy is the
+	 * name of an {@link OverflowPolicy}.
+	 */
+	public static final String PREF_KEY_OVERFLOW_POLICY_SUFFIX = ".OverflowPolicy";
+	public static final String PREF_KEY_DECIMATION_FACTOR_SUFFIX = ".DecimationFactor";
+	public static final String PREF_KEY_BLOCK_TIMEOUT_SUFFIX = ".BlockTimeout";
+
+	public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+	public static final int DEFAULT_DECIMATION_FACTOR = 4;
+	public static final int DEFAULT_BLOCK_TIMEOUT = 50;
+
+	/**
+	 * Suffix of the {@link android.content.SharedPreferences} key of the
+	 * {@link WaitStrategy}. The full key is the name of the
+	 * {@link Pipeline.Type} followed by this suffix, e.g.
+	 * <code>ACCELEROMETER.WaitStrategy</code>. The value is the name of a
+	 * {@link WaitStrategy}.
+	 */
+	public static final String PREF_KEY_WAIT_STRATEGY_SUFFIX = ".WaitStrategy";
+
+	public static final WaitStrategy DEFAULT_WAIT_STRATEGY = WaitStrategy.BLOCKING;
+
+	/** Capacity of the queues whose pipeline does not set one. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final int SPIN_TRIES = 100;
+	private static final long MIN_PARK_NANOS = 1000L;
+	private static final long MAX_PARK_NANOS = 1000000L;
+	/**
+	 * Longest sleep of the {@link WaitStrategy#BLOCKING} consumer. Producers
+	 * signal it, thus this only bounds the wait if a queue is switched to a
+	 * {@link PipelineScheduler} meanwhile, and producers schedule instead.
+	 */
+	private static final long MAX_AWAIT_NANOS = 1000000000L;
+
+	/**
+	 * Slots of the ring.
+	 */
+	private final DataBundle[] _slots;
+	/**
+	 * Sequence of each slot. A slot at position <code>p</code> is free for the
+	 * producer when its sequence is <code>p</code>, and full for the consumer
+	 * when its sequence is <code>p + 1</code>.
+	 */
+	private final AtomicLongArray _sequences;
+	private final int _mask;
+	/**
+	 * Next position to write.
+	 */
+	private final AtomicLong _tail;
+	/**
+	 * Next position to read. Besides the consumer, producers read from the
+	 * ring when the {@link OverflowPolicy} discards queued bundles.
+	 */
+	private final AtomicLong _head;
 	/**
 	 * Pipeline that owns this instance.
 	 */
 	private Pipeline _pipeline;
 	private AtomicBoolean _running;
+	private volatile boolean _multiProducer;
+	private volatile WaitStrategy _waitStrategy;
+	private volatile OverflowPolicy _overflowPolicy;
+	private volatile int _decimationFactor;
+	private volatile long _blockTimeoutNanos;
+	private final AtomicLong _decimationCounter;
+	private final AtomicLong _droppedCount;
+	private final AtomicLong _coalescedCount;
+
+	private final ReentrantLock _lock;
+	private final Condition _notEmpty;
+	private volatile boolean _consumerWaiting;
+
+	/** Scheduling states of a queue run by a {@link PipelineScheduler}. */
+	private static final int IDLE = 0;
+	private static final int SCHEDULED = 1;
+	private static final int RUNNING = 2;
+
+	/** The scheduler running this queue, null if the queue has its own thread. */
+	private volatile PipelineScheduler _scheduler;
+	private volatile int _quota;
+	private final AtomicInteger _schedulingState;
+	private final Runnable _drainTask;
+
+	/** Maximum number of bundles delivered with a single call. */
+	private volatile int _batchSize;
+	/** How long to wait for a batch to fill up. */
+	private volatile long _lingerNanos;
+	/** The consumer is waiting for a batch to fill up. */
+	private volatile boolean _lingering;
+	/** The batch being delivered, only accessed by the consumer. */
+	private final List<DataBundle> _batch;
+	/**
+	 * Exceptions thrown by the pipeline on the scheduler workers, only
+	 * accessed by the consumer.
+	 */
+	private long _failureCount;
 
 	/**
 	 * Constructs a new queue.
-	 * 
+	 *
 	 * @param p
 	 *            Pipeline associated to this PipelineQueue.
 	 * @param capacity
-	 *            Maximum capacity.
+	 *            Maximum capacity, rounded up to the next power of two.
 	 */
 	public PipelineQueue(Pipeline p, int capacity) {
 		super();
-		_queue = new LinkedBlockingQueue<DataBundle>(capacity);
+		if (capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		_slots = new DataBundle[size];
+		_sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			_sequences.set(i, i);
+		}
+		_mask = size - 1;
+		_tail = new AtomicLong();
+		_head = new AtomicLong();
 		_pipeline = p;
 		_running = new AtomicBoolean();
+		_multiProducer = true;
+		_waitStrategy = DEFAULT_WAIT_STRATEGY;
+		_overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+		_decimationFactor = DEFAULT_DECIMATION_FACTOR;
+		_blockTimeoutNanos = DEFAULT_BLOCK_TIMEOUT * 1000000L;
+		_decimationCounter = new AtomicLong();
+		_droppedCount = new AtomicLong();
+		_coalescedCount = new AtomicLong();
+		_lock = new ReentrantLock();
+		_notEmpty = _lock.newCondition();
+		_schedulingState = new AtomicInteger(IDLE);
+		_drainTask = new Runnable() {
+			public void run() {
+				drain();
+			}
+		};
+		_batchSize = 1;
+		_lingerNanos = 0L;
+		_batch = new ArrayList<DataBundle>();
 	}
 
 	/**
-	 * Constructs a new queue.
-	 * 
+	 * Constructs a new queue with capacity {@link #DEFAULT_CAPACITY}.
+	 *
 	 * @param p
 	 *            Pipeline associated to this PipelineQueue.
 	 */
 	public PipelineQueue(Pipeline p) {
-		super();
-		_queue = new LinkedBlockingQueue<DataBundle>();
-		_pipeline = p;
-		_running = new AtomicBoolean();
+		this(p, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Configures the queue. Must be called before the pipeline becomes active.
+	 *
+	 * @param multiProducer
+	 *            <code>true</code> if more than one thread can call
+	 *            {@link #onData(DataBundle)} concurrently.
+	 * @param waitStrategy
+	 *            How the pipeline thread waits for data.
+	 */
+	void configure(boolean multiProducer, WaitStrategy waitStrategy) {
+		_multiProducer = multiProducer;
+		_waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Configures batch delivery: when <code>batchSize</code> is greater than
+	 * 1, the consumer delivers up to <code>batchSize</code> bundles at once
+	 * with {@link Pipeline#onDataBatch(List)}, waiting up to
+	 * <code>lingerMillis</code> for the batch to fill up.
+	 *
+	 * @param batchSize
+	 *            The maximum number of bundles in a batch.
+	 * @param lingerMillis
+	 *            How long to wait for a full batch, 0 to deliver the bundles
+	 *            available.
+	 */
+	void setBatching(int batchSize, int lingerMillis) {
+		_batchSize = Math.max(1, batchSize);
+		_lingerNanos = Math.max(0, lingerMillis) * 1000000L;
+	}
+
+	/**
+	 * Sets the {@link OverflowPolicy}.
+	 *
+	 * @param policy
+	 *            The policy.
+	 * @param decimationFactor
+	 *            For {@link OverflowPolicy#DECIMATE}, one bundle every
+	 *            <code>decimationFactor</code> is accepted.
+	 * @param blockTimeoutMillis
+	 *            For {@link OverflowPolicy#BLOCK}, the maximum time an Input
+	 *            waits for room.
+	 */
+	void setOverflowPolicy(OverflowPolicy policy, int decimationFactor, int blockTimeoutMillis) {
+		_decimationFactor = Math.max(1, decimationFactor);
+		_blockTimeoutNanos = Math.max(0, blockTimeoutMillis) * 1000000L;
+		_overflowPolicy = policy;
+	}
+
+	/**
+	 * Gets the number of bundles dropped because the consumer was not able to
+	 * keep up.
+	 *
+	 * @return The number of dropped bundles.
+	 */
+	public long getDroppedCount() {
+		return _droppedCount.get();
+	}
+
+	/**
+	 * Gets the number of bundles replaced by a more recent one under
+	 * {@link OverflowPolicy#KEEP_LATEST}.
+	 *
+	 * @return The number of coalesced bundles.
+	 */
+	public long getCoalescedCount() {
+		return _coalescedCount.get();
+	}
+
+	/**
+	 * Lets a {@link PipelineScheduler} run this queue. Must be called before
+	 * the pipeline becomes active, instead of running the queue on a thread.
+	 *
+	 * @param scheduler
+	 *            The scheduler.
+	 * @param quota
+	 *            The maximum number of bundles delivered each time the queue
+	 *            is run.
+	 * @param multiProducer
+	 *            <code>true</code> if more than one thread can call
+	 *            {@link #onData(DataBundle)} concurrently.
+	 */
+	void attach(PipelineScheduler scheduler, int quota, boolean multiProducer) {
+		_quota = Math.max(1, quota);
+		_multiProducer = multiProducer;
+		_scheduler = scheduler;
+	}
+
+	/**
+	 * Detaches this queue from its {@link PipelineScheduler}. Waits for the
+	 * delivery in progress, if any, and releases the bundles still queued.
+	 */
+	void detach() {
+		_scheduler = null;
+		boolean interrupted = false;
+		while (!_schedulingState.compareAndSet(IDLE, RUNNING)) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		try {
+			DataBundle d;
+			while ((d = poll()) != null) {
+				d.release();
+			}
+		} finally {
+			_schedulingState.set(IDLE);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Delivers up to the quota of bundles, then reschedules the queue if it is
+	 * not empty. Run by the {@link PipelineScheduler} workers.
+	 */
+	private void drain() {
+		_schedulingState.set(RUNNING);
+		PipelineScheduler scheduler = _scheduler;
+		int batchSize = _batchSize;
+		if (scheduler != null && batchSize > 1 && _lingerNanos > 0 && !_lingering && getSize() < batchSize) {
+			// Give the batch some time to fill up.
+			_lingering = true;
+			_schedulingState.set(SCHEDULED);
+			scheduler.schedule(_drainTask, _lingerNanos);
+			return;
+		}
+		_lingering = false;
+		try {
+			int quota = _quota;
+			if (batchSize > 1) {
+				for (int delivered = 0; delivered < quota;) {
+					int count = drainTo(_batch, Math.min(batchSize, quota - delivered));
+					if (count == 0) {
+						break;
+					}
+					delivered += count;
+					deliverBatch(scheduler != null);
+				}
+			} else {
+				for (int i = 0; i < quota; i++) {
+					DataBundle b = poll();
+					if (b == null) {
+						break;
+					}
+					if (scheduler != null) {
+						try {
+							_pipeline.dispatch(b);
+						} catch (RuntimeException e) {
+							fail(e);
+						}
+					} else {
+						b.release();
+					}
+				}
+			}
+		} finally {
+			_schedulingState.set(IDLE);
+		}
+		scheduler = _scheduler;
+		if (scheduler != null && !isEmpty()) {
+			schedule(scheduler);
+		}
+	}
+
+	/**
+	 * Moves up to <code>max</code> bundles to a list.
+	 *
+	 * @return The number of moved bundles.
+	 */
+	private int drainTo(List<DataBundle> list, int max) {
+		int count = 0;
+		DataBundle b;
+		while (count < max && (b = poll()) != null) {
+			list.add(b);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Delivers {@link #_batch} to the pipeline, or releases it, then clears
+	 * it.
+	 */
+	private void deliverBatch(boolean deliver) {
+		try {
+			if (deliver) {
+				try {
+					_pipeline.dispatchBatch(_batch);
+				} catch (RuntimeException e) {
+					fail(e);
+				}
+			} else {
+				for (DataBundle b : _batch) {
+					b.release();
+				}
+			}
+		} finally {
+			_batch.clear();
+		}
+	}
+
+	/**
+	 * Logs an exception thrown by the pipeline on a scheduler worker, where
+	 * nobody would see it, then lets the queue go on with the next bundles.
+	 * Failures are logged when their count reaches a power of two.
+	 *
+	 * @param e
+	 *            The exception.
+	 */
+	private void fail(RuntimeException e) {
+		long failures = ++_failureCount;
+		if ((failures & (failures - 1)) == 0) {
+			Log.e(TAG, "Pipeline " + _pipeline.getType() + " failed processing data, " + failures
+					+ " failures so far.", e);
+		}
+	}
+
+	private void schedule(PipelineScheduler scheduler) {
+		if (_schedulingState.compareAndSet(IDLE, SCHEDULED)) {
+			scheduler.execute(_drainTask);
+		}
+	}
+
+	/**
+	 * Gets the capacity of this queue.
+	 *
+	 * @return The maximum number of buffered bundles.
+	 */
+	public int getCapacity() {
+		return _slots.length;
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see java.lang.Thread#run()
 	 */
 	public void run() {
@@ -87,24 +517,28 @@ public class PipelineQueue implements Runnable, Listener {
 		while (_running.get()) {
 			DataBundle data;
 			try {
-				data = _queue.take();
-				_pipeline.onData(data);
+				data = take();
+				if (_batchSize > 1) {
+					_batch.add(data);
+					fillBatch();
+					deliverBatch(true);
+				} else {
+					_pipeline.dispatch(data);
+				}
 			} catch (InterruptedException e) {
 				_running.set(false);
 			}
 		}
 		Log.d(TAG, "PipelineQueue " + _pipeline.getType() + " terminating");
-		if (!_queue.isEmpty()) {
-			for (Iterator<DataBundle> iterator = _queue.iterator(); iterator.hasNext();) {
-				DataBundle d = iterator.next();
-				d.release();
-			}
+		DataBundle d;
+		while ((d = poll()) != null) {
+			d.release();
 		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see org.most.input.InputBus.Listener#isActive()
 	 */
 	public boolean isActive() {
@@ -113,15 +547,46 @@ public class PipelineQueue implements Runnable, Listener {
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see org.most.input.InputBus.Listener#onData(org.most.DataBundle)
 	 */
 	public void onData(DataBundle b) {
 		if (isActive()) {
-			if (_queue.offer(b) == false) {
-				Log.w(TAG, "Dropped DataBundle. Pipeline " + _pipeline.getType()
-						+ " is not able to process data in real time.");
-				b.release();
+			switch (_overflowPolicy) {
+			case DROP_OLDEST:
+				while (!offer(b)) {
+					DataBundle oldest = poll();
+					if (oldest != null) {
+						drop(oldest);
+					}
+				}
+				break;
+			case KEEP_LATEST:
+				DataBundle pending;
+				while ((pending = poll()) != null) {
+					pending.release();
+					_coalescedCount.incrementAndGet();
+				}
+				if (!offer(b)) {
+					drop(b);
+				}
+				break;
+			case DECIMATE:
+				if (getSize() >= _slots.length / 2 && _decimationCounter.incrementAndGet() % _decimationFactor != 0) {
+					drop(b);
+				} else if (!offer(b)) {
+					drop(b);
+				}
+				break;
+			case BLOCK:
+				if (!offer(b) && !offer(b, _blockTimeoutNanos)) {
+					drop(b);
+				}
+				break;
+			default:
+				if (!offer(b)) {
+					drop(b);
+				}
 			}
 		} else {
 			Log.e(TAG, "PipelineQueue " + _pipeline.getType() + ": received DataBundle for a non-active Pipeline");
@@ -129,4 +594,198 @@ public class PipelineQueue implements Runnable, Listener {
 		}
 	}
 
+	/**
+	 * Inserts a bundle, waiting up to <code>timeoutNanos</code> for room.
+	 *
+	 * @param b
+	 *            The bundle to insert.
+	 * @param timeoutNanos
+	 *            How long to wait.
+	 * @return <code>true</code> if the bundle was inserted, <code>false</code>
+	 *         if the queue is still full after the timeout.
+	 */
+	private boolean offer(DataBundle b, long timeoutNanos) {
+		long deadline = System.nanoTime() + timeoutNanos;
+		long parkNanos = MIN_PARK_NANOS;
+		while (!offer(b)) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || !isActive()) {
+				return false;
+			}
+			LockSupport.parkNanos(Math.min(parkNanos, remaining));
+			parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+		}
+		return true;
+	}
+
+	/**
+	 * Releases a bundle that cannot be delivered. Drops are logged when their
+	 * count reaches a power of two, instead of once per bundle.
+	 *
+	 * @param b
+	 *            The dropped bundle.
+	 */
+	private void drop(DataBundle b) {
+		b.release();
+		long dropped = _droppedCount.incrementAndGet();
+		if ((dropped & (dropped - 1)) == 0) {
+			Log.w(TAG, "Pipeline " + _pipeline.getType() + " is not able to process data in real time, " + dropped
+					+ " DataBundles dropped so far (" + _overflowPolicy + ").");
+		}
+	}
+
+	/**
+	 * Inserts a bundle, if there is room.
+	 *
+	 * @param b
+	 *            The bundle to insert.
+	 * @return <code>true</code> if the bundle was inserted, <code>false</code>
+	 *         if the queue is full.
+	 */
+	private boolean offer(DataBundle b) {
+		long position;
+		int index;
+		if (_multiProducer) {
+			while (true) {
+				position = _tail.get();
+				index = (int) position & _mask;
+				long available = _sequences.get(index) - position;
+				if (available == 0) {
+					if (_tail.compareAndSet(position, position + 1)) {
+						break;
+					}
+				} else if (available < 0) {
+					return false;
+				}
+			}
+		} else {
+			position = _tail.get();
+			index = (int) position & _mask;
+			if (_sequences.get(index) != position) {
+				return false;
+			}
+			// not lazySet, which is API 9: the slot is published by its sequence
+			_tail.set(position + 1);
+		}
+		_slots[index] = b;
+		_sequences.set(index, position + 1);
+		PipelineScheduler scheduler = _scheduler;
+		if (scheduler != null) {
+			schedule(scheduler);
+		} else if (_consumerWaiting) {
+			_lock.lock();
+			try {
+				_notEmpty.signal();
+			} finally {
+				_lock.unlock();
+			}
+		}
+		return true;
+	}
+
+	private boolean isEmpty() {
+		long head = _head.get();
+		return _sequences.get((int) head & _mask) != head + 1;
+	}
+
+	/**
+	 * Gets the number of queued bundles. The value is approximate if producers
+	 * or the consumer are running.
+	 *
+	 * @return The number of queued bundles.
+	 */
+	public int getSize() {
+		long size = _tail.get() - _head.get();
+		return size < 0 ? 0 : (int) Math.min(size, _slots.length);
+	}
+
+	/**
+	 * Removes the oldest bundle, if any.
+	 *
+	 * @return The oldest bundle, or <code>null</code> if the queue is empty.
+	 */
+	private DataBundle poll() {
+		while (true) {
+			long position = _head.get();
+			int index = (int) position & _mask;
+			long available = _sequences.get(index) - (position + 1);
+			if (available < 0) {
+				return null;
+			}
+			if (available == 0 && _head.compareAndSet(position, position + 1)) {
+				DataBundle b = _slots[index];
+				_slots[index] = null;
+				_sequences.set(index, position + _slots.length);
+				return b;
+			}
+		}
+	}
+
+	/**
+	 * Adds bundles to {@link #_batch} until it holds the batch size, or until
+	 * the linger time elapses. Used by the dedicated thread.
+	 */
+	private void fillBatch() {
+		int batchSize = _batchSize;
+		long deadline = System.nanoTime() + _lingerNanos;
+		long parkNanos = MIN_PARK_NANOS;
+		while (_batch.size() < batchSize) {
+			if (drainTo(_batch, batchSize - _batch.size()) > 0) {
+				continue;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			LockSupport.parkNanos(Math.min(parkNanos, remaining));
+			parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Removes the oldest bundle, waiting according to the
+	 * {@link WaitStrategy} if the queue is empty.
+	 *
+	 * @return The oldest bundle.
+	 * @throws InterruptedException
+	 *             if the pipeline thread is interrupted while waiting.
+	 */
+	private DataBundle take() throws InterruptedException {
+		DataBundle b;
+		int tries = 0;
+		long parkNanos = MIN_PARK_NANOS;
+		while ((b = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (tries < SPIN_TRIES) {
+				tries++;
+				continue;
+			}
+			switch (_waitStrategy) {
+			case BLOCKING:
+				_lock.lockInterruptibly();
+				try {
+					_consumerWaiting = true;
+					if ((b = poll()) == null) {
+						_notEmpty.await(MAX_AWAIT_NANOS, TimeUnit.NANOSECONDS);
+					}
+				} finally {
+					_consumerWaiting = false;
+					_lock.unlock();
+				}
+				if (b != null) {
+					return b;
+				}
+				break;
+			case PARK_BACKOFF:
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+				break;
+			default:
+				Thread.yield();
+			}
+		}
+		return b;
+	}
 }
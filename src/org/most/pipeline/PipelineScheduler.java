@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.most.MoSTApplication;
+
+/**
+ * Runs the {@link PipelineQueue}s of the active pipelines on a small, fixed
+ * pool of worker threads, instead of one thread per pipeline.
+ *
+ * A queue is submitted to the pool when it receives data while idle. A worker
+ * then delivers at most the quota of the pipeline (see
+ * {@link Pipeline#getSchedulingQuota()}) bundles and, if the queue is still
+ * not empty, submits it again at the back of the pool queue, so that a busy
+ * pipeline cannot starve the others. A queue is never run by two workers at
+ * the same time, thus each pipeline still receives its bundles in order.
+ *
+ * Pipelines that need isolation can ask for a dedicated thread with
+ * {@link Pipeline#needsDedicatedThread()}.
+ *
+ */
+public class PipelineScheduler {
+
+	/**
+	 * {@link android.content.SharedPreferences} key, in
+	 * {@link MoSTApplication#PREF_PIPELINES}, of the number of worker threads.
+	 */
+	public static final String PREF_KEY_WORKERS = "PipelineScheduler.Workers";
+
+	/** Default number of worker threads. */
+	public static final int DEFAULT_WORKERS = 2;
+
+	private final ScheduledExecutorService _executor;
+	private final int _workerCount;
+
+	/**
+	 * Instantiates a new PipelineScheduler.
+	 *
+	 * @param workerCount
+	 *            The number of worker threads.
+	 */
+	public PipelineScheduler(int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException();
+		}
+		_workerCount = workerCount;
+		_executor = Executors.newScheduledThreadPool(workerCount, new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PipelineScheduler worker #" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Submits a task to the worker pool.
+	 *
+	 * @param task
+	 *            The task to run.
+	 */
+	void execute(Runnable task) {
+		_executor.execute(task);
+	}
+
+	/**
+	 * Submits a task to the worker pool after a delay. Used by queues that
+	 * linger to collect a batch (see {@link Pipeline#getBatchLinger()}).
+	 *
+	 * @param task
+	 *            The task to run.
+	 * @param delayNanos
+	 *            The delay, in nanoseconds.
+	 */
+	void schedule(Runnable task, long delayNanos) {
+		_executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 *
+	 * @return The number of worker threads.
+	 */
+	public int getWorkerCount() {
+		return _workerCount;
+	}
+
+	/**
+	 * Stops the worker threads once the queued work is done.
+	 */
+	public void shutdown() {
+		_executor.shutdown();
+	}
+}
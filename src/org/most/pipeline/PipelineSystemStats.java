@@ -78,6 +78,7 @@ public class PipelineSystemStats extends Pipeline {
 					FLD_CPU_IDLE, FLD_CPU_SYSTEM, FLD_CPU_IOWAIT, FLD_CPU_HARDIRQ, FLD_CPU_SOFTIRQ,
 					FLD_CONTEXT_SWITCH, FLD_BOOT_TIME, FLD_PROCESSES, FLD_MEM_TOTAL, FLD_MEM_FREE,
 					FLD_MEM_ACTIVE, FLD_MEM_INACTIVE);
+	public static final String[] INDEX_SYSTEM_STATS_TABLE = { FLD_TIMESTAMP };
 
 	private boolean _isDump;
 	private boolean _isSend;
@@ -51,6 +51,7 @@ public class PipelineWifiScan extends Pipeline {
 	public static final String CREATE_WIFI_SCAN_TABLE = String.format(
 			"_ID INTEGER PRIMARY KEY, %s INT NOT NULL, %s TEXT NOT NULL, %s TEXT NOT NULL, %s TEXT NOT NULL, %s INT NOT NULL, %s INT NOT NULL",
 			FLD_TIMESTAMP, FLD_BSSID, FLD_SSID, FLD_CAPABILITIES, FLD_FREQUENCY, FLD_LEVEL);
+	public static final String[] INDEX_WIFI_SCAN_TABLE = { FLD_TIMESTAMP };
 
 	protected boolean _isDump;
 	protected boolean _isSend;
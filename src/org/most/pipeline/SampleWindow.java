@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+/**
+ * Groups the samples of a multi-channel sensor in windows, and hands each
+ * complete window to a {@link Listener}. Windows are either count based (a
+ * fixed number of samples) or time based (a fixed time span, measured on the
+ * timestamps of the samples, usually {@link org.most.input.Input#KEY_TIMESTAMP}
+ * ). A window slides by a given number of samples, or time span, at a time;
+ * windows whose slide equals their size are tumbling windows.
+ *
+ * Samples are kept in primitive ring buffers. Each sample is written twice,
+ * <code>capacity</code> elements apart, so that any window is a contiguous
+ * range of the buffers and can be handed to the listener without copying. The
+ * buffers of count-based windows never grow; those of time-based windows
+ * double when a window holds more samples than expected.
+ *
+ * A SampleWindow is not thread safe.
+ *
+ */
+public class SampleWindow {
+
+	/**
+	 * Receives the complete windows.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a window is complete. The view, and the arrays it
+		 * returns, are only valid during the call and must not be modified.
+		 *
+		 * @param window
+		 *            The window.
+		 */
+		void onWindow(View window);
+	}
+
+	/**
+	 * A read-only view of a window. The samples of the window are the
+	 * elements from {@link #getOffset()} to {@link #getOffset()} +
+	 * {@link #getLength()} - 1 of the arrays, oldest first.
+	 */
+	public final class View {
+
+		private int _offset;
+		private int _length;
+
+		private View() {
+		}
+
+		public int getOffset() {
+			return _offset;
+		}
+
+		public int getLength() {
+			return _length;
+		}
+
+		/**
+		 * Gets the values of a channel.
+		 *
+		 * @param channel
+		 *            The channel, from 0 to the number of channels - 1.
+		 */
+		public float[] getChannel(int channel) {
+			return _values[channel];
+		}
+
+		public long[] getTimestamps() {
+			return _timestamps;
+		}
+
+		/** Gets the timestamp of the oldest sample. */
+		public long getStartTimestamp() {
+			return _timestamps[_offset];
+		}
+
+		/** Gets the timestamp of the newest sample. */
+		public long getEndTimestamp() {
+			return _timestamps[_offset + _length - 1];
+		}
+	}
+
+	private final boolean _timeBased;
+	private final long _size;
+	private final long _slide;
+	private final Listener _listener;
+	private final View _view;
+	private final float[][] _values;
+	private long[] _timestamps;
+	private int _capacity;
+	/** Position of the oldest sample in the ring. */
+	private int _head;
+	private int _count;
+	/** Start of the current time-based window. */
+	private long _windowStart;
+
+	private SampleWindow(int channels, boolean timeBased, long size, long slide, int capacity, Listener listener) {
+		if (channels < 1 || size <= 0 || slide <= 0 || slide > size || capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		_timeBased = timeBased;
+		_size = size;
+		_slide = slide;
+		_listener = listener;
+		_view = new View();
+		_values = new float[channels][];
+		allocate(capacity);
+	}
+
+	/**
+	 * Creates a window of a fixed number of samples.
+	 *
+	 * @param channels
+	 *            The number of values of each sample.
+	 * @param size
+	 *            The number of samples of a window.
+	 * @param slide
+	 *            The number of samples between the starts of two windows, from
+	 *            1 to <code>size</code>.
+	 * @param listener
+	 *            The listener of the windows.
+	 * @return The window.
+	 */
+	public static SampleWindow countBased(int channels, int size, int slide, Listener listener) {
+		return new SampleWindow(channels, false, size, slide, size, listener);
+	}
+
+	/**
+	 * Creates a window of a fixed time span. A window is complete when a
+	 * sample beyond its end is added; windows holding no sample are skipped.
+	 *
+	 * @param channels
+	 *            The number of values of each sample.
+	 * @param size
+	 *            The time span of a window, in the unit of the timestamps.
+	 * @param slide
+	 *            The time between the starts of two windows, from 1 to
+	 *            <code>size</code>.
+	 * @param expectedSamples
+	 *            The expected number of samples in a window, the initial
+	 *            capacity of the buffers.
+	 * @param listener
+	 *            The listener of the windows.
+	 * @return The window.
+	 */
+	public static SampleWindow timeBased(int channels, long size, long slide, int expectedSamples, Listener listener) {
+		return new SampleWindow(channels, true, size, slide, expectedSamples, listener);
+	}
+
+	private void allocate(int capacity) {
+		long[] timestamps = new long[capacity * 2];
+		for (int c = 0; c < _values.length; c++) {
+			float[] values = new float[capacity * 2];
+			if (_count > 0) {
+				System.arraycopy(_values[c], _head, values, 0, _count);
+				System.arraycopy(values, 0, values, capacity, _count);
+			}
+			_values[c] = values;
+		}
+		if (_count > 0) {
+			System.arraycopy(_timestamps, _head, timestamps, 0, _count);
+			System.arraycopy(timestamps, 0, timestamps, capacity, _count);
+		}
+		_timestamps = timestamps;
+		_capacity = capacity;
+		_head = 0;
+	}
+
+	/**
+	 * Adds a single-channel sample.
+	 */
+	public void add(long timestamp, float v) {
+		if (_timeBased) {
+			advance(timestamp);
+		}
+		int p = store(timestamp);
+		_values[0][p] = v;
+		_values[0][p + _capacity] = v;
+		added();
+	}
+
+	/**
+	 * Adds a three-channel sample.
+	 */
+	public void add(long timestamp, float x, float y, float z) {
+		if (_timeBased) {
+			advance(timestamp);
+		}
+		int p = store(timestamp);
+		_values[0][p] = x;
+		_values[0][p + _capacity] = x;
+		_values[1][p] = y;
+		_values[1][p + _capacity] = y;
+		_values[2][p] = z;
+		_values[2][p + _capacity] = z;
+		added();
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the sample; timestamps must not decrease.
+	 * @param values
+	 *            The values of the sample, one per channel.
+	 * @param offset
+	 *            The index of the first value in <code>values</code>.
+	 */
+	public void add(long timestamp, float[] values, int offset) {
+		if (_timeBased) {
+			advance(timestamp);
+		}
+		int p = store(timestamp);
+		for (int c = 0; c < _values.length; c++) {
+			_values[c][p] = values[offset + c];
+			_values[c][p + _capacity] = values[offset + c];
+		}
+		added();
+	}
+
+	/**
+	 * Discards all the samples.
+	 */
+	public void clear() {
+		_head = 0;
+		_count = 0;
+	}
+
+	/**
+	 * Gets the number of samples currently held.
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	private int store(long timestamp) {
+		if (_count == _capacity) {
+			allocate(_capacity * 2);
+		}
+		int p = _head + _count;
+		if (p >= _capacity) {
+			p -= _capacity;
+		}
+		_timestamps[p] = timestamp;
+		_timestamps[p + _capacity] = timestamp;
+		return p;
+	}
+
+	private void added() {
+		_count++;
+		if (_timeBased) {
+			long timestamp = _timestamps[_head];
+			if (_count == 1 && (timestamp >= _windowStart + _size || timestamp < _windowStart)) {
+				// first sample after a gap or a clear()
+				_windowStart = timestamp;
+			}
+		} else if (_count == _size) {
+			emit(_count);
+			drop((int) _slide);
+		}
+	}
+
+	/**
+	 * Completes the time-based windows that end before a new sample.
+	 */
+	private void advance(long timestamp) {
+		while (_count > 0 && timestamp >= _windowStart + _size) {
+			emit(_count);
+			_windowStart += _slide;
+			int expired = 0;
+			while (expired < _count && _timestamps[_head + expired] < _windowStart) {
+				expired++;
+			}
+			drop(expired);
+		}
+	}
+
+	private void emit(int length) {
+		_view._offset = _head;
+		_view._length = length;
+		_listener.onWindow(_view);
+	}
+
+	private void drop(int samples) {
+		_head += samples;
+		if (_head >= _capacity) {
+			_head -= _capacity;
+		}
+		_count -= samples;
+	}
+}
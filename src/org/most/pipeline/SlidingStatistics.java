@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+/**
+ * Mean, variance, minimum and maximum of each channel over the last N samples
+ * of a multi-channel sensor, updated in constant (amortized) time per sample.
+ *
+ * Samples are kept in a primitive circular buffer per channel. Mean and
+ * variance come from running sums of the values and of their squares, which
+ * are recomputed from the buffer every {@link #RESYNC_WINDOWS} windows to
+ * bound the rounding error accumulated by the subtractions. Minimum and
+ * maximum come from monotonic deques of sample indexes: the head of the
+ * minimum deque is the index of the smallest sample, and each following
+ * index refers to a larger, newer sample (and conversely for the maximum).
+ *
+ * A SlidingStatistics is not thread safe.
+ *
+ */
+public class SlidingStatistics {
+
+	/**
+	 * Number of windows after which the running sums are recomputed from the
+	 * buffer.
+	 */
+	public static final int RESYNC_WINDOWS = 16;
+
+	private final int _channels;
+	private final int _size;
+	/** Samples, one ring per channel. */
+	private final float[][] _values;
+	private final double[] _sums;
+	private final double[] _squares;
+	/** Monotonic deques of sample sequence numbers, one ring per channel. */
+	private final long[][] _minDeques;
+	private final long[][] _maxDeques;
+	private final int[] _minHead;
+	private final int[] _minCount;
+	private final int[] _maxHead;
+	private final int[] _maxCount;
+	/** Sequence number of the next sample. */
+	private long _next;
+	private int _count;
+	private long _evictions;
+
+	/**
+	 * Instantiates a new SlidingStatistics.
+	 *
+	 * @param channels
+	 *            The number of values of each sample.
+	 * @param size
+	 *            The number of samples of the window.
+	 */
+	public SlidingStatistics(int channels, int size) {
+		if (channels < 1 || size < 1) {
+			throw new IllegalArgumentException();
+		}
+		_channels = channels;
+		_size = size;
+		_values = new float[channels][size];
+		_sums = new double[channels];
+		_squares = new double[channels];
+		_minDeques = new long[channels][size];
+		_maxDeques = new long[channels][size];
+		_minHead = new int[channels];
+		_minCount = new int[channels];
+		_maxHead = new int[channels];
+		_maxCount = new int[channels];
+	}
+
+	/**
+	 * Adds a three-channel sample, evicting the oldest one if the window is
+	 * full.
+	 *
+	 * @throws IllegalStateException
+	 *             If the statistics do not have three channels; use
+	 *             {@link #add(float[], int)} instead.
+	 */
+	public void add(float x, float y, float z) {
+		if (_channels != 3) {
+			throw new IllegalStateException("Three-channel sample added to " + _channels + " channels");
+		}
+		boolean evict = evicting();
+		int p = (int) (_next % _size);
+		push(0, p, x, evict);
+		push(1, p, y, evict);
+		push(2, p, z, evict);
+		added(evict);
+	}
+
+	/**
+	 * Adds a sample, evicting the oldest one if the window is full.
+	 *
+	 * @param values
+	 *            The values of the sample, one per channel.
+	 * @param offset
+	 *            The index of the first value in <code>values</code>.
+	 */
+	public void add(float[] values, int offset) {
+		boolean evict = evicting();
+		int p = (int) (_next % _size);
+		for (int c = 0; c < _channels; c++) {
+			push(c, p, values[offset + c], evict);
+		}
+		added(evict);
+	}
+
+	private boolean evicting() {
+		return _count == _size;
+	}
+
+	private void push(int c, int p, float v, boolean evict) {
+		float[] values = _values[c];
+		if (evict) {
+			float old = values[p];
+			_sums[c] -= old;
+			_squares[c] -= (double) old * old;
+			long expired = _next - _size;
+			if (_minDeques[c][_minHead[c]] == expired) {
+				_minHead[c] = (_minHead[c] + 1) % _size;
+				_minCount[c]--;
+			}
+			if (_maxDeques[c][_maxHead[c]] == expired) {
+				_maxHead[c] = (_maxHead[c] + 1) % _size;
+				_maxCount[c]--;
+			}
+		}
+		values[p] = v;
+		_sums[c] += v;
+		_squares[c] += (double) v * v;
+
+		// drop the samples that can no longer be the minimum or the maximum
+		long[] deque = _minDeques[c];
+		int count = _minCount[c];
+		while (count > 0 && values[(int) (deque[(_minHead[c] + count - 1) % _size] % _size)] >= v) {
+			count--;
+		}
+		deque[(_minHead[c] + count) % _size] = _next;
+		_minCount[c] = count + 1;
+
+		deque = _maxDeques[c];
+		count = _maxCount[c];
+		while (count > 0 && values[(int) (deque[(_maxHead[c] + count - 1) % _size] % _size)] <= v) {
+			count--;
+		}
+		deque[(_maxHead[c] + count) % _size] = _next;
+		_maxCount[c] = count + 1;
+	}
+
+	private void added(boolean evict) {
+		_next++;
+		if (!evict) {
+			_count++;
+		} else if (++_evictions % ((long) _size * RESYNC_WINDOWS) == 0) {
+			resync();
+		}
+	}
+
+	private void resync() {
+		for (int c = 0; c < _channels; c++) {
+			double sum = 0.0;
+			double squares = 0.0;
+			for (float v : _values[c]) {
+				sum += v;
+				squares += (double) v * v;
+			}
+			_sums[c] = sum;
+			_squares[c] = squares;
+		}
+	}
+
+	/**
+	 * Discards all the samples.
+	 */
+	public void clear() {
+		for (int c = 0; c < _channels; c++) {
+			_sums[c] = 0.0;
+			_squares[c] = 0.0;
+			_minHead[c] = 0;
+			_minCount[c] = 0;
+			_maxHead[c] = 0;
+			_maxCount[c] = 0;
+		}
+		_next = 0;
+		_count = 0;
+		_evictions = 0;
+	}
+
+	/**
+	 * Gets the number of samples in the window, at most the size of the
+	 * window.
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	public int getSize() {
+		return _size;
+	}
+
+	/**
+	 * Gets the mean of a channel, or NaN if the window is empty.
+	 */
+	public double getMean(int channel) {
+		return _sums[channel] / _count;
+	}
+
+	/**
+	 * Gets the population variance of a channel, or NaN if the window is
+	 * empty.
+	 */
+	public double getVariance(int channel) {
+		double mean = _sums[channel] / _count;
+		return Math.max(0.0, _squares[channel] / _count - mean * mean);
+	}
+
+	/**
+	 * Gets the minimum of a channel, or NaN if the window is empty.
+	 */
+	public float getMin(int channel) {
+		if (_count == 0) {
+			return Float.NaN;
+		}
+		return _values[channel][(int) (_minDeques[channel][_minHead[channel]] % _size)];
+	}
+
+	/**
+	 * Gets the maximum of a channel, or NaN if the window is empty.
+	 */
+	public float getMax(int channel) {
+		if (_count == 0) {
+			return Float.NaN;
+		}
+		return _values[channel][(int) (_maxDeques[channel][_maxHead[channel]] % _size)];
+	}
+}
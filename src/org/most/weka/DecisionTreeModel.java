@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * A classifier made of one or more binary decision trees, each stored as
+ * flattened node arrays: the feature index and threshold of each inner node,
+ * the indexes of its children, and the class of each leaf. A feature vector
+ * goes to the left child if its feature is less than or equal to the
+ * threshold. With several trees (e.g., a random forest) the class is chosen
+ * by majority vote, ties going to the lowest class.
+ *
+ * Models are loaded from a text format, where blank lines and lines starting
+ * with <code>#</code> are ignored:
+ *
+ * <pre>
+ * classes &lt;count&gt; &lt;name&gt;...
+ * tree &lt;node count&gt;
+ * &lt;feature&gt; &lt;threshold&gt; &lt;left&gt; &lt;right&gt; &lt;class&gt;
+ * ...
+ * tree ...
+ * </pre>
+ *
+ * with one line per node, the root first. Leaves have feature -1, inner nodes
+ * class -1; children must come after their parent.
+ *
+ */
+public class DecisionTreeModel {
+
+	private final String[] _classNames;
+	private final List<Tree> _trees;
+	private final int _featureCount;
+
+	/**
+	 * The flattened nodes of a tree.
+	 */
+	private static class Tree {
+		final int[] feature;
+		final double[] threshold;
+		final int[] left;
+		final int[] right;
+		final int[] leafClass;
+
+		Tree(int nodes) {
+			feature = new int[nodes];
+			threshold = new double[nodes];
+			left = new int[nodes];
+			right = new int[nodes];
+			leafClass = new int[nodes];
+		}
+
+		int classify(double[] features) {
+			int node = 0;
+			while (feature[node] >= 0) {
+				node = features[feature[node]] <= threshold[node] ? left[node] : right[node];
+			}
+			return leafClass[node];
+		}
+	}
+
+	private DecisionTreeModel(String[] classNames, List<Tree> trees) {
+		_classNames = classNames;
+		_trees = trees;
+		int featureCount = 0;
+		for (Tree tree : trees) {
+			for (int f : tree.feature) {
+				featureCount = Math.max(featureCount, f + 1);
+			}
+		}
+		_featureCount = featureCount;
+	}
+
+	/**
+	 * Loads a model.
+	 *
+	 * @param in
+	 *            The model, in the text format; it is not closed.
+	 * @return The model.
+	 * @throws IOException
+	 *             If the model cannot be read or is not valid.
+	 */
+	public static DecisionTreeModel load(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		String[] classNames = null;
+		List<Tree> trees = new ArrayList<Tree>();
+		Tree tree = null;
+		int node = 0;
+		int lineNumber = 0;
+		String line;
+		try {
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] tokens = line.split("\\s+");
+				if (tokens[0].equals("classes")) {
+					int count = Integer.parseInt(tokens[1]);
+					if (classNames != null || count < 1 || tokens.length != count + 2) {
+						throw new IOException("Invalid classes at line " + lineNumber);
+					}
+					classNames = new String[count];
+					System.arraycopy(tokens, 2, classNames, 0, count);
+				} else if (tokens[0].equals("tree")) {
+					if (tree != null && node < tree.feature.length) {
+						throw new IOException("Missing nodes before line " + lineNumber);
+					}
+					int nodes = Integer.parseInt(tokens[1]);
+					if (nodes < 1) {
+						throw new IOException("Empty tree at line " + lineNumber);
+					}
+					tree = new Tree(nodes);
+					trees.add(tree);
+					node = 0;
+				} else {
+					if (tree == null || classNames == null || node == tree.feature.length || tokens.length != 5) {
+						throw new IOException("Unexpected node at line " + lineNumber);
+					}
+					tree.feature[node] = Integer.parseInt(tokens[0]);
+					tree.threshold[node] = Double.parseDouble(tokens[1]);
+					tree.left[node] = Integer.parseInt(tokens[2]);
+					tree.right[node] = Integer.parseInt(tokens[3]);
+					tree.leafClass[node] = Integer.parseInt(tokens[4]);
+					if (!isValid(tree, node, classNames.length)) {
+						throw new IOException("Invalid node at line " + lineNumber);
+					}
+					node++;
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number at line " + lineNumber);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Missing value at line " + lineNumber);
+		}
+		if (trees.isEmpty() || node < tree.feature.length) {
+			throw new IOException("Incomplete model");
+		}
+		return new DecisionTreeModel(classNames, trees);
+	}
+
+	/**
+	 * Loads a model from a file or an asset.
+	 *
+	 * @param context
+	 *            The context whose assets are searched.
+	 * @param path
+	 *            An absolute file path, or the name of an asset.
+	 * @return The model.
+	 * @throws IOException
+	 *             If the model cannot be read or is not valid.
+	 */
+	public static DecisionTreeModel load(Context context, String path) throws IOException {
+		InputStream in = path.startsWith("/") ? new FileInputStream(path) : context.getAssets().open(path);
+		try {
+			return load(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static boolean isValid(Tree tree, int node, int classCount) {
+		int nodes = tree.feature.length;
+		if (tree.feature[node] < 0) {
+			return tree.leafClass[node] >= 0 && tree.leafClass[node] < classCount;
+		}
+		// children after their parent: evaluation always terminates
+		return tree.left[node] > node && tree.left[node] < nodes && tree.right[node] > node
+				&& tree.right[node] < nodes;
+	}
+
+	/**
+	 * Builds a single-tree model.
+	 *
+	 * @see #load(InputStream)
+	 */
+	static DecisionTreeModel create(String[] classNames, int[] feature, double[] threshold, int[] left, int[] right,
+			int[] leafClass) {
+		Tree tree = new Tree(feature.length);
+		System.arraycopy(feature, 0, tree.feature, 0, feature.length);
+		System.arraycopy(threshold, 0, tree.threshold, 0, feature.length);
+		System.arraycopy(left, 0, tree.left, 0, feature.length);
+		System.arraycopy(right, 0, tree.right, 0, feature.length);
+		System.arraycopy(leafClass, 0, tree.leafClass, 0, feature.length);
+		List<Tree> trees = new ArrayList<Tree>(1);
+		trees.add(tree);
+		return new DecisionTreeModel(classNames, trees);
+	}
+
+	/**
+	 * Classifies a feature vector.
+	 *
+	 * @param features
+	 *            The features, at least {@link #getFeatureCount()}.
+	 * @return The class, from 0 to {@link #getClassCount()} - 1.
+	 */
+	public int classify(double[] features) {
+		if (_trees.size() == 1) {
+			return _trees.get(0).classify(features);
+		}
+		int[] votes = new int[_classNames.length];
+		return vote(features, votes);
+	}
+
+	/**
+	 * Classifies a feature vector by majority vote, counting the votes in an
+	 * array supplied by the caller, so that nothing is allocated.
+	 *
+	 * @param features
+	 *            The features, at least {@link #getFeatureCount()}.
+	 * @param votes
+	 *            Receives the number of trees voting each class; at least
+	 *            {@link #getClassCount()} long.
+	 * @return The class with the most votes.
+	 */
+	public int vote(double[] features, int[] votes) {
+		for (int c = 0; c < _classNames.length; c++) {
+			votes[c] = 0;
+		}
+		for (int t = 0; t < _trees.size(); t++) {
+			votes[_trees.get(t).classify(features)]++;
+		}
+		int best = 0;
+		for (int c = 1; c < _classNames.length; c++) {
+			if (votes[c] > votes[best]) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	public int getClassCount() {
+		return _classNames.length;
+	}
+
+	public String getClassName(int c) {
+		return _classNames[c];
+	}
+
+	/**
+	 * Gets the number of features the model reads: the greatest feature
+	 * index plus one.
+	 */
+	public int getFeatureCount() {
+		return _featureCount;
+	}
+
+	public int getTreeCount() {
+		return _trees.size();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+/**
+ * Computes the 18 features of {@link Features} (mean, max, min, standard
+ * deviation, zero crossings and RMS of each axis) in a single pass over
+ * primitive windows, without allocating: the features are written in a
+ * vector supplied by the caller, in the order of
+ * {@link Features#getFeatures()}.
+ *
+ * The mean and the variance are computed with Welford's algorithm, in double
+ * precision, thus they are slightly more accurate than those of
+ * {@link Features}, which sums in single precision.
+ *
+ */
+public final class FeatureExtractor {
+
+	/** Number of features. */
+	public static final int FEATURE_COUNT = 18;
+
+	/** Index of the mean of the X axis; Y and Z follow. */
+	public static final int FEATURE_MEAN = 0;
+	/** Index of the maximum of the X axis; Y and Z follow. */
+	public static final int FEATURE_MAX = 3;
+	/** Index of the minimum of the X axis; Y and Z follow. */
+	public static final int FEATURE_MIN = 6;
+	/** Index of the standard deviation of the X axis; Y and Z follow. */
+	public static final int FEATURE_DEVIATION = 9;
+	/** Index of the zero crossings of the X axis; Y and Z follow. */
+	public static final int FEATURE_CROSSINGS = 12;
+	/** Index of the root mean square of the X axis; Y and Z follow. */
+	public static final int FEATURE_RMS = 15;
+
+	private FeatureExtractor() {
+	}
+
+	/**
+	 * Computes the features of a window of three-axis samples.
+	 *
+	 * @param x
+	 *            The samples of the X axis.
+	 * @param y
+	 *            The samples of the Y axis.
+	 * @param z
+	 *            The samples of the Z axis.
+	 * @param offset
+	 *            The index of the first sample of the window.
+	 * @param length
+	 *            The number of samples of the window, at least 1.
+	 * @param features
+	 *            Receives the {@link #FEATURE_COUNT} features.
+	 */
+	public static void extract(float[] x, float[] y, float[] z, int offset, int length, double[] features) {
+		if (length < 1 || features.length < FEATURE_COUNT) {
+			throw new IllegalArgumentException();
+		}
+		extractAxis(x, offset, length, 0, features);
+		extractAxis(y, offset, length, 1, features);
+		extractAxis(z, offset, length, 2, features);
+	}
+
+	private static void extractAxis(float[] values, int offset, int length, int axis, double[] features) {
+		float max = values[offset];
+		float min = max;
+		double mean = 0.0;
+		double m2 = 0.0;
+		double squares = 0.0;
+		int crossings = 0;
+		boolean positive = values[offset] >= 0;
+		for (int i = 0; i < length; i++) {
+			float v = values[offset + i];
+			if (v > max) {
+				max = v;
+			} else if (v < min) {
+				min = v;
+			}
+			double delta = v - mean;
+			mean += delta / (i + 1);
+			m2 += delta * (v - mean);
+			squares += (double) v * v;
+			if ((v >= 0) != positive) {
+				positive = !positive;
+				crossings++;
+			}
+		}
+		features[FEATURE_MEAN + axis] = mean;
+		features[FEATURE_MAX + axis] = max;
+		features[FEATURE_MIN + axis] = min;
+		features[FEATURE_DEVIATION + axis] = Math.sqrt(m2 / length);
+		features[FEATURE_CROSSINGS + axis] = crossings;
+		features[FEATURE_RMS + axis] = Math.sqrt(squares / length);
+	}
+}
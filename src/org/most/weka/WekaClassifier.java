@@ -23,6 +23,31 @@ public class WekaClassifier {
     p = WekaClassifier.N5f41ab780(i);
     return p;
   }
+
+  /**
+   * The tree of {@link #classify(Object[])} as a {@link DecisionTreeModel},
+   * for the features computed by {@link FeatureExtractor}.
+   */
+  public static final DecisionTreeModel MODEL = DecisionTreeModel.create(
+      new String[] { "staticoSulTavolo", "staticoInTasca", "camminando", "correndo" },
+      new int[] { 10, 16, 15, 9, 9, -1, -1, -1, -1, -1, -1 },
+      new double[] { 0.6839229, 0.29620638, 1.0274897, 0.042600896, 5.711028, 0, 0, 0, 0, 0, 0 },
+      new int[] { 1, 2, 5, 7, 9, -1, -1, -1, -1, -1, -1 },
+      new int[] { 4, 3, 6, 8, 10, -1, -1, -1, -1, -1, -1 },
+      new int[] { -1, -1, -1, -1, -1, 0, 1, 0, 1, 2, 3 });
+
+  /**
+   * Classifies a feature vector computed by {@link FeatureExtractor} with
+   * {@link #MODEL}, without unboxing.
+   *
+   * @param i
+   *            The {@link FeatureExtractor#FEATURE_COUNT} features.
+   * @return The class: 0 to 3.
+   */
+  public static double classify(double[] i) {
+    return MODEL.classify(i);
+  }
+
   static double N5f41ab780(Object []i) {
     double p = Double.NaN;
     if (i[10] == null) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces the ContentValues of <code>android.jar</code> in the tests run on
+ * the desktop JVM, with the methods used by the persistence layer. Like the
+ * Android class, it is a {@link HashMap} of column names to values. There is
+ * no <code>keySet()</code>, which is API 11: MoST runs on API 8.
+ *
+ */
+public final class ContentValues {
+
+	private final HashMap<String, Object> _values;
+
+	public ContentValues() {
+		_values = new HashMap<String, Object>(8);
+	}
+
+	public ContentValues(int size) {
+		_values = new HashMap<String, Object>(size, 1.0f);
+	}
+
+	public void put(String key, String value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Byte value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Short value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Integer value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Long value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Float value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Double value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, Boolean value) {
+		_values.put(key, value);
+	}
+
+	public void put(String key, byte[] value) {
+		_values.put(key, value);
+	}
+
+	public void putNull(String key) {
+		_values.put(key, null);
+	}
+
+	public int size() {
+		return _values.size();
+	}
+
+	public void remove(String key) {
+		_values.remove(key);
+	}
+
+	public boolean containsKey(String key) {
+		return _values.containsKey(key);
+	}
+
+	public Object get(String key) {
+		return _values.get(key);
+	}
+
+	public String getAsString(String key) {
+		Object value = _values.get(key);
+		return value != null ? value.toString() : null;
+	}
+
+	public Set<Map.Entry<String, Object>> valueSet() {
+		return _values.entrySet();
+	}
+
+	@Override
+	public String toString() {
+		return _values.toString();
+	}
+}
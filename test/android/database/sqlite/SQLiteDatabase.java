@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.util.Log;
+
+/**
+ * Replaces the SQLiteDatabase of <code>android.jar</code> in the tests run on
+ * the desktop JVM with a thin adapter of a sqlite-jdbc connection. Only the
+ * methods used to write rows are provided; they behave as on Android:
+ * {@link #insert(String, String, ContentValues)} compiles a new statement for
+ * each row, and transactions are exclusive. The prepared statement cache of
+ * Android 4.1 and later is not reproduced.
+ *
+ */
+public final class SQLiteDatabase {
+
+	private static final String TAG = SQLiteDatabase.class.getSimpleName();
+
+	private final Connection _connection;
+	private boolean _transactionSuccessful;
+
+	/**
+	 * Unused, for the signature of
+	 * {@link SQLiteDatabase#openOrCreateDatabase(String, CursorFactory)}.
+	 */
+	public interface CursorFactory {
+	}
+
+	private SQLiteDatabase(Connection connection) {
+		_connection = connection;
+	}
+
+	public static SQLiteDatabase openOrCreateDatabase(String path, CursorFactory factory) {
+		try {
+			Class.forName("org.sqlite.JDBC");
+			return new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite:" + path));
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("sqlite-jdbc is not on the classpath", e);
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("Unable to open " + path, e);
+		}
+	}
+
+	public void execSQL(String sql) throws SQLException {
+		try {
+			Statement statement = _connection.createStatement();
+			try {
+				statement.execute(sql);
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLException(sql, e);
+		}
+	}
+
+	public void beginTransaction() {
+		execSQL("BEGIN EXCLUSIVE");
+		_transactionSuccessful = false;
+	}
+
+	public void setTransactionSuccessful() {
+		_transactionSuccessful = true;
+	}
+
+	public void endTransaction() {
+		execSQL(_transactionSuccessful ? "COMMIT" : "ROLLBACK");
+	}
+
+	public SQLiteStatement compileStatement(String sql) throws SQLException {
+		try {
+			return new SQLiteStatement(_connection.prepareStatement(sql));
+		} catch (java.sql.SQLException e) {
+			throw new SQLException(sql, e);
+		}
+	}
+
+	/**
+	 * Inserts a row the way Android does: builds the SQL, compiles it, binds
+	 * the values, executes the statement and closes it.
+	 *
+	 * @return 1, or -1 on error. Unlike Android, not the row ID.
+	 */
+	public long insert(String table, String nullColumnHack, ContentValues values) {
+		try {
+			StringBuilder sql = new StringBuilder(120);
+			sql.append("INSERT INTO ").append(table).append('(');
+			Object[] bindArgs = new Object[values.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> column : values.valueSet()) {
+				sql.append(i > 0 ? "," : "").append(column.getKey());
+				bindArgs[i++] = column.getValue();
+			}
+			sql.append(") VALUES (");
+			for (i = 0; i < bindArgs.length; i++) {
+				sql.append(i > 0 ? ",?" : "?");
+			}
+			sql.append(')');
+			SQLiteStatement statement = compileStatement(sql.toString());
+			try {
+				for (i = 0; i < bindArgs.length; i++) {
+					statement.bind(i + 1, bindArgs[i]);
+				}
+				return statement.executeInsert();
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "Error inserting " + values, e);
+			return -1;
+		}
+	}
+
+	public void close() {
+		try {
+			_connection.close();
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("close", e);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+
+import android.database.SQLException;
+
+/**
+ * Replaces the SQLiteStatement of <code>android.jar</code> in the tests run
+ * on the desktop JVM with a sqlite-jdbc prepared statement. See
+ * {@link SQLiteDatabase}.
+ *
+ */
+public final class SQLiteStatement {
+
+	private final PreparedStatement _statement;
+
+	SQLiteStatement(PreparedStatement statement) {
+		_statement = statement;
+	}
+
+	public void bindNull(int index) {
+		bind(index, null);
+	}
+
+	public void bindLong(int index, long value) {
+		try {
+			_statement.setLong(index, value);
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("bind", e);
+		}
+	}
+
+	public void bindDouble(int index, double value) {
+		try {
+			_statement.setDouble(index, value);
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("bind", e);
+		}
+	}
+
+	public void bindString(int index, String value) {
+		bind(index, value);
+	}
+
+	public void bindBlob(int index, byte[] value) {
+		bind(index, value);
+	}
+
+	void bind(int index, Object value) {
+		try {
+			_statement.setObject(index, value);
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("bind", e);
+		}
+	}
+
+	/**
+	 * @return 1, or -1 if no row was inserted. Unlike Android, not the row
+	 *         ID.
+	 */
+	public long executeInsert() {
+		try {
+			return _statement.executeUpdate() > 0 ? 1L : -1L;
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("executeInsert", e);
+		}
+	}
+
+	public void close() {
+		try {
+			_statement.close();
+		} catch (java.sql.SQLException e) {
+			throw new SQLException("close", e);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import java.util.concurrent.TimeUnit;
+
+import org.most.input.Input;
+import org.most.input.InputAccelerometer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Posts and consumes an accelerometer sample the way
+ * {@link InputAccelerometer} and the accelerometer pipelines do: borrow a
+ * bundle, fill it, read it, release it. The <code>map</code> benchmark keeps
+ * the timestamp and the type in the map of the bundle, under their string keys,
+ * as MoST did before schemas; the <code>slots</code> benchmark binds the
+ * bundle to the accelerometer schema and uses its primitive slots. Run with
+ * <code>-prof gc</code>: <code>gc.alloc.rate.norm</code> is the allocation
+ * per event.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataBundleBenchmark {
+
+	private DataBundlePool _pool;
+	private long _timestamp;
+
+	@Setup
+	public void setUp() {
+		_pool = new DataBundlePool(DataBundlePool.DEFAULT_MAX_IDLE, 0);
+	}
+
+	@Benchmark
+	public float map() {
+		DataBundle b = _pool.borrowBundle();
+		float[] data = b.allocateFloatArray(InputAccelerometer.KEY_ACCELERATIONS, 3);
+		data[0] = 0.1f;
+		data[1] = 0.2f;
+		data[2] = 9.81f;
+		b.putLong(Input.KEY_TIMESTAMP, ++_timestamp);
+		b.putInt(Input.KEY_TYPE, Input.Type.ACCELEROMETER.toInt());
+
+		float[] read = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
+		float result = read[0] + read[1] + read[2] + b.getLong(Input.KEY_TIMESTAMP) + b.getInt(Input.KEY_TYPE);
+		b.release();
+		return result;
+	}
+
+	@Benchmark
+	public float slots() {
+		DataBundle b = _pool.borrowBundle(Input.Type.ACCELEROMETER);
+		float[] data = b.allocateFloatArray(InputAccelerometer.KEY_ACCELERATIONS, 3);
+		data[0] = 0.1f;
+		data[1] = 0.2f;
+		data[2] = 9.81f;
+		b.putLong(DataBundleSchema.SLOT_TIMESTAMP, ++_timestamp);
+		b.putInt(DataBundleSchema.SLOT_TYPE, Input.Type.ACCELEROMETER.toInt());
+
+		float[] read = b.getFloatArray(InputAccelerometer.KEY_ACCELERATIONS);
+		float result = read[0] + read[1] + read[2] + b.getLong(DataBundleSchema.SLOT_TIMESTAMP)
+				+ b.getInt(DataBundleSchema.SLOT_TYPE);
+		b.release();
+		return result;
+	}
+}
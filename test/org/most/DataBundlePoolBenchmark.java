@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.StackObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Borrows and returns bundles from several threads with the commons-pool
+ * <code>StackObjectPool</code> that {@link DataBundlePool} used to wrap (with
+ * its default of 8 idle objects, as MoST created it) and with the current
+ * magazine pool. The benchmarks measure:
+ * <ul>
+ * <li><code>*SameThread</code>: 4 threads, each borrowing {@link #BATCH}
+ * bundles and then returning them;</li>
+ * <li><code>*Handoff</code>: 2 threads borrowing bundles and handing them
+ * over to 2 threads that return them, as Inputs and Pipelines do. The
+ * returning threads poll the queue without blocking, thus only the
+ * <code>*Borrow</code> rows count bundles.</li>
+ * </ul>
+ * Commons-pool is not a dependency of MoST anymore: it must be on the
+ * classpath of the benchmarks only.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataBundlePoolBenchmark {
+
+	/** Bundles each thread holds at the same time in the same-thread case. */
+	public static final int BATCH = 16;
+
+	private DataBundlePool _pool;
+	private StackObjectPool<DataBundle> _legacyPool;
+	private BlockingQueue<DataBundle> _legacyQueue;
+	private BlockingQueue<DataBundle> _queue;
+
+	@Setup
+	public void setUp() {
+		_pool = new DataBundlePool(DataBundlePool.DEFAULT_MAX_IDLE, 0);
+		final DataBundlePool owner = _pool;
+		_legacyPool = new StackObjectPool<DataBundle>(new BasePoolableObjectFactory<DataBundle>() {
+			@Override
+			public DataBundle makeObject() {
+				return new DataBundle(owner);
+			}
+		});
+		_legacyQueue = new ArrayBlockingQueue<DataBundle>(1024);
+		_queue = new ArrayBlockingQueue<DataBundle>(1024);
+	}
+
+	/**
+	 * The bundles a thread holds in the same-thread case.
+	 */
+	@State(Scope.Thread)
+	public static class Batch {
+		final DataBundle[] bundles = new DataBundle[BATCH];
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void legacySameThread(Batch batch) throws Exception {
+		for (int i = 0; i < BATCH; i++) {
+			batch.bundles[i] = _legacyPool.borrowObject();
+		}
+		for (int i = 0; i < BATCH; i++) {
+			legacyReturn(batch.bundles[i]);
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void magazineSameThread(Batch batch) {
+		for (int i = 0; i < BATCH; i++) {
+			batch.bundles[i] = _pool.borrowBundle();
+		}
+		for (int i = 0; i < BATCH; i++) {
+			_pool.returnBundle(batch.bundles[i]);
+		}
+	}
+
+	@Benchmark
+	@Group("legacyHandoff")
+	@GroupThreads(2)
+	public void legacyBorrow() throws Exception {
+		DataBundle b = _legacyPool.borrowObject();
+		if (!_legacyQueue.offer(b)) {
+			legacyReturn(b);
+		}
+	}
+
+	@Benchmark
+	@Group("legacyHandoff")
+	@GroupThreads(2)
+	public void legacyRelease() throws Exception {
+		DataBundle b = _legacyQueue.poll();
+		if (b != null) {
+			legacyReturn(b);
+		}
+	}
+
+	@Benchmark
+	@Group("magazineHandoff")
+	@GroupThreads(2)
+	public void magazineBorrow() {
+		DataBundle b = _pool.borrowBundle();
+		if (!_queue.offer(b)) {
+			_pool.returnBundle(b);
+		}
+	}
+
+	@Benchmark
+	@Group("magazineHandoff")
+	@GroupThreads(2)
+	public void magazineRelease() {
+		DataBundle b = _queue.poll();
+		if (b != null) {
+			_pool.returnBundle(b);
+		}
+	}
+
+	/** What the old {@link DataBundlePool#returnBundle(DataBundle)} did. */
+	private void legacyReturn(DataBundle b) throws Exception {
+		b.setRefCount(0);
+		_legacyPool.returnObject(b);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.most.input.Input;
+
+/**
+ * Stresses {@link DataBundlePool} the way MoST uses it: bundles are borrowed
+ * on Input threads and released on Pipeline threads.
+ *
+ */
+public class DataBundlePoolTest {
+
+	private static final String KEY_SEQUENCE = "DataBundlePoolTest.Sequence";
+
+	private static final int PRODUCERS = 4;
+	private static final int CONSUMERS = 4;
+	private static final int BUNDLES_PER_PRODUCER = 200000;
+
+	/** Two magazines, so that the depot fills up and returns are discarded. */
+	private static final int MAX_IDLE = 2 * DataBundlePool.MAGAZINE_SIZE;
+
+	@Test
+	public void reusesBundlesOnSameThread() {
+		DataBundlePool pool = new DataBundlePool(MAX_IDLE, 0);
+		DataBundle b = pool.borrowBundle();
+		b.release();
+		assertSame(b, pool.borrowBundle());
+	}
+
+	@Test
+	public void prewarmKeepsPartialMagazine() {
+		DataBundlePool pool = new DataBundlePool(DataBundlePool.DEFAULT_MAX_IDLE, 0);
+		int count = DataBundlePool.MAGAZINE_SIZE + 5;
+		pool.prewarm(Input.Type.ACCELEROMETER, count);
+		assertEquals(count, pool.getStatistics().getIdle());
+		for (int i = 0; i < count; i++) {
+			pool.borrowBundle(Input.Type.ACCELEROMETER);
+		}
+		assertEquals(0, pool.getStatistics().getMissCount());
+		assertEquals(0, pool.getStatistics().getIdle());
+		pool.borrowBundle();
+		assertEquals(1, pool.getStatistics().getMissCount());
+	}
+
+	@Test
+	public void prewarmStopsAtMaxIdle() {
+		DataBundlePool pool = new DataBundlePool(MAX_IDLE, 0);
+		pool.prewarm(Input.Type.ACCELEROMETER, 3);
+		pool.prewarm(Input.Type.ACCELEROMETER, 2 * MAX_IDLE);
+		assertEquals(MAX_IDLE, pool.getStatistics().getIdle());
+	}
+
+	@Test
+	public void borrowOnOneThreadReleaseOnAnother() throws Exception {
+		final DataBundlePool pool = new DataBundlePool(MAX_IDLE, 0);
+		final BlockingQueue<DataBundle> queue = new ArrayBlockingQueue<DataBundle>(256);
+		// the bundles borrowed and not yet released
+		final Map<DataBundle, Long> outstanding = Collections
+				.synchronizedMap(new IdentityHashMap<DataBundle, Long>());
+		final AtomicLong sequence = new AtomicLong();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch producersDone = new CountDownLatch(PRODUCERS);
+		final DataBundle poison = new DataBundle(pool);
+		Thread[] threads = new Thread[PRODUCERS + CONSUMERS + 1];
+
+		for (int p = 0; p < PRODUCERS; p++) {
+			threads[p] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i = 0; i < BUNDLES_PER_PRODUCER; i++) {
+							DataBundle b = pool.borrowBundle();
+							long id = sequence.incrementAndGet();
+							if (outstanding.put(b, id) != null) {
+								failure.compareAndSet(null, "Bundle handed out twice");
+							}
+							b.putLong(KEY_SEQUENCE, id);
+							queue.put(b);
+						}
+					} catch (InterruptedException e) {
+						failure.compareAndSet(null, e.toString());
+					} finally {
+						producersDone.countDown();
+					}
+				}
+			});
+		}
+		for (int c = 0; c < CONSUMERS; c++) {
+			threads[PRODUCERS + c] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						DataBundle b;
+						while ((b = queue.take()) != poison) {
+							Long id = outstanding.remove(b);
+							if (id == null || id.longValue() != b.getLong(KEY_SEQUENCE)) {
+								failure.compareAndSet(null, "Bundle changed while borrowed");
+							}
+							b.release();
+						}
+					} catch (InterruptedException e) {
+						failure.compareAndSet(null, e.toString());
+					}
+				}
+			});
+		}
+		// the depot never exceeds its bound, even while threads race on it
+		threads[PRODUCERS + CONSUMERS] = new Thread(new Runnable() {
+			public void run() {
+				while (running.get()) {
+					int idle = pool.getStatistics().getIdle();
+					if (idle > MAX_IDLE) {
+						failure.compareAndSet(null, "Depot holds " + idle + " bundles");
+					}
+				}
+			}
+		});
+
+		for (Thread t : threads) {
+			t.start();
+		}
+		assertTrue(producersDone.await(60, TimeUnit.SECONDS));
+		for (int c = 0; c < CONSUMERS; c++) {
+			queue.put(poison);
+		}
+		for (int i = 0; i < PRODUCERS + CONSUMERS; i++) {
+			threads[i].join();
+		}
+		running.set(false);
+		threads[PRODUCERS + CONSUMERS].join();
+
+		assertNull(failure.get());
+		assertTrue(outstanding.isEmpty());
+		DataBundlePool.Statistics statistics = pool.getStatistics();
+		long total = (long) PRODUCERS * BUNDLES_PER_PRODUCER;
+		assertEquals(total, statistics.getBorrowCount());
+		assertEquals(total, statistics.getReturnCount());
+		assertEquals(0, statistics.getOutstanding());
+		assertTrue(statistics.getIdle() <= MAX_IDLE);
+		// bundles flow back to the producers through the depot
+		assertTrue(statistics.getMissCount() < total);
+		// every bundle created on a miss was discarded, or is idle in the
+		// depot or in the magazines of a thread
+		long cached = statistics.getMissCount() - statistics.getDiscardCount() - statistics.getIdle();
+		assertTrue(cached >= 0 && cached <= (PRODUCERS + CONSUMERS) * 2 * DataBundlePool.MAGAZINE_SIZE);
+	}
+}
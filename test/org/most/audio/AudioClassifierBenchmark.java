@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU time that {@link AudioFeatureExtractor} and
+ * {@link AudioClassifier} take to process one second of audio, fed in buffers
+ * of {@link #BUFFER_SIZE} samples as {@link org.most.input.InputAudio} does.
+ * A score below 1000 ms/op means that the pipeline keeps up with the input
+ * using less than one core.
+ *
+ * By default the input is ten seconds of synthetic speech and noise at 44.1
+ * kHz. To measure recorded audio, pass a 16-bit PCM WAV file (mixed down to
+ * mono, at its own sample rate) with <code>-p wav=/path/to/file.wav</code>.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioClassifierBenchmark {
+
+	private static final int BUFFER_SIZE = 4096;
+
+	/** A WAV file to process instead of the synthetic audio. */
+	@Param({ "" })
+	public String wav;
+
+	private short[] _pcm;
+	private int _sampleRate;
+	private int _position;
+	private AudioFeatureExtractor _extractor;
+	private AudioFeatureExtractor.FrameListener _listener;
+	private int _result;
+
+	@Setup
+	public void setUp() throws IOException {
+		if (wav.length() > 0) {
+			WavFile file = WavFile.read(new File(wav));
+			_sampleRate = file.getSampleRate();
+			_pcm = file.getSamples();
+		} else {
+			Random random = new Random(1);
+			_sampleRate = 44100;
+			short[] speech = AudioSignals.speechLike(random, _sampleRate, 5 * _sampleRate);
+			short[] noise = AudioSignals.noise(random, 5 * _sampleRate);
+			_pcm = new short[speech.length + noise.length];
+			System.arraycopy(speech, 0, _pcm, 0, speech.length);
+			System.arraycopy(noise, 0, _pcm, speech.length, noise.length);
+		}
+		if (_pcm.length == 0) {
+			throw new IOException("No samples in " + wav);
+		}
+		int frameSize = AudioFeatureExtractor.getDefaultFrameSize(_sampleRate);
+		_extractor = new AudioFeatureExtractor(_sampleRate, frameSize, frameSize / 2);
+		final AudioClassifier classifier = new AudioClassifier(AudioClassifier.getDefaultModel(), Math.max(1,
+				_sampleRate / _extractor.getHopSize()));
+		_listener = new AudioFeatureExtractor.FrameListener() {
+			public void onFrame(double[] features) {
+				_result += classifier.addFrame(features);
+			}
+		};
+	}
+
+	/**
+	 * Processes the next second of the input, wrapping around at its end.
+	 */
+	@Benchmark
+	public int oneSecond() {
+		int remaining = _sampleRate;
+		while (remaining > 0) {
+			int length = Math.min(Math.min(BUFFER_SIZE, remaining), _pcm.length - _position);
+			_extractor.process(_pcm, _position, length, _listener);
+			remaining -= length;
+			_position += length;
+			if (_position == _pcm.length) {
+				_position = 0;
+			}
+		}
+		return _result;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the default model of {@link AudioClassifier} recognizes
+ * synthetic silence, speech, music and noise.
+ *
+ */
+public class AudioClassifierTest {
+
+	private static final int SAMPLE_RATE = 44100;
+
+	private static int classify(short[] pcm) {
+		int frameSize = AudioFeatureExtractor.getDefaultFrameSize(SAMPLE_RATE);
+		AudioFeatureExtractor extractor = new AudioFeatureExtractor(SAMPLE_RATE, frameSize, frameSize / 2);
+		// one second segments
+		final AudioClassifier classifier = new AudioClassifier(AudioClassifier.getDefaultModel(), SAMPLE_RATE
+				/ (frameSize / 2));
+		final int[] result = new int[] { -1 };
+		extractor.process(pcm, 0, pcm.length, new AudioFeatureExtractor.FrameListener() {
+			public void onFrame(double[] features) {
+				int c = classifier.addFrame(features);
+				if (c >= 0) {
+					result[0] = c;
+				}
+			}
+		});
+		return result[0];
+	}
+
+	@Test
+	public void classifiesSilence() {
+		assertEquals(AudioClassifier.CLASS_SILENCE, classify(AudioSignals.silence(new Random(1), 2 * SAMPLE_RATE)));
+	}
+
+	@Test
+	public void classifiesSpeech() {
+		assertEquals(AudioClassifier.CLASS_SPEECH,
+				classify(AudioSignals.speechLike(new Random(2), SAMPLE_RATE, 2 * SAMPLE_RATE)));
+	}
+
+	@Test
+	public void classifiesMusic() {
+		assertEquals(AudioClassifier.CLASS_MUSIC, classify(AudioSignals.tone(SAMPLE_RATE, 2 * SAMPLE_RATE)));
+	}
+
+	@Test
+	public void classifiesNoise() {
+		assertEquals(AudioClassifier.CLASS_NOISE, classify(AudioSignals.noise(new Random(3), 2 * SAMPLE_RATE)));
+	}
+
+	@Test
+	public void waitsForWholeSegments() {
+		assertEquals(-1, classify(AudioSignals.noise(new Random(4), SAMPLE_RATE / 2)));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the features computed by {@link AudioFeatureExtractor} on signals
+ * whose features are known.
+ *
+ */
+public class AudioFeatureExtractorTest {
+
+	private static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * Collects a copy of the features of every frame.
+	 */
+	static class Frames implements AudioFeatureExtractor.FrameListener {
+		final List<double[]> frames = new ArrayList<double[]>();
+
+		public void onFrame(double[] features) {
+			frames.add(features.clone());
+		}
+	}
+
+	private static Frames process(short[] pcm, int bufferSize) {
+		int frameSize = AudioFeatureExtractor.getDefaultFrameSize(SAMPLE_RATE);
+		AudioFeatureExtractor extractor = new AudioFeatureExtractor(SAMPLE_RATE, frameSize, frameSize / 2);
+		Frames frames = new Frames();
+		for (int offset = 0; offset < pcm.length; offset += bufferSize) {
+			extractor.process(pcm, offset, Math.min(bufferSize, pcm.length - offset), frames);
+		}
+		return frames;
+	}
+
+	@Test
+	public void defaultFrameSize() {
+		assertEquals(1024, AudioFeatureExtractor.getDefaultFrameSize(44100));
+		assertEquals(256, AudioFeatureExtractor.getDefaultFrameSize(16000));
+		assertEquals(128, AudioFeatureExtractor.getDefaultFrameSize(8000));
+	}
+
+	@Test
+	public void countsFramesRegardlessOfBuffers() {
+		short[] pcm = AudioSignals.noise(new Random(1), SAMPLE_RATE);
+		// half-overlapping frames of 1024 samples
+		int expected = (pcm.length - 1024) / 512 + 1;
+		Frames whole = process(pcm, pcm.length);
+		Frames pieces = process(pcm, 333);
+		assertEquals(expected, whole.frames.size());
+		assertEquals(expected, pieces.frames.size());
+		for (int i = 0; i < expected; i++) {
+			for (int f = 0; f < AudioFeatureExtractor.FEATURE_COUNT; f++) {
+				assertEquals(whole.frames.get(i)[f], pieces.frames.get(i)[f], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void sineFeatures() {
+		double hz = 1000.0;
+		double amplitude = 10000.0;
+		Frames frames = process(AudioSignals.sine(SAMPLE_RATE, SAMPLE_RATE / 10, hz, amplitude), 4096);
+		double binHz = (double) SAMPLE_RATE / 1024;
+		for (int i = 0; i < frames.frames.size(); i++) {
+			double[] features = frames.frames.get(i);
+			assertEquals(amplitude / 32768.0 / Math.sqrt(2.0), features[AudioFeatureExtractor.FEATURE_RMS], 1e-3);
+			assertEquals(2 * hz / SAMPLE_RATE, features[AudioFeatureExtractor.FEATURE_ZCR], 2.0 / 1023);
+			assertEquals(hz, features[AudioFeatureExtractor.FEATURE_CENTROID], 0.02 * hz);
+			assertEquals(hz, features[AudioFeatureExtractor.FEATURE_ROLLOFF], 2 * binHz);
+			if (i > 0) {
+				// the magnitude spectrum of a steady tone does not change
+				assertEquals(0.0, features[AudioFeatureExtractor.FEATURE_FLUX], 1e-3);
+			}
+		}
+	}
+
+	@Test
+	public void centroidFollowsPitch() {
+		double previous = 0.0;
+		for (double hz = 250.0; hz <= 8000.0; hz *= 2) {
+			Frames frames = process(AudioSignals.sine(SAMPLE_RATE, 4096, hz, 8000.0), 4096);
+			double centroid = frames.frames.get(frames.frames.size() - 1)[AudioFeatureExtractor.FEATURE_CENTROID];
+			assertEquals(hz, centroid, 0.05 * hz);
+			assertTrue(centroid > previous);
+			previous = centroid;
+		}
+	}
+
+	@Test
+	public void digitalSilence() {
+		Frames frames = process(new short[4096], 4096);
+		for (double[] features : frames.frames) {
+			assertEquals(0.0, features[AudioFeatureExtractor.FEATURE_RMS], 0.0);
+			assertEquals(0.0, features[AudioFeatureExtractor.FEATURE_ZCR], 0.0);
+			assertEquals(0.0, features[AudioFeatureExtractor.FEATURE_CENTROID], 0.0);
+			assertEquals(0.0, features[AudioFeatureExtractor.FEATURE_FLUX], 0.0);
+			for (int c = 0; c < AudioFeatureExtractor.MFCC_COUNT; c++) {
+				assertTrue(!Double.isNaN(features[AudioFeatureExtractor.FEATURE_MFCC + c])
+						&& !Double.isInfinite(features[AudioFeatureExtractor.FEATURE_MFCC + c]));
+			}
+		}
+	}
+}
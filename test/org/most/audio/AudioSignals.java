@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import java.util.Random;
+
+/**
+ * Synthetic 16-bit PCM signals for the audio tests and benchmarks.
+ *
+ */
+final class AudioSignals {
+
+	private AudioSignals() {
+	}
+
+	static short[] sine(int sampleRate, int length, double hz, double amplitude) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			pcm[i] = clip(amplitude * Math.sin(2 * Math.PI * hz * i / sampleRate));
+		}
+		return pcm;
+	}
+
+	/** Background hiss, about -80 dBFS. */
+	static short[] silence(Random random, int length) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			pcm[i] = clip(random.nextGaussian() * 3.0);
+		}
+		return pcm;
+	}
+
+	/** White noise, about -20 dBFS. */
+	static short[] noise(Random random, int length) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			pcm[i] = clip(random.nextGaussian() * 3000.0);
+		}
+		return pcm;
+	}
+
+	/** Two steady tones, a fifth apart. */
+	static short[] tone(int sampleRate, int length) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			double t = (double) i / sampleRate;
+			pcm[i] = clip(6000.0 * (Math.sin(2 * Math.PI * 440 * t) + 0.5 * Math.sin(2 * Math.PI * 660 * t)));
+		}
+		return pcm;
+	}
+
+	/**
+	 * Four syllables per second: a voiced 150 Hz burst, a short unvoiced
+	 * hiss, and a pause.
+	 */
+	static short[] speechLike(Random random, int sampleRate, int length) {
+		short[] pcm = new short[length];
+		for (int i = 0; i < length; i++) {
+			double t = (double) i / sampleRate;
+			double syllable = (t * 4) % 1.0;
+			double v;
+			if (syllable < 0.4) {
+				v = 8000.0 * Math.sin(2 * Math.PI * 150 * t) * Math.sin(Math.PI * syllable / 0.4);
+			} else if (syllable < 0.55) {
+				v = random.nextGaussian() * 1500.0;
+			} else {
+				v = 0.0;
+			}
+			pcm[i] = clip(v);
+		}
+		return pcm;
+	}
+
+	private static short clip(double v) {
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v)));
+	}
+}
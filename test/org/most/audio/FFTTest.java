@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link FFT} against a direct DFT.
+ *
+ */
+public class FFTTest {
+
+	@Test
+	public void matchesDft() {
+		Random random = new Random(3);
+		for (int size = 2; size <= 1024; size <<= 1) {
+			double[] xre = new double[size];
+			double[] xim = new double[size];
+			double[] re = new double[size];
+			double[] im = new double[size];
+			for (int i = 0; i < size; i++) {
+				re[i] = xre[i] = random.nextGaussian();
+				im[i] = xim[i] = random.nextGaussian();
+			}
+			new FFT(size).transform(re, im);
+			double tolerance = 1e-12 * size;
+			for (int k = 0; k < size; k++) {
+				double sre = 0.0;
+				double sim = 0.0;
+				for (int n = 0; n < size; n++) {
+					double angle = -2 * Math.PI * ((long) k * n % size) / size;
+					sre += xre[n] * Math.cos(angle) - xim[n] * Math.sin(angle);
+					sim += xre[n] * Math.sin(angle) + xim[n] * Math.cos(angle);
+				}
+				assertEquals("Re[" + k + "] of size " + size, sre, re[k], tolerance);
+				assertEquals("Im[" + k + "] of size " + size, sim, im[k], tolerance);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSizeNotPowerOfTwo() {
+		new FFT(48);
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16-bit PCM WAV files, mixing their channels down to mono, to feed
+ * recorded audio to the tests and benchmarks.
+ *
+ */
+final class WavFile {
+
+	private static final int FORMAT_PCM = 1;
+
+	private final int _sampleRate;
+	private final short[] _samples;
+
+	private WavFile(int sampleRate, short[] samples) {
+		_sampleRate = sampleRate;
+		_samples = samples;
+	}
+
+	int getSampleRate() {
+		return _sampleRate;
+	}
+
+	/**
+	 * Gets the samples, mixed down to mono.
+	 */
+	short[] getSamples() {
+		return _samples;
+	}
+
+	static WavFile read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	static WavFile read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (readTag(in) != 0x46464952 /* RIFF */) {
+			throw new IOException("Not a RIFF file");
+		}
+		readInt(in);
+		if (readTag(in) != 0x45564157 /* WAVE */) {
+			throw new IOException("Not a WAVE file");
+		}
+		int channels = 0;
+		int sampleRate = 0;
+		while (true) {
+			int tag;
+			try {
+				tag = readTag(in);
+			} catch (EOFException e) {
+				throw new IOException("No data chunk");
+			}
+			int size = readInt(in);
+			if (tag == 0x20746d66 /* fmt */) {
+				int format = readShort(in);
+				channels = readShort(in);
+				sampleRate = readInt(in);
+				readInt(in);
+				readShort(in);
+				int bits = readShort(in);
+				if (format != FORMAT_PCM || bits != 16 || channels < 1) {
+					throw new IOException("Only 16-bit PCM is supported");
+				}
+				in.skipBytes(size - 16);
+			} else if (tag == 0x61746164 /* data */) {
+				if (channels == 0) {
+					throw new IOException("Data before format");
+				}
+				short[] samples = new short[size / 2 / channels];
+				for (int i = 0; i < samples.length; i++) {
+					int sum = 0;
+					for (int c = 0; c < channels; c++) {
+						sum += (short) readShort(in);
+					}
+					samples[i] = (short) (sum / channels);
+				}
+				return new WavFile(sampleRate, samples);
+			} else {
+				in.skipBytes(size + (size & 1));
+			}
+		}
+	}
+
+	private static int readTag(DataInputStream in) throws IOException {
+		return readInt(in);
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static int readShort(DataInputStream in) throws IOException {
+		return Short.reverseBytes(in.readShort()) & 0xffff;
+	}
+}
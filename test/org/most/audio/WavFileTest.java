@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.audio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link WavFile} reads what the benchmarks are fed.
+ *
+ */
+public class WavFileTest {
+
+	private static byte[] stereoWav(int sampleRate, short[] left, short[] right) {
+		ByteBuffer b = ByteBuffer.allocate(44 + 10 + left.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		b.put("RIFF".getBytes()).putInt(b.capacity() - 8).put("WAVE".getBytes());
+		b.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 2).putInt(sampleRate)
+				.putInt(sampleRate * 4).putShort((short) 4).putShort((short) 16);
+		// an odd-sized chunk to skip, with its pad byte
+		b.put("LIST".getBytes()).putInt(1).put((byte) 0).put((byte) 0);
+		b.put("data".getBytes()).putInt(left.length * 4);
+		for (int i = 0; i < left.length; i++) {
+			b.putShort(left[i]).putShort(right[i]);
+		}
+		return b.array();
+	}
+
+	@Test
+	public void mixesChannelsDown() throws IOException {
+		short[] left = new short[] { 0, 1000, -1000, Short.MAX_VALUE, Short.MIN_VALUE };
+		short[] right = new short[] { 0, 3000, -3000, Short.MAX_VALUE, Short.MIN_VALUE };
+		WavFile wav = WavFile.read(new ByteArrayInputStream(stereoWav(22050, left, right)));
+		assertEquals(22050, wav.getSampleRate());
+		assertEquals(left.length, wav.getSamples().length);
+		for (int i = 0; i < left.length; i++) {
+			assertEquals((left[i] + right[i]) / 2, wav.getSamples()[i]);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		WavFile.read(new ByteArrayInputStream("not a wave file".getBytes()));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast {@link GorillaCodec} encodes and decodes three-axis
+ * samples, in samples per millisecond. The setup of each series prints how
+ * much the samples take once encoded: the average size of a sample in blocks
+ * of {@link TimeSeriesStore#DEFAULT_BLOCK_BYTES}, against 20 bytes
+ * uncompressed (a long and three floats). The series are those of
+ * {@link GorillaCodecTest}.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GorillaCodecBenchmark {
+
+	private static final int SAMPLES = 100000;
+
+	@Param({ "regular", "jittered", "random" })
+	public String series;
+
+	private GorillaCodecTest.Series _series;
+	private GorillaCodec.Encoder _encoder;
+	private int _next;
+	private int _block;
+	private final TimeSeriesStore.SampleCallback _callback = new TimeSeriesStore.SampleCallback() {
+		public boolean onSample(long timestamp, float[] values) {
+			_checksum += timestamp + Float.floatToRawIntBits(values[0]);
+			return true;
+		}
+	};
+	private long _checksum;
+
+	/**
+	 * The samples decoded, reported as a throughput.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Decoded {
+		public long samples;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random random = new Random(1);
+		if (series.equals("regular")) {
+			_series = GorillaCodecTest.regular(random, SAMPLES);
+		} else if (series.equals("jittered")) {
+			_series = GorillaCodecTest.jittered(random, SAMPLES);
+		} else {
+			_series = GorillaCodecTest.random(random, SAMPLES);
+		}
+		_series.encode(TimeSeriesStore.DEFAULT_BLOCK_BYTES);
+		System.out.printf("%n%s series: %.2f bytes per sample%n", series, _series.getBytesPerSample());
+		_encoder = new GorillaCodec.Encoder(TimeSeriesStore.DEFAULT_BLOCK_BYTES, _series.values[0].length);
+	}
+
+	/**
+	 * Encodes one sample, sealing the block when it is full.
+	 */
+	@Benchmark
+	public int encode() {
+		int i = _next;
+		if (!_encoder.append(_series.timestamps[i], _series.values[i])) {
+			_encoder.reset();
+			_encoder.append(_series.timestamps[i], _series.values[i]);
+		}
+		_next = i + 1 == SAMPLES ? 0 : i + 1;
+		return _encoder.getLength();
+	}
+
+	/**
+	 * Decodes one block. The primary score is in blocks, the
+	 * <code>samples</code> counter in samples.
+	 */
+	@Benchmark
+	public long decode(Decoded decoded) {
+		int b = _block;
+		decoded.samples += _series.counts.get(b);
+		GorillaCodec.decode(_series.blocks.get(b), _series.counts.get(b), _series.values[0].length, Long.MIN_VALUE,
+				Long.MAX_VALUE, _callback);
+		_block = b + 1 == _series.blocks.size() ? 0 : b + 1;
+		return _checksum;
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link GorillaCodec} decodes exactly what it encoded: the
+ * timestamps and the raw bits of the values.
+ *
+ */
+public class GorillaCodecTest {
+
+	private static final int CHANNELS = 3;
+	private static final int SAMPLES = 20000;
+
+	/** 50 Hz, in nanoseconds. */
+	static final long PERIOD_NANOS = 20000000L;
+
+	/**
+	 * A series of samples, and its encoded blocks.
+	 */
+	static class Series {
+		final long[] timestamps;
+		final float[][] values;
+		final List<byte[]> blocks = new ArrayList<byte[]>();
+		final List<Integer> counts = new ArrayList<Integer>();
+		int bytes;
+
+		Series(int samples, int channels) {
+			timestamps = new long[samples];
+			values = new float[samples][channels];
+		}
+
+		/**
+		 * Encodes the samples in blocks, sealing a block when it is full as
+		 * {@link TimeSeriesStore} does.
+		 */
+		Series encode(int blockBytes) {
+			GorillaCodec.Encoder encoder = new GorillaCodec.Encoder(blockBytes, values[0].length);
+			for (int i = 0; i < timestamps.length; i++) {
+				if (!encoder.append(timestamps[i], values[i])) {
+					seal(encoder);
+					assertTrue(encoder.append(timestamps[i], values[i]));
+				}
+			}
+			seal(encoder);
+			return this;
+		}
+
+		private void seal(GorillaCodec.Encoder encoder) {
+			byte[] block = encoder.toByteArray();
+			blocks.add(block);
+			counts.add(encoder.getCount());
+			bytes += block.length;
+			encoder.reset();
+		}
+
+		double getBytesPerSample() {
+			return (double) bytes / timestamps.length;
+		}
+	}
+
+	static Series regular(Random random, int samples) {
+		Series s = new Series(samples, CHANNELS);
+		long t = random.nextLong() >>> 8;
+		for (int i = 0; i < samples; i++) {
+			s.timestamps[i] = t + i * PERIOD_NANOS;
+			accelerations(random, i, s.values[i]);
+		}
+		return s;
+	}
+
+	/**
+	 * 50 Hz samples whose timestamps jitter by up to 2 ms, with a gap of a
+	 * few seconds every thousand samples.
+	 */
+	static Series jittered(Random random, int samples) {
+		Series s = new Series(samples, CHANNELS);
+		long t = random.nextLong() >>> 8;
+		for (int i = 0; i < samples; i++) {
+			t += PERIOD_NANOS + random.nextInt(4000000) - 2000000;
+			if (i % 1000 == 999) {
+				t += random.nextInt(5000) * 1000000L;
+			}
+			s.timestamps[i] = t;
+			accelerations(random, i, s.values[i]);
+		}
+		return s;
+	}
+
+	/**
+	 * Random timestamps, thus delta-of-deltas that need 64 bits, and random
+	 * bits as values, including NaNs with payloads, infinities and negative
+	 * zeros.
+	 */
+	static Series random(Random random, int samples) {
+		Series s = new Series(samples, CHANNELS);
+		for (int i = 0; i < samples; i++) {
+			s.timestamps[i] = random.nextLong();
+			for (int c = 0; c < CHANNELS; c++) {
+				s.values[i][c] = Float.intBitsToFloat(random.nextInt());
+			}
+		}
+		s.timestamps[1] = Long.MAX_VALUE;
+		s.timestamps[2] = Long.MIN_VALUE;
+		s.timestamps[3] = Long.MAX_VALUE;
+		s.values[1] = new float[] { Float.NaN, Float.POSITIVE_INFINITY, -0.0f };
+		s.values[2] = new float[] { Float.intBitsToFloat(0x7fc00001), Float.NEGATIVE_INFINITY, 0.0f };
+		s.values[3] = new float[] { Float.intBitsToFloat(0xffffffff), Float.MIN_VALUE, -Float.MAX_VALUE };
+		return s;
+	}
+
+	private static void accelerations(Random random, int i, float[] values) {
+		double wave = 3.0 * Math.sin(2 * Math.PI * i / 50.0);
+		values[0] = (float) (wave + 0.1 * random.nextGaussian());
+		values[1] = (float) (0.5 * wave + 0.1 * random.nextGaussian());
+		// a still axis repeats its value
+		values[2] = i % 10 == 0 ? (float) (9.81 + 0.01 * random.nextGaussian()) : values[2];
+	}
+
+	/**
+	 * Decodes all the blocks of a series and checks every sample.
+	 */
+	static void assertRoundTrip(final Series s) {
+		final int[] next = new int[] { 0 };
+		for (int b = 0; b < s.blocks.size(); b++) {
+			assertTrue(GorillaCodec.decode(s.blocks.get(b), s.counts.get(b), CHANNELS, Long.MIN_VALUE,
+					Long.MAX_VALUE, new TimeSeriesStore.SampleCallback() {
+						public boolean onSample(long timestamp, float[] values) {
+							int i = next[0]++;
+							assertEquals("Timestamp " + i, s.timestamps[i], timestamp);
+							for (int c = 0; c < CHANNELS; c++) {
+								assertEquals("Value " + c + " of " + i, Float.floatToRawIntBits(s.values[i][c]),
+										Float.floatToRawIntBits(values[c]));
+							}
+							return true;
+						}
+					}));
+		}
+		assertEquals(s.timestamps.length, next[0]);
+	}
+
+	@Test
+	public void regularTimestamps() {
+		Series s = regular(new Random(1), SAMPLES).encode(TimeSeriesStore.DEFAULT_BLOCK_BYTES);
+		assertRoundTrip(s);
+		// 8 bytes of timestamp and 12 of values uncompressed
+		assertTrue("Bytes per sample: " + s.getBytesPerSample(), s.getBytesPerSample() < 10.0);
+	}
+
+	@Test
+	public void jitteredTimestamps() {
+		Series s = jittered(new Random(2), SAMPLES).encode(TimeSeriesStore.DEFAULT_BLOCK_BYTES);
+		assertRoundTrip(s);
+		assertTrue("Bytes per sample: " + s.getBytesPerSample(), s.getBytesPerSample() < 13.0);
+	}
+
+	@Test
+	public void randomTimestampsAndBits() {
+		assertRoundTrip(random(new Random(3), SAMPLES).encode(TimeSeriesStore.DEFAULT_BLOCK_BYTES));
+	}
+
+	@Test
+	public void smallestBlock() {
+		// room for the first sample only
+		Series s = random(new Random(4), 100).encode(4 + 8 + CHANNELS * 6);
+		assertEquals(100, s.blocks.size());
+		assertRoundTrip(s);
+	}
+
+	@Test
+	public void singleChannel() {
+		Random random = new Random(5);
+		Series s = new Series(SAMPLES, 1);
+		for (int i = 0; i < SAMPLES; i++) {
+			s.timestamps[i] = i * PERIOD_NANOS;
+			s.values[i][0] = random.nextInt(4) - 1.5f;
+		}
+		s.encode(TimeSeriesStore.DEFAULT_BLOCK_BYTES);
+		final int[] count = new int[] { 0 };
+		for (int b = 0; b < s.blocks.size(); b++) {
+			GorillaCodec.decode(s.blocks.get(b), s.counts.get(b), 1, Long.MIN_VALUE, Long.MAX_VALUE,
+					new TimeSeriesStore.SampleCallback() {
+						public boolean onSample(long timestamp, float[] values) {
+							count[0]++;
+							return true;
+						}
+					});
+		}
+		assertEquals(SAMPLES, count[0]);
+	}
+
+	@Test
+	public void decodesRange() {
+		final Series s = regular(new Random(6), 1000).encode(64 * 1024);
+		assertEquals(1, s.blocks.size());
+		final long from = s.timestamps[100];
+		final long to = s.timestamps[199] + PERIOD_NANOS / 2;
+		final int[] next = new int[] { 100 };
+		assertTrue(GorillaCodec.decode(s.blocks.get(0), s.counts.get(0), CHANNELS, from, to,
+				new TimeSeriesStore.SampleCallback() {
+					public boolean onSample(long timestamp, float[] values) {
+						assertEquals(s.timestamps[next[0]++], timestamp);
+						return true;
+					}
+				}));
+		assertEquals(200, next[0]);
+	}
+
+	@Test
+	public void callbackStopsDecoding() {
+		Series s = regular(new Random(7), 1000).encode(64 * 1024);
+		final int[] count = new int[] { 0 };
+		assertFalse(GorillaCodec.decode(s.blocks.get(0), s.counts.get(0), CHANNELS, Long.MIN_VALUE,
+				Long.MAX_VALUE, new TimeSeriesStore.SampleCallback() {
+					public boolean onSample(long timestamp, float[] values) {
+						return ++count[0] < 10;
+					}
+				}));
+		assertEquals(10, count[0]);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.most.pipeline.PipelineAccelerometer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Flushes {@link #ROWS} buffered accelerometer rows to the accelerometer table
+ * in one transaction, as {@link DBAdapter} does, and reports rows per second.
+ * The <code>legacy</code> benchmark is the flush before
+ * {@link InsertStatementCache}: each row carries its table and is written with
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)}. The
+ * <code>cached</code> benchmark writes a {@link RowBuffer} with an
+ * {@link InsertStatementCache}. The rows are built, and the table emptied,
+ * before each flush and out of the measurement.
+ *
+ * The database is a WAL file in the temporary directory, written by
+ * sqlite-jdbc through the {@link SQLiteDatabase} of the tests, which must be on
+ * the classpath. Like Android before 4.1, it compiles the statement of each
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} again; on later
+ * versions a per-connection cache of statements keyed by SQL lowers the cost
+ * of the legacy path.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark {
+
+	public static final int ROWS = 100000;
+
+	/** The key that tagged each row with its table before RowBuffer. */
+	private static final String FLD_TABLE = "DBAdapter.TableName.skrtwrd";
+	private static final String TABLE = PipelineAccelerometer.TBL_ACCELEROMETER;
+
+	private File _file;
+	private SQLiteDatabase _db;
+	private InsertStatementCache _inserts;
+	private LinkedBlockingQueue<ContentValues> _legacyRows;
+	private RowBuffer _rows;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_file = File.createTempFile("InsertBenchmark", ".db");
+		_file.delete();
+		_db = SQLiteDatabase.openOrCreateDatabase(_file.getPath(), null);
+		_db.execSQL("PRAGMA journal_mode = WAL");
+		_db.execSQL(String.format("CREATE TABLE %s (%s)", TABLE, PipelineAccelerometer.CREATE_ACCELEROMETER_TABLE));
+		for (String columns : PipelineAccelerometer.INDEX_ACCELEROMETER_TABLE) {
+			_db.execSQL(String.format("CREATE INDEX %s_%s_IDX ON %s (%s)", TABLE, columns, TABLE, columns));
+		}
+		_inserts = new InsertStatementCache();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_inserts.close();
+		_db.close();
+		for (String suffix : new String[] { "", "-wal", "-shm" }) {
+			new File(_file.getPath() + suffix).delete();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void fill() {
+		_db.execSQL("DELETE FROM " + TABLE);
+		_legacyRows = new LinkedBlockingQueue<ContentValues>();
+		_rows = new RowBuffer(Integer.MAX_VALUE);
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < ROWS; i++) {
+			float x = (float) Math.sin(i * 0.01);
+			float y = (float) Math.cos(i * 0.01);
+			float z = 9.81f + x * y;
+			_legacyRows.add(row(timestamp + i * 5, x, y, z, true));
+			_rows.add(TABLE, row(timestamp + i * 5, x, y, z, false));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public int legacy() {
+		int linesCount = 0;
+		_db.beginTransaction();
+		try {
+			for (ContentValues data : _legacyRows) {
+				String tableName = data.getAsString(FLD_TABLE);
+				data.remove(FLD_TABLE);
+				if (_db.insert(tableName, null, data) != -1) {
+					linesCount++;
+				}
+			}
+			_db.setTransactionSuccessful();
+		} finally {
+			_db.endTransaction();
+		}
+		return check(linesCount);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public int cached() {
+		int linesCount = 0;
+		_db.beginTransaction();
+		try {
+			for (String table : _rows.getTables()) {
+				linesCount += _inserts.insert(_db, table, _rows.getRows(table));
+			}
+			_db.setTransactionSuccessful();
+		} finally {
+			_db.endTransaction();
+		}
+		return check(linesCount);
+	}
+
+	/** What PipelineAccelerometer stores for a sample. */
+	private static ContentValues row(long timestamp, float x, float y, float z, boolean tagged) {
+		ContentValues map = new ContentValues();
+		map.put(PipelineAccelerometer.FLD_X, x);
+		map.put(PipelineAccelerometer.FLD_Y, y);
+		map.put(PipelineAccelerometer.FLD_Z, z);
+		map.put(PipelineAccelerometer.FLD_TIMESTAMP, timestamp);
+		if (tagged) {
+			map.put(FLD_TABLE, TABLE);
+		}
+		return map;
+	}
+
+	private static int check(int linesCount) {
+		if (linesCount != ROWS) {
+			throw new IllegalStateException(linesCount + " rows written instead of " + ROWS);
+		}
+		return linesCount;
+	}
+}
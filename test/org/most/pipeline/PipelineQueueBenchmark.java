@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.most.DataBundle;
+import org.most.DataBundlePool;
+import org.most.input.InputBus.Listener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hands bundles from an Input thread over to a pipeline thread with the
+ * <code>LinkedBlockingQueue</code> that {@link PipelineQueue} used to wrap
+ * (see {@link LegacyQueue}) and with the current ring buffer, both with a
+ * capacity of {@link #CAPACITY} and the default settings. The benchmarks
+ * measure:
+ * <ul>
+ * <li><code>*Latency</code>: the time from {@link Listener#onData(DataBundle)}
+ * to the delivery to the pipeline, with one bundle posted every 1/rate seconds
+ * as a sensor does at 200 Hz (SENSOR_DELAY_FASTEST on most phones) and at 5
+ * kHz. At these rates the pipeline thread waits for each bundle, thus the wake
+ * up is most of the latency;</li>
+ * <li><code>*Burst</code>: the throughput, in bundles, of bursts of
+ * {@link #BURST} bundles posted as fast as possible, from the first post to the
+ * delivery of the last bundle.</li>
+ * </ul>
+ * Latencies on a single CPU are dominated by the scheduler of the OS.
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineQueueBenchmark {
+
+	public static final int CAPACITY = 1024;
+	public static final int BURST = 512;
+
+	private DataBundlePool _pool;
+	private RecordingPipeline _legacyPipeline;
+	private RecordingPipeline _pipeline;
+	private LegacyQueue _legacyQueue;
+	private PipelineQueue _queue;
+	private Thread _legacyConsumer;
+	private Thread _consumer;
+	private long _sequence;
+
+	/**
+	 * What {@link PipelineQueue} was before the ring buffer, without the log
+	 * of dropped bundles.
+	 */
+	static class LegacyQueue implements Runnable, Listener {
+
+		private final LinkedBlockingQueue<DataBundle> _queue;
+		private final Pipeline _pipeline;
+
+		LegacyQueue(Pipeline p, int capacity) {
+			_queue = new LinkedBlockingQueue<DataBundle>(capacity);
+			_pipeline = p;
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					_pipeline.dispatch(_queue.take());
+				}
+			} catch (InterruptedException e) {
+				DataBundle d;
+				while ((d = _queue.poll()) != null) {
+					d.release();
+				}
+			}
+		}
+
+		public boolean isActive() {
+			return _pipeline.isActive();
+		}
+
+		public void onData(DataBundle b) {
+			if (!_queue.offer(b)) {
+				b.release();
+			}
+		}
+	}
+
+	/**
+	 * Paces the <code>*Latency</code> benchmarks. The wait is not measured.
+	 */
+	@State(Scope.Thread)
+	public static class Rate {
+
+		@Param({ "200", "5000" })
+		public int hz;
+
+		private long _next;
+
+		@Setup(Level.Invocation)
+		public void pace() {
+			long now = System.nanoTime();
+			long period = 1000000000L / hz;
+			// do not post a burst after a late delivery
+			_next = _next + period < now ? now : _next + period;
+			long wait;
+			while ((wait = _next - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		_pool = new DataBundlePool(DataBundlePool.DEFAULT_MAX_IDLE, 0);
+		_legacyPipeline = new RecordingPipeline(false);
+		_pipeline = new RecordingPipeline(false);
+		_legacyQueue = new LegacyQueue(_legacyPipeline, CAPACITY);
+		_queue = new PipelineQueue(_pipeline, CAPACITY);
+		_legacyConsumer = new Thread(_legacyQueue, "legacy consumer");
+		_consumer = new Thread(_queue, "ring consumer");
+		_legacyConsumer.start();
+		_consumer.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		_legacyConsumer.interrupt();
+		_consumer.interrupt();
+		_legacyConsumer.join();
+		_consumer.join();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long legacyLatency(Rate rate) {
+		return post(_legacyQueue, _legacyPipeline, 1);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long ringLatency(Rate rate) {
+		return post(_queue, _pipeline, 1);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@OperationsPerInvocation(BURST)
+	public long legacyBurst() {
+		return post(_legacyQueue, _legacyPipeline, BURST);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@OperationsPerInvocation(BURST)
+	public long ringBurst() {
+		return post(_queue, _pipeline, BURST);
+	}
+
+	/**
+	 * Posts <code>count</code> bundles and waits for the delivery of the last
+	 * one. {@link #BURST} is smaller than {@link #CAPACITY}, so that no bundle
+	 * is dropped.
+	 */
+	private long post(Listener queue, RecordingPipeline pipeline, int count) {
+		for (int i = 0; i < count; i++) {
+			DataBundle b = _pool.borrowBundle();
+			b.putLong(RecordingPipeline.KEY_SEQUENCE, ++_sequence);
+			queue.onData(b);
+		}
+		while (pipeline.lastDelivered != _sequence) {
+			Thread.yield();
+		}
+		return _sequence;
+	}
+}
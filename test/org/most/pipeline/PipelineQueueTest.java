@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.most.DataBundle;
+import org.most.DataBundlePool;
+import org.most.pipeline.PipelineQueue.OverflowPolicy;
+import org.most.pipeline.PipelineQueue.WaitStrategy;
+
+/**
+ * Tests {@link PipelineQueue}: order across many wrap-arounds of the ring,
+ * with one and with several producers, each {@link OverflowPolicy}, and the
+ * release of queued bundles when a queue is detached from its
+ * {@link PipelineScheduler}. No bundle may leak: every test ends with all the
+ * bundles returned to the pool.
+ *
+ */
+public class PipelineQueueTest {
+
+	private static final long TIMEOUT_MILLIS = 10000L;
+
+	private DataBundlePool _pool;
+	private RecordingPipeline _pipeline;
+	private Thread _consumer;
+
+	@Before
+	public void setUp() {
+		_pool = new DataBundlePool(DataBundlePool.DEFAULT_MAX_IDLE, 0);
+		_pipeline = new RecordingPipeline();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (_consumer != null) {
+			_consumer.interrupt();
+			_consumer.join(TIMEOUT_MILLIS);
+		}
+		assertEquals(0, _pool.getStatistics().getOutstanding());
+	}
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(8, new PipelineQueue(_pipeline, 5).getCapacity());
+		assertEquals(8, new PipelineQueue(_pipeline, 8).getCapacity());
+		assertEquals(1, new PipelineQueue(_pipeline, 1).getCapacity());
+	}
+
+	@Test
+	public void wrapAroundKeepsOrder() throws InterruptedException {
+		PipelineQueue queue = new PipelineQueue(_pipeline, 8);
+		queue.configure(false, WaitStrategy.BLOCKING);
+		queue.setOverflowPolicy(OverflowPolicy.BLOCK, 1, (int) TIMEOUT_MILLIS);
+		startConsumer(queue);
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			queue.onData(bundle(i));
+		}
+		awaitDelivered(count);
+		assertEquals(0, queue.getDroppedCount());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, _pipeline.delivered.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void multipleProducersKeepTheirOrder() throws InterruptedException {
+		final PipelineQueue queue = new PipelineQueue(_pipeline, 16);
+		queue.configure(true, WaitStrategy.PARK_BACKOFF);
+		queue.setOverflowPolicy(OverflowPolicy.BLOCK, 1, (int) TIMEOUT_MILLIS);
+		startConsumer(queue);
+		final int producers = 4;
+		final int perProducer = 25000;
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final long base = p * 1000000L;
+			threads[p] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < perProducer; i++) {
+						queue.onData(bundle(base + i));
+					}
+				}
+			});
+			threads[p].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		awaitDelivered(producers * perProducer);
+		assertEquals(0, queue.getDroppedCount());
+		long[] next = new long[producers];
+		for (long sequence : new ArrayList<Long>(_pipeline.delivered)) {
+			int producer = (int) (sequence / 1000000L);
+			assertEquals(next[producer]++, sequence % 1000000L);
+		}
+	}
+
+	@Test
+	public void dropNewestDiscardsIncoming() throws InterruptedException {
+		PipelineQueue queue = fill(OverflowPolicy.DROP_NEWEST, 4, 6);
+		assertEquals(2, queue.getDroppedCount());
+		assertDelivered(queue, 0, 1, 2, 3);
+	}
+
+	@Test
+	public void dropOldestDiscardsQueued() throws InterruptedException {
+		PipelineQueue queue = fill(OverflowPolicy.DROP_OLDEST, 4, 6);
+		assertEquals(2, queue.getDroppedCount());
+		assertDelivered(queue, 2, 3, 4, 5);
+	}
+
+	@Test
+	public void keepLatestCoalesces() throws InterruptedException {
+		PipelineQueue queue = fill(OverflowPolicy.KEEP_LATEST, 4, 6);
+		assertEquals(0, queue.getDroppedCount());
+		assertEquals(5, queue.getCoalescedCount());
+		assertDelivered(queue, 5);
+	}
+
+	@Test
+	public void decimateAcceptsOneInFactorWhenHalfFull() throws InterruptedException {
+		PipelineQueue queue = fill(OverflowPolicy.DECIMATE, 8, 20);
+		assertEquals(12, queue.getDroppedCount());
+		assertDelivered(queue, 0, 1, 2, 3, 7, 11, 15, 19);
+	}
+
+	@Test
+	public void blockWaitsThenDrops() throws InterruptedException {
+		PipelineQueue queue = new PipelineQueue(_pipeline, 2);
+		queue.configure(false, WaitStrategy.BLOCKING);
+		queue.setOverflowPolicy(OverflowPolicy.BLOCK, 1, 20);
+		queue.onData(bundle(0));
+		queue.onData(bundle(1));
+		long start = System.nanoTime();
+		queue.onData(bundle(2));
+		assertTrue(System.nanoTime() - start >= 20 * 1000000L);
+		assertEquals(1, queue.getDroppedCount());
+		assertDelivered(queue, 0, 1);
+	}
+
+	@Test
+	public void inactivePipelineReleases() {
+		PipelineQueue queue = new PipelineQueue(_pipeline, 4);
+		_pipeline.active = false;
+		queue.onData(bundle(0));
+		assertEquals(0, queue.getSize());
+	}
+
+	@Test
+	public void schedulerDeliversInOrder() throws InterruptedException {
+		PipelineScheduler scheduler = new PipelineScheduler(2);
+		try {
+			PipelineQueue queue = new PipelineQueue(_pipeline, 64);
+			queue.setOverflowPolicy(OverflowPolicy.BLOCK, 1, (int) TIMEOUT_MILLIS);
+			queue.attach(scheduler, 4, false);
+			int count = 10000;
+			for (int i = 0; i < count; i++) {
+				queue.onData(bundle(i));
+			}
+			awaitDelivered(count);
+			for (int i = 0; i < count; i++) {
+				assertEquals(i, _pipeline.delivered.get(i).longValue());
+			}
+			queue.detach();
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void schedulerDeliversBatches() throws InterruptedException {
+		PipelineScheduler scheduler = new PipelineScheduler(1);
+		try {
+			PipelineQueue queue = new PipelineQueue(_pipeline, 64);
+			queue.setOverflowPolicy(OverflowPolicy.BLOCK, 1, (int) TIMEOUT_MILLIS);
+			queue.setBatching(10, 0);
+			queue.attach(scheduler, 32, false);
+			int count = 1000;
+			for (int i = 0; i < count; i++) {
+				queue.onData(bundle(i));
+			}
+			awaitDelivered(count);
+			for (int size : new ArrayList<Integer>(_pipeline.batchSizes)) {
+				assertTrue(size >= 1 && size <= 10);
+			}
+			queue.detach();
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void schedulerSurvivesPipelineFailure() throws InterruptedException {
+		PipelineScheduler scheduler = new PipelineScheduler(1);
+		try {
+			PipelineQueue queue = new PipelineQueue(_pipeline, 64);
+			queue.attach(scheduler, 32, false);
+			_pipeline.failOn = 3;
+			for (int i = 0; i < 10; i++) {
+				queue.onData(bundle(i));
+			}
+			awaitDelivered(9);
+			assertEquals(Arrays.asList(0L, 1L, 2L, 4L, 5L, 6L, 7L, 8L, 9L), new ArrayList<Long>(_pipeline.delivered));
+			queue.detach();
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void detachReleasesQueued() throws InterruptedException {
+		// a scheduler that runs its tasks only when asked to
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		PipelineScheduler scheduler = new PipelineScheduler(1) {
+			@Override
+			void execute(Runnable task) {
+				synchronized (tasks) {
+					tasks.add(task);
+				}
+			}
+		};
+		try {
+			final PipelineQueue queue = new PipelineQueue(_pipeline, 8);
+			queue.attach(scheduler, 4, false);
+			for (int i = 0; i < 5; i++) {
+				queue.onData(bundle(i));
+			}
+			assertEquals(5, queue.getSize());
+			assertEquals(5, _pool.getStatistics().getOutstanding());
+
+			// detach waits for the scheduled drain, which must then release
+			Thread detaching = new Thread(new Runnable() {
+				public void run() {
+					queue.detach();
+				}
+			});
+			detaching.start();
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (detaching.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			synchronized (tasks) {
+				assertEquals(1, tasks.size());
+				tasks.remove(0).run();
+			}
+			detaching.join(TIMEOUT_MILLIS);
+			assertEquals(Thread.State.TERMINATED, detaching.getState());
+			assertEquals(0, queue.getSize());
+			assertTrue(_pipeline.delivered.isEmpty());
+			synchronized (tasks) {
+				assertTrue(tasks.isEmpty());
+			}
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Posts bundles to a queue with no consumer.
+	 */
+	private PipelineQueue fill(OverflowPolicy policy, int capacity, int count) {
+		PipelineQueue queue = new PipelineQueue(_pipeline, capacity);
+		queue.configure(false, WaitStrategy.BLOCKING);
+		queue.setOverflowPolicy(policy, 4, 0);
+		for (int i = 0; i < count; i++) {
+			queue.onData(bundle(i));
+		}
+		return queue;
+	}
+
+	/**
+	 * Starts the consumer of a queue and checks what it delivers.
+	 */
+	private void assertDelivered(PipelineQueue queue, long... expected) throws InterruptedException {
+		startConsumer(queue);
+		awaitDelivered(expected.length);
+		List<Long> delivered = new ArrayList<Long>(_pipeline.delivered);
+		long[] actual = new long[delivered.size()];
+		for (int i = 0; i < actual.length; i++) {
+			actual[i] = delivered.get(i);
+		}
+		assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+
+	private void startConsumer(PipelineQueue queue) {
+		_consumer = new Thread(queue, "PipelineQueueTest consumer");
+		_consumer.start();
+	}
+
+	private void awaitDelivered(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (_pipeline.delivered.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(count, _pipeline.delivered.size());
+	}
+
+	private DataBundle bundle(long sequence) {
+		DataBundle b = _pool.borrowBundle();
+		b.putLong(RecordingPipeline.KEY_SEQUENCE, sequence);
+		return b;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.most.DataBundle;
+import org.most.input.Input;
+
+/**
+ * A pipeline that records the sequence numbers of the bundles delivered by its
+ * {@link PipelineQueue}, for the tests and the benchmarks of the queue. The
+ * benchmarks only read {@link #lastDelivered}. It is built with the
+ * constructor of {@link Pipeline} that needs no
+ * {@link org.most.MoSTApplication}, thus it is never activated: the tests
+ * drive their own queues and set {@link #active}.
+ *
+ */
+class RecordingPipeline extends Pipeline {
+
+	static final String KEY_SEQUENCE = "RecordingPipeline.Sequence";
+
+	volatile boolean active;
+	volatile long lastDelivered = -1L;
+	/** The sequence number on which {@link #onData(DataBundle)} throws. */
+	volatile long failOn = -1L;
+	final List<Long> delivered;
+	final List<Integer> batchSizes;
+
+	RecordingPipeline() {
+		this(true);
+	}
+
+	/**
+	 * @param record
+	 *            <code>false</code> to keep only {@link #lastDelivered}.
+	 */
+	RecordingPipeline(boolean record) {
+		super(new PipelineBus.SinglePipelineBus(), 1);
+		active = true;
+		if (record) {
+			delivered = Collections.synchronizedList(new ArrayList<Long>());
+			batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		} else {
+			delivered = null;
+			batchSizes = null;
+		}
+	}
+
+	@Override
+	public Type getType() {
+		return Type.TEST;
+	}
+
+	@Override
+	public Set<Input.Type> getInputs() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
+	public void onData(DataBundle b) {
+		long sequence = b.getLong(KEY_SEQUENCE);
+		b.release();
+		if (sequence == failOn) {
+			throw new IllegalStateException("Failing on " + sequence);
+		}
+		if (delivered != null) {
+			delivered.add(sequence);
+		}
+		lastDelivered = sequence;
+	}
+
+	@Override
+	protected void onDataBatch(List<DataBundle> batch) {
+		if (batchSizes != null) {
+			batchSizes.add(batch.size());
+		}
+		super.onDataBatch(batch);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the text format of {@link DecisionTreeModel}, the errors it reports on
+ * invalid models, and the majority vote of several trees.
+ *
+ */
+public class DecisionTreeModelTest {
+
+	/**
+	 * One tree: <code>f0 &lt;= 0.5 ? a : (f2 &lt;= 2 ? b : c)</code>.
+	 */
+	private static final String SINGLE_TREE = lines(
+			"# a comment",
+			"",
+			"classes 3 a b c",
+			"  tree 5  ",
+			"0 0.5 1 2 -1",
+			"-1 0 0 0 0",
+			"# inner comment",
+			"2 2.0e0 3 4 -1",
+			"-1 0 0 0 1",
+			"-1 0 0 0 2");
+
+	private static DecisionTreeModel load(String model) throws IOException {
+		return DecisionTreeModel.load(new ByteArrayInputStream(model.getBytes("UTF-8")));
+	}
+
+	private static String lines(String... lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/** A tree with a single leaf, voting for <code>c</code>. */
+	private static String leaf(int c) {
+		return lines("tree 1", "-1 0 0 0 " + c);
+	}
+
+	/** A stump voting for <code>left</code> if f0 &lt;= 0, else <code>right</code>. */
+	private static String stump(int left, int right) {
+		return lines("tree 3", "0 0 1 2 -1", "-1 0 0 0 " + left, "-1 0 0 0 " + right);
+	}
+
+	private static void assertInvalid(String model, String message) {
+		try {
+			load(model);
+			fail("Loaded an invalid model: " + message);
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+		}
+	}
+
+	@Test
+	public void loadsSingleTree() throws IOException {
+		DecisionTreeModel model = load(SINGLE_TREE);
+		assertEquals(3, model.getClassCount());
+		assertEquals("a", model.getClassName(0));
+		assertEquals("c", model.getClassName(2));
+		assertEquals(1, model.getTreeCount());
+		assertEquals(3, model.getFeatureCount());
+
+		assertEquals(0, model.classify(new double[] { 0.5, 99, 99 }));
+		assertEquals(0, model.classify(new double[] { -1, 99, 99 }));
+		assertEquals(1, model.classify(new double[] { 0.6, 99, 2 }));
+		assertEquals(2, model.classify(new double[] { 0.6, 99, 2.0001 }));
+	}
+
+	@Test
+	public void loadsLikeCreate() throws IOException {
+		DecisionTreeModel created = DecisionTreeModel.create(new String[] { "a", "b", "c" }, new int[] { 0, -1, 2,
+				-1, -1 }, new double[] { 0.5, 0, 2, 0, 0 }, new int[] { 1, 0, 3, 0, 0 },
+				new int[] { 2, 0, 4, 0, 0 }, new int[] { -1, 0, -1, 1, 2 });
+		DecisionTreeModel loaded = load(SINGLE_TREE);
+		double[][] vectors = { { 0, 0, 0 }, { 1, 0, 0 }, { 1, 0, 3 }, { 0.5, 0, 2 } };
+		for (double[] v : vectors) {
+			assertEquals(created.classify(v), loaded.classify(v));
+		}
+	}
+
+	@Test
+	public void rejectsInvalidModels() {
+		assertInvalid("", "Incomplete model");
+		assertInvalid("classes 2 a b\n", "Incomplete model");
+		assertInvalid("classes 2 a b\n" + lines("tree 2", "-1 0 0 0 0"), "Incomplete model");
+		assertInvalid("tree 1\n-1 0 0 0 0\n", "Unexpected node at line 2");
+		assertInvalid("classes 2 a b\nclasses 2 a b\n", "Invalid classes at line 2");
+		assertInvalid("classes 3 a b\n", "Invalid classes at line 1");
+		assertInvalid("classes 0\n", "Invalid classes at line 1");
+		assertInvalid("classes 2 a b\ntree 0\n", "Empty tree at line 2");
+		assertInvalid("classes 2 a b\ntree 2\n-1 0 0 0 0\ntree 1\n", "Missing nodes before line 4");
+		assertInvalid("classes 2 a b\n" + leaf(0) + "-1 0 0 0 0\n", "Unexpected node at line 4");
+		assertInvalid("classes 2 a b\ntree 1\n-1 0 0 0\n", "Unexpected node at line 3");
+		assertInvalid("classes 2 a b\ntree 1\n-1 0 0 0 2\n", "Invalid node at line 3");
+		assertInvalid("classes 2 a b\ntree 1\n-1 0 0 0 -1\n", "Invalid node at line 3");
+		// children before their parent, or out of the tree
+		assertInvalid("classes 2 a b\ntree 2\n0 0 0 1 -1\n", "Invalid node at line 3");
+		assertInvalid("classes 2 a b\ntree 2\n0 0 1 2 -1\n", "Invalid node at line 3");
+		assertInvalid("classes 2 a b\ntree x\n", "Invalid number at line 2");
+		assertInvalid("classes 2 a b\ntree 1\n-1 zero 0 0 0\n", "Invalid number at line 3");
+		assertInvalid("classes 2 a b\ntree\n", "Missing value at line 2");
+	}
+
+	@Test
+	public void votesByMajority() throws IOException {
+		DecisionTreeModel model = load("classes 3 a b c\n" + stump(0, 2) + stump(2, 2) + stump(1, 0));
+		assertEquals(3, model.getTreeCount());
+		int[] votes = new int[3];
+		// one vote each: the lowest class
+		assertEquals(0, model.vote(new double[] { -1 }, votes));
+		assertArrayEquals(new int[] { 1, 1, 1 }, votes);
+		assertEquals(2, model.vote(new double[] { 1 }, votes));
+		assertArrayEquals(new int[] { 1, 0, 2 }, votes);
+		assertEquals(2, model.classify(new double[] { 1 }));
+	}
+
+	@Test
+	public void tiesGoToLowestClass() throws IOException {
+		DecisionTreeModel model = load("classes 3 a b c\n" + leaf(2) + leaf(1) + stump(2, 1) + stump(1, 2));
+		int[] votes = new int[3];
+		assertEquals(1, model.vote(new double[] { 0 }, votes));
+		assertArrayEquals(new int[] { 0, 2, 2 }, votes);
+		assertEquals(1, model.classify(new double[] { 0 }));
+
+		model = load("classes 3 a b c\n" + leaf(2) + leaf(0));
+		assertEquals(0, model.classify(new double[0]));
+	}
+
+	@Test
+	public void voteResetsCounts() throws IOException {
+		DecisionTreeModel model = load("classes 2 a b\n" + leaf(1) + leaf(1));
+		int[] votes = { 7, 7, 7 };
+		assertEquals(1, model.vote(new double[0], votes));
+		assertArrayEquals(new int[] { 0, 2, 7 }, votes);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Classifies a window of walking samples the old way ({@link Features} over
+ * boxed lists, then {@link WekaClassifier#classify(Object[])}) and the new way
+ * ({@link FeatureExtractor} over the primitive arrays, then
+ * {@link WekaClassifier#classify(double[])}). The legacy benchmark includes
+ * boxing the samples in lists, as the pipelines used to do.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureExtractorBenchmark {
+
+	@Param({ "100", "400" })
+	public int length;
+
+	private float[] _x;
+	private float[] _y;
+	private float[] _z;
+	private double[] _features;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1);
+		_x = new float[length];
+		_y = new float[length];
+		_z = new float[length];
+		for (int i = 0; i < length; i++) {
+			double wave = 3.0 * Math.sin(2 * Math.PI * 2.0 * i / 50.0);
+			_x[i] = (float) (wave + random.nextGaussian());
+			_y[i] = (float) (0.5 * wave + random.nextGaussian());
+			_z[i] = (float) (9.81 - wave + random.nextGaussian());
+		}
+		_features = new double[FeatureExtractor.FEATURE_COUNT];
+	}
+
+	@Benchmark
+	public double legacy() throws Exception {
+		Features features = new Features();
+		features.calcolaX(toList(_x));
+		features.calcolaY(toList(_y));
+		features.calcolaZ(toList(_z));
+		return WekaClassifier.classify(features.getFeatures());
+	}
+
+	@Benchmark
+	public double extractor() {
+		FeatureExtractor.extract(_x, _y, _z, 0, length, _features);
+		return WekaClassifier.classify(_features);
+	}
+
+	private static ArrayList<Float> toList(float[] values) {
+		ArrayList<Float> list = new ArrayList<Float>(values.length);
+		for (float v : values) {
+			list.add(v);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link FeatureExtractor} and {@link WekaClassifier#classify(double[])}
+ * against the original {@link Features} and
+ * {@link WekaClassifier#classify(Object[])} on random windows that look like
+ * the four activities of the classifier.
+ *
+ */
+public class FeatureExtractorTest {
+
+	private static final int WINDOWS = 2000;
+	private static final int MAX_LENGTH = 400;
+
+	/**
+	 * {@link Features} sums in single precision, thus its mean, deviation and
+	 * RMS drift from the exact values by a few float ulps per sample.
+	 */
+	private static final double RELATIVE_TOLERANCE = 1e-4;
+	private static final double ABSOLUTE_TOLERANCE = 1e-4;
+
+	/**
+	 * A window of three-axis samples.
+	 */
+	static class Window {
+		final float[] x;
+		final float[] y;
+		final float[] z;
+		final int offset;
+		final int length;
+
+		Window(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+			x = new float[offset + length];
+			y = new float[offset + length];
+			z = new float[offset + length];
+		}
+	}
+
+	/**
+	 * Generates a window: the device lying still, in a pocket, walking or
+	 * running, depending on <code>activity</code>. Windows have a random
+	 * length and offset.
+	 */
+	static Window randomWindow(Random random, int activity) {
+		int length = 1 + random.nextInt(MAX_LENGTH);
+		Window w = new Window(random.nextInt(16), length);
+		double noise = new double[] { 0.01, 0.2, 1.0, 2.0 }[activity];
+		double amplitude = new double[] { 0.0, 0.1, 3.0, 10.0 }[activity];
+		double hz = 1.0 + random.nextDouble() * 2.0;
+		double phase = random.nextDouble() * 2 * Math.PI;
+		double gx = random.nextGaussian() * 3.0;
+		double gy = random.nextGaussian() * 3.0;
+		double gz = Math.sqrt(Math.max(0.0, 9.81 * 9.81 - gx * gx - gy * gy));
+		for (int i = 0; i < length; i++) {
+			double wave = amplitude * Math.sin(phase + 2 * Math.PI * hz * i / 50.0);
+			w.x[w.offset + i] = (float) (gx + wave + noise * random.nextGaussian());
+			w.y[w.offset + i] = (float) (gy + 0.5 * wave + noise * random.nextGaussian());
+			w.z[w.offset + i] = (float) (gz - wave + noise * random.nextGaussian());
+		}
+		return w;
+	}
+
+	static Object[] legacyFeatures(Window w) {
+		Features features = new Features();
+		features.calcolaX(toList(w.x, w.offset, w.length));
+		features.calcolaY(toList(w.y, w.offset, w.length));
+		features.calcolaZ(toList(w.z, w.offset, w.length));
+		return features.getFeatures();
+	}
+
+	static ArrayList<Float> toList(float[] values, int offset, int length) {
+		ArrayList<Float> list = new ArrayList<Float>(length);
+		for (int i = 0; i < length; i++) {
+			list.add(values[offset + i]);
+		}
+		return list;
+	}
+
+	@Test
+	public void matchesFeatures() {
+		Random random = new Random(42);
+		double[] features = new double[FeatureExtractor.FEATURE_COUNT];
+		for (int n = 0; n < WINDOWS; n++) {
+			Window w = randomWindow(random, n % 4);
+			Object[] expected = legacyFeatures(w);
+			FeatureExtractor.extract(w.x, w.y, w.z, w.offset, w.length, features);
+			for (int f = 0; f < FeatureExtractor.FEATURE_COUNT; f++) {
+				double e = ((Double) expected[f]).doubleValue();
+				if (isExact(f)) {
+					assertEquals("Feature " + f + " of window " + n, (float) e, (float) features[f], 0.0f);
+				} else {
+					assertEquals("Feature " + f + " of window " + n, e, features[f], ABSOLUTE_TOLERANCE
+							+ RELATIVE_TOLERANCE * Math.abs(e));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maximum, minimum and zero crossings do not depend on the precision of
+	 * the sums. {@link Features} converts its floats to doubles through their
+	 * decimal string, thus they are compared as floats.
+	 */
+	private static boolean isExact(int feature) {
+		return feature >= FeatureExtractor.FEATURE_MAX && feature < FeatureExtractor.FEATURE_DEVIATION
+				|| feature >= FeatureExtractor.FEATURE_CROSSINGS && feature < FeatureExtractor.FEATURE_RMS;
+	}
+
+	@Test
+	public void matchesFeaturesOnConstantWindow() {
+		Window w = new Window(0, 100);
+		for (int i = 0; i < w.length; i++) {
+			w.x[i] = -1.5f;
+			w.y[i] = 0.0f;
+			w.z[i] = 9.81f;
+		}
+		Object[] expected = legacyFeatures(w);
+		double[] features = new double[FeatureExtractor.FEATURE_COUNT];
+		FeatureExtractor.extract(w.x, w.y, w.z, w.offset, w.length, features);
+		for (int f = 0; f < FeatureExtractor.FEATURE_COUNT; f++) {
+			assertEquals("Feature " + f, ((Double) expected[f]).doubleValue(), features[f], ABSOLUTE_TOLERANCE);
+		}
+	}
+
+	@Test
+	public void classifiersAgreeOnSameFeatures() throws Exception {
+		Random random = new Random(7);
+		double[] features = new double[FeatureExtractor.FEATURE_COUNT];
+		for (int n = 0; n < WINDOWS; n++) {
+			Object[] boxed = legacyFeatures(randomWindow(random, n % 4));
+			for (int f = 0; f < features.length; f++) {
+				features[f] = ((Double) boxed[f]).doubleValue();
+			}
+			assertEquals("Window " + n, WekaClassifier.classify(boxed), WekaClassifier.classify(features), 0.0);
+		}
+	}
+
+	@Test
+	public void classifiersAgreeOnRandomWindows() throws Exception {
+		Random random = new Random(13);
+		double[] features = new double[FeatureExtractor.FEATURE_COUNT];
+		int[] classes = new int[WekaClassifier.MODEL.getClassCount()];
+		for (int n = 0; n < WINDOWS; n++) {
+			Window w = randomWindow(random, n % 4);
+			FeatureExtractor.extract(w.x, w.y, w.z, w.offset, w.length, features);
+			double expected = WekaClassifier.classify(legacyFeatures(w));
+			assertEquals("Window " + n, expected, WekaClassifier.classify(features), 0.0);
+			classes[(int) expected]++;
+		}
+		for (int c = 0; c < classes.length; c++) {
+			assertTrue("No window of class " + WekaClassifier.MODEL.getClassName(c), classes[c] > 0);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 University of Bologna
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.most.weka;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.most.weka.FeatureExtractorTest.Window;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Classifies feature vectors, already computed, with the generated
+ * {@link WekaClassifier#classify(Object[])} over boxed features and with
+ * {@link WekaClassifier#classify(double[])}, the {@link DecisionTreeModel} of
+ * the same tree. The vectors come from {@link #VECTORS} random windows of the
+ * four activities, so that every path of the tree is taken and branches are
+ * not predictable.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WekaClassifierBenchmark {
+
+	/** A power of two. */
+	public static final int VECTORS = 1024;
+
+	private Object[][] _boxed;
+	private double[][] _features;
+	private int _next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1);
+		_boxed = new Object[VECTORS][FeatureExtractor.FEATURE_COUNT];
+		_features = new double[VECTORS][FeatureExtractor.FEATURE_COUNT];
+		for (int n = 0; n < VECTORS; n++) {
+			Window w = FeatureExtractorTest.randomWindow(random, random.nextInt(4));
+			FeatureExtractor.extract(w.x, w.y, w.z, w.offset, w.length, _features[n]);
+			for (int f = 0; f < FeatureExtractor.FEATURE_COUNT; f++) {
+				_boxed[n][f] = Double.valueOf(_features[n][f]);
+			}
+		}
+	}
+
+	@Benchmark
+	public double legacy() throws Exception {
+		return WekaClassifier.classify(_boxed[_next++ & (VECTORS - 1)]);
+	}
+
+	@Benchmark
+	public double model() {
+		return WekaClassifier.classify(_features[_next++ & (VECTORS - 1)]);
+	}
+}